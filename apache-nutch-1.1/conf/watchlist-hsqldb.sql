@@ -0,0 +1,72 @@
+-- The watchlist tables of the embedded HSQLDB store, the same as
+-- script/initdb.sql. CACHED tables keep their rows in the .data file and
+-- only the recently used ones in memory. Run when the store is opened for
+-- the first time, see WatchListStore.
+
+-- -----------------------------------------------------
+-- Table source
+-- -----------------------------------------------------
+CREATE CACHED TABLE source (
+  id BIGINT NOT NULL PRIMARY KEY,
+  name VARCHAR(45),
+  baseurl VARCHAR(100),
+  description LONGVARCHAR,
+  updatetime TIMESTAMP
+);
+CREATE UNIQUE INDEX source_name ON source (name);
+CREATE INDEX source_baseurl ON source (baseurl);
+
+-- -----------------------------------------------------
+-- Table product
+-- -----------------------------------------------------
+CREATE CACHED TABLE product (
+  id BIGINT NOT NULL PRIMARY KEY,
+  source_id BIGINT NOT NULL,
+  external_id BIGINT NOT NULL,
+  primary_catogory BIGINT,
+  secondary_catogory BIGINT,
+  product_title VARCHAR(150),
+  imgURL VARCHAR(250),
+  latest_price FLOAT,
+  description LONGVARCHAR,
+  update_date TIMESTAMP,
+  meta_info LONGVARCHAR,
+  color VARCHAR(50),
+  size VARCHAR(50),
+  CONSTRAINT product_source FOREIGN KEY (source_id) REFERENCES source (id),
+  CONSTRAINT product_source_external UNIQUE (source_id, external_id)
+);
+CREATE INDEX product_title ON product (product_title);
+CREATE INDEX product_color ON product (color);
+CREATE INDEX product_external_id ON product (external_id);
+
+-- -----------------------------------------------------
+-- Table record
+-- -----------------------------------------------------
+CREATE CACHED TABLE record (
+  id BIGINT NOT NULL PRIMARY KEY,
+  source_id BIGINT NOT NULL,
+  product_id BIGINT NOT NULL,
+  product_title VARCHAR(150),
+  price FLOAT,
+  update_date TIMESTAMP,
+  CONSTRAINT record_source FOREIGN KEY (source_id) REFERENCES source (id),
+  CONSTRAINT record_product FOREIGN KEY (product_id) REFERENCES product (id)
+);
+CREATE INDEX record_product_title ON record (product_title);
+
+-- -----------------------------------------------------
+-- Table object
+-- -----------------------------------------------------
+CREATE CACHED TABLE object (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY,
+  orig_table VARCHAR(50)
+);
+
+-- -----------------------------------------------------
+-- Table id_sequence
+-- -----------------------------------------------------
+CREATE CACHED TABLE id_sequence (
+  name VARCHAR(50) NOT NULL PRIMARY KEY,
+  next_id BIGINT NOT NULL
+);
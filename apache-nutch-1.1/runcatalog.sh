@@ -0,0 +1,77 @@
+# runcatalog script to refresh the product catalog of the watched stores.
+# Usage: runcatalog.sh [rounds]
+#        Crawls the listing pages of the stores, learns which of them link
+#        to product pages, then fetches the product pages found. Every
+#        run starts from the crawldb; the rounds after the first fetch
+#        the pages the listing pages of the round before link to. The
+#        products found in all rounds are fetched once at the end.
+
+rounds=${1:-3}
+threads=5
+
+# Arguments for rm
+RMARGS="-rf"
+
+if [ -z "$NUTCH_HOME" ]
+then
+  NUTCH_HOME=.
+  echo runcatalog: $0 could not find environment variable NUTCH_HOME
+  echo runcatalog: NUTCH_HOME=$NUTCH_HOME has been set by the script
+else
+  echo runcatalog: $0 found environment variable NUTCH_HOME=$NUTCH_HOME
+fi
+
+steps=3
+echo "----- Inject (Step 1 of $steps) -----"
+$NUTCH_HOME/bin/nutch inject crawl/crawldb urls
+
+echo "----- Fetch listing pages, Discover (Step 2 of $steps) -----"
+rm $RMARGS crawl/discovered
+for((i=0; i < $rounds; i++))
+do
+  echo "--- Beginning listing round `expr $i + 1` of $rounds ---"
+  if [ -d crawl/discovered/round$((i-1))/listings ]
+  then
+    # the pages the listing pages of the last round link to
+    $NUTCH_HOME/bin/nutch freegen crawl/discovered/round$((i-1))/listings crawl/segments
+  else
+    $NUTCH_HOME/bin/nutch generate crawl/crawldb crawl/segments
+  fi
+  if [ $? -ne 0 ]
+  then
+    echo "runcatalog: Stopping at round `expr $i + 1`. No more URLs to fetch."
+    break
+  fi
+  segment=`ls -d crawl/segments/* | tail -1`
+
+  $NUTCH_HOME/bin/nutch fetch $segment -threads $threads
+  if [ $? -ne 0 ]
+  then
+    echo "runcatalog: fetch $segment failed."
+    echo "runcatalog: Deleting segment $segment."
+    rm $RMARGS $segment
+    continue
+  fi
+
+  $NUTCH_HOME/bin/nutch updatedb crawl/crawldb $segment
+  $NUTCH_HOME/bin/nutch discover crawl/discoverydb crawl/discovered/round$i $segment
+done
+
+echo "----- Fetch product pages (Step 3 of $steps) -----"
+# the products of all rounds, each URL once
+products=crawl/discovered/products
+mkdir -p $products
+cat crawl/discovered/round*/products/part-* | sort -k1,1 -u > $products/urls
+if [ -s $products/urls ]
+then
+  $NUTCH_HOME/bin/nutch inject crawl/crawldb $products
+  $NUTCH_HOME/bin/nutch freegen $products crawl/segments
+  segment=`ls -d crawl/segments/* | tail -1`
+  $NUTCH_HOME/bin/nutch fetch $segment -threads $threads
+  $NUTCH_HOME/bin/nutch updatedb crawl/crawldb $segment
+else
+  echo "runcatalog: No product pages found."
+fi
+
+echo "runcatalog: FINISHED: Catalog refreshed!"
+echo ""
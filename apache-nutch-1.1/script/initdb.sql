@@ -15,7 +15,7 @@ CREATE  TABLE IF NOT EXISTS `watchlist`.`source` (
   `description` TEXT NULL ,
   `updatetime` DATETIME NULL ,
   PRIMARY KEY (`id`) ,
-  INDEX `name` (`name` ASC) ,
+  UNIQUE INDEX `name` (`name` ASC) ,
   INDEX `baseurl` (`baseurl` ASC) )
 ENGINE = InnoDB
 COMMENT = 'The Table for Brands';
@@ -43,6 +43,7 @@ CREATE  TABLE IF NOT EXISTS `watchlist`.`product` (
   INDEX `product_title` (`product_title` ASC) ,
   INDEX `color` (`color` ASC) ,
   INDEX `external_id` (`external_id` ASC) ,
+  UNIQUE INDEX `product_source_external` (`source_id` ASC, `external_id` ASC) ,
   CONSTRAINT `product_source`
     FOREIGN KEY (`source_id` )
     REFERENCES `watchlist`.`source` (`id` )
@@ -89,6 +90,16 @@ CREATE  TABLE IF NOT EXISTS `watchlist`.`object` (
 ENGINE = InnoDB;
 
 
+-- -----------------------------------------------------
+-- Table `watchlist`.`id_sequence`
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `watchlist`.`id_sequence` (
+  `name` VARCHAR(50) NOT NULL ,
+  `next_id` BIGINT NOT NULL ,
+  PRIMARY KEY (`name`) )
+ENGINE = InnoDB
+COMMENT = 'ID blocks leased by BlockIdGenerator';
+
 
 SET SQL_MODE=@OLD_SQL_MODE;
 SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;
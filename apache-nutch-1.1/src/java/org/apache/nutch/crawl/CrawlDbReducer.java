@@ -214,6 +214,12 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
           }
         }
       }
+      // the schedule may look at the metadata of this parse
+      if (metaFromParse != null) {
+        for (Entry<Writable, Writable> e : metaFromParse.entrySet()) {
+          result.getMetaData().put(e.getKey(), e.getValue());
+        }
+      }
       // set the schedule
       result = schedule.setFetchSchedule((Text)key, result, prevFetchTime,
           prevModifiedTime, fetch.getFetchTime(), fetch.getModifiedTime(), modified);
@@ -238,11 +244,6 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
           else result.setStatus(CrawlDatum.STATUS_DB_UNFETCHED);
         }
         result.setSignature(signature);
-        if (metaFromParse != null) {
-            for (Entry<Writable, Writable> e : metaFromParse.entrySet()) {
-              result.getMetaData().put(e.getKey(), e.getValue());
-            }
-          }
       }
       // if fetchInterval is larger than the system-wide maximum, trigger
       // an unconditional recrawl. This prevents the page to be stuck at
@@ -26,6 +26,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapred.*;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.util.URLUtil;
 
@@ -45,6 +46,7 @@ public class URLPartitioner implements Partitioner<Text,Writable> {
   private int seed;
   private URLNormalizers normalizers;
   private String mode = PARTITION_MODE_HOST;
+  private DnsCache dnsCache;
 
   public void configure(JobConf job) {
     seed = job.getInt("partition.url.seed", 0);
@@ -56,6 +58,9 @@ public class URLPartitioner implements Partitioner<Text,Writable> {
       mode = PARTITION_MODE_HOST;
     }
     normalizers = new URLNormalizers(job, URLNormalizers.SCOPE_PARTITION);
+    if (mode.equals(PARTITION_MODE_IP)) {
+      dnsCache = DnsCache.get(job);
+    }
   }
 
   public void close() {}
@@ -77,7 +82,7 @@ public class URLPartitioner implements Partitioner<Text,Writable> {
         .getDomainName(url).hashCode();
     else if (mode.equals(PARTITION_MODE_IP)) {
       try {
-        InetAddress address = InetAddress.getByName(url.getHost());
+        InetAddress address = dnsCache.resolve(url.getHost());
         hashCode = address.getHostAddress().hashCode();
       } catch (UnknownHostException e) {
         Generator.LOG.info("Couldn't find IP for host: " + url.getHost());
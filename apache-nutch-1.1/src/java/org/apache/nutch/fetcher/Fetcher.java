@@ -23,8 +23,16 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 // Commons Logging imports
 import org.apache.commons.logging.Log;
@@ -49,6 +57,8 @@ import org.apache.nutch.parse.*;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.util.*;
+import org.apache.nutch.watchlist.PoolingDataDriver;
+import org.apache.nutch.watchlist.WatchListSink;
 
 
 /** 
@@ -84,6 +94,14 @@ import org.apache.nutch.util.*;
  * available, or a timeout is reached (at which point the Fetcher will abort,
  * assuming the task is hung).
  * 
+ * <p>With <code>fetcher.engine</code> set to <code>nio</code>, the
+ * FetcherThread-s do not fetch http pages themselves: they hand them to a
+ * {@link NioHttpClient}, which keeps up to
+ * <code>fetcher.nio.connections</code> requests in flight on one selector
+ * thread, and process the responses it reads. Politeness is unchanged, an
+ * item stays in progress in its queue until its response is processed.
+ * Robots.txt and other protocols still go through the protocol plugins.
+ * 
  * @author Andrzej Bialecki
  */
 public class Fetcher extends Configured implements Tool,
@@ -126,19 +144,50 @@ public class Fetcher extends Configured implements Tool,
   private AtomicInteger pages = new AtomicInteger(0);  // total pages fetched
   private AtomicInteger errors = new AtomicInteger(0); // total pages errored
 
+  // the bandwidth caps of the protocols, and what was reported of them
+  private BandwidthThrottle throttle;
+  private long reportedBytesRead;
+  private long reportedThrottledMillis;
+  private long lastReport = start;
+
   private boolean storingContent;
   private boolean parsing;
   FetchItemQueues fetchQueues;
   QueueFeeder feeder;
+
+  // the nio engine, null when fetching in threads
+  private NioHttpClient nioClient;
+  private BlockingQueue<NioHttpClient.Exchange> completed =
+    new LinkedBlockingQueue<NioHttpClient.Exchange>();
+  private NioHttpClient.Callback nioCallback = new NioHttpClient.Callback() {
+    public void completed(NioHttpClient.Exchange exchange) {
+      completed.add(exchange);
+    }
+  };
+
+  /** An item the nio client is fetching, and where its redirects stand. */
+  private static class AsyncFetch {
+    FetchItem item;
+    String reprUrl;
+    int redirectCount;
+
+    AsyncFetch(FetchItem item, String reprUrl, int redirectCount) {
+      this.item = item;
+      this.reprUrl = reprUrl;
+      this.redirectCount = redirectCount;
+    }
+  }
   
   /**
    * This class described the item to be fetched.
    */
-  private static class FetchItem {    
+  static class FetchItem {    
     String queueID;
     Text url;
     URL u;
     CrawlDatum datum;
+    // when a thread took it, to measure the response time of the host
+    long started;
     
     public FetchItem(Text url, URL u, CrawlDatum datum, String queueID) {
       this.url = url;
@@ -147,11 +196,11 @@ public class Fetcher extends Configured implements Tool,
       this.queueID = queueID;
     }
     
-    /** Create an item. Queue id will be created based on <code>byIP</code>
-     * argument, either as a protocol + hostname pair, or protocol + IP
-     * address pair.
+    /** Create an item. Queue id will be created either as a protocol +
+     * hostname pair, or, with a <code>dnsCache</code> to resolve the host,
+     * as a protocol + IP address pair.
      */
-    public static FetchItem create(Text url, CrawlDatum datum, boolean byIP) {
+    public static FetchItem create(Text url, CrawlDatum datum, DnsCache dnsCache) {
       String queueID;
       URL u = null;
       try {
@@ -162,9 +211,9 @@ public class Fetcher extends Configured implements Tool,
       }
       String proto = u.getProtocol().toLowerCase();
       String host;
-      if (byIP) {
+      if (dnsCache != null) {
         try {
-          InetAddress addr = InetAddress.getByName(u.getHost());
+          InetAddress addr = dnsCache.resolve(u.getHost());
           host = addr.getHostAddress();
         } catch (UnknownHostException e) {
           // unable to resolve it, so don't fall back to host name
@@ -204,38 +253,66 @@ public class Fetcher extends Configured implements Tool,
    * This class handles FetchItems which come from the same host ID (be it
    * a proto/hostname or proto/IP pair). It also keeps track of requests in
    * progress and elapsed time between requests.
+   *
+   * <p>Taking an item does not lock: the items wait in a non-blocking queue
+   * and a thread reserves one of the <code>maxThreads</code> slots of the
+   * host with a compare-and-set on the in-progress counter. Adding items
+   * synchronizes on the queue only, against the queue being retired once
+   * it is empty.
+   *
+   * <p>With a {@link PolitenessController}, the crawl delay and the number
+   * of threads follow how the host responds.
    */
-  private static class FetchItemQueue {
-    List<FetchItem> queue = Collections.synchronizedList(new LinkedList<FetchItem>());
-    Set<FetchItem>  inProgress = Collections.synchronizedSet(new HashSet<FetchItem>());
+  static class FetchItemQueue {
+    Queue<FetchItem> queue = new ConcurrentLinkedQueue<FetchItem>();
+    AtomicInteger queueSize = new AtomicInteger();
+    Map<FetchItem, Boolean> inProgress = new ConcurrentHashMap<FetchItem, Boolean>();
+    AtomicInteger inProgressCount = new AtomicInteger();
     AtomicLong nextFetchTime = new AtomicLong();
     AtomicInteger exceptionCounter = new AtomicInteger();
-    long crawlDelay;
+    // the entry of this queue in the ready queue, null if not in it
+    AtomicReference<ReadyEntry> ready = new AtomicReference<ReadyEntry>();
+    volatile long crawlDelay;
     long minCrawlDelay;
-    int maxThreads;
+    volatile int maxThreads;
+    // null if the delay is fixed
+    PolitenessController.State adaptive;
     Configuration conf;
+    // removed from the queues, takes no more items
+    private boolean retired;
     
     public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay, long minCrawlDelay) {
+      this(conf, maxThreads, crawlDelay, minCrawlDelay, null);
+    }
+    
+    public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay,
+        long minCrawlDelay, PolitenessController controller) {
       this.conf = conf;
       this.maxThreads = maxThreads;
       this.crawlDelay = crawlDelay;
       this.minCrawlDelay = minCrawlDelay;
+      if (controller != null) {
+        this.adaptive = controller.newState(this);
+      }
       // ready to start
       setEndTime(System.currentTimeMillis() - crawlDelay);
     }
     
-    public synchronized int emptyQueue() {
-      int presize = queue.size();
-      queue.clear();
-      return presize;
+    public int emptyQueue() {
+      int deleted = 0;
+      while (queue.poll() != null) {
+        queueSize.decrementAndGet();
+        deleted++;
+      }
+      return deleted;
     }
     
     public int getQueueSize() {
-      return queue.size();
+      return queueSize.get();
     }
     
     public int getInProgressSize() {
-      return inProgress.size();
+      return inProgressCount.get();
     }
     
     public int incrementExceptionCounter() {
@@ -243,47 +320,98 @@ public class Fetcher extends Configured implements Tool,
     }
     
     public void finishFetchItem(FetchItem it, boolean asap) {
-      if (it != null) {
-        inProgress.remove(it);
-        setEndTime(System.currentTimeMillis(), asap);
+      finishFetchItem(it, asap, null);
+    }
+    
+    /**
+     * Finishes an item. The status of its fetch, if any, is passed to the
+     * adaptive politeness.
+     */
+    public void finishFetchItem(FetchItem it, boolean asap, ProtocolStatus status) {
+      if (it != null && inProgress.remove(it) != null) {
+        long now = System.currentTimeMillis();
+        if (adaptive != null && status != null) {
+          // before the slot is freed, so the next item sees the new delay
+          adaptive.update(now - it.started, PolitenessController.isError(status));
+        }
+        inProgressCount.decrementAndGet();
+        setEndTime(now, asap);
       }
     }
     
-    public void addFetchItem(FetchItem it) {
-      if (it == null) return;
+    /**
+     * Sets the Crawl-Delay of robots.txt. An adaptive queue never goes below
+     * it.
+     */
+    public void setRobotsCrawlDelay(long delay) {
+      if (adaptive == null) {
+        crawlDelay = delay;
+      } else {
+        adaptive.setFloor(delay);
+      }
+    }
+    
+    /** @return false if the queue is retired */
+    public synchronized boolean addFetchItem(FetchItem it) {
+      if (retired) return false;
+      if (it == null) return true;
       queue.add(it);
+      queueSize.incrementAndGet();
+      return true;
     }
     
-    public void addInProgressFetchItem(FetchItem it) {
-      if (it == null) return;
-      inProgress.add(it);
+    /** @return false if the queue is retired */
+    public synchronized boolean addInProgressFetchItem(FetchItem it) {
+      if (retired) return false;
+      if (it == null) return true;
+      if (inProgress.put(it, Boolean.TRUE) == null) {
+        inProgressCount.incrementAndGet();
+      }
+      it.started = System.currentTimeMillis();
+      return true;
     }
     
-    public FetchItem getFetchItem() {
-      if (inProgress.size() >= maxThreads) return null;
-      long now = System.currentTimeMillis();
+    /** Retires the queue if it has no items left, queued or in progress. */
+    public synchronized boolean retire() {
+      if (queueSize.get() == 0 && inProgressCount.get() == 0) {
+        retired = true;
+      }
+      return retired;
+    }
+    
+    public FetchItem getFetchItem(long now) {
       if (nextFetchTime.get() > now) return null;
-      FetchItem it = null;
-      if (queue.size() == 0) return null;
-      try {
-        it = queue.remove(0);
-        inProgress.add(it);
-      } catch (Exception e) {
-        LOG.error("Cannot remove FetchItem from queue or cannot add it to inProgress queue", e);
+      // reserve a slot
+      int count;
+      do {
+        count = inProgressCount.get();
+        if (count >= maxThreads) return null;
+      } while (!inProgressCount.compareAndSet(count, count + 1));
+      FetchItem it = queue.poll();
+      if (it == null) {
+        inProgressCount.decrementAndGet();
+        return null;
       }
+      queueSize.decrementAndGet();
+      it.started = now;
+      inProgress.put(it, Boolean.TRUE);
       return it;
     }
     
-    public synchronized void dump() {
+    public void dump() {
       LOG.info("  maxThreads    = " + maxThreads);
-      LOG.info("  inProgress    = " + inProgress.size());
+      LOG.info("  inProgress    = " + inProgressCount.get());
       LOG.info("  crawlDelay    = " + crawlDelay);
       LOG.info("  minCrawlDelay = " + minCrawlDelay);
+      if (adaptive != null) {
+        LOG.info("  latency       = " + adaptive.getLatency());
+        LOG.info("  errorRate     = " + adaptive.getErrorRate());
+      }
       LOG.info("  nextFetchTime = " + nextFetchTime.get());
       LOG.info("  now           = " + System.currentTimeMillis());
-      for (int i = 0; i < queue.size(); i++) {
-        FetchItem it = queue.get(i);
-        LOG.info("  " + i + ". " + it.url);
+      int i = 0;
+      for (FetchItem it : queue) {
+        LOG.info("  " + i++ + ". " + it.url);
       }
     }
     
@@ -293,26 +421,185 @@ public class Fetcher extends Configured implements Tool,
     
     private void setEndTime(long endTime, boolean asap) {
       if (!asap)
-        nextFetchTime.set(endTime + (maxThreads > 1 ? minCrawlDelay : crawlDelay));
+        nextFetchTime.set(endTime
+            + (maxThreads > 1 && adaptive == null ? minCrawlDelay : crawlDelay));
       else
         nextFetchTime.set(endTime);
     }
   }
   
+  /**
+   * Adapts the crawl delay and the number of threads of each queue to how
+   * its host responds, within the bounds of the fetcher.adaptive.*
+   * properties.
+   *
+   * <p>Each queue keeps a moving average of its response times and of its
+   * error rate, where an error is a fetch that ended in an exception or a
+   * retry, e.g. a timeout or a 5xx, or that threw. While the host is
+   * healthy the delay moves halfway towards
+   * <code>fetcher.adaptive.latency.factor</code> times the average response
+   * time, so a fast host is fetched faster than
+   * <code>fetcher.server.delay</code> and a slow one slower, and every run
+   * of successes adds a thread. An error while the error rate is over
+   * <code>fetcher.adaptive.error.rate</code> doubles the delay and halves
+   * the threads; successes hold them until the rate is back under it. The
+   * Crawl-Delay of robots.txt is a floor, and a host with one keeps a
+   * single thread.
+   */
+  static class PolitenessController {
+    // weight of the last fetch in the moving averages
+    private static final float ALPHA = 0.2f;
+    // successes per thread before adding one
+    private static final int SUCCESSES_PER_THREAD = 10;
+
+    final long minDelay;
+    final long maxDelay;
+    final long backoffDelay;
+    final int maxThreads;
+    final float latencyFactor;
+    final float maxErrorRate;
+
+    PolitenessController(Configuration conf) {
+      this.minDelay = (long) (conf.getFloat("fetcher.adaptive.delay.min", 0.1f) * 1000);
+      this.maxDelay = (long) (conf.getFloat("fetcher.adaptive.delay.max", 30.0f) * 1000);
+      this.backoffDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
+      this.maxThreads = Math.max(conf.getInt("fetcher.threads.per.host", 1),
+          conf.getInt("fetcher.adaptive.threads.max", 1));
+      this.latencyFactor = conf.getFloat("fetcher.adaptive.latency.factor", 1.0f);
+      this.maxErrorRate = conf.getFloat("fetcher.adaptive.error.rate", 0.25f);
+    }
+
+    /** @return null unless fetcher.adaptive.delay is set */
+    static PolitenessController create(Configuration conf) {
+      if (!conf.getBoolean("fetcher.adaptive.delay", false)) {
+        return null;
+      }
+      return new PolitenessController(conf);
+    }
+
+    static boolean isError(ProtocolStatus status) {
+      int code = status.getCode();
+      return code == ProtocolStatus.EXCEPTION || code == ProtocolStatus.RETRY
+        || code == ProtocolStatus.FAILED;
+    }
+
+    State newState(FetchItemQueue fiq) {
+      return new State(fiq);
+    }
+
+    /** The measures of one queue. */
+    class State {
+      private final FetchItemQueue fiq;
+      // all guarded by this
+      private float latency = -1;
+      private float errorRate;
+      private int successes;
+      private long floor;
+
+      State(FetchItemQueue fiq) {
+        this.fiq = fiq;
+        fiq.crawlDelay = bound(fiq.maxThreads > 1 ? fiq.minCrawlDelay : fiq.crawlDelay);
+      }
+
+      synchronized void setFloor(long delay) {
+        floor = delay;
+        if (delay > 0) {
+          fiq.maxThreads = 1;
+        }
+        fiq.crawlDelay = bound(fiq.crawlDelay);
+      }
+
+      /** Takes in the response time of a fetch and whether it failed. */
+      synchronized void update(long elapsed, boolean error) {
+        latency = latency < 0 ? elapsed : latency + ALPHA * (elapsed - latency);
+        errorRate += ALPHA * ((error ? 1 : 0) - errorRate);
+        long delay = fiq.crawlDelay;
+        int threads = fiq.maxThreads;
+        if (error && errorRate > maxErrorRate) {
+          // the host struggles, back off
+          delay = Math.max(delay * 2, backoffDelay);
+          threads = Math.max(1, threads / 2);
+          successes = 0;
+        } else if (error || errorRate > maxErrorRate) {
+          // not a trend yet, or recovering: hold
+          successes = 0;
+        } else {
+          delay = (delay + (long) (latency * latencyFactor)) / 2;
+          if (++successes >= SUCCESSES_PER_THREAD * threads && threads < maxThreads
+              && floor == 0 && elapsed <= 2 * latency) {
+            threads++;
+            successes = 0;
+          }
+        }
+        fiq.crawlDelay = bound(delay);
+        if (threads != fiq.maxThreads) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("adaptive politeness: " + threads + " threads, delay "
+                + fiq.crawlDelay + " ms, latency " + latency + " ms, errors " + errorRate);
+          }
+          fiq.maxThreads = threads;
+        }
+      }
+
+      private long bound(long delay) {
+        return Math.max(floor, Math.min(maxDelay, Math.max(minDelay, delay)));
+      }
+
+      synchronized float getLatency() {
+        return latency;
+      }
+
+      synchronized float getErrorRate() {
+        return errorRate;
+      }
+    }
+  }
+
+  /** The place of a queue in the ready queue: when it may be fetched from. */
+  private static class ReadyEntry implements Comparable<ReadyEntry> {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    
+    final long time;
+    final long seq = SEQUENCE.incrementAndGet();
+    
+    ReadyEntry(long time) {
+      this.time = time;
+    }
+    
+    public int compareTo(ReadyEntry o) {
+      if (time != o.time) return time < o.time ? -1 : 1;
+      return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+    }
+  }
+  
   /**
    * Convenience class - a collection of queues that keeps track of the total
    * number of items, and provides items eligible for fetching from any queue.
+   *
+   * <p>There is no lock over all the queues. Every queue with items and a
+   * free slot is in a ready queue, a concurrent skip list ordered by the
+   * time the queue may be fetched from next, so a thread takes the first
+   * eligible host in O(log hosts) instead of scanning them all. A queue
+   * leaves the ready queue when a thread takes its entry and is put back
+   * by whoever changes it next: the thread that took an item, added one,
+   * or finished one. Empty queues are retired and removed.
    */
-  private static class FetchItemQueues {
+  static class FetchItemQueues {
     public static final String DEFAULT_ID = "default";
-    Map<String, FetchItemQueue> queues = new HashMap<String, FetchItemQueue>();
+    ConcurrentMap<String, FetchItemQueue> queues =
+      new ConcurrentHashMap<String, FetchItemQueue>();
+    ConcurrentSkipListMap<ReadyEntry, FetchItemQueue> ready =
+      new ConcurrentSkipListMap<ReadyEntry, FetchItemQueue>();
     AtomicInteger totalSize = new AtomicInteger(0);
     int maxThreads;
     boolean byIP;
+    DnsCache dnsCache;
     long crawlDelay;
     long minCrawlDelay;
     long timelimit = -1;
     int maxExceptionsPerQueue = -1;
+    // null if the delays are fixed
+    PolitenessController controller;
     Configuration conf;    
     
     public FetchItemQueues(Configuration conf) {
@@ -320,10 +607,12 @@ public class Fetcher extends Configured implements Tool,
       this.maxThreads = conf.getInt("fetcher.threads.per.host", 1);
       // backward-compatible default setting
       this.byIP = conf.getBoolean("fetcher.threads.per.host.by.ip", false);
+      this.dnsCache = DnsCache.get(conf);
       this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
       this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000);
       this.timelimit = conf.getLong("fetcher.timelimit.mins", -1);
       this.maxExceptionsPerQueue = conf.getInt("fetcher.max.exceptions.per.queue", -1);
+      this.controller = PolitenessController.create(conf);
     }
     
     public int getTotalSize() {
@@ -335,14 +624,41 @@ public class Fetcher extends Configured implements Tool,
     }
     
     public void addFetchItem(Text url, CrawlDatum datum) {
-      FetchItem it = FetchItem.create(url, datum, byIP);
+      FetchItem it = FetchItem.create(url, datum, byIP ? dnsCache : null);
       if (it != null) addFetchItem(it);
     }
     
-    public synchronized void addFetchItem(FetchItem it) {
-      FetchItemQueue fiq = getFetchItemQueue(it.queueID);
-      fiq.addFetchItem(it);
+    /** Starts resolving the host of a url that will be added soon. */
+    public void prefetch(Text url) {
+      try {
+        String host = new URL(url.toString()).getHost();
+        if (host != null && host.length() > 0) {
+          dnsCache.prefetch(host);
+        }
+      } catch (MalformedURLException e) {
+        // reported when the item is added
+      }
+    }
+    
+    public void addFetchItem(FetchItem it) {
+      // counted first, so that the total never drops below the items left
       totalSize.incrementAndGet();
+      FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+      while (!fiq.addFetchItem(it)) {
+        // retired meanwhile
+        queues.remove(it.queueID, fiq);
+        fiq = getFetchItemQueue(it.queueID);
+      }
+      schedule(fiq);
+    }
+    
+    /** Marks an item as in progress in its queue, e.g. a redirect. */
+    public void addInProgressFetchItem(FetchItem it) {
+      FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+      while (!fiq.addInProgressFetchItem(it)) {
+        queues.remove(it.queueID, fiq);
+        fiq = getFetchItemQueue(it.queueID);
+      }
     }
     
     public void finishFetchItem(FetchItem it) {
@@ -350,57 +666,115 @@ public class Fetcher extends Configured implements Tool,
     }
     
     public void finishFetchItem(FetchItem it, boolean asap) {
+      finishFetchItem(it, asap, null);
+    }
+    
+    /** Finishes an item fetched with the given status. */
+    public void finishFetchItem(FetchItem it, ProtocolStatus status) {
+      finishFetchItem(it, false, status);
+    }
+    
+    private void finishFetchItem(FetchItem it, boolean asap, ProtocolStatus status) {
       FetchItemQueue fiq = queues.get(it.queueID);
       if (fiq == null) {
         LOG.warn("Attempting to finish item from unknown queue: " + it);
         return;
       }
-      fiq.finishFetchItem(it, asap);
+      fiq.finishFetchItem(it, asap, status);
+      if (!reap(it.queueID, fiq)) {
+        schedule(fiq);
+      }
     }
     
-    public synchronized FetchItemQueue getFetchItemQueue(String id) {
+    public FetchItemQueue getFetchItemQueue(String id) {
       FetchItemQueue fiq = queues.get(id);
       if (fiq == null) {
         // initialize queue
-        fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
-        queues.put(id, fiq);
+        fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay, controller);
+        FetchItemQueue existing = queues.putIfAbsent(id, fiq);
+        if (existing != null) {
+          fiq = existing;
+        }
       }
       return fiq;
     }
     
-    public synchronized FetchItem getFetchItem() {
-      Iterator<Map.Entry<String, FetchItemQueue>> it =
-        queues.entrySet().iterator();
-      while (it.hasNext()) {
-        FetchItemQueue fiq = it.next().getValue();
-        // reap empty queues
-        if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
-          it.remove();
+    public FetchItem getFetchItem() {
+      while (true) {
+        Map.Entry<ReadyEntry, FetchItemQueue> head = ready.firstEntry();
+        if (head == null) {
+          return null;
+        }
+        long now = System.currentTimeMillis();
+        if (head.getKey().time > now) {
+          // no host is ready yet
+          return null;
+        }
+        if (ready.remove(head.getKey()) == null) {
+          // taken by another thread
           continue;
         }
-        FetchItem fit = fiq.getFetchItem();
+        FetchItemQueue fiq = head.getValue();
+        fiq.ready.compareAndSet(head.getKey(), null);
+        FetchItem fit = fiq.getFetchItem(now);
+        schedule(fiq);
         if (fit != null) {
           totalSize.decrementAndGet();
           return fit;
         }
       }
-      return null;
+    }
+    
+    /**
+     * Puts a queue in the ready queue if it has items and a free slot, or
+     * moves it up if it became ready earlier. A queue is in the ready queue
+     * at most once.
+     */
+    private void schedule(FetchItemQueue fiq) {
+      if (fiq.getQueueSize() == 0 || fiq.getInProgressSize() >= fiq.maxThreads) {
+        return;
+      }
+      long time = fiq.nextFetchTime.get();
+      while (true) {
+        ReadyEntry current = fiq.ready.get();
+        if (current != null && current.time <= time) {
+          // taking the item checks the time again
+          return;
+        }
+        ReadyEntry entry = new ReadyEntry(time);
+        if (fiq.ready.compareAndSet(current, entry)) {
+          if (current != null) {
+            ready.remove(current);
+          }
+          ready.put(entry, fiq);
+          return;
+        }
+      }
+    }
+    
+    /** Removes a queue with no items left, queued or in progress. */
+    private boolean reap(String id, FetchItemQueue fiq) {
+      if (fiq.getQueueSize() != 0 || fiq.getInProgressSize() != 0
+          || !fiq.retire()) {
+        return false;
+      }
+      queues.remove(id, fiq);
+      return true;
     }
     
     // called only once the feeder has stopped
-    public synchronized int checkTimelimit() {
+    public int checkTimelimit() {
       int count = 0;
       if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
         // emptying the queues
-        for (String id : queues.keySet()) {
-          FetchItemQueue fiq = queues.get(id);
+        for (Map.Entry<String, FetchItemQueue> e : queues.entrySet()) {
+          FetchItemQueue fiq = e.getValue();
           if (fiq.getQueueSize() == 0) continue;
-          LOG.info("* queue: " + id + " >> timelimit! ");
+          LOG.info("* queue: " + e.getKey() + " >> timelimit! ");
           int deleted = fiq.emptyQueue();
-          for (int i = 0; i < deleted; i++) {
-            totalSize.decrementAndGet();
-          }
+          totalSize.addAndGet(-deleted);
           count += deleted;
+          reap(e.getKey(), fiq);
         }
         // there might also be a case where totalsize !=0 but number of queues
         // == 0
@@ -417,7 +791,7 @@ public class Fetcher extends Configured implements Tool,
      * @param queueid
      * @return number of purged items
      */
-    public synchronized int checkExceptionThreshold(String queueid) {
+    public int checkExceptionThreshold(String queueid) {
       FetchItemQueue fiq = queues.get(queueid);
       if (fiq == null) {
         return 0;
@@ -431,20 +805,19 @@ public class Fetcher extends Configured implements Tool,
         int deleted = fiq.emptyQueue();
         LOG.info("* queue: " + queueid + " >> removed " + deleted
             + " URLs from queue because " + excCount + " exceptions occurred");
-        for (int i = 0; i < deleted; i++) {
-          totalSize.decrementAndGet();
-        }
+        totalSize.addAndGet(-deleted);
+        reap(queueid, fiq);
         return deleted;
       }
       return 0;
     }
 
     
-    public synchronized void dump() {
-      for (String id : queues.keySet()) {
-        FetchItemQueue fiq = queues.get(id);
+    public void dump() {
+      for (Map.Entry<String, FetchItemQueue> e : queues.entrySet()) {
+        FetchItemQueue fiq = e.getValue();
         if (fiq.getQueueSize() == 0) continue;
-        LOG.info("* queue: " + id);
+        LOG.info("* queue: " + e.getKey());
         fiq.dump();
       }
     }
@@ -501,21 +874,36 @@ public class Fetcher extends Configured implements Tool,
           continue;
         } else {
           LOG.debug("-feeding " + feed + " input urls ...");
+          // read the batch first and resolve its hosts in the background,
+          // so that adding waits for the slowest lookup, not for all
+          List<Text> urls = new ArrayList<Text>();
+          List<CrawlDatum> datums = new ArrayList<CrawlDatum>();
+          boolean failed = false;
           while (feed > 0 && hasMore) {
             try {
               Text url = new Text();
               CrawlDatum datum = new CrawlDatum();
               hasMore = reader.next(url, datum);
               if (hasMore) {
-                queues.addFetchItem(url, datum);
-                cnt++;
+                queues.prefetch(url);
+                urls.add(url);
+                datums.add(datum);
                 feed--;
               }
             } catch (IOException e) {
-              LOG.fatal("QueueFeeder error reading input, record " + cnt, e);
-              return;
+              LOG.fatal("QueueFeeder error reading input, record "
+                  + (cnt + urls.size()), e);
+              failed = true;
+              break;
             }
           }
+          for (int i = 0; i < urls.size(); i++) {
+            queues.addFetchItem(urls.get(i), datums.get(i));
+            cnt++;
+          }
+          if (failed) {
+            return;
+          }
         }
       }
       LOG.info("QueueFeeder finished: total " + cnt + " records + hit by time limit :"
@@ -534,7 +922,8 @@ public class Fetcher extends Configured implements Tool,
     private URLNormalizers normalizers;
     private ProtocolFactory protocolFactory;
     private long maxCrawlDelay;
-    private boolean byIP;
+    // resolves redirect hosts when queueing by IP, else null
+    private DnsCache dnsCache;
     private int maxRedirect;
     private String reprUrl;
     private boolean redirecting;
@@ -551,7 +940,9 @@ public class Fetcher extends Configured implements Tool,
       this.protocolFactory = new ProtocolFactory(conf);
       this.normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
       this.maxCrawlDelay = conf.getInt("fetcher.max.crawl.delay", 30) * 1000;
-      this.byIP = conf.getBoolean("fetcher.threads.per.host.by.ip", false);
+      if (conf.getBoolean("fetcher.threads.per.host.by.ip", false)) {
+        this.dnsCache = DnsCache.get(conf);
+      }
       this.maxRedirect = conf.getInt("http.redirect.max", 3);
       this.ignoreExternalLinks = 
         conf.getBoolean("db.ignore.external.links", false);
@@ -564,18 +955,50 @@ public class Fetcher extends Configured implements Tool,
       try {
         
         while (true) {
-          fit = fetchQueues.getFetchItem();
+          if (nioClient != null) {
+            // finish the fetches the client has read first
+            NioHttpClient.Exchange done = completed.poll();
+            if (done != null) {
+              complete(done);
+              continue;
+            }
+          }
+          if (nioClient != null
+              && nioClient.getActiveCount() >= nioClient.getMaxConnections()) {
+            // all connections busy, leave the items in their queues
+            fit = null;
+          } else {
+            fit = fetchQueues.getFetchItem();
+          }
           if (fit == null) {
-            if (feeder.isAlive() || fetchQueues.getTotalSize() > 0) {
+            if (feeder.isAlive() || fetchQueues.getTotalSize() > 0
+                || (nioClient != null && nioClient.getActiveCount() > 0)) {
               LOG.debug(getName() + " spin-waiting ...");
               // spin-wait.
               spinWaiting.incrementAndGet();
+              NioHttpClient.Exchange done = null;
               try {
-                Thread.sleep(500);
+                if (nioClient != null) {
+                  // wake up as soon as a fetch completes
+                  done = completed.poll(500, TimeUnit.MILLISECONDS);
+                } else {
+                  Thread.sleep(500);
+                }
               } catch (Exception e) {}
-                spinWaiting.decrementAndGet();
+              spinWaiting.decrementAndGet();
+              if (done != null) {
+                complete(done);
+              }
               continue;
             } else {
+              if (nioClient != null) {
+                // completed before the client went idle, but after the poll
+                NioHttpClient.Exchange done = completed.poll();
+                if (done != null) {
+                  complete(done);
+                  continue;
+                }
+              }
               // all done, finish this thread
               return;
             }
@@ -588,184 +1011,11 @@ public class Fetcher extends Configured implements Tool,
           } else {
             reprUrl = reprUrlWritable.toString();
           }
-          try {
-            if (LOG.isInfoEnabled()) { LOG.info("fetching " + fit.url); }
-
-            // fetch the page
-            redirecting = false;
-            redirectCount = 0;
-            do {
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("redirectCount=" + redirectCount);
-              }
-              redirecting = false;
-              Protocol protocol = this.protocolFactory.getProtocol(fit.url.toString());
-              RobotRules rules = protocol.getRobotRules(fit.url, fit.datum);
-              if (!rules.isAllowed(fit.u)) {
-                // unblock
-                fetchQueues.finishFetchItem(fit, true);
-                if (LOG.isDebugEnabled()) {
-                  LOG.debug("Denied by robots.txt: " + fit.url);
-                }
-                output(fit.url, fit.datum, null, ProtocolStatus.STATUS_ROBOTS_DENIED, CrawlDatum.STATUS_FETCH_GONE);
-                reporter.incrCounter("FetcherStatus", "robots_denied", 1);
-                continue;
-              }
-              if (rules.getCrawlDelay() > 0) {
-                if (rules.getCrawlDelay() > maxCrawlDelay) {
-                  // unblock
-                  fetchQueues.finishFetchItem(fit, true);
-                  LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
-                  output(fit.url, fit.datum, null, ProtocolStatus.STATUS_ROBOTS_DENIED, CrawlDatum.STATUS_FETCH_GONE);
-                  reporter.incrCounter("FetcherStatus", "robots_denied_maxcrawldelay", 1);
-                  continue;
-                } else {
-                  FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
-                  fiq.crawlDelay = rules.getCrawlDelay();
-                }
-              }
-              ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.datum);
-              ProtocolStatus status = output.getStatus();
-              Content content = output.getContent();
-              ParseStatus pstatus = null;
-              // unblock queue
-              fetchQueues.finishFetchItem(fit);
-
-              String urlString = fit.url.toString();
-
-              reporter.incrCounter("FetcherStatus", status.getName(), 1);
-              
-              switch(status.getCode()) {
-                
-              case ProtocolStatus.WOULDBLOCK:
-                // retry ?
-                fetchQueues.addFetchItem(fit);
-                break;
-
-              case ProtocolStatus.SUCCESS:        // got a page
-                pstatus = output(fit.url, fit.datum, content, status, CrawlDatum.STATUS_FETCH_SUCCESS);
-                updateStatus(content.getContent().length);
-                if (pstatus != null && pstatus.isSuccess() &&
-                        pstatus.getMinorCode() == ParseStatus.SUCCESS_REDIRECT) {
-                  String newUrl = pstatus.getMessage();
-                  int refreshTime = Integer.valueOf(pstatus.getArgs()[1]);
-                  Text redirUrl =
-                    handleRedirect(fit.url, fit.datum,
-                                   urlString, newUrl,
-                                   refreshTime < Fetcher.PERM_REFRESH_TIME,
-                                   Fetcher.CONTENT_REDIR);
-                  if (redirUrl != null) {
-                    CrawlDatum newDatum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
-                        fit.datum.getFetchInterval(), fit.datum.getScore());
-                    // transfer existing metadata to the redir
-                    newDatum.getMetaData().putAll(fit.datum.getMetaData());
-                    scfilters.initialScore(redirUrl, newDatum);
-                    if (reprUrl != null) {
-                      newDatum.getMetaData().put(Nutch.WRITABLE_REPR_URL_KEY,
-                          new Text(reprUrl));
-                    }
-                    fit = FetchItem.create(redirUrl, newDatum, byIP);
-                    if (fit != null) {
-                      FetchItemQueue fiq =
-                        fetchQueues.getFetchItemQueue(fit.queueID);
-                      fiq.addInProgressFetchItem(fit);
-                    } else {
-                      // stop redirecting
-                      redirecting = false;
-                      reporter.incrCounter("FetcherStatus", "FetchItem.notCreated.redirect", 1);
-                    }
-                  }
-                }
-                break;
-
-              case ProtocolStatus.MOVED:         // redirect
-              case ProtocolStatus.TEMP_MOVED:
-                int code;
-                boolean temp;
-                if (status.getCode() == ProtocolStatus.MOVED) {
-                  code = CrawlDatum.STATUS_FETCH_REDIR_PERM;
-                  temp = false;
-                } else {
-                  code = CrawlDatum.STATUS_FETCH_REDIR_TEMP;
-                  temp = true;
-                }
-                output(fit.url, fit.datum, content, status, code);
-                String newUrl = status.getMessage();
-                Text redirUrl =
-                  handleRedirect(fit.url, fit.datum,
-                                 urlString, newUrl, temp,
-                                 Fetcher.PROTOCOL_REDIR);
-                if (redirUrl != null) {
-                  CrawlDatum newDatum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
-                      fit.datum.getFetchInterval(), fit.datum.getScore());
-                  // transfer existing metadata
-                  newDatum.getMetaData().putAll(fit.datum.getMetaData());
-                  scfilters.initialScore(redirUrl, newDatum);
-                  if (reprUrl != null) {
-                    newDatum.getMetaData().put(Nutch.WRITABLE_REPR_URL_KEY,
-                        new Text(reprUrl));
-                  }
-                  fit = FetchItem.create(redirUrl, newDatum, byIP);
-                  if (fit != null) {
-                    FetchItemQueue fiq =
-                      fetchQueues.getFetchItemQueue(fit.queueID);
-                    fiq.addInProgressFetchItem(fit);
-                  } else {
-                    // stop redirecting
-                    redirecting = false;
-                    reporter.incrCounter("FetcherStatus", "FetchItem.notCreated.redirect", 1);
-                  }
-                } else {
-                  // stop redirecting
-                  redirecting = false;
-                }
-                break;
-
-              case ProtocolStatus.EXCEPTION:
-                logError(fit.url, status.getMessage());
-                int killedURLs = fetchQueues.checkExceptionThreshold(fit.getQueueID());
-                if (killedURLs!=0)
-                   reporter.incrCounter("FetcherStatus", "AboveExceptionThresholdInQueue", killedURLs);
-                /* FALLTHROUGH */
-              case ProtocolStatus.RETRY:          // retry
-              case ProtocolStatus.BLOCKED:
-                output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_RETRY);
-                break;
-                
-              case ProtocolStatus.GONE:           // gone
-              case ProtocolStatus.NOTFOUND:
-              case ProtocolStatus.ACCESS_DENIED:
-              case ProtocolStatus.ROBOTS_DENIED:
-                output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_GONE);
-                break;
-
-              case ProtocolStatus.NOTMODIFIED:
-                output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_NOTMODIFIED);
-                break;
-
-              default:
-                if (LOG.isWarnEnabled()) {
-                  LOG.warn("Unknown ProtocolStatus: " + status.getCode());
-                }
-                output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_RETRY);
-              }
+          if (LOG.isInfoEnabled()) { LOG.info("fetching " + fit.url); }
 
-              if (redirecting && redirectCount >= maxRedirect) {
-                fetchQueues.finishFetchItem(fit);
-                if (LOG.isInfoEnabled()) {
-                  LOG.info(" - redirect count exceeded " + fit.url);
-                }
-                output(fit.url, fit.datum, null, ProtocolStatus.STATUS_REDIR_EXCEEDED, CrawlDatum.STATUS_FETCH_GONE);
-              }
-
-            } while (redirecting && (redirectCount < maxRedirect));
-            
-          } catch (Throwable t) {                 // unexpected exception
-            // unblock
-            fetchQueues.finishFetchItem(fit);
-            logError(fit.url, t.toString());
-            output(fit.url, fit.datum, null, ProtocolStatus.STATUS_FAILED, CrawlDatum.STATUS_FETCH_RETRY);
-          }
+          // fetch the page
+          redirectCount = 0;
+          fetch(fit);
         }
 
       } catch (Throwable e) {
@@ -780,6 +1030,221 @@ public class Fetcher extends Configured implements Tool,
       }
     }
 
+    /**
+     * Fetches an item and follows the redirects it leads to. With the nio
+     * engine, http items are handed to the client instead, and
+     * {@link #complete(NioHttpClient.Exchange)} goes on once the response
+     * is read.
+     */
+    private void fetch(FetchItem fit) {
+      try {
+        do {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("redirectCount=" + redirectCount);
+          }
+          redirecting = false;
+          Protocol protocol = this.protocolFactory.getProtocol(fit.url.toString());
+          RobotRules rules = protocol.getRobotRules(fit.url, fit.datum);
+          if (!rules.isAllowed(fit.u)) {
+            // unblock
+            fetchQueues.finishFetchItem(fit, true);
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Denied by robots.txt: " + fit.url);
+            }
+            output(fit.url, fit.datum, null, ProtocolStatus.STATUS_ROBOTS_DENIED, CrawlDatum.STATUS_FETCH_GONE);
+            reporter.incrCounter("FetcherStatus", "robots_denied", 1);
+            return;
+          }
+          if (rules.getCrawlDelay() > 0) {
+            if (rules.getCrawlDelay() > maxCrawlDelay) {
+              // unblock
+              fetchQueues.finishFetchItem(fit, true);
+              LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
+              output(fit.url, fit.datum, null, ProtocolStatus.STATUS_ROBOTS_DENIED, CrawlDatum.STATUS_FETCH_GONE);
+              reporter.incrCounter("FetcherStatus", "robots_denied_maxcrawldelay", 1);
+              return;
+            } else {
+              FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
+              fiq.setRobotsCrawlDelay(rules.getCrawlDelay());
+            }
+          }
+          if (nioClient != null && NioHttpClient.accepts(fit.u)) {
+            nioClient.submit(fit.u, fit.datum,
+                new AsyncFetch(fit, reprUrl, redirectCount), nioCallback);
+            return;
+          }
+          ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.datum);
+          fit = handleOutput(fit, output);
+        } while (redirecting && (redirectCount < maxRedirect));
+        
+      } catch (Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(fit, ProtocolStatus.STATUS_FAILED);
+        logError(fit.url, t.toString());
+        output(fit.url, fit.datum, null, ProtocolStatus.STATUS_FAILED, CrawlDatum.STATUS_FETCH_RETRY);
+      }
+    }
+
+    /** Goes on with an item once the nio client has read its response. */
+    private void complete(NioHttpClient.Exchange exchange) {
+      AsyncFetch async = (AsyncFetch) exchange.getAttachment();
+      FetchItem fit = async.item;
+      reprUrl = async.reprUrl;
+      redirectCount = async.redirectCount;
+      redirecting = false;
+      lastRequestStart.set(System.currentTimeMillis());
+      try {
+        fit = handleOutput(fit, nioClient.getProtocolOutput(exchange));
+      } catch (Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(fit, ProtocolStatus.STATUS_FAILED);
+        logError(fit.url, t.toString());
+        output(fit.url, fit.datum, null, ProtocolStatus.STATUS_FAILED, CrawlDatum.STATUS_FETCH_RETRY);
+        return;
+      }
+      if (redirecting && redirectCount < maxRedirect) {
+        fetch(fit);
+      }
+    }
+
+    /**
+     * Writes the outcome of a fetch and unblocks its queue.
+     * @return the item to fetch next when following a redirect, else the
+     * item fetched
+     */
+    private FetchItem handleOutput(FetchItem fit, ProtocolOutput output)
+        throws IOException, URLFilterException, ScoringFilterException {
+      ProtocolStatus status = output.getStatus();
+      Content content = output.getContent();
+      ParseStatus pstatus = null;
+      // unblock queue
+      fetchQueues.finishFetchItem(fit, status);
+
+      String urlString = fit.url.toString();
+
+      reporter.incrCounter("FetcherStatus", status.getName(), 1);
+      
+      switch(status.getCode()) {
+        
+      case ProtocolStatus.WOULDBLOCK:
+        // retry ?
+        fetchQueues.addFetchItem(fit);
+        break;
+
+      case ProtocolStatus.SUCCESS:        // got a page
+        pstatus = output(fit.url, fit.datum, content, status, CrawlDatum.STATUS_FETCH_SUCCESS);
+        updateStatus(content.getContent().length);
+        if (pstatus != null && pstatus.isSuccess() &&
+                pstatus.getMinorCode() == ParseStatus.SUCCESS_REDIRECT) {
+          String newUrl = pstatus.getMessage();
+          int refreshTime = Integer.valueOf(pstatus.getArgs()[1]);
+          Text redirUrl =
+            handleRedirect(fit.url, fit.datum,
+                           urlString, newUrl,
+                           refreshTime < Fetcher.PERM_REFRESH_TIME,
+                           Fetcher.CONTENT_REDIR);
+          if (redirUrl != null) {
+            CrawlDatum newDatum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
+                fit.datum.getFetchInterval(), fit.datum.getScore());
+            // transfer existing metadata to the redir
+            newDatum.getMetaData().putAll(fit.datum.getMetaData());
+            scfilters.initialScore(redirUrl, newDatum);
+            if (reprUrl != null) {
+              newDatum.getMetaData().put(Nutch.WRITABLE_REPR_URL_KEY,
+                  new Text(reprUrl));
+            }
+            fit = FetchItem.create(redirUrl, newDatum, dnsCache);
+            if (fit != null) {
+              fetchQueues.addInProgressFetchItem(fit);
+            } else {
+              // stop redirecting
+              redirecting = false;
+              reporter.incrCounter("FetcherStatus", "FetchItem.notCreated.redirect", 1);
+            }
+          }
+        }
+        break;
+
+      case ProtocolStatus.MOVED:         // redirect
+      case ProtocolStatus.TEMP_MOVED:
+        int code;
+        boolean temp;
+        if (status.getCode() == ProtocolStatus.MOVED) {
+          code = CrawlDatum.STATUS_FETCH_REDIR_PERM;
+          temp = false;
+        } else {
+          code = CrawlDatum.STATUS_FETCH_REDIR_TEMP;
+          temp = true;
+        }
+        output(fit.url, fit.datum, content, status, code);
+        String newUrl = status.getMessage();
+        Text redirUrl =
+          handleRedirect(fit.url, fit.datum,
+                         urlString, newUrl, temp,
+                         Fetcher.PROTOCOL_REDIR);
+        if (redirUrl != null) {
+          CrawlDatum newDatum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
+              fit.datum.getFetchInterval(), fit.datum.getScore());
+          // transfer existing metadata
+          newDatum.getMetaData().putAll(fit.datum.getMetaData());
+          scfilters.initialScore(redirUrl, newDatum);
+          if (reprUrl != null) {
+            newDatum.getMetaData().put(Nutch.WRITABLE_REPR_URL_KEY,
+                new Text(reprUrl));
+          }
+          fit = FetchItem.create(redirUrl, newDatum, dnsCache);
+          if (fit != null) {
+            fetchQueues.addInProgressFetchItem(fit);
+          } else {
+            // stop redirecting
+            redirecting = false;
+            reporter.incrCounter("FetcherStatus", "FetchItem.notCreated.redirect", 1);
+          }
+        } else {
+          // stop redirecting
+          redirecting = false;
+        }
+        break;
+
+      case ProtocolStatus.EXCEPTION:
+        logError(fit.url, status.getMessage());
+        int killedURLs = fetchQueues.checkExceptionThreshold(fit.getQueueID());
+        if (killedURLs!=0)
+           reporter.incrCounter("FetcherStatus", "AboveExceptionThresholdInQueue", killedURLs);
+        /* FALLTHROUGH */
+      case ProtocolStatus.RETRY:          // retry
+      case ProtocolStatus.BLOCKED:
+        output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_RETRY);
+        break;
+        
+      case ProtocolStatus.GONE:           // gone
+      case ProtocolStatus.NOTFOUND:
+      case ProtocolStatus.ACCESS_DENIED:
+      case ProtocolStatus.ROBOTS_DENIED:
+        output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_GONE);
+        break;
+
+      case ProtocolStatus.NOTMODIFIED:
+        output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_NOTMODIFIED);
+        break;
+
+      default:
+        if (LOG.isWarnEnabled()) {
+          LOG.warn("Unknown ProtocolStatus: " + status.getCode());
+        }
+        output(fit.url, fit.datum, null, status, CrawlDatum.STATUS_FETCH_RETRY);
+      }
+
+      if (redirecting && redirectCount >= maxRedirect) {
+        fetchQueues.finishFetchItem(fit);
+        if (LOG.isInfoEnabled()) {
+          LOG.info(" - redirect count exceeded " + fit.url);
+        }
+        output(fit.url, fit.datum, null, ProtocolStatus.STATUS_REDIR_EXCEEDED, CrawlDatum.STATUS_FETCH_GONE);
+      }
+      return fit;
+    }
+
     private Text handleRedirect(Text url, CrawlDatum datum,
                                 String urlString, String newUrl,
                                 boolean temp, String redirType)
@@ -970,10 +1435,31 @@ public class Fetcher extends Configured implements Tool,
     String status;
     long elapsed = (System.currentTimeMillis() - start)/1000;
     status = activeThreads + " threads, " +
+      (nioClient != null ? nioClient.getActiveCount() + " connections, " : "") +
       pages+" pages, "+errors+" errors, "
       + Math.round(((float)pages.get()*10)/elapsed)/10.0+" pages/s, "
       + Math.round(((((float)bytes.get())*8)/1024)/elapsed)+" kb/s, ";
+    if (throttle != null) {
+      // what the protocols read since the last report, headers included
+      long now = System.currentTimeMillis();
+      long read = throttle.getBytesRead();
+      long throttled = throttle.getThrottledMillis();
+      float seconds = Math.max(1, now - lastReport) / 1000f;
+      status += Math.round((read - reportedBytesRead) * 8 / 1024f / seconds)
+        + " kb/s read";
+      if (throttle.isLimited()) {
+        status += ", " + (throttled - reportedThrottledMillis) + " ms throttled";
+      }
+      reporter.incrCounter("FetcherStatus", "bytes_read",
+          read - reportedBytesRead);
+      reporter.incrCounter("FetcherStatus", "throttled_ms",
+          throttled - reportedThrottledMillis);
+      reportedBytesRead = read;
+      reportedThrottledMillis = throttled;
+      lastReport = now;
+    }
     reporter.setStatus(status);
+    PoolingDataDriver.reportCounters(reporter);
   }
 
   public void configure(JobConf job) {
@@ -1005,11 +1491,34 @@ public class Fetcher extends Configured implements Tool,
     this.output = output;
     this.reporter = reporter;
     this.fetchQueues = new FetchItemQueues(getConf());
+    this.throttle = BandwidthThrottle.get(getConf());
+    // shared by the tasks of the process, count from now
+    this.reportedBytesRead = throttle.getBytesRead();
+    this.reportedThrottledMillis = throttle.getThrottledMillis();
+    this.lastReport = System.currentTimeMillis();
+    if (throttle.isLimited() && LOG.isInfoEnabled()) {
+      LOG.info("Fetcher: bandwidth cap " + throttle.getBytesPerSecond()
+          + " bytes/s, per host " + throttle.getHostBytesPerSecond() + " bytes/s");
+    }
 
     int threadCount = getConf().getInt("fetcher.threads.fetch", 10);
     if (LOG.isInfoEnabled()) { LOG.info("Fetcher: threads: " + threadCount); }
 
-    feeder = new QueueFeeder(input, fetchQueues, threadCount * 50);
+    // items kept in the queues per fetch in progress
+    int feedSize = threadCount * 50;
+    String engine = getConf().get("fetcher.engine", "threads");
+    if ("nio".equals(engine)) {
+      nioClient = new NioHttpClient(getConf());
+      nioClient.start();
+      feedSize = nioClient.getMaxConnections() * 50;
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Fetcher: nio connections: " + nioClient.getMaxConnections());
+      }
+    } else if (!"threads".equals(engine)) {
+      LOG.warn("Fetcher: unknown fetcher.engine " + engine + ", using threads");
+    }
+
+    feeder = new QueueFeeder(input, fetchQueues, feedSize);
     //feeder.setPriority((Thread.MAX_PRIORITY + Thread.NORM_PRIORITY) / 2);
     
     // the value of the time limit is either -1 or the time where it should finish
@@ -1035,7 +1544,8 @@ public class Fetcher extends Configured implements Tool,
 
       reportStatus();
       LOG.info("-activeThreads=" + activeThreads + ", spinWaiting=" + spinWaiting.get()
-          + ", fetchQueues.totalSize=" + fetchQueues.getTotalSize());
+          + ", fetchQueues.totalSize=" + fetchQueues.getTotalSize()
+          + (nioClient != null ? ", connections=" + nioClient.getActiveCount() : ""));
 
       if (!feeder.isAlive() && fetchQueues.getTotalSize() < 5) {
         fetchQueues.dump();
@@ -1053,12 +1563,34 @@ public class Fetcher extends Configured implements Tool,
         if (LOG.isWarnEnabled()) {
           LOG.warn("Aborting with "+activeThreads+" hung threads.");
         }
+        reportStatus();
+        closeNioClient();
+        WatchListSink.close(getConf());
         return;
       }
 
     } while (activeThreads.get() > 0);
+    reportStatus();                               // count the last second too
     LOG.info("-activeThreads=" + activeThreads);
-    
+    LOG.info("Fetcher: " + fetchQueues.dnsCache);
+    try {
+      // keep the robots rules for the next cycles, committed with the task
+      JobConf job = (JobConf) getConf();
+      RobotRulesCache.get(job).save(FileOutputFormat.getTaskOutputPath(job,
+          RobotRulesCache.DIR_NAME + "/part-"
+          + String.format("%05d", job.getInt("mapred.task.partition", 0))));
+    } catch (IOException e) {
+      LOG.warn("Fetcher: couldn't save the robots rules: " + e);
+    }
+    closeNioClient();
+    // flush the products the watchlist parsers found while fetching
+    WatchListSink.close(getConf());
+  }
+
+  private void closeNioClient() {
+    if (nioClient != null) {
+      nioClient.close();
+    }
   }
 
   public void fetch(Path segment, int threads, boolean parsing)
@@ -1102,6 +1634,7 @@ public class Fetcher extends Configured implements Tool,
     job.setOutputValueClass(NutchWritable.class);
 
     JobClient.runJob(job);
+    RobotRulesCache.commit(job, new Path(segment, RobotRulesCache.DIR_NAME));
     if (LOG.isInfoEnabled()) { LOG.info("Fetcher: done"); }
   }
 
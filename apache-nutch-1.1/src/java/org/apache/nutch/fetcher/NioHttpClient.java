@@ -0,0 +1,610 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.DnsCache;
+import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatus;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+
+/**
+ * A non-blocking HTTP client for the fetcher.
+ *
+ * <p>One selector thread keeps up to <code>fetcher.nio.connections</code>
+ * requests in flight, where the threaded fetcher needs one blocked
+ * FetcherThread per request. It sends the same HTTP/1.0 requests as the
+ * protocol-http plugin, for plain http URLs, directly or through
+ * <code>http.proxy.host</code>, and honors <code>http.timeout</code> and
+ * <code>http.content.limit</code> the same way.
+ *
+ * <p>Each finished {@link Exchange} is handed to its {@link Callback} on
+ * the selector thread, so callbacks must not block. Decoding the content
+ * and mapping the response code is left to
+ * {@link #getProtocolOutput(Exchange)}, to be called from a worker thread;
+ * it returns what the plugin would have returned for the same response.
+ */
+public class NioHttpClient implements Runnable {
+  public static final Log LOG = LogFactory.getLog(NioHttpClient.class);
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final long SELECT_TIMEOUT = 100;
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  /** Receives finished exchanges. */
+  public interface Callback {
+    /**
+     * Called once per exchange, on the selector thread, or on the
+     * submitting thread if the request could not be started.
+     */
+    void completed(Exchange exchange);
+  }
+
+  /** A request and its response, as read so far. */
+  public static class Exchange implements Response {
+    private final URL url;
+    private final Object attachment;
+    private final Callback callback;
+    private InetSocketAddress address;
+    private ByteBuffer request;
+    private SocketChannel channel;
+    private long deadline;
+    private boolean done;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int length;
+    // where the search for the end of the headers resumes
+    private int scanned = 1;
+    private int bodyStart = -1;
+    private int bodyLimit;
+    private int code;
+    private Metadata headers = new SpellCheckedMetadata();
+    private byte[] content;
+    private IOException exception;
+
+    Exchange(URL url, Object attachment, Callback callback) {
+      this.url = url;
+      this.attachment = attachment;
+      this.callback = callback;
+    }
+
+    /** The object given to {@link NioHttpClient#submit}. */
+    public Object getAttachment() {
+      return attachment;
+    }
+
+    /** Why the exchange failed, null if a response was read. */
+    public IOException getException() {
+      return exception;
+    }
+
+    public URL getUrl() {
+      return url;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public String getHeader(String name) {
+      return headers.get(name);
+    }
+
+    public Metadata getHeaders() {
+      return headers;
+    }
+
+    /** The content as sent, possibly compressed. */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Appends the bytes read.
+     * @return true once the whole response, up to the content limit, is read
+     */
+    boolean append(ByteBuffer data, int maxContent) throws IOException {
+      int n = data.remaining();
+      if (length + n > buf.length) {
+        byte[] grown = new byte[Math.max(length + n, buf.length * 2)];
+        System.arraycopy(buf, 0, grown, 0, length);
+        buf = grown;
+      }
+      data.get(buf, length, n);
+      length += n;
+      while (bodyStart < 0) {
+        int end = headerEnd();
+        if (end < 0) {
+          return false;
+        }
+        parseHeaders(end);
+        if (code == 100) {
+          // drop the interim response
+          System.arraycopy(buf, end, buf, 0, length - end);
+          length -= end;
+          scanned = 1;
+          headers = new SpellCheckedMetadata();
+          continue;
+        }
+        bodyStart = end;
+        bodyLimit = Integer.MAX_VALUE;
+        String contentLength = headers.get(CONTENT_LENGTH);
+        if (contentLength != null) {
+          try {
+            bodyLimit = Integer.parseInt(contentLength.trim());
+          } catch (NumberFormatException e) {
+            throw new IOException("bad content length: " + contentLength);
+          }
+        }
+        if (maxContent >= 0 && bodyLimit > maxContent) {
+          bodyLimit = maxContent;
+        }
+      }
+      return length - bodyStart >= bodyLimit;
+    }
+
+    /** Keeps the content once the response is read or the stream ended. */
+    void finish() throws IOException {
+      if (bodyStart < 0) {
+        throw new EOFException("End of stream before the response headers");
+      }
+      int n = Math.min(length - bodyStart, bodyLimit);
+      content = new byte[n];
+      System.arraycopy(buf, bodyStart, content, 0, n);
+      buf = null;
+    }
+
+    /** Index after the blank line ending the headers, or -1. */
+    private int headerEnd() {
+      for (int i = scanned; i < length; i++) {
+        if (buf[i] == '\n') {
+          if (buf[i - 1] == '\n') {
+            return i + 1;
+          }
+          if (buf[i - 1] == '\r' && i >= 2 && buf[i - 2] == '\n') {
+            return i + 1;
+          }
+        }
+      }
+      scanned = Math.max(1, length);
+      return -1;
+    }
+
+    private void parseHeaders(int end) throws IOException {
+      String head = new String(buf, 0, end, "ISO-8859-1");
+      String[] lines = head.split("\r?\n");
+      String status = lines[0];
+      int codeStart = status.indexOf(' ');
+      int codeEnd = status.indexOf(' ', codeStart + 1);
+      // "HTTP/1.1 200" as well as "HTTP/1.1 200 OK"
+      if (codeEnd == -1) {
+        codeEnd = status.length();
+      }
+      try {
+        code = Integer.parseInt(status.substring(codeStart + 1, codeEnd));
+      } catch (RuntimeException e) {
+        throw new IOException("bad status line '" + status + "': " + e.getMessage());
+      }
+      String key = null;
+      StringBuilder value = new StringBuilder();
+      for (int i = 1; i < lines.length; i++) {
+        String line = lines[i];
+        if (line.length() == 0) {
+          continue;
+        }
+        char first = line.charAt(0);
+        if ((first == ' ' || first == '\t') && key != null) {
+          // continued line
+          value.append(line.trim());
+          continue;
+        }
+        if (key != null) {
+          headers.set(key, value.toString());
+        }
+        int colon = line.indexOf(':');
+        if (colon == -1) {
+          if (line.trim().length() == 0) {
+            key = null;
+            continue;
+          }
+          throw new IOException("No colon in header:" + line);
+        }
+        key = line.substring(0, colon);
+        value.setLength(0);
+        value.append(line.substring(colon + 1).trim());
+      }
+      if (key != null) {
+        headers.set(key, value.toString());
+      }
+    }
+  }
+
+  private final Configuration conf;
+  private final int timeout;
+  private final int maxContent;
+  private final int maxConnections;
+  private final String userAgent;
+  private final String acceptLanguage;
+  private final String proxyHost;
+  private final int proxyPort;
+  private final DnsCache dnsCache;
+
+  private final Selector selector;
+  private final Queue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+  // connections open, only used by the selector thread
+  private final Set<Exchange> open = new HashSet<Exchange>();
+  private final AtomicInteger active = new AtomicInteger();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+  private volatile boolean closed;
+  private Thread thread;
+
+  public NioHttpClient(Configuration conf) throws IOException {
+    this.conf = conf;
+    this.timeout = conf.getInt("http.timeout", 10000);
+    this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    this.maxConnections = conf.getInt("fetcher.nio.connections", 1000);
+    this.userAgent = getAgentString(conf);
+    this.acceptLanguage = conf.get("http.accept.language", "en-us,en-gb,en;q=0.7,*;q=0.3");
+    String proxy = conf.get("http.proxy.host");
+    this.proxyHost = (proxy != null && proxy.length() > 0) ? proxy : null;
+    this.proxyPort = conf.getInt("http.proxy.port", 8080);
+    this.dnsCache = DnsCache.get(conf);
+    this.selector = Selector.open();
+  }
+
+  /** True if the client can fetch the URL. */
+  public static boolean accepts(URL url) {
+    return "http".equals(url.getProtocol());
+  }
+
+  public void start() {
+    thread = new Thread(this, "NioHttpClient");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Fails the exchanges still in flight and stops the selector thread. */
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Number of exchanges submitted and not completed yet. */
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Starts fetching a URL. Resolves the host on the calling thread,
+   * through the {@link DnsCache} the QueueFeeder warms up, the
+   * rest happens on the selector thread; once there are
+   * <code>fetcher.nio.connections</code> connections open, requests wait
+   * for one to close.
+   *
+   * @param datum used for If-Modified-Since
+   * @param attachment handed back in the exchange
+   */
+  public void submit(URL url, CrawlDatum datum, Object attachment, Callback callback) {
+    Exchange x = new Exchange(url, attachment, callback);
+    active.incrementAndGet();
+    try {
+      String host = url.getHost();
+      int port = url.getPort() == -1 ? 80 : url.getPort();
+      x.request = ByteBuffer.wrap(request(url, datum).getBytes("ISO-8859-1"));
+      x.address = (proxyHost != null)
+          ? new InetSocketAddress(dnsCache.resolve(proxyHost), proxyPort)
+          : new InetSocketAddress(dnsCache.resolve(host), port);
+    } catch (IOException e) {
+      complete(x, e);
+      return;
+    }
+    pending.add(x);
+    selector.wakeup();
+  }
+
+  private String request(URL url, CrawlDatum datum) {
+    String path = "".equals(url.getFile()) ? "/" : url.getFile();
+    String hostPort = url.getHost() + (url.getPort() == -1 ? "" : ":" + url.getPort());
+    StringBuilder req = new StringBuilder("GET ");
+    if (proxyHost != null) {
+      req.append(url.getProtocol()).append("://").append(hostPort);
+    }
+    req.append(path).append(" HTTP/1.0\r\n");
+    req.append("Host: ").append(hostPort).append("\r\n");
+    req.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
+    if (userAgent.length() > 0) {
+      req.append("User-Agent: ").append(userAgent).append("\r\n");
+    }
+    req.append("Accept-Language: ").append(acceptLanguage).append("\r\n");
+    if (datum != null && datum.getModifiedTime() > 0) {
+      req.append("If-Modified-Since: ")
+          .append(HttpDateFormat.toString(datum.getModifiedTime())).append("\r\n");
+    }
+    req.append("\r\n");
+    return req.toString();
+  }
+
+  public void run() {
+    long lastExpired = System.currentTimeMillis();
+    while (!closed) {
+      try {
+        long now = System.currentTimeMillis();
+        connectPending(now);
+        selector.select(SELECT_TIMEOUT);
+        now = System.currentTimeMillis();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Exchange x = (Exchange) key.attachment();
+          if (!key.isValid()) {
+            continue;
+          }
+          try {
+            if (key.isConnectable()) {
+              if (x.channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+              }
+            } else if (key.isWritable()) {
+              x.channel.write(x.request);
+              if (!x.request.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+              }
+            } else if (key.isReadable()) {
+              read(x);
+            }
+            x.deadline = now + timeout;
+          } catch (IOException e) {
+            complete(x, e);
+          }
+        }
+        if (now - lastExpired >= SELECT_TIMEOUT) {
+          expire(now);
+          lastExpired = now;
+        }
+      } catch (Throwable t) {
+        LOG.error("NioHttpClient caught: " + t, t);
+      }
+    }
+    IOException e = new IOException("Client closed");
+    for (Exchange x : new ArrayList<Exchange>(open)) {
+      complete(x, e);
+    }
+    Exchange x;
+    while ((x = pending.poll()) != null) {
+      complete(x, e);
+    }
+    try {
+      selector.close();
+    } catch (IOException ioe) {
+      LOG.warn("Cannot close selector: " + ioe);
+    }
+  }
+
+  private void connectPending(long now) {
+    Exchange x;
+    while (open.size() < maxConnections && (x = pending.poll()) != null) {
+      try {
+        x.channel = SocketChannel.open();
+        x.channel.configureBlocking(false);
+        open.add(x);
+        x.deadline = now + timeout;
+        int ops = x.channel.connect(x.address) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+        x.channel.register(selector, ops, x);
+      } catch (IOException e) {
+        complete(x, e);
+      }
+    }
+  }
+
+  private void read(Exchange x) throws IOException {
+    readBuffer.clear();
+    int n = x.channel.read(readBuffer);
+    if (n < 0) {
+      x.finish();
+      complete(x, null);
+      return;
+    }
+    readBuffer.flip();
+    if (x.append(readBuffer, maxContent)) {
+      x.finish();
+      complete(x, null);
+    }
+  }
+
+  private void expire(long now) {
+    List<Exchange> expired = null;
+    for (Exchange x : open) {
+      if (x.deadline < now) {
+        if (expired == null) {
+          expired = new ArrayList<Exchange>();
+        }
+        expired.add(x);
+      }
+    }
+    if (expired != null) {
+      for (Exchange x : expired) {
+        complete(x, new SocketTimeoutException("Timed out after " + timeout + " ms"));
+      }
+    }
+  }
+
+  private void complete(Exchange x, IOException e) {
+    if (x.done) {
+      return;
+    }
+    x.done = true;
+    if (x.channel != null) {
+      try {
+        x.channel.close();
+      } catch (IOException ioe) {
+        // ignore
+      }
+      open.remove(x);
+    }
+    x.exception = e;
+    x.buf = null;
+    x.request = null;
+    try {
+      x.callback.completed(x);
+    } catch (Throwable t) {
+      LOG.error("Callback failed for " + x.url + ": " + t, t);
+    }
+    // only now, so the exchange is never out of sight of both counts
+    active.decrementAndGet();
+  }
+
+  /**
+   * Turns a finished exchange into the output protocol-http returns for
+   * the same response: the content decoded, redirects resolved and the
+   * response code mapped to a {@link ProtocolStatus}.
+   */
+  public ProtocolOutput getProtocolOutput(Exchange x) {
+    URL u = x.getUrl();
+    String urlString = u.toString();
+    if (x.getException() != null) {
+      return new ProtocolOutput(null, new ProtocolStatus(x.getException()));
+    }
+    try {
+      int code = x.getCode();
+      byte[] content = decode(x);
+      Content c = new Content(urlString, urlString, content,
+          x.getHeader(Response.CONTENT_TYPE), x.getHeaders(), conf);
+
+      if (code == 200) {
+        return new ProtocolOutput(c);
+      } else if (code >= 300 && code < 400) {
+        String location = x.getHeader(Response.LOCATION);
+        if (location == null) location = "";
+        u = new URL(u, location);
+        int protocolStatusCode;
+        switch (code) {
+          case 302:   // found (temporarily moved)
+          case 303:   // see other (redirect after POST)
+          case 307:   // temporary redirect
+            protocolStatusCode = ProtocolStatus.TEMP_MOVED;
+            break;
+          case 304:   // not modified
+            protocolStatusCode = ProtocolStatus.NOTMODIFIED;
+            break;
+          default:
+            protocolStatusCode = ProtocolStatus.MOVED;
+        }
+        return new ProtocolOutput(c, new ProtocolStatus(protocolStatusCode, u));
+      } else if (code == 400 || code == 410) {
+        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.GONE, u));
+      } else if (code == 401) {
+        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.ACCESS_DENIED,
+            "Authentication required: " + urlString));
+      } else if (code == 404) {
+        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.NOTFOUND, u));
+      } else {
+        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.EXCEPTION,
+            "Http code=" + code + ", url=" + u));
+      }
+    } catch (Throwable e) {
+      return new ProtocolOutput(null, new ProtocolStatus(e));
+    }
+  }
+
+  private byte[] decode(Exchange x) throws IOException {
+    byte[] content = x.getContent();
+    if (content == null) {
+      return EMPTY_CONTENT;
+    }
+    String encoding = x.getHeader(Response.CONTENT_ENCODING);
+    if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+      content = (maxContent >= 0)
+          ? GZIPUtils.unzipBestEffort(content, maxContent)
+          : GZIPUtils.unzipBestEffort(content);
+      if (content == null) {
+        throw new IOException("unzipBestEffort returned null");
+      }
+    } else if ("deflate".equals(encoding)) {
+      content = DeflateUtils.inflateBestEffort(content, maxContent);
+      if (content == null) {
+        throw new IOException("inflateBestEffort returned null");
+      }
+    }
+    return content;
+  }
+
+  private static String getAgentString(Configuration conf) {
+    String name = conf.get("http.agent.name", "");
+    String version = conf.get("http.agent.version");
+    StringBuilder buf = new StringBuilder(name);
+    if (version != null) {
+      buf.append('/').append(version);
+    }
+    List<String> details = new ArrayList<String>();
+    for (String key : new String[] { "http.agent.description", "http.agent.url",
+        "http.agent.email" }) {
+      String value = conf.get(key);
+      if (value != null && value.length() > 0) {
+        details.add(value);
+      }
+    }
+    if (!details.isEmpty()) {
+      buf.append(" (");
+      for (int i = 0; i < details.size(); i++) {
+        if (i > 0) buf.append("; ");
+        buf.append(details.get(i));
+      }
+      buf.append(')');
+    }
+    return buf.toString();
+  }
+}
@@ -54,6 +54,14 @@ import org.apache.lucene.document.Document;
  * the document with the highest score is retained. If this property is set
  * to false, only the document with the shortest URL is retained - all other
  * content duplicates are scheduled for deletion.</li>
+ * <li><b>Phase 2b - remove product duplicates:</b><br/>
+ * If property "dedup.product" is true (default), the documents left are
+ * grouped by product, i.e. by the brand and item number of a product page
+ * (see "dedup.product.brand.field" and "dedup.product.id.fields"), and
+ * only one document is retained per product, chosen as in phase 2. This
+ * removes the copies of a product found under category, sale and other
+ * URLs, whose content differs. Documents without a brand or item number
+ * are left alone.</li>
  * <li><b>Phase 3 - delete documents:</b><br/>
  * In this phase documents scheduled for deletion are marked as deleted in
  * Lucene index(es).</li>
@@ -72,6 +80,9 @@ public class DeleteDuplicates extends Configured
 //
 //   2. map indexes -> <md5, <md5, url, time, urlLen, index,doc>>
 //      partition by md5
+//      reduce, deleting all but with highest score (or shortest url).
+//
+//   2b. map results of 2 -> <brand:itemNumber, <md5, url, ...>>
 //      reduce, deleting all but with highest score (or shortest url).
 
   public static class IndexDoc implements WritableComparable {
@@ -81,13 +92,14 @@ public class DeleteDuplicates extends Configured
     private long time;
     private MD5Hash hash = new MD5Hash();
     private Text index = new Text();              // the segment index
+    private Text product = new Text();            // brand:itemNumber, or empty
     private int doc;                              // within the index
     private boolean keep = true;                  // keep or discard
 
     public String toString() {
       return "[url=" + url + ",score=" + score + ",time=" + time
         + ",hash=" + hash + ",index=" + index + ",doc=" + doc
-        + ",keep=" + keep + "]";
+        + ",product=" + product + ",keep=" + keep + "]";
     }
     
     public void write(DataOutput out) throws IOException {
@@ -98,6 +110,7 @@ public class DeleteDuplicates extends Configured
       index.write(out);
       out.writeInt(doc);
       out.writeBoolean(keep);
+      product.write(out);
     }
 
     public void readFields(DataInput in) throws IOException {
@@ -109,6 +122,7 @@ public class DeleteDuplicates extends Configured
       index.readFields(in);
       doc = in.readInt();
       keep = in.readBoolean();
+      product.readFields(in);
     }
 
     public int compareTo(Object o) {
@@ -160,9 +174,14 @@ public class DeleteDuplicates extends Configured
       private int maxDoc = 0;
       private int doc = 0;
       private Text index;
+      private String brandField;
+      private String[] idFields;
       
       public DDRecordReader(FileSplit split, JobConf job,
           Text index) throws IOException {
+        brandField = job.get("dedup.product.brand.field", "brand");
+        idFields = job.getStrings("dedup.product.id.fields",
+            new String[] { "itemNumber", "id" });
         try {
           indexReader = IndexReader.open(new FsDirectory(FileSystem.get(job), split.getPath(), false, job));
           maxDoc = indexReader.maxDoc();
@@ -210,6 +229,15 @@ public class DeleteDuplicates extends Configured
         }
         indexDoc.index = index;
         indexDoc.doc = doc;
+        indexDoc.product.clear();
+        String brand = document.get(brandField);
+        String id = null;
+        for (int i = 0; i < idFields.length && id == null; i++) {
+          id = document.get(idFields[i]);
+        }
+        if (brand != null && id != null) {
+          indexDoc.product.set(brand + ":" + id);
+        }
 
         doc++;
 
@@ -294,9 +322,12 @@ public class DeleteDuplicates extends Configured
   
   public static class HashReducer implements Reducer<MD5Hash, IndexDoc, Text, IndexDoc> {
     boolean byScore;
+    boolean keepKept;
     
     public void configure(JobConf job) {
       byScore = job.getBoolean("dedup.keep.highest.score", true);
+      // phase 2b needs the documents retained here
+      keepKept = job.getBoolean("dedup.product", true);
     }
     
     public void close() {}
@@ -340,9 +371,57 @@ public class DeleteDuplicates extends Configured
         WritableUtils.cloneInto(highest, toKeep);
       }    
       LOG.debug("-keep " + highest);
-      // no need to add this - in phase 2 we only process docs to delete them
-      // highest.keep = true;
-      // output.collect(key, highest);
+      // phase 3 only processes docs to delete them, but phase 2b needs these
+      if (highestSet && keepKept) {
+        output.collect(highest.url, highest);
+      }
+    }
+  }
+
+  /** Groups the retained documents of product pages by product. */
+  public static class ProductMapper implements Mapper<Text, IndexDoc, Text, IndexDoc> {
+    public void configure(JobConf job) {}
+    
+    public void close() {}
+    
+    public void map(Text key, IndexDoc value,
+        OutputCollector<Text, IndexDoc> output, Reporter reporter) throws IOException {
+      if (value.keep && value.product.getLength() > 0) {
+        output.collect(value.product, value);
+      }
+    }
+  }
+
+  public static class ProductReducer implements Reducer<Text, IndexDoc, Text, IndexDoc> {
+    boolean byScore;
+    
+    public void configure(JobConf job) {
+      byScore = job.getBoolean("dedup.keep.highest.score", true);
+    }
+    
+    public void close() {}
+    
+    private IndexDoc highest = new IndexDoc();
+    
+    public void reduce(Text key, Iterator<IndexDoc> values,
+                       OutputCollector<Text, IndexDoc> output, Reporter reporter)
+      throws IOException {
+      WritableUtils.cloneInto(highest, values.next());
+      while (values.hasNext()) {
+        IndexDoc value = values.next();
+        boolean metric = byScore ? (value.score > highest.score) : 
+                                   (value.urlLen < highest.urlLen);
+        IndexDoc toDelete = metric ? highest : value;
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("-discard " + toDelete + ", keep product " + key);
+        }
+        toDelete.keep = false;
+        output.collect(toDelete.url, toDelete);
+        if (metric) {
+          WritableUtils.cloneInto(highest, value);
+        }
+      }
+      LOG.debug("-keep " + highest);
     }
   }
     
@@ -471,11 +550,36 @@ public class DeleteDuplicates extends Configured
 
     // remove outDir1 - no longer needed
     fs.delete(outDir1, true);
+
+    Path outDir3 = null;
+    if (getConf().getBoolean("dedup.product", true)) {
+      outDir3 =
+        new Path("dedup-product-"+
+                 Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+      job = new NutchJob(getConf());
+      job.setJobName("dedup 2b: products by brand and item number");
+
+      FileInputFormat.addInputPath(job, outDir2);
+      job.setInputFormat(SequenceFileInputFormat.class);
+      job.setMapperClass(ProductMapper.class);
+      job.setMapOutputKeyClass(Text.class);
+      job.setMapOutputValueClass(IndexDoc.class);
+
+      job.setReducerClass(ProductReducer.class);
+      FileOutputFormat.setOutputPath(job, outDir3);
+
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(IndexDoc.class);
+      job.setOutputFormat(SequenceFileOutputFormat.class);
+
+      JobClient.runJob(job);
+    }
     
     job = new NutchJob(getConf());
     job.setJobName("dedup 3: delete from index(es)");
 
     FileInputFormat.addInputPath(job, outDir2);
+    if (outDir3 != null) FileInputFormat.addInputPath(job, outDir3);
     job.setInputFormat(SequenceFileInputFormat.class);
     //job.setInputKeyClass(Text.class);
     //job.setInputValueClass(IndexDoc.class);
@@ -491,6 +595,7 @@ public class DeleteDuplicates extends Configured
     JobClient.runJob(job);
 
     fs.delete(outDir2, true);
+    if (outDir3 != null) fs.delete(outDir3, true);
 
     if (LOG.isInfoEnabled()) { LOG.info("Dedup: done"); }
   }
@@ -19,10 +19,12 @@ package org.apache.nutch.indexer.lucene;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import org.apache.hadoop.conf.Configuration;
@@ -32,6 +34,7 @@ import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.store.FSDirectory;
@@ -49,7 +52,9 @@ public class LuceneWriter implements NutchIndexWriter {
 
   public static enum STORE { YES, NO, COMPRESS }
 
-  public static enum INDEX { NO, NO_NORMS, TOKENIZED, UNTOKENIZED }
+  /** NUMERIC indexes a float value as a trie encoded {@link NumericField},
+   * for range filters and sorting. */
+  public static enum INDEX { NO, NO_NORMS, TOKENIZED, UNTOKENIZED, NUMERIC }
 
   public static enum VECTOR { NO, OFFSET, POS, POS_OFFSET, YES }
 
@@ -69,10 +74,13 @@ public class LuceneWriter implements NutchIndexWriter {
 
   private final Map<String, Field.TermVector> fieldVector;
 
+  private final Set<String> numericFields;
+
   public LuceneWriter() {
     fieldStore = new HashMap<String, Field.Store>();
     fieldIndex = new HashMap<String, Field.Index>();
     fieldVector = new HashMap<String, Field.TermVector>();
+    numericFields = new HashSet<String>();
   }
 
   private Document createLuceneDoc(NutchDocument doc) {
@@ -132,6 +140,21 @@ public class LuceneWriter implements NutchIndexWriter {
         }
       }
 
+      if (numericFields.contains(fieldName)) {
+        for (final String fieldValue : entry.getValue()) {
+          final float value;
+          try {
+            value = Float.parseFloat(fieldValue.trim());
+          } catch (NumberFormatException e) {
+            Indexer.LOG.warn("Skipping non numeric value '" + fieldValue
+                + "' of field " + fieldName);
+            continue;
+          }
+          out.add(new NumericField(fieldName, store, true).setFloatValue(value));
+        }
+        continue;
+      }
+
       for (final String fieldValue : entry.getValue()) {
         out.add(new Field(fieldName, fieldValue, store, index, vector));
       }
@@ -178,6 +201,9 @@ public class LuceneWriter implements NutchIndexWriter {
         case UNTOKENIZED:
           fieldIndex.put(field, Field.Index.NOT_ANALYZED);
           break;
+        case NUMERIC:
+          numericFields.add(field);
+          break;
         }
       } else if (key.startsWith(LuceneConstants.FIELD_VECTOR_PREFIX)) {
         final String field =
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A process-wide token bucket governor of the bandwidth used by the
+ * protocol plugins, with a cap on all fetches and a cap per host.
+ *
+ * <p>The protocols call {@link #throttle(String, int)} after each read. The
+ * bytes are taken from the global bucket and from the bucket of the host;
+ * a bucket may go into debt by one read, and the reader then sleeps until
+ * the debt is paid back at the bucket's rate, so the rates hold however
+ * many threads read at once. A full bucket allows a burst of one second.
+ * The caps are <code>fetcher.bandwidth.kbps</code> and
+ * <code>fetcher.bandwidth.host.kbps</code>, in kilobits per second like the
+ * fetcher status; 0 is no cap. The bytes read and the time spent throttled
+ * are counted either way.
+ */
+public class BandwidthThrottle {
+
+  private static BandwidthThrottle instance;
+
+  // buckets of hosts idle that long are dropped
+  private static final long IDLE_NANOS = 60 * 1000000000L;
+
+  /** A token bucket, in bytes. */
+  static class Bucket {
+    private final double rate;                    // bytes per nanosecond
+    private final double capacity;
+    private double tokens;
+    private long last;
+
+    Bucket(long bytesPerSecond, long now) {
+      this.rate = bytesPerSecond / 1e9;
+      this.capacity = bytesPerSecond;
+      this.tokens = capacity;
+      this.last = now;
+    }
+
+    /** Takes bytes, returns the nanoseconds to wait for them. */
+    synchronized long take(int bytes, long now) {
+      tokens = Math.min(capacity, tokens + (now - last) * rate);
+      last = now;
+      tokens -= bytes;
+      return tokens < 0 ? (long) (-tokens / rate) : 0;
+    }
+
+    synchronized boolean isIdle(long now) {
+      return now - last > IDLE_NANOS;
+    }
+  }
+
+  private final long bytesPerSecond;
+  private final long hostBytesPerSecond;
+  private final Bucket global;
+  private final ConcurrentMap<String, Bucket> hosts =
+    new ConcurrentHashMap<String, Bucket>();
+  private final AtomicLong nextPurge = new AtomicLong();
+
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong throttledNanos = new AtomicLong();
+
+  /**
+   * The governor of this process, created with the settings of the first
+   * configuration it is asked for.
+   */
+  public static synchronized BandwidthThrottle get(Configuration conf) {
+    if (instance == null) {
+      instance = new BandwidthThrottle(
+          toBytes(conf.getLong("fetcher.bandwidth.kbps", 0)),
+          toBytes(conf.getLong("fetcher.bandwidth.host.kbps", 0)));
+    }
+    return instance;
+  }
+
+  private static long toBytes(long kbps) {
+    return kbps * 1024 / 8;
+  }
+
+  /**
+   * @param bytesPerSecond the cap on all reads, 0 for none
+   * @param hostBytesPerSecond the cap on the reads from one host, 0 for none
+   */
+  public BandwidthThrottle(long bytesPerSecond, long hostBytesPerSecond) {
+    this.bytesPerSecond = bytesPerSecond;
+    this.hostBytesPerSecond = hostBytesPerSecond;
+    long now = System.nanoTime();
+    this.global = bytesPerSecond > 0 ? new Bucket(bytesPerSecond, now) : null;
+    this.nextPurge.set(now + IDLE_NANOS);
+  }
+
+  /** True if there is a global or a per host cap. */
+  public boolean isLimited() {
+    return bytesPerSecond > 0 || hostBytesPerSecond > 0;
+  }
+
+  /**
+   * Counts bytes just read from a host, and sleeps as long as needed to
+   * keep under the caps. An interrupt ends the sleep and is kept.
+   */
+  public void throttle(String host, int bytes) {
+    if (bytes <= 0) {
+      return;
+    }
+    bytesRead.addAndGet(bytes);
+    if (!isLimited()) {
+      return;
+    }
+    long now = System.nanoTime();
+    long wait = 0;
+    if (global != null) {
+      wait = global.take(bytes, now);
+    }
+    if (hostBytesPerSecond > 0 && host != null) {
+      wait = Math.max(wait, getBucket(host.toLowerCase(), now).take(bytes, now));
+      purge(now);
+    }
+    if (wait <= 0) {
+      return;
+    }
+    throttledNanos.addAndGet(wait);
+    try {
+      Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Bucket getBucket(String host, long now) {
+    Bucket bucket = hosts.get(host);
+    if (bucket == null) {
+      Bucket created = new Bucket(hostBytesPerSecond, now);
+      bucket = hosts.putIfAbsent(host, created);
+      if (bucket == null) {
+        bucket = created;
+      }
+    }
+    return bucket;
+  }
+
+  /** Drops the buckets of idle hosts, at most once per idle period. */
+  private void purge(long now) {
+    long next = nextPurge.get();
+    if (now - next < 0 || !nextPurge.compareAndSet(next, now + IDLE_NANOS)) {
+      return;
+    }
+    for (Iterator<Bucket> i = hosts.values().iterator(); i.hasNext();) {
+      if (i.next().isIdle(now)) {
+        // a full bucket, the host gets a new one if it comes back
+        i.remove();
+      }
+    }
+  }
+
+  /** The bytes counted since the start of the process. */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /** The time readers slept to keep under the caps, in milliseconds. */
+  public long getThrottledMillis() {
+    return throttledNanos.get() / 1000000;
+  }
+
+  /** The global cap in bytes per second, 0 for none. */
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /** The per host cap in bytes per second, 0 for none. */
+  public long getHostBytesPerSecond() {
+    return hostBytesPerSecond;
+  }
+
+  /** Number of hosts with a bucket. */
+  int getHostCount() {
+    return hosts.size();
+  }
+}
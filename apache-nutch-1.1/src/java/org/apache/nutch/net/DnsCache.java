@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A process-wide cache of host name resolutions, shared by the fetcher,
+ * the protocol plugins and the URL partitioner, so a host is resolved once
+ * per TTL instead of once per URL.
+ *
+ * <p>Addresses are kept for <code>dns.cache.ttl</code> milliseconds and
+ * failures for <code>dns.cache.negative.ttl</code>; at most
+ * <code>dns.cache.size</code> hosts are kept, the least recently used go
+ * first. {@link #prefetch(String)} resolves a host in the background on
+ * one of <code>dns.prefetch.threads</code> threads, so that the lookup is
+ * in the cache when a fetcher thread needs it. A host is resolved by one
+ * thread at a time, the others wait for its result.
+ */
+public class DnsCache {
+
+  public static final Log LOG = LogFactory.getLog(DnsCache.class);
+
+  private static DnsCache instance;
+
+  /** A resolution, with a null address for a host that did not resolve. */
+  private static class Entry {
+    final InetAddress address;
+    final long expires;
+
+    Entry(InetAddress address, long expires) {
+      this.address = address;
+      this.expires = expires;
+    }
+  }
+
+  private final long ttl;
+  private final long negativeTtl;
+  private final int maxSize;
+  // guarded by itself, in access order
+  private final Map<String, Entry> cache;
+  // resolutions under way
+  private final ConcurrentMap<String, FutureTask<Entry>> pending =
+    new ConcurrentHashMap<String, FutureTask<Entry>>();
+  private final ThreadPoolExecutor prefetcher;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong prefetches = new AtomicLong();
+
+  /**
+   * The cache of this process, created with the settings of the first
+   * configuration it is asked for.
+   */
+  public static synchronized DnsCache get(Configuration conf) {
+    if (instance == null) {
+      instance = new DnsCache(conf.getLong("dns.cache.ttl", 1800000),
+          conf.getLong("dns.cache.negative.ttl", 60000),
+          conf.getInt("dns.cache.size", 100000),
+          conf.getInt("dns.prefetch.threads", 10));
+    }
+    return instance;
+  }
+
+  public DnsCache(long ttl, long negativeTtl, final int maxSize,
+      int prefetchThreads) {
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.maxSize = maxSize;
+    this.cache = new LinkedHashMap<String, Entry>(1024, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+    this.prefetcher = new ThreadPoolExecutor(prefetchThreads, prefetchThreads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxSize),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "dns-prefetch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.prefetcher.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Resolves a host, from the cache if it is there.
+   * @throws UnknownHostException if the host does not resolve, or did not
+   * within the negative TTL
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    host = host.toLowerCase();
+    Entry entry = lookup(host);
+    if (entry != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      entry = load(host);
+    }
+    if (entry.address == null) {
+      throw new UnknownHostException(host);
+    }
+    return entry.address;
+  }
+
+  /** Resolves a host in the background, if it is not in the cache. */
+  public void prefetch(String host) {
+    host = host.toLowerCase();
+    if (lookup(host) != null || pending.containsKey(host)) {
+      return;
+    }
+    FutureTask<Entry> task = newTask(host);
+    if (pending.putIfAbsent(host, task) != null) {
+      return;
+    }
+    try {
+      prefetcher.execute(task);
+      prefetches.incrementAndGet();
+    } catch (RejectedExecutionException e) {
+      // too many waiting, it will be resolved when needed
+      pending.remove(host, task);
+    }
+  }
+
+  private Entry lookup(String host) {
+    synchronized (cache) {
+      Entry entry = cache.get(host);
+      if (entry != null && entry.expires < System.currentTimeMillis()) {
+        cache.remove(host);
+        entry = null;
+      }
+      return entry;
+    }
+  }
+
+  /** Resolves a host, or waits for the thread already resolving it. */
+  private Entry load(String host) throws UnknownHostException {
+    FutureTask<Entry> task = pending.get(host);
+    if (task == null) {
+      FutureTask<Entry> created = newTask(host);
+      task = pending.putIfAbsent(host, created);
+      if (task == null) {
+        task = created;
+      }
+    }
+    // a task runs once: this resolves a prefetch still waiting in the
+    // queue instead of waiting for the lookups ahead of it
+    task.run();
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      throw new UnknownHostException(host + ": interrupted");
+    } catch (ExecutionException e) {
+      throw new UnknownHostException(host + ": " + e.getCause());
+    }
+  }
+
+  private FutureTask<Entry> newTask(String host) {
+    Resolution resolution = new Resolution(host);
+    resolution.task = new FutureTask<Entry>(resolution);
+    return resolution.task;
+  }
+
+  /** Resolves a host into the cache. */
+  private class Resolution implements Callable<Entry> {
+    final String host;
+    FutureTask<Entry> task;
+
+    Resolution(String host) {
+      this.host = host;
+    }
+
+    public Entry call() {
+      Entry entry;
+      try {
+        entry = new Entry(getByName(host),
+            System.currentTimeMillis() + ttl);
+      } catch (UnknownHostException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Unable to resolve: " + host);
+        }
+        entry = new Entry(null, System.currentTimeMillis() + negativeTtl);
+      }
+      synchronized (cache) {
+        cache.put(host, entry);
+      }
+      pending.remove(host, task);
+      return entry;
+    }
+  }
+
+  /** Asks the name service, overridden in tests. */
+  protected InetAddress getByName(String host) throws UnknownHostException {
+    return InetAddress.getByName(host);
+  }
+
+  /** Number of hosts in the cache. */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getPrefetches() {
+    return prefetches.get();
+  }
+
+  public String toString() {
+    return "DnsCache[hosts=" + size() + ", hits=" + hits + ", misses="
+        + misses + ", prefetches=" + prefetches + "]";
+  }
+}
@@ -19,26 +19,60 @@ package org.apache.nutch.parse;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.plugin.*;
+import org.apache.nutch.util.HostTrie;
 import org.apache.nutch.util.ObjectCache;
 import org.apache.hadoop.conf.Configuration;
 
 import org.w3c.dom.DocumentFragment;
 
-/** Creates and caches {@link HtmlParseFilter} implementing plugins.*/
+/**
+ * Creates and caches {@link HtmlParseFilter} implementing plugins.
+ *
+ * <p>A filter only interested in some sites can declare them in its
+ * plugin.xml, as a whitespace separated list of <code>host[/path]</code>
+ * prefixes:</p>
+ * <pre>
+ *   &lt;implementation id="..." class="..."&gt;
+ *     &lt;parameter name="hosts" value="jcrew.com us.burberry.com/store/"/&gt;
+ *   &lt;/implementation&gt;
+ * </pre>
+ * <p>A filter that reads its sites from its own configuration implements
+ * {@link RoutedHtmlParseFilter} instead, and its hosts take the place of
+ * the parameter.</p>
+ * <p>All declared prefixes go into one {@link HostTrie}, and a page is only
+ * handed to the filters of the most specific prefix matching its URL.
+ * Filters without hosts run on every page.</p>
+ */
 public class HtmlParseFilters {
 
   private HtmlParseFilter[] htmlParseFilters;
+  private Routes routes;
   
   public static final String HTMLPARSEFILTER_ORDER = "htmlparsefilter.order";
 
+  /** The plugin.xml parameter listing the URL prefixes a filter handles. */
+  public static final String HOSTS_ATTRIBUTE = "hosts";
+
+  private static final String ROUTES_KEY = HtmlParseFilter.class.getName() + ".routes";
+
+  /** The filters of every declared prefix. */
+  private static class Routes {
+    final HostTrie<HtmlParseFilter[]> trie = new HostTrie<HtmlParseFilter[]>();
+    // routed[i] is true if htmlParseFilters[i] declared hosts
+    boolean[] routed;
+  }
+
   public HtmlParseFilters(Configuration conf) {
         String order = conf.get(HTMLPARSEFILTER_ORDER);
         ObjectCache objectCache = ObjectCache.get(conf);
         this.htmlParseFilters = (HtmlParseFilter[]) objectCache.getObject(HtmlParseFilter.class.getName());
-        if (htmlParseFilters == null) {
+        this.routes = (Routes) objectCache.getObject(ROUTES_KEY);
+        if (htmlParseFilters == null || routes == null) {
           /*
            * If ordered filters are required, prepare array of filters based on
            * property
@@ -49,6 +83,8 @@ public class HtmlParseFilters {
           }
             HashMap<String, HtmlParseFilter> filterMap =
               new HashMap<String, HtmlParseFilter>();
+            Map<String, List<HtmlParseFilter>> hostMap =
+              new HashMap<String, List<HtmlParseFilter>>();
             try {
                 ExtensionPoint point = PluginRepository.get(conf).getExtensionPoint(HtmlParseFilter.X_POINT_ID);
                 if (point == null)
@@ -59,6 +95,8 @@ public class HtmlParseFilters {
                     HtmlParseFilter parseFilter = (HtmlParseFilter) extension.getExtensionInstance();
                     if (!filterMap.containsKey(parseFilter.getClass().getName())) {
                         filterMap.put(parseFilter.getClass().getName(), parseFilter);
+                        addHosts(hostMap, hostsOf(parseFilter,
+                            extension.getAttribute(HOSTS_ATTRIBUTE)), parseFilter);
                     }
                 }
                 HtmlParseFilter[] htmlParseFilters = filterMap.values().toArray(new HtmlParseFilter[filterMap.size()]);
@@ -86,14 +124,91 @@ public class HtmlParseFilters {
                 throw new RuntimeException(e);
             }
             this.htmlParseFilters = (HtmlParseFilter[]) objectCache.getObject(HtmlParseFilter.class.getName());
+
+            this.routes = route(htmlParseFilters, hostMap);
+            objectCache.setObject(ROUTES_KEY, routes);
         }
     }                  
 
+  /**
+   * Runs the given filters, each only on the pages of its hosts.
+   * @param hosts the hosts parameter of each filter, null if it has none
+   */
+  HtmlParseFilters(HtmlParseFilter[] filters, String[] hosts) {
+    Map<String, List<HtmlParseFilter>> hostMap =
+      new HashMap<String, List<HtmlParseFilter>>();
+    for (int i = 0; i < filters.length; i++) {
+      addHosts(hostMap, hostsOf(filters[i], hosts[i]), filters[i]);
+    }
+    this.htmlParseFilters = filters;
+    this.routes = route(filters, hostMap);
+  }
+
+  /** Puts the hosts of all filters into one trie. */
+  private static Routes route(HtmlParseFilter[] htmlParseFilters,
+      Map<String, List<HtmlParseFilter>> hostMap) {
+    Routes routes = new Routes();
+    for (Map.Entry<String, List<HtmlParseFilter>> entry : hostMap.entrySet()) {
+      List<HtmlParseFilter> filters = entry.getValue();
+      routes.trie.put(entry.getKey(), filters.toArray(new HtmlParseFilter[filters.size()]));
+    }
+    routes.routed = new boolean[htmlParseFilters.length];
+    for (List<HtmlParseFilter> filters : hostMap.values()) {
+      for (HtmlParseFilter filter : filters) {
+        for (int i = 0; i < htmlParseFilters.length; i++) {
+          routes.routed[i] |= (htmlParseFilters[i] == filter);
+        }
+      }
+    }
+    return routes;
+  }
+
+  /** The hosts of a filter: its own if it is routed, else the declared. */
+  private static String hostsOf(HtmlParseFilter filter, String declared) {
+    if (!(filter instanceof RoutedHtmlParseFilter)) {
+      return declared;
+    }
+    String[] hosts = ((RoutedHtmlParseFilter) filter).getHosts();
+    if (hosts == null) {
+      return null;
+    }
+    StringBuilder value = new StringBuilder();
+    for (String host : hosts) {
+      value.append(host).append(' ');
+    }
+    return value.toString();
+  }
+
+  private static void addHosts(Map<String, List<HtmlParseFilter>> hostMap,
+      String hosts, HtmlParseFilter filter) {
+    if (hosts == null || hosts.trim().length() == 0) {
+      return;
+    }
+    for (String prefix : hosts.trim().split("\\s+")) {
+      List<HtmlParseFilter> filters = hostMap.get(prefix);
+      if (filters == null) {
+        filters = new ArrayList<HtmlParseFilter>();
+        hostMap.put(prefix, filters);
+      }
+      filters.add(filter);
+    }
+  }
+
   /** Run all defined filters. */
   public ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags, DocumentFragment doc) {
 
+    HtmlParseFilter[] selected = null;
+    if (routes.trie.size() > 0) {
+      selected = routes.trie.get(content.getBaseUrl());
+    }
+
     // loop on each filter
     for (int i = 0 ; i < this.htmlParseFilters.length; i++) {
+      if (routes.routed[i] && !contains(selected, htmlParseFilters[i])) {
+        // the page is not on one of the hosts of this filter
+        continue;
+      }
+
       // call filter interface
       parseResult =
         htmlParseFilters[i].filter(content, parseResult, metaTags, doc);
@@ -111,4 +226,15 @@ public class HtmlParseFilters {
 
     return parseResult;
   }
+
+  private static boolean contains(HtmlParseFilter[] filters, HtmlParseFilter filter) {
+    if (filters != null) {
+      for (int i = 0; i < filters.length; i++) {
+        if (filters[i] == filter) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+// Hadoop imports
+import org.apache.hadoop.conf.Configurable;
+
+// Nutch imports
+import org.apache.nutch.plugin.Pluggable;
+import org.apache.nutch.protocol.Content;
+
+
+/** Extension point for SAX-based HTML parsers.  A filter that only needs a
+ * few elements of a page can claim it, and the page is then parsed as a
+ * stream of SAX events without building a DOM tree.  The
+ * {@link HtmlParseFilter}s are not run on pages a stream filter claims.
+ */
+public interface HtmlStreamFilter extends Pluggable, Configurable {
+  /** The name of the extension point. */
+  final static String X_POINT_ID = HtmlStreamFilter.class.getName();
+
+  /** Returns the handler that receives the SAX events of a page, or
+   * <code>null</code> if the filter is not interested in the page. */
+  HtmlStreamHandler open(Content content);
+}
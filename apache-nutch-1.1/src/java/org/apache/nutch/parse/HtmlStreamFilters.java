@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.plugin.*;
+import org.apache.nutch.util.ObjectCache;
+import org.apache.hadoop.conf.Configuration;
+
+/** Creates and caches {@link HtmlStreamFilter} implementing plugins. */
+public class HtmlStreamFilters {
+
+  private static final HtmlStreamHandler[] NO_HANDLERS = new HtmlStreamHandler[0];
+
+  private HtmlStreamFilter[] htmlStreamFilters;
+
+  public HtmlStreamFilters(Configuration conf) {
+    ObjectCache objectCache = ObjectCache.get(conf);
+    this.htmlStreamFilters = (HtmlStreamFilter[]) objectCache.getObject(HtmlStreamFilter.class.getName());
+    if (htmlStreamFilters == null) {
+      HashMap<String, HtmlStreamFilter> filterMap = new HashMap<String, HtmlStreamFilter>();
+      try {
+        ExtensionPoint point = PluginRepository.get(conf).getExtensionPoint(HtmlStreamFilter.X_POINT_ID);
+        if (point == null)
+          throw new RuntimeException(HtmlStreamFilter.X_POINT_ID + " not found.");
+        Extension[] extensions = point.getExtensions();
+        for (int i = 0; i < extensions.length; i++) {
+          HtmlStreamFilter filter = (HtmlStreamFilter) extensions[i].getExtensionInstance();
+          if (!filterMap.containsKey(filter.getClass().getName())) {
+            filterMap.put(filter.getClass().getName(), filter);
+          }
+        }
+      } catch (PluginRuntimeException e) {
+        throw new RuntimeException(e);
+      }
+      objectCache.setObject(HtmlStreamFilter.class.getName(),
+          filterMap.values().toArray(new HtmlStreamFilter[filterMap.size()]));
+      this.htmlStreamFilters = (HtmlStreamFilter[]) objectCache.getObject(HtmlStreamFilter.class.getName());
+    }
+  }
+
+  /** Returns the handlers of the filters claiming a page, an empty array if
+   * the page is to be parsed into a DOM tree. */
+  public HtmlStreamHandler[] open(Content content) {
+    List<HtmlStreamHandler> handlers = null;
+    for (int i = 0; i < htmlStreamFilters.length; i++) {
+      HtmlStreamHandler handler = htmlStreamFilters[i].open(content);
+      if (handler != null) {
+        if (handlers == null) {
+          handlers = new ArrayList<HtmlStreamHandler>(1);
+        }
+        handlers.add(handler);
+      }
+    }
+    if (handlers == null) {
+      return NO_HANDLERS;
+    }
+    return handlers.toArray(new HtmlStreamHandler[handlers.size()]);
+  }
+
+  /** Run the handlers of a streamed page. */
+  public static ParseResult filter(HtmlStreamHandler[] handlers, Content content,
+                                   ParseResult parseResult, HTMLMetaTags metaTags) {
+    for (int i = 0; i < handlers.length; i++) {
+      parseResult = handlers[i].filter(content, parseResult, metaTags);
+
+      // any failure on parse obj, return
+      if (!parseResult.isSuccess()) {
+        // remove failed parse before return
+        parseResult.filter();
+        return parseResult;
+      }
+    }
+    return parseResult;
+  }
+}
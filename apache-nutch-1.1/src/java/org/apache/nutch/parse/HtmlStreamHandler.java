@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.apache.nutch.protocol.Content;
+
+/**
+ * Receives the SAX events of one page claimed by a {@link HtmlStreamFilter},
+ * then modifies the parse like a {@link HtmlParseFilter}.  Element names are
+ * lower case.  A handler is used for a single page, by a single thread.
+ */
+public abstract class HtmlStreamHandler extends DefaultHandler {
+
+  /** Adds metadata or otherwise modifies a parse of HTML content, once all
+   * the events of the page were received. */
+  public abstract ParseResult filter(Content content, ParseResult parseResult,
+                                     HTMLMetaTags metaTags);
+}
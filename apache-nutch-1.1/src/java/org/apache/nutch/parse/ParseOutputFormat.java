@@ -140,7 +140,8 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
         // to pass to the metadata of the crawlDB entry
         CrawlDatum parseMDCrawlDatum = null;
         for (String mdname : parseMDtoCrawlDB) {
-          String mdvalue = parse.getData().getParseMeta().get(mdname);
+          // the parse metadata, then the content metadata
+          String mdvalue = parse.getData().getMeta(mdname);
           if (mdvalue != null) {
             if (parseMDCrawlDatum == null) parseMDCrawlDatum = new CrawlDatum(
                 CrawlDatum.STATUS_PARSE_META, 0);
@@ -31,6 +31,8 @@ import org.apache.nutch.protocol.*;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.util.*;
+import org.apache.nutch.watchlist.PoolingDataDriver;
+import org.apache.nutch.watchlist.WatchListSink;
 import org.apache.hadoop.fs.Path;
 
 import java.io.*;
@@ -59,13 +61,20 @@ public class ParseSegment extends Configured implements Tool,
     this.scfilters = new ScoringFilters(job);
   }
 
-  public void close() {}
+  public void close() {
+    // flush the products the watchlist parsers found in this task
+    WatchListSink.close(getConf());
+    // once per task, the pool statistics are shared by all records
+    PoolingDataDriver.reportCounters(reporter);
+  }
   
   private Text newKey = new Text();
+  private Reporter reporter;
 
   public void map(WritableComparable key, Content content,
                   OutputCollector<Text, ParseImpl> output, Reporter reporter)
     throws IOException {
+    this.reporter = reporter;
     // convert on the fly from old UTF8 keys
     if (key instanceof UTF8) {
       newKey.set(key.toString());
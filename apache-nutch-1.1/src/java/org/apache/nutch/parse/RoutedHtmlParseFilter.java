@@ -0,0 +1,30 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+/** An {@link HtmlParseFilter} that knows the sites it is interested in from
+ * its configuration, instead of a <code>hosts</code> parameter in its
+ * plugin.xml.  See {@link HtmlParseFilters}.
+ */
+public interface RoutedHtmlParseFilter extends HtmlParseFilter {
+
+  /** Returns the <code>host[/path]</code> prefixes of the pages to filter,
+   * or null or none to filter every page.  Called once, after the configuration
+   * is set. */
+  String[] getHosts();
+}
@@ -0,0 +1,326 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The robots.txt rules of the hosts a process has fetched from, shared by
+ * the protocol plugins.
+ *
+ * <p>Lookups do not lock. A rule set is dropped once past its expire time,
+ * and at most <code>robots.cache.size</code> hosts are kept, the oldest
+ * cached go first. When several threads miss the same host, one loads its
+ * rules and the others wait for them, so robots.txt is fetched once.
+ *
+ * <p>With <code>robots.cache.db</code> set, the rules are kept across
+ * fetch cycles: they are loaded from the MapFiles in that directory when
+ * the protocol registers its rules class. Each fetch task saves the rules
+ * of the hosts it fetched robots.txt from to the task output of the
+ * segment, so only the committed attempt of a task counts, and after the
+ * job the fetcher moves them into the db as one directory per cycle. The
+ * cycles whose rules have all expired are deleted then.
+ */
+public class RobotRulesCache {
+
+  public static final Log LOG = LogFactory.getLog(RobotRulesCache.class);
+
+  /** The directory of a segment the fetch tasks save the rules to. */
+  public static final String DIR_NAME = "robots";
+
+  /** Loads the rules of a host on a cache miss. */
+  public interface Loader {
+    /**
+     * Returns the rules of a host; the loader puts them in the cache if
+     * they should be kept.
+     */
+    RobotRules load(String host);
+  }
+
+  private static RobotRulesCache instance;
+
+  private final Configuration conf;
+  private final int maxSize;
+  private final Path db;
+  private final ConcurrentMap<String, RobotRules> rules =
+    new ConcurrentHashMap<String, RobotRules>();
+  // hosts roughly in the order they were cached, to evict the oldest
+  private final Queue<String> order = new ConcurrentLinkedQueue<String>();
+  // hosts whose rules are being loaded
+  private final ConcurrentMap<String, FutureTask<RobotRules>> loading =
+    new ConcurrentHashMap<String, FutureTask<RobotRules>>();
+  // hosts put since the last save, as opposed to loaded from the db
+  private final Set<String> fetched =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private Class<? extends RobotRules> rulesClass;
+
+  /**
+   * The cache of this process, created with the settings of the first
+   * configuration it is asked for.
+   */
+  public static synchronized RobotRulesCache get(Configuration conf) {
+    if (instance == null) {
+      instance = new RobotRulesCache(conf);
+    }
+    return instance;
+  }
+
+  public RobotRulesCache(Configuration conf) {
+    this.conf = conf;
+    this.maxSize = conf.getInt("robots.cache.size", 10000);
+    String dir = conf.get("robots.cache.db");
+    this.db = (dir == null || dir.length() == 0) ? null : new Path(dir);
+  }
+
+  /** The rules of a host, or null if they are not cached or expired. */
+  public RobotRules get(String host) {
+    RobotRules r = rules.get(host);
+    if (r != null && r.getExpireTime() <= System.currentTimeMillis()) {
+      if (rules.remove(host, r)) {
+        // or a later put would evict the host as if it were cached then
+        order.remove(host);
+      }
+      r = null;
+    }
+    return r;
+  }
+
+  /**
+   * The rules of a host, loaded on a miss. A host is loaded by one thread
+   * at a time.
+   */
+  public RobotRules get(final String host, final Loader loader) {
+    RobotRules r = get(host);
+    if (r != null) {
+      return r;
+    }
+    FutureTask<RobotRules> task = loading.get(host);
+    if (task == null) {
+      FutureTask<RobotRules> created =
+        new FutureTask<RobotRules>(new Callable<RobotRules>() {
+          public RobotRules call() {
+            return loader.load(host);
+          }
+        });
+      task = loading.putIfAbsent(host, created);
+      if (task == null) {
+        task = created;
+        try {
+          task.run();
+        } finally {
+          loading.remove(host, task);
+        }
+      }
+    }
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return loader.load(host);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /** Caches the rules of a host, evicting the oldest hosts if full. */
+  public void put(String host, RobotRules r) {
+    cache(host, r);
+    fetched.add(host);
+  }
+
+  private void cache(String host, RobotRules r) {
+    if (rules.put(host, r) == null) {
+      order.add(host);
+      while (rules.size() > maxSize) {
+        String oldest = order.poll();
+        if (oldest == null) {
+          break;
+        }
+        rules.remove(oldest);
+      }
+    }
+  }
+
+  /** Number of hosts cached. */
+  public int size() {
+    return rules.size();
+  }
+
+  /**
+   * Sets the Writable class of the rules a protocol caches, so that they
+   * can be saved and loaded, and loads the saved rules the first time.
+   */
+  public synchronized void setRulesClass(Class<? extends RobotRules> clazz) {
+    if (rulesClass != null) {
+      return;
+    }
+    if (!Writable.class.isAssignableFrom(clazz)) {
+      throw new IllegalArgumentException(clazz + " is not Writable");
+    }
+    rulesClass = clazz;
+    if (db != null) {
+      try {
+        load();
+      } catch (IOException e) {
+        LOG.warn("Couldn't load the robots rules from " + db + ": " + e);
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    FileSystem fs = db.getFileSystem(conf);
+    if (!fs.exists(db)) {
+      return;
+    }
+    FileStatus[] parts = fs.globStatus(new Path(db, "*/part-*"));
+    if (parts == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    int count = 0;
+    for (FileStatus part : parts) {
+      MapFile.Reader reader =
+        new MapFile.Reader(fs, part.getPath().toString(), conf);
+      try {
+        Text host = new Text();
+        RobotRules r = ReflectionUtils.newInstance(rulesClass, conf);
+        while (reader.next(host, (Writable) r)) {
+          RobotRules current = rules.get(host.toString());
+          if (r.getExpireTime() > now
+              && (current == null || current.getExpireTime() < r.getExpireTime())) {
+            cache(host.toString(), r);
+            count++;
+            r = ReflectionUtils.newInstance(rulesClass, conf);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Loaded the robots rules of " + count + " hosts from " + db);
+    }
+  }
+
+  /**
+   * Saves the rules that have not expired of the hosts put since the last
+   * save to a MapFile, not those loaded from <code>robots.cache.db</code>.
+   * Does nothing without a db or if there is nothing to save.
+   */
+  public synchronized void save(Path part) throws IOException {
+    if (db == null || rulesClass == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    TreeMap<String, RobotRules> sorted = new TreeMap<String, RobotRules>();
+    for (String host : fetched) {
+      RobotRules r = rules.get(host);
+      if (r != null && r.getExpireTime() > now && rulesClass.isInstance(r)) {
+        sorted.put(host, r);
+      }
+    }
+    fetched.clear();
+    if (sorted.isEmpty()) {
+      return;
+    }
+    FileSystem fs = part.getFileSystem(conf);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs, part.toString(),
+        Text.class, rulesClass.asSubclass(Writable.class));
+    try {
+      Text key = new Text();
+      for (Map.Entry<String, RobotRules> e : sorted.entrySet()) {
+        key.set(e.getKey());
+        writer.append(key, (Writable) e.getValue());
+      }
+    } finally {
+      writer.close();
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Saved the robots rules of " + sorted.size() + " hosts to " + part);
+    }
+  }
+
+  /**
+   * Moves the rules the tasks of a fetch job saved to <code>saved</code>
+   * into <code>robots.cache.db</code>, and deletes the earlier cycles
+   * whose rules have all expired.
+   */
+  public static void commit(Configuration conf, Path saved) throws IOException {
+    String dir = conf.get("robots.cache.db");
+    if (dir == null || dir.length() == 0) {
+      return;
+    }
+    Path db = new Path(dir);
+    FileSystem fs = db.getFileSystem(conf);
+    long now = System.currentTimeMillis();
+    if (fs.exists(saved)) {
+      fs.mkdirs(db);
+      long time = now;
+      Path cycle = new Path(db, Long.toString(time));
+      while (fs.exists(cycle)) {
+        cycle = new Path(db, Long.toString(++time));
+      }
+      if (!fs.rename(saved, cycle)) {
+        throw new IOException("Couldn't rename " + saved + " to " + cycle);
+      }
+    }
+    if (!fs.exists(db)) {
+      return;
+    }
+    // rules expire at most robots.cache.ttl after they were saved
+    long ttl = conf.getLong("robots.cache.ttl", 24L * 60 * 60 * 1000);
+    for (FileStatus status : fs.listStatus(db)) {
+      String name = status.getPath().getName();
+      long time;
+      try {
+        time = Long.parseLong(name);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      if (time + ttl <= now) {
+        fs.delete(status.getPath(), true);
+      }
+    }
+  }
+}
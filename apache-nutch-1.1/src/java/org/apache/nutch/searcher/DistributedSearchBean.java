@@ -232,6 +232,7 @@ public class DistributedSearchBean implements SearchBean {
     }
 
     long totalHits = 0;
+    FacetCounts facets = null;
     int allHitsSize = allHits.size();
     for (int i = 0; i < allHitsSize; i++) {
       Hits hits = null;
@@ -249,6 +250,11 @@ public class DistributedSearchBean implements SearchBean {
       }
 
       totalHits += hits.getTotal();
+      if (hits.getFacets() != null) {           // add up facets
+        if (facets == null)
+          facets = new FacetCounts();
+        facets.merge(hits.getFacets());
+      }
 
       int hitsLength = hits.getLength();
       for (int j = 0; j < hitsLength; j++) {
@@ -268,7 +274,9 @@ public class DistributedSearchBean implements SearchBean {
     Hit[] culledResults = queue.toArray(new Hit[queue.size()]);
     Arrays.sort(culledResults, Collections.reverseOrder(queue.comparator()));
 
-    return new Hits(totalHits, culledResults);
+    Hits results = new Hits(totalHits, culledResults);
+    results.setFacets(facets);
+    return results;
   }
 
   @Override
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.OpenBitSetDISI;
+
+/** Counts the hits per value of some fields while passing them on to
+ * another collector, so that facets cost no extra search.  Values of a field
+ * are counted by their {@link FieldCache} ordinal in an <code>int[]</code>
+ * per index segment.  Numeric fields are counted per range of values, see
+ * {@link Range}. */
+public class FacetCollector extends Collector {
+
+  /** Buckets of the values of a float field indexed as a
+   * {@link org.apache.lucene.document.NumericField}.  Bucket <i>i</i> holds
+   * values from bound <i>i-1</i> inclusive up to bound <i>i</i> exclusive.
+   * Buckets are labeled in range query syntax, as <code>[25 TO 50}</code>.
+   * Keep ranges across searches, they cache which documents have a value. */
+  public static class Range {
+    private final String field;
+    private final float[] bounds;
+    private final String[] labels;
+    private final CachingWrapperFilter hasValue;
+
+    public Range(String field, float[] bounds) {
+      this.field = field;
+      this.bounds = bounds.clone();
+      Arrays.sort(this.bounds);
+      labels = new String[this.bounds.length + 1];
+      for (int i = 0; i < labels.length; i++) {
+        String lower = (i == 0) ? "*" : format(this.bounds[i - 1]);
+        String upper = (i == this.bounds.length) ? "*" : format(this.bounds[i]);
+        labels[i] = "[" + lower + " TO " + upper
+          + (i == this.bounds.length ? "]" : "}");
+      }
+      hasValue = new CachingWrapperFilter(
+          NumericRangeFilter.newFloatRange(field, null, null, true, true));
+    }
+
+    public String getField() { return field; }
+
+    /** Index of the bucket of a value. */
+    int bucket(float value) {
+      int lo = 0;
+      int hi = bounds.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (bounds[mid] <= value) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    private OpenBitSet docs(IndexReader reader) throws IOException {
+      DocIdSet set = hasValue.getDocIdSet(reader);
+      if (set instanceof OpenBitSet)
+        return (OpenBitSet)set;
+      DocIdSetIterator docs = (set == null) ? null : set.iterator();
+      if (docs == null)
+        return new OpenBitSet(reader.maxDoc());
+      return new OpenBitSetDISI(docs, reader.maxDoc());
+    }
+
+    private static String format(float bound) {
+      if (bound == (long)bound)
+        return Long.toString((long)bound);
+      return Float.toString(bound);
+    }
+  }
+
+  private final Collector delegate;
+  private final String[] fields;
+  private final Range[] ranges;
+
+  // the current segment
+  private String[][] lookups;
+  private int[][] orders;
+  private int[][] counts;
+  private float[][] values;
+  private OpenBitSet[] hasValues;
+
+  // over all segments
+  private final int[][] bucketCounts;
+  private final FacetCounts result = new FacetCounts();
+
+  /** Construct to count the values of fields and the buckets of ranges of the
+   * hits passed to a collector. */
+  public FacetCollector(Collector delegate, String[] fields, Range[] ranges) {
+    this.delegate = delegate;
+    this.fields = fields;
+    this.ranges = ranges;
+    lookups = new String[fields.length][];
+    orders = new int[fields.length][];
+    counts = new int[fields.length][];
+    values = new float[ranges.length][];
+    hasValues = new OpenBitSet[ranges.length];
+    bucketCounts = new int[ranges.length][];
+    for (int i = 0; i < ranges.length; i++) {
+      bucketCounts[i] = new int[ranges[i].labels.length];
+    }
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    delegate.setScorer(scorer);
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    delegate.collect(doc);                        // first, it may give up
+    for (int i = 0; i < orders.length; i++) {
+      counts[i][orders[i][doc]]++;
+    }
+    for (int i = 0; i < values.length; i++) {
+      if (hasValues[i].fastGet(doc))
+        bucketCounts[i][ranges[i].bucket(values[i][doc])]++;
+    }
+  }
+
+  @Override
+  public void setNextReader(IndexReader reader, int docBase)
+    throws IOException {
+    delegate.setNextReader(reader, docBase);
+    flush();
+    for (int i = 0; i < fields.length; i++) {
+      FieldCache.StringIndex index =
+        FieldCache.DEFAULT.getStringIndex(reader, fields[i]);
+      lookups[i] = index.lookup;
+      orders[i] = index.order;
+      counts[i] = new int[index.lookup.length];
+    }
+    for (int i = 0; i < ranges.length; i++) {
+      values[i] = FieldCache.DEFAULT.getFloats(reader, ranges[i].field,
+          FieldCache.NUMERIC_UTILS_FLOAT_PARSER);
+      hasValues[i] = ranges[i].docs(reader);
+    }
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return delegate.acceptsDocsOutOfOrder();
+  }
+
+  /** Adds the counts of the current segment to the result.  Ordinal zero is
+   * for documents without a value. */
+  private void flush() {
+    for (int i = 0; i < fields.length; i++) {
+      if (counts[i] == null)
+        continue;
+      for (int ord = 1; ord < counts[i].length; ord++) {
+        if (counts[i][ord] > 0)
+          result.add(fields[i], lookups[i][ord], counts[i][ord]);
+      }
+      counts[i] = null;
+      lookups[i] = null;
+      orders[i] = null;
+    }
+  }
+
+  /** Returns the counts of the hits collected so far, the values of fields
+   * most frequent first, the buckets of ranges in order. */
+  public FacetCounts getCounts() {
+    flush();
+    FacetCounts counts = new FacetCounts();
+    for (int i = 0; i < fields.length; i++) {
+      final String field = fields[i];
+      String[] fieldValues = result.getValues(field);
+      Arrays.sort(fieldValues, new Comparator<String>() {
+        public int compare(String a, String b) {
+          long diff = result.getCount(field, b) - result.getCount(field, a);
+          return diff != 0 ? (diff < 0 ? -1 : 1) : a.compareTo(b);
+        }
+      });
+      for (int j = 0; j < fieldValues.length; j++) {
+        counts.add(field, fieldValues[j], result.getCount(field, fieldValues[j]));
+      }
+    }
+    for (int i = 0; i < ranges.length; i++) {
+      for (int j = 0; j < bucketCounts[i].length; j++) {
+        counts.add(ranges[i].field, ranges[i].labels[j], bucketCounts[i][j]);
+      }
+    }
+    return counts;
+  }
+}
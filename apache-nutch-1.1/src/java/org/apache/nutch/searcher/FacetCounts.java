@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/** The number of hits per value of some fields, for the facets of a search
+ * result.  Values keep the order they were first added in. */
+public final class FacetCounts implements Writable {
+
+  private Map<String, Map<String, Long>> counts =
+    new LinkedHashMap<String, Map<String, Long>>();
+
+  public FacetCounts() {}
+
+  /** Adds to the count of a value of a field. */
+  public void add(String field, String value, long count) {
+    Map<String, Long> values = counts.get(field);
+    if (values == null) {
+      values = new LinkedHashMap<String, Long>();
+      counts.put(field, values);
+    }
+    Long old = values.get(value);
+    values.put(value, old == null ? count : old.longValue() + count);
+  }
+
+  /** Adds the counts of other facets, as for the hits of several indexes. */
+  public void merge(FacetCounts other) {
+    for (Map.Entry<String, Map<String, Long>> field : other.counts.entrySet()) {
+      for (Map.Entry<String, Long> value : field.getValue().entrySet()) {
+        add(field.getKey(), value.getKey(), value.getValue().longValue());
+      }
+    }
+  }
+
+  /** Multiplies every count by a factor, to estimate the counts of all
+   * hits from those of the part of an index that was searched. */
+  public void scale(float factor) {
+    for (Map<String, Long> values : counts.values()) {
+      for (Map.Entry<String, Long> value : values.entrySet()) {
+        value.setValue((long)(value.getValue().longValue() * factor));
+      }
+    }
+  }
+
+  /** Returns the fields counted. */
+  public String[] getFields() {
+    return counts.keySet().toArray(new String[counts.size()]);
+  }
+
+  /** Returns the values counted for a field. */
+  public String[] getValues(String field) {
+    Map<String, Long> values = counts.get(field);
+    if (values == null)
+      return new String[0];
+    return values.keySet().toArray(new String[values.size()]);
+  }
+
+  /** Returns the number of hits with a value of a field. */
+  public long getCount(String field, String value) {
+    Map<String, Long> values = counts.get(field);
+    Long count = (values == null) ? null : values.get(value);
+    return count == null ? 0 : count.longValue();
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, counts.size());
+    for (Map.Entry<String, Map<String, Long>> field : counts.entrySet()) {
+      Text.writeString(out, field.getKey());
+      WritableUtils.writeVInt(out, field.getValue().size());
+      for (Map.Entry<String, Long> value : field.getValue().entrySet()) {
+        Text.writeString(out, value.getKey());
+        WritableUtils.writeVLong(out, value.getValue().longValue());
+      }
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    counts.clear();
+    int fields = WritableUtils.readVInt(in);
+    for (int i = 0; i < fields; i++) {
+      String field = Text.readString(in);
+      int values = WritableUtils.readVInt(in);
+      for (int j = 0; j < values; j++) {
+        String value = Text.readString(in);
+        add(field, value, WritableUtils.readVLong(in));
+      }
+    }
+  }
+
+  public String toString() {
+    return counts.toString();
+  }
+
+}
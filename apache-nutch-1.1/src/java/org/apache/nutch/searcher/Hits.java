@@ -31,6 +31,7 @@ public final class Hits implements Writable {
   private long total;
   private boolean totalIsExact = true;
   private Hit[] top;
+  private FacetCounts facets;
 
   public Hits() {}
 
@@ -56,6 +57,12 @@ public final class Hits implements Writable {
   /** Returns the <code>i</code><sup>th</sup> hit in this list. */
   public Hit getHit(int i) { return top[i]; }
 
+  /** Returns the facet counts of all hits, or null if none were counted. */
+  public FacetCounts getFacets() { return facets; }
+
+  /** Set {@link #getFacets()}. */
+  public void setFacets(FacetCounts facets) { this.facets = facets; }
+
   /** Returns a subset of the hit objects. */
   public Hit[] getHits(int start, int length) {
     Hit[] results = new Hit[length];
@@ -77,6 +84,10 @@ public final class Hits implements Writable {
       h.getSortValue().write(out);                // write sortValue
       Text.writeString(out, h.getDedupValue());   // write dedupValue
     }
+
+    out.writeBoolean(facets != null);             // write facets
+    if (facets != null)
+      facets.write(out);
   }
 
   @SuppressWarnings("unchecked")
@@ -107,6 +118,12 @@ public final class Hits implements Writable {
 
       top[i] = new Hit(uniqueKey, sortValue, dedupValue);
     }
+
+    facets = null;                                // read facets
+    if (in.readBoolean()) {
+      facets = new FacetCounts();
+      facets.readFields(in);
+    }
   }
 
 }
@@ -105,10 +105,13 @@ public class IndexSearcher implements Searcher, HitDetailer {
   public Hits search(Query query) throws IOException {
     org.apache.lucene.search.BooleanQuery luceneQuery =
       this.queryFilters.filter(query);
-    return translateHits(optimizer.optimize(luceneQuery, luceneSearcher, query
-        .getParams().getNumHits(), query.getParams().getSortField(), query
-        .getParams().isReverse()), query.getParams().getDedupField(), query
-        .getParams().getSortField());
+    FacetCounts facets = optimizer.hasFacets() ? new FacetCounts() : null;
+    Hits hits = translateHits(optimizer.optimize(luceneQuery, luceneSearcher,
+        query.getParams().getNumHits(), query.getParams().getSortField(),
+        query.getParams().isReverse(), facets),
+        query.getParams().getDedupField(), query.getParams().getSortField());
+    hits.setFacets(facets);
+    return hits;
   }
 
 
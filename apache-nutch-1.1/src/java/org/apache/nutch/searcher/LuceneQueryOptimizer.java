@@ -30,7 +30,10 @@ import org.apache.lucene.search.Searcher;
  * caches these.  Only required clauses whose boost is zero are converted to
  * cached filters.  Range queries are converted to range filters.  This
  * accellerates query constraints like date, language, document format, etc.,
- * which do not affect ranking but might otherwise slow search considerably. */
+ * which do not affect ranking but might otherwise slow search considerably.
+ * Sorts on the fields listed in <code>searcher.sort.float.fields</code>
+ * compare the float values of numeric fields from the FieldCache.  Facets
+ * are counted in the same pass as the hits, see {@link FacetCollector}. */
 class LuceneQueryOptimizer {
 
   // This thread provides a pseudo-clock service to all searching
@@ -96,6 +99,7 @@ class LuceneQueryOptimizer {
     private TimerThread timer;
     private int curTicks;
     private TopDocsCollector<ScoreDoc> delegate;
+    private int docBase;
 
     public LimitedCollector(int numHits, int maxHits, int maxTicks,
             TimerThread timer) {
@@ -117,14 +121,15 @@ class LuceneQueryOptimizer {
     @Override
     public void collect(int doc) throws IOException {
       if (maxHits > 0 && delegate.getTotalHits() >= maxHits) {
-        throw new LimitExceeded(doc);
+        throw new LimitExceeded(docBase + doc);
       }
       if (timer != null) {
         curTicks = timer.timeCounter;
         // overflow check
         if (curTicks < startTicks) curTicks += Integer.MAX_VALUE;
         if (curTicks - startTicks > maxTicks) {
-          throw new TimeExceeded(timer.tick * (curTicks - startTicks), doc);
+          throw new TimeExceeded(timer.tick * (curTicks - startTicks),
+                                 docBase + doc);
         }
       }
       delegate.collect(doc);
@@ -133,6 +138,7 @@ class LuceneQueryOptimizer {
     @Override
     public void setNextReader(IndexReader r, int base)
         throws IOException {
+      docBase = base;                             // to estimate from index docs
       delegate.setNextReader(r, base);
     }
 
@@ -161,6 +167,12 @@ private static class LimitExceeded extends RuntimeException {
   private int tickLength;
 
   private int maxTickCount;
+
+  private Set<String> floatSortFields;
+
+  private String[] facetFields;
+
+  private FacetCollector.Range[] facetRanges;
   
   /**
    * Construct an optimizer that caches and uses filters for required clauses
@@ -177,6 +189,21 @@ public LuceneQueryOptimizer(Configuration conf) {
     this.threshold = conf.getFloat("searcher.filter.cache.threshold",
         0.05f);
     this.searcherMaxHits = conf.getInt("searcher.max.hits", -1);
+    this.floatSortFields = new HashSet<String>(Arrays.asList(
+        conf.getStrings("searcher.sort.float.fields", new String[0])));
+    this.facetFields = conf.getStrings("searcher.facet.fields", new String[0]);
+    String[] rangeFields =
+      conf.getStrings("searcher.facet.range.fields", new String[0]);
+    this.facetRanges = new FacetCollector.Range[rangeFields.length];
+    for (int i = 0; i < rangeFields.length; i++) {
+      String[] bounds = conf.getStrings("searcher.facet.range." + rangeFields[i],
+          new String[0]);
+      float[] values = new float[bounds.length];
+      for (int j = 0; j < bounds.length; j++) {
+        values[j] = Float.parseFloat(bounds[j].trim());
+      }
+      facetRanges[i] = new FacetCollector.Range(rangeFields[i], values);
+    }
     this.cache = new LinkedHashMap<BooleanQuery, Filter>(cacheSize, 0.75f, true) {
       protected boolean removeEldestEntry(Map.Entry<BooleanQuery, Filter> eldest) {
         return size() > cacheSize; // limit size of cache
@@ -193,6 +220,21 @@ public LuceneQueryOptimizer(Configuration conf) {
                           Searcher searcher, int numHits,
                           String sortField, boolean reverse)
     throws IOException {
+    return optimize(original, searcher, numHits, sortField, reverse, null);
+  }
+
+  /** True if facets are configured, see {@link FacetCollector}. */
+  public boolean hasFacets() {
+    return facetFields.length > 0 || facetRanges.length > 0;
+  }
+
+  /** Search, adding the facet counts of all hits to <code>facets</code>
+   * if it is not null. */
+  public TopDocs optimize(BooleanQuery original,
+                          Searcher searcher, int numHits,
+                          String sortField, boolean reverse,
+                          FacetCounts facets)
+    throws IOException {
 
     BooleanQuery query = new BooleanQuery();
     BooleanQuery cacheQuery = new BooleanQuery();
@@ -221,6 +263,12 @@ public LuceneQueryOptimizer(Configuration conf) {
           continue;
         }
 
+        if (c.getQuery() instanceof NumericRangeQuery) { // NumericRangeQuery
+          filters.add(toFilter((NumericRangeQuery<?>)c.getQuery()));
+          cacheQuery.add(c.getQuery(), BooleanClause.Occur.MUST); // cache it
+          continue;
+        }
+
         // all other query types
         filterQuery.add(c.getQuery(), BooleanClause.Occur.MUST);  // filter it
         cacheQuery.add(c.getQuery(), BooleanClause.Occur.MUST);   // cache it
@@ -255,38 +303,84 @@ public LuceneQueryOptimizer(Configuration conf) {
         }
       }        
     }
+    if (facets != null && !hasFacets())
+      facets = null;
     if (sortField == null && !reverse) {
 
-      // no hit limit
-      if (this.searcherMaxHits <= 0 && timerThread == null)  {
+      // no hit limit and no facets
+      if (this.searcherMaxHits <= 0 && timerThread == null && facets == null) {
         return searcher.search(query, filter, numHits);
       }
 
       // hits limited in time or in count -- use a LimitedCollector
       LimitedCollector collector = new LimitedCollector(numHits, searcherMaxHits,
               maxTickCount, timerThread);
+      FacetCollector facetCollector = null;
+      if (facets != null)                         // count facets in passing
+        facetCollector = new FacetCollector(collector, facetFields, facetRanges);
       LimitExceeded exceeded = null;
       TimeExceeded timeExceeded = null;
       try {
-        searcher.search(query, filter, collector);
+        searcher.search(query, filter,
+            facetCollector != null ? facetCollector : collector);
       } catch (LimitExceeded le) {
         exceeded = le;
       } catch (TimeExceeded te) {
         timeExceeded = te;
       }
       TopDocs results = collector.topDocs();
+      float scale = 1.0f;
       if (exceeded != null) {                     // limit was exceeded
-        results.totalHits = (int)                 // must estimate totalHits
-          (results.totalHits*(searcher.maxDoc()/(float)exceeded.maxDoc));
+        scale = searcher.maxDoc()/(float)exceeded.maxDoc;
       } else if (timeExceeded != null) {
-        // Estimate total hits.
-        results.totalHits = (int)(results.totalHits * (searcher.maxDoc()/(float)timeExceeded.maxDoc));
+        scale = searcher.maxDoc()/(float)timeExceeded.maxDoc;
+      }
+      if (scale != 1.0f)                          // must estimate totalHits
+        results.totalHits = (int)(results.totalHits * scale);
+      if (facetCollector != null) {               // and facets the same way
+        FacetCounts counts = facetCollector.getCounts();
+        if (scale != 1.0f)
+          counts.scale(scale);
+        facets.merge(counts);
       }
       return results;
 
     } else {
-      return searcher.search(query, filter, numHits,
-                             new Sort(new SortField(sortField, SortField.STRING, reverse)));
+      SortField sort;
+      if (floatSortFields.contains(sortField)) {  // sort on FieldCache floats
+        sort = new SortField(sortField, FieldCache.NUMERIC_UTILS_FLOAT_PARSER,
+                             reverse);
+      } else {
+        sort = new SortField(sortField, SortField.STRING, reverse);
+      }
+      if (facets == null)
+        return searcher.search(query, filter, numHits, new Sort(sort));
+
+      TopFieldCollector collector = TopFieldCollector.create(new Sort(sort),
+          numHits, true, false, false, false);
+      FacetCollector facetCollector =
+        new FacetCollector(collector, facetFields, facetRanges);
+      searcher.search(query, filter, facetCollector);
+      facets.merge(facetCollector.getCounts());
+      return collector.topDocs();
+    }
+  }
+
+  /** Convert a numeric range query to the equivalent filter. */
+  private static Filter toFilter(NumericRangeQuery<?> range) {
+    Number min = range.getMin();
+    Number max = range.getMax();
+    if (min instanceof Float || max instanceof Float) {
+      return NumericRangeFilter.newFloatRange(range.getField(),
+          (Float)min, (Float)max, range.includesMin(), range.includesMax());
+    } else if (min instanceof Double || max instanceof Double) {
+      return NumericRangeFilter.newDoubleRange(range.getField(),
+          (Double)min, (Double)max, range.includesMin(), range.includesMax());
+    } else if (min instanceof Long || max instanceof Long) {
+      return NumericRangeFilter.newLongRange(range.getField(),
+          (Long)min, (Long)max, range.includesMin(), range.includesMax());
     }
+    return NumericRangeFilter.newIntRange(range.getField(),
+        (Integer)min, (Integer)max, range.includesMin(), range.includesMax());
   }
 }
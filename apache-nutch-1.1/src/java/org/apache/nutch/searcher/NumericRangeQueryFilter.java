@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+
+import org.apache.nutch.searcher.Query.Clause;
+import org.apache.hadoop.conf.Configuration;
+
+/** Translate range clauses on a float field indexed as a
+ * {@link org.apache.lucene.document.NumericField} into a
+ * {@link NumericRangeQuery}.  Query values are <code>[lower TO upper]</code>
+ * with inclusive, or <code>{lower TO upper}</code> with exclusive bounds,
+ * <code>*</code> for an open bound, or a single number.  The field must be
+ * registered as a raw field.  The boost is zero, so that
+ * {@link LuceneQueryOptimizer} turns required ranges into cached filters. */
+public abstract class NumericRangeQueryFilter implements QueryFilter {
+
+  private static final Pattern RANGE = Pattern.compile(
+      "^([\\[{])\\s*(\\S+)\\s+[Tt][Oo]\\s+(\\S+)\\s*([\\]}])$");
+
+  private String field;
+  private Configuration conf;
+
+  /** Construct for the named field.*/
+  protected NumericRangeQueryFilter(String field) {
+    this.field = field;
+  }
+
+  public BooleanQuery filter(Query input, BooleanQuery output)
+    throws QueryException {
+    
+    // examine each clause in the Nutch query
+    Clause[] clauses = input.getClauses();
+    for (int i = 0; i < clauses.length; i++) {
+      Clause c = clauses[i];
+
+      // skip non-matching clauses
+      if (!c.getField().equals(field))
+        continue;
+
+      // raw fields are guaranteed to be Terms, not Phrases
+      String value = c.getTerm().toString().trim();
+      NumericRangeQuery<Float> range;
+      Matcher matcher = RANGE.matcher(value);
+      if (matcher.matches()) {
+        range = NumericRangeQuery.newFloatRange(field,
+            parseBound(matcher.group(2), value),
+            parseBound(matcher.group(3), value),
+            "[".equals(matcher.group(1)), "]".equals(matcher.group(4)));
+      } else {
+        Float exact = parseBound(value, value);
+        if (exact == null)
+          throw new QueryException("Wrong query syntax " + field + ":" + value);
+        range = NumericRangeQuery.newFloatRange(field, exact, exact, true, true);
+      }
+
+      range.setBoost(0.0f);                       // trigger filterization
+
+      output.add(range,
+          (c.isProhibited()
+              ? BooleanClause.Occur.MUST_NOT
+              : (c.isRequired()
+                  ? BooleanClause.Occur.MUST
+                  : BooleanClause.Occur.SHOULD
+                 )
+           ));
+    }
+    
+    // return the modified Lucene query
+    return output;
+  }
+
+  /** Parses a bound, null for <code>*</code>. */
+  private Float parseBound(String bound, String value) throws QueryException {
+    if ("*".equals(bound))
+      return null;
+    try {
+      return Float.valueOf(bound.replace(",", ""));
+    } catch (NumberFormatException e) {
+      throw new QueryException("Wrong query syntax " + field + ":" + value);
+    }
+  }
+
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  public Configuration getConf() {
+    return this.conf;
+  }
+}
@@ -181,6 +181,7 @@ HitInlinks, Closeable {
     }
     Hits hits = searchBean.search(query);
     final long total = hits.getTotal();
+    final FacetCounts facets = hits.getFacets();
     final Map<String, DupHits> dupToHits = new HashMap<String, DupHits>();
     final List<Hit> resultList = new ArrayList<Hit>();
     final Set<Hit> seen = new HashSet<Hit>();
@@ -249,6 +250,7 @@ HitInlinks, Closeable {
       new Hits(total,
                resultList.toArray(new Hit[resultList.size()]));
     results.setTotalIsExact(totalIsExact);
+    results.setFacets(facets);
     return results;
   }
 
@@ -24,6 +24,8 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // Commons Logging imports
 import org.apache.commons.logging.Log;
@@ -453,10 +455,32 @@ public final class Query implements Writable, Cloneable, Configurable {
    */
   public static Query parse(String queryString, String queryLang, Configuration conf)
   throws IOException {
+    queryString = quoteRanges(queryString, conf);
     return fixup(NutchAnalysis.parseQuery(
             queryString, AnalyzerFactory.get(conf).get(queryLang), conf), conf);
   }
 
+  private static final Pattern RANGE =
+    Pattern.compile("(?<![\\w\"])(\\w+):([\\[{][^\\[\\]{}\"]*[\\]}])");
+
+  /** Quote <code>field:[a TO b]</code> ranges on raw fields, so that the
+   * analyzer passes them on as a single term. */
+  private static String quoteRanges(String queryString, Configuration conf) {
+    if (queryString.indexOf('[') < 0 && queryString.indexOf('{') < 0)
+      return queryString;
+    QueryFilters filters = new QueryFilters(conf);
+    Matcher matcher = RANGE.matcher(queryString);
+    StringBuffer buffer = new StringBuffer();
+    while (matcher.find()) {
+      String replacement = matcher.group();
+      if (filters.isRawField(matcher.group(1)))
+        replacement = matcher.group(1) + ":\"" + matcher.group(2) + "\"";
+      matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+    }
+    matcher.appendTail(buffer);
+    return buffer.toString();
+  }
+
   /** Parse a query from a string. */
   public static Query parse(String queryString, Configuration conf) throws IOException {
     return parse(queryString, null, conf);
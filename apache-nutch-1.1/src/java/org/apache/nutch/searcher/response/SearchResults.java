@@ -16,6 +16,7 @@
  */
 package org.apache.nutch.searcher.response;
 
+import org.apache.nutch.searcher.FacetCounts;
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
 import org.apache.nutch.searcher.Summary;
@@ -36,6 +37,7 @@ public class SearchResults {
   private Hit[] hits;
   private HitDetails[] details;
   private Summary[] summaries;
+  private FacetCounts facets;
 
   public SearchResults() {
 
@@ -153,4 +155,12 @@ public class SearchResults {
     this.summaries = summaries;
   }
 
+  public FacetCounts getFacets() {
+    return facets;
+  }
+
+  public void setFacets(FacetCounts facets) {
+    this.facets = facets;
+  }
+
 }
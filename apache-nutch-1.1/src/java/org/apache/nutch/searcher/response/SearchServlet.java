@@ -188,6 +188,7 @@ public class SearchServlet
     results.setRows(rows);
     results.setEnd(end);
     results.setTotalHits(totalHits);
+    results.setFacets(hits.getFacets());
     results.setHits(show);
     results.setDetails(details);
 
@@ -44,6 +44,7 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Generator;
+import org.apache.nutch.crawl.Injector;
 import org.apache.nutch.crawl.URLPartitioner;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
@@ -89,8 +90,25 @@ public class FreeGenerator extends Configured implements Tool {
 
     public void map(WritableComparable key, Text value, OutputCollector<Text,
         Generator.SelectorEntry> output, Reporter reporter) throws IOException {
-      // value is a line of text
+      // value is a line of text, a URL optionally followed by tab
+      // separated metadata as accepted by the Injector
       String urlString = value.toString();
+      float customScore = -1f;
+      int tab = urlString.indexOf('\t');
+      if (tab != -1) {
+        String[] splits = urlString.split("\t");
+        urlString = splits[0];
+        for (int s = 1; s < splits.length; s++) {
+          if (splits[s].startsWith(Injector.nutchScoreMDName + "=")) {
+            try {
+              customScore = Float.parseFloat(
+                  splits[s].substring(Injector.nutchScoreMDName.length() + 1));
+            } catch (NumberFormatException nfe) {
+              LOG.warn("Invalid score in '" + value + "', ignoring it");
+            }
+          }
+        }
+      }
       try {
         if (normalizers != null) {
           urlString = normalizers.normalize(urlString, URLNormalizers.SCOPE_INJECT);
@@ -101,6 +119,9 @@ public class FreeGenerator extends Configured implements Tool {
         if (urlString != null) {
           url.set(urlString);
           scfilters.injectedScore(url, datum);
+          if (customScore != -1f) {
+            datum.setScore(customScore);
+          }
         }
       } catch (Exception e) {
         LOG.warn("Error adding url '" + value.toString() + "', skipping: " + StringUtils.stringifyException(e));
@@ -136,7 +157,8 @@ public class FreeGenerator extends Configured implements Tool {
     if (args.length < 2) {
       System.err.println("Usage: FreeGenerator <inputDir> <segmentsDir> [-filter] [-normalize]");
       System.err.println("\tinputDir\tinput directory containing one or more input files.");
-      System.err.println("\t\tEach text file contains a list of URLs, one URL per line");
+      System.err.println("\t\tEach text file contains a list of URLs, one URL per line,");
+      System.err.println("\t\toptionally followed by \\tnutch.score=<score> as for the Injector");
       System.err.println("\tsegmentsDir\toutput directory, where new segment will be created");
       System.err.println("\t-filter\trun current URLFilters on input URLs");
       System.err.println("\t-normalize\trun current URLNormalizers on input URLs");
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+/**
+ * Maps URL prefixes of the form <code>host[/path]</code> to values, and
+ * finds the value of a URL by walking its host name once from the end.
+ *
+ * <p>A host matches itself and all of its sub-domains, so
+ * <code>jcrew.com</code> matches <code>www.jcrew.com</code>. When several
+ * prefixes match, the longest host wins, and for the same host the longest
+ * path prefix. Host names are compared ignoring case, paths are not.</p>
+ *
+ * <p>The trie is not synchronized for writes: fill it, then share it.
+ * Lookups do not allocate.</p>
+ */
+public class HostTrie<T> {
+
+  private final Node root = new Node('\000');
+  private int size;
+
+  private static class Node {
+    final char c;
+    Node[] children = new Node[0];
+    // path prefixes and values of the host ending here, longest path first
+    String[] paths;
+    Object[] values;
+
+    Node(char c) {
+      this.c = c;
+    }
+
+    Node child(char next) {
+      int lo = 0;
+      int hi = children.length - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        char mc = children[mid].c;
+        if (mc < next) {
+          lo = mid + 1;
+        } else if (mc > next) {
+          hi = mid - 1;
+        } else {
+          return children[mid];
+        }
+      }
+      return null;
+    }
+
+    Node addChild(char next) {
+      Node node = child(next);
+      if (node != null) {
+        return node;
+      }
+      node = new Node(next);
+      Node[] newChildren = new Node[children.length + 1];
+      int i = 0;
+      while (i < children.length && children[i].c < next) {
+        newChildren[i] = children[i];
+        i++;
+      }
+      newChildren[i] = node;
+      System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+      children = newChildren;
+      return node;
+    }
+  }
+
+  /**
+   * Adds a prefix such as <code>www.jcrew.com</code> or
+   * <code>us.burberry.com/store/</code>. A value already registered for
+   * exactly the same prefix is replaced.
+   */
+  public void put(String prefix, T value) {
+    int slash = prefix.indexOf('/');
+    String host = (slash < 0 ? prefix : prefix.substring(0, slash)).toLowerCase();
+    String path = (slash < 0) ? "" : prefix.substring(slash);
+    if (host.length() == 0) {
+      throw new IllegalArgumentException("No host in prefix '" + prefix + "'");
+    }
+    Node node = root;
+    for (int i = host.length() - 1; i >= 0; i--) {
+      node = node.addChild(host.charAt(i));
+    }
+    if (node.paths == null) {
+      node.paths = new String[] { path };
+      node.values = new Object[] { value };
+      size++;
+      return;
+    }
+    for (int i = 0; i < node.paths.length; i++) {
+      if (node.paths[i].equals(path)) {
+        node.values[i] = value;
+        return;
+      }
+    }
+    int n = node.paths.length;
+    String[] paths = new String[n + 1];
+    Object[] values = new Object[n + 1];
+    int i = 0;
+    while (i < n && node.paths[i].length() >= path.length()) {
+      paths[i] = node.paths[i];
+      values[i] = node.values[i];
+      i++;
+    }
+    paths[i] = path;
+    values[i] = value;
+    System.arraycopy(node.paths, i, paths, i + 1, n - i);
+    System.arraycopy(node.values, i, values, i + 1, n - i);
+    node.paths = paths;
+    node.values = values;
+    size++;
+  }
+
+  /** Number of prefixes in the trie. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the value of the most specific prefix of the URL, or null. */
+  public T get(String url) {
+    int hostStart = url.indexOf("://");
+    hostStart = (hostStart < 0) ? 0 : hostStart + 3;
+    int hostEnd = hostStart;
+    int length = url.length();
+    while (hostEnd < length) {
+      char c = url.charAt(hostEnd);
+      if (c == '/' || c == ':' || c == '?' || c == '#') {
+        break;
+      }
+      if (c == '@') {
+        // user info, the host follows
+        hostStart = hostEnd + 1;
+      }
+      hostEnd++;
+    }
+    int pathStart = url.indexOf('/', hostEnd);
+    return get(url, hostStart, hostEnd, pathStart);
+  }
+
+  /** Returns the value of the most specific prefix of host and path, or null. */
+  public T get(String host, String path) {
+    String url = (path == null) ? host : host + path;
+    return get(url, 0, host.length(), path == null ? -1 : host.length());
+  }
+
+  @SuppressWarnings("unchecked")
+  private T get(String url, int hostStart, int hostEnd, int pathStart) {
+    Object best = null;
+    Node node = root;
+    for (int i = hostEnd - 1; i >= hostStart && node != null; i--) {
+      node = node.child(Character.toLowerCase(url.charAt(i)));
+      if (node != null && node.paths != null
+          && (i == hostStart || url.charAt(i - 1) == '.')) {
+        // a host or domain: the longest matching path wins
+        for (int j = 0; j < node.paths.length; j++) {
+          String path = node.paths[j];
+          if (path.length() == 0
+              || (pathStart >= 0 && url.startsWith(path, pathStart))
+              || (pathStart < 0 && path.equals("/"))) {
+            best = node.values[j];
+            break;
+          }
+        }
+      }
+    }
+    return (T) best;
+  }
+}
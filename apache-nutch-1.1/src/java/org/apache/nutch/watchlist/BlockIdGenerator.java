@@ -0,0 +1,300 @@
+package org.apache.nutch.watchlist;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * BlockIdGenerator hands out IDs from blocks leased from a sequence row in
+ * the database (hi/lo style), instead of doing one INSERT per ID.
+ *
+ * Each lease advances the row by <code>blockSize</code> with a conditional
+ * update, so every process sharing the database gets a disjoint range.
+ * Inside a block IDs come from an in-memory counter without locking, and the
+ * next block is leased on a background thread once the current one runs low.
+ * When the sequence row is created it starts right after the largest ID in
+ * the <code>object</code> table, so it never reuses IDs handed out by
+ * {@link MysqlIdGenerator}.
+ */
+public class BlockIdGenerator implements IdGenerator {
+
+    /** A leased range of IDs: [next, limit). */
+    private static final class Block {
+        final AtomicLong next;
+        final long limit;
+
+        Block(long start, long limit) {
+            this.next = new AtomicLong(start);
+            this.limit = limit;
+        }
+    }
+
+    private static final Block EMPTY = new Block(0, 0);
+
+    private final Configuration conf;
+    private final String url;
+    private final String sequenceTable;
+    private final String sequenceName;
+    private final String objectTable;
+    private final long blockSize;
+    private final long prefetchThreshold;
+
+    private final AtomicReference<Block> current = new AtomicReference<Block>(EMPTY);
+    private final AtomicReference<Future<Block>> pending = new AtomicReference<Future<Block>>();
+    private final Object advanceLock = new Object();
+    private final ExecutorService refiller;
+
+    private Connection connection;
+    private PreparedStatement updateStmt;
+    private PreparedStatement selectStmt;
+
+    public BlockIdGenerator(Configuration conf) {
+        this.conf = conf;
+        url = WatchListStore.getUrl(conf);
+        objectTable = conf.get(WatchListConfig.JDBC_ID_GEN_TABLE.getAttributeString(),
+                "object");
+        sequenceTable = conf.get(WatchListConfig.ID_GEN_SEQUENCE_TABLE.getAttributeString(),
+                "id_sequence");
+        sequenceName = conf.get(WatchListConfig.ID_GEN_SEQUENCE_NAME.getAttributeString(),
+                "global");
+        blockSize = Math.max(1, conf.getLong(
+                WatchListConfig.ID_GEN_BLOCK_SIZE.getAttributeString(), 10000));
+        long threshold = conf.getLong(
+                WatchListConfig.ID_GEN_PREFETCH_THRESHOLD.getAttributeString(), blockSize / 10);
+        prefetchThreshold = Math.min(Math.max(threshold, 0), blockSize);
+
+        refiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BlockIdGenerator-refill");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        LOG.info("BlockIdGenerator: url=" + url + ", sequence=" + sequenceTable + "."
+                + sequenceName + ", blockSize=" + blockSize);
+    }
+
+    @Override
+    public long generate() {
+        while (true) {
+            Block block = current.get();
+            long id = block.next.getAndIncrement();
+            if (id < block.limit) {
+                if (block.limit - id <= prefetchThreshold) {
+                    prefetch();
+                }
+                return id;
+            }
+            if (!advance(block)) {
+                LOG.error("Failed to generate ID");
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * The table name is not recorded per ID, all tables share the same ID
+     * space.
+     */
+    @Override
+    public long generate(String tableName) {
+        return generate();
+    }
+
+    /** Stops the refill thread and releases the database connection. */
+    public void close() {
+        refiller.shutdownNow();
+        synchronized (this) {
+            closeConnection();
+        }
+    }
+
+    /** Starts leasing the next block in the background, unless already started. */
+    private void prefetch() {
+        if (pending.get() != null) {
+            return;
+        }
+        FutureTask<Block> task = new FutureTask<Block>(new Callable<Block>() {
+            public Block call() throws Exception {
+                return leaseBlock();
+            }
+        });
+        if (pending.compareAndSet(null, task)) {
+            try {
+                refiller.execute(task);
+            } catch (Exception e) {
+                // executor shut down, the next advance() leases synchronously
+                pending.compareAndSet(task, null);
+            }
+        }
+    }
+
+    /**
+     * Replaces the exhausted block with the prefetched one, or leases a new
+     * block synchronously if no prefetch is available.
+     * @return false if no block could be leased
+     */
+    private boolean advance(Block exhausted) {
+        synchronized (advanceLock) {
+            if (current.get() != exhausted) {
+                // Another thread already switched blocks
+                return true;
+            }
+            Block next = null;
+            Future<Block> future = pending.getAndSet(null);
+            if (future != null) {
+                try {
+                    next = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOG.warn("Background ID block lease failed: " + e.getCause());
+                }
+            }
+            if (next == null) {
+                next = leaseBlock();
+            }
+            if (next == null) {
+                return false;
+            }
+            current.set(next);
+            return true;
+        }
+    }
+
+    /**
+     * Reserves the next <code>blockSize</code> IDs from the sequence row.
+     * @return the leased block, or null if the database is not reachable
+     */
+    private synchronized Block leaseBlock() {
+        try {
+            if (connection == null) {
+                connect();
+            }
+            long hi = reserve();
+            if (hi < 0) {
+                // The sequence row doesn't exist yet
+                initSequence();
+                hi = reserve();
+            }
+            if (hi < 0) {
+                LOG.error("Sequence " + sequenceName + " is missing from " + sequenceTable);
+                return null;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Leased ID block [" + (hi - blockSize) + ", " + hi + ")");
+            }
+            return new Block(hi - blockSize, hi);
+        } catch (Exception e) {
+            LOG.error("Failed to lease ID block: " + e.getMessage());
+            closeConnection();
+            return null;
+        }
+    }
+
+    private void connect() throws Exception {
+        connection = WatchListStore.connect(conf);
+        connection.setAutoCommit(false);
+        updateStmt = connection.prepareStatement("update " + sequenceTable
+                + " set next_id = ? where name = ? and next_id = ?");
+        selectStmt = connection.prepareStatement("select next_id from " + sequenceTable
+                + " where name = ?");
+    }
+
+    /**
+     * Advances the sequence row by one block. The update only succeeds if
+     * nobody else advanced the row since we read it, which keeps the leases
+     * disjoint regardless of the isolation level the database offers.
+     * @return the new value of next_id, which is the end of the leased block,
+     *         or -1 if the sequence row doesn't exist
+     */
+    private long reserve() throws SQLException {
+        try {
+            while (true) {
+                selectStmt.setString(1, sequenceName);
+                ResultSet rs = selectStmt.executeQuery();
+                if (!rs.next()) {
+                    rs.close();
+                    connection.rollback();
+                    return -1;
+                }
+                long lo = rs.getLong(1);
+                rs.close();
+                updateStmt.setLong(1, lo + blockSize);
+                updateStmt.setString(2, sequenceName);
+                updateStmt.setLong(3, lo);
+                if (updateStmt.executeUpdate() == 1) {
+                    connection.commit();
+                    return lo + blockSize;
+                }
+                // Lost the race against another task, try again
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the sequence row, starting right after the largest ID already
+     * handed out through the object table.
+     */
+    private void initSequence() throws SQLException {
+        long start = 1;
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("select max(id) from " + objectTable);
+            if (rs.next()) {
+                start = rs.getLong(1) + 1;
+            }
+            rs.close();
+        } catch (SQLException e) {
+            // No object table, start from scratch
+            connection.rollback();
+        } finally {
+            statement.close();
+        }
+
+        PreparedStatement insertStmt = connection.prepareStatement("insert into "
+                + sequenceTable + "(name, next_id) values(?, ?)");
+        try {
+            insertStmt.setString(1, sequenceName);
+            insertStmt.setLong(2, start);
+            insertStmt.executeUpdate();
+            connection.commit();
+            LOG.info("Created sequence " + sequenceName + " starting at " + start);
+        } catch (SQLException e) {
+            // Most likely another task created it concurrently
+            connection.rollback();
+        } finally {
+            insertStmt.close();
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn(e.getMessage());
+            }
+        }
+        connection = null;
+        updateStmt = null;
+        selectStmt = null;
+    }
+}
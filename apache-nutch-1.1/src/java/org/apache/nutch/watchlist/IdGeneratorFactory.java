@@ -0,0 +1,37 @@
+package org.apache.nutch.watchlist;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Creates and caches an {@link IdGenerator} implementation, so that all the
+ * plugins in one task share the same generator (and the same ID block).
+ */
+public class IdGeneratorFactory {
+
+    public static final Log LOG = LogFactory.getLog(IdGeneratorFactory.class);
+
+    private IdGeneratorFactory() {} // no public ctor
+
+    /** Return the IdGenerator implementation. */
+    public static synchronized IdGenerator getIdGenerator(Configuration conf) {
+        String clazz = conf.get(WatchListConfig.ID_GEN_CLASS.getAttributeString(),
+                BlockIdGenerator.class.getName());
+        ObjectCache objectCache = ObjectCache.get(conf);
+        IdGenerator impl = (IdGenerator) objectCache.getObject(clazz);
+        if (impl == null) {
+            try {
+                LOG.info("Using IdGenerator impl: " + clazz);
+                Class<?> implClass = Class.forName(clazz);
+                impl = (IdGenerator) implClass.getConstructor(Configuration.class)
+                        .newInstance(conf);
+                objectCache.setObject(clazz, impl);
+            } catch (Exception e) {
+                throw new RuntimeException("Couldn't create " + clazz, e);
+            }
+        }
+        return impl;
+    }
+}
@@ -1,17 +1,42 @@
 package org.apache.nutch.watchlist;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.util.NutchConfiguration;
 
+/**
+ * Creates the watchlist tables. For a database server it runs the given
+ * script, normally script/initdb.sql. The embedded store (see
+ * {@link WatchListStore}) creates its tables from the
+ * watchlist.store.embedded.schema resource the first time it is opened,
+ * so running this is optional there.
+ *
+ * Seed data, like the source rows of the brands or a backfilled catalog,
+ * is loaded in bulk: scripts of INSERTs with -bulk and CSV files with -csv,
+ * in batches committed together, reporting the rows loaded per second.
+ */
 public class InitDatabase {
+
+    /** Statements or rows per batch in bulk loads. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
     /**                                                                                                                                                                                                         
      * Runs an SQL script using the                                                                                                                                         
      * connection passed in.
@@ -19,66 +44,460 @@ public class InitDatabase {
      * @throws SQLException 
      **/
     private static void runSqlScript(Connection con, String script) throws SQLException {
-        BufferedReader in = null;
-        Statement statement = con.createStatement();;
         int totalLines = 0;
         try {
             try {
-                String line;
-                StringBuffer command = null;
-                in = new BufferedReader(new FileReader(script));
-                while ((line = in.readLine()) != null) {
-                    if (command == null) {
-                        command = new StringBuffer();
-                        }
-                    totalLines++;
-                    String trimmedLine = line.trim();
-                    if (trimmedLine.startsWith("--")) {
-                        // Do nothing for comment lines
-                        } else if (trimmedLine.endsWith(";")) {
-                            // It is time to execute
-                            command.append(trimmedLine);
-                            statement.execute(command.toString());
-                            command = null;
-                        } else {
-                            // in the middle of a command
-                            command.append(trimmedLine).append("\n");
-                        }
-                }
+                totalLines = runSqlScript(con, new FileReader(script));
             } catch (SQLException e) {
                 e.printStackTrace();
+            }
+        } catch (IOException e) {
+            totalLines = -1;
+        }
+        System.out.println("processed " + totalLines + " lines in " + script);
+    }
+
+    /**
+     * Runs the statements of a script, each ending with a semicolon at the
+     * end of a line. Lines starting with -- are comments.
+     * @return the number of lines read
+     */
+    private static int runSqlScript(Connection con, Reader script)
+            throws SQLException, IOException {
+        BufferedReader in = new BufferedReader(script);
+        Statement statement = con.createStatement();
+        int[] totalLines = new int[1];
+        try {
+            String command;
+            while ((command = readStatement(in, totalLines)) != null) {
+                statement.execute(command);
+            }
+        } finally {
+            in.close();
+            statement.close();
+        }
+        return totalLines[0];
+    }
+
+    /**
+     * Reads the next statement of a script, without its semicolon.
+     * @param lines incremented by the number of lines read
+     * @return null at the end of the script
+     */
+    private static String readStatement(BufferedReader in, int[] lines)
+            throws IOException {
+        StringBuilder command = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines[0]++;
+            String trimmedLine = line.trim();
+            if (trimmedLine.startsWith("--")) {
+                // Do nothing for comment lines
+            } else if (trimmedLine.endsWith(";")) {
+                // It is time to execute
+                command.append(trimmedLine, 0, trimmedLine.length() - 1);
+                return command.toString();
+            } else if (trimmedLine.length() > 0) {
+                // in the middle of a command
+                command.append(trimmedLine).append("\n");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads a script of seed data. Consecutive INSERT and REPLACE statements
+     * are sent as one JDBC batch of up to <code>batchSize</code> statements
+     * and committed together; other statements end the batch and run on
+     * their own. The first failure rolls back the open batch and stops the
+     * load, everything committed before it stays.
+     *
+     * On MySQL, add <code>rewriteBatchedStatements=true</code> to the URL so
+     * the driver sends a batch in one round trip.
+     * @return the number of rows the statements changed
+     */
+    static long loadSqlScript(Connection con, Reader script, int batchSize)
+            throws SQLException, IOException {
+        BufferedReader in = new BufferedReader(script);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        Statement statement = con.createStatement();
+        int[] lines = new int[1];
+        int batchLine = 0;
+        int batched = 0;
+        long rows = 0;
+        try {
+            String command;
+            while ((command = readStatement(in, lines)) != null) {
+                if (isInsert(command)) {
+                    if (batched == 0) {
+                        batchLine = lines[0];
+                    }
+                    statement.addBatch(command);
+                    if (++batched == batchSize) {
+                        rows += executeBatch(con, statement, batchLine);
+                        batched = 0;
+                    }
+                    continue;
+                }
+                if (batched > 0) {
+                    rows += executeBatch(con, statement, batchLine);
+                    batched = 0;
+                }
+                try {
+                    statement.execute(command);
+                    rows += Math.max(0, statement.getUpdateCount());
+                } catch (SQLException e) {
+                    throw failed(e, "the statement ending at line " + lines[0]);
+                }
+                con.commit();
+            }
+            if (batched > 0) {
+                rows += executeBatch(con, statement, batchLine);
+            }
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            in.close();
+            statement.close();
+            con.setAutoCommit(autoCommit);
+        }
+        return rows;
+    }
+
+    private static boolean isInsert(String command) {
+        return command.regionMatches(true, 0, "insert", 0, 6)
+            || command.regionMatches(true, 0, "replace", 0, 7);
+    }
+
+    /** Runs and commits a batch, returning the number of rows it changed. */
+    private static long executeBatch(Connection con, Statement statement, int line)
+            throws SQLException {
+        int[] counts;
+        try {
+            counts = statement.executeBatch();
+        } catch (SQLException e) {
+            throw failed(e, "the batch starting at line " + line);
+        }
+        con.commit();
+        long rows = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            } else if (counts[i] > 0) {
+                rows += counts[i];
+            }
+        }
+        return rows;
+    }
+
+    private static SQLException failed(SQLException e, String where) {
+        SQLException result = new SQLException("Failed in " + where + ": "
+                + e.getMessage(), e.getSQLState(), e.getErrorCode());
+        result.initCause(e);
+        return result;
+    }
+
+    /**
+     * Loads a CSV file into a table. The first line names the columns, the
+     * others are the rows: fields separated by commas, optionally enclosed
+     * in double quotes with a doubled quote standing for a quote, and an
+     * unquoted NULL for a null value.
+     *
+     * On MySQL the file is streamed by the server with LOAD DATA LOCAL
+     * INFILE when <code>loadData</code> is true. Otherwise, or when that
+     * fails, the rows are inserted with a prepared statement in batches of
+     * <code>batchSize</code>, each committed on its own.
+     * @return the number of rows loaded
+     */
+    static long loadCsv(Connection con, String table, File csv, int batchSize,
+            boolean loadData) throws SQLException, IOException {
+        CsvReader in = new CsvReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            List<String> columns = in.next();
+            if (columns == null) {
+                return 0;
+            }
+            if (loadData && con.getMetaData().getURL().startsWith("jdbc:mysql:")) {
+                try {
+                    return loadData(con, table, csv, columns);
+                } catch (SQLException e) {
+                    con.rollback();
+                    System.err.println("LOAD DATA failed, inserting in batches: "
+                            + e.getMessage());
+                }
+            }
+            StringBuilder sql = new StringBuilder("insert into ").append(table).append('(');
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns.get(i).trim());
+                values.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(") values(").append(values).append(')');
+            PreparedStatement insert = con.prepareStatement(sql.toString());
+            long rows = 0;
+            int batched = 0;
+            int batchLine = 0;
+            try {
+                List<String> fields;
+                while ((fields = in.next()) != null) {
+                    if (batched == 0) {
+                        batchLine = in.getLine();
+                    }
+                    if (fields.size() != columns.size()) {
+                        throw new SQLException("Line " + in.getLine() + " has "
+                                + fields.size() + " fields, expected " + columns.size());
+                    }
+                    for (int i = 0; i < fields.size(); i++) {
+                        insert.setString(i + 1, fields.get(i));
+                    }
+                    insert.addBatch();
+                    if (++batched == batchSize) {
+                        rows += executeBatch(con, insert, batchLine);
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    rows += executeBatch(con, insert, batchLine);
+                }
             } finally {
-                if (in != null) {
-                    in.close();
+                insert.close();
+            }
+            return rows;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            in.close();
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Lets a MySQL server read the whole file in one statement. The server
+     * splits lines on '\n' only, so the records are first rewritten to a
+     * temporary file the way {@link CsvReader} reads them: without the
+     * header and blank lines and with every line ending in '\n'.
+     */
+    private static long loadData(Connection con, String table, File csv,
+            List<String> columns) throws SQLException, IOException {
+        File normalised = File.createTempFile("loaddata", ".csv");
+        try {
+            CsvReader in = new CsvReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+            Writer out = new OutputStreamWriter(new FileOutputStream(normalised), "UTF-8");
+            try {
+                in.next();
+                writeLoadData(in, columns.size(), out);
+            } finally {
+                in.close();
+                out.close();
+            }
+            StringBuilder sql = new StringBuilder("LOAD DATA LOCAL INFILE '");
+            sql.append(normalised.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'"));
+            sql.append("' INTO TABLE ").append(table);
+            sql.append(" CHARACTER SET utf8 FIELDS TERMINATED BY ','");
+            sql.append(" OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''");
+            sql.append(" LINES TERMINATED BY '\\n' (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns.get(i).trim());
+            }
+            sql.append(')');
+            Statement statement = con.createStatement();
+            try {
+                long rows = statement.executeUpdate(sql.toString());
+                con.commit();
+                return rows;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            normalised.delete();
+        }
+    }
+
+    /**
+     * Writes the remaining records of a CSV file for LOAD DATA, one line
+     * each ending in '\n'. A null is written as an unquoted NULL, any
+     * other value is quoted with its quotes doubled.
+     * @return the number of records written
+     */
+    static long writeLoadData(CsvReader in, int columns, Writer out)
+            throws SQLException, IOException {
+        long rows = 0;
+        List<String> fields;
+        while ((fields = in.next()) != null) {
+            if (fields.size() != columns) {
+                throw new SQLException("Line " + in.getLine() + " has "
+                        + fields.size() + " fields, expected " + columns);
+            }
+            for (int i = 0; i < fields.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
                 }
-                if (statement != null) {
-                    statement.close();
+                String value = fields.get(i);
+                if (value == null) {
+                    out.write("NULL");
+                } else {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
                 }
             }
+            out.write('\n');
+            rows++;
+        }
+        return rows;
+    }
+
+    /** Reads the records of a CSV file, quoted fields may span lines. */
+    static class CsvReader {
+        private final Reader in;
+        private int line = 1;
+        private int recordLine;
+        // a character read ahead, -2 if none
+        private int next = -2;
+
+        CsvReader(Reader in) {
+            this.in = new BufferedReader(in);
+        }
+
+        /** The line the last record started on. */
+        int getLine() {
+            return recordLine;
+        }
+
+        private int read() throws IOException {
+            if (next != -2) {
+                int c = next;
+                next = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        /** @return the fields of the next record, or null at the end */
+        List<String> next() throws IOException {
+            int c = read();
+            // skip empty lines
+            while (c == '\n' || c == '\r') {
+                if (c == '\n') {
+                    line++;
+                }
+                c = read();
+            }
+            if (c == -1) {
+                return null;
+            }
+            next = c;
+            recordLine = line;
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            while (true) {
+                c = read();
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quote at line " + line);
+                    } else if (c == '"') {
+                        int d = read();
+                        if (d == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            next = d;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+                    String value = field.toString();
+                    fields.add(!wasQuoted && value.equals("NULL") ? null : value);
+                    field.setLength(0);
+                    wasQuoted = false;
+                    if (c == '\r') {
+                        int d = read();
+                        if (d != '\n') {
+                            next = d;
+                        }
+                        c = '\n';
+                    }
+                    if (c != ',') {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        return fields;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates the tables of the embedded store unless the product table
+     * already exists.
+     */
+    static void initEmbeddedDatabase(Configuration conf, Connection connection)
+            throws SQLException {
+        ResultSet rs = connection.getMetaData().getTables(null, null, "PRODUCT", null);
+        boolean exists = rs.next();
+        rs.close();
+        if (exists) {
+            return;
+        }
+        String schema = conf.get(WatchListConfig.STORE_EMBEDDED_SCHEMA.getAttributeString(),
+                "watchlist-hsqldb.sql");
+        Reader reader = conf.getConfResourceAsReader(schema);
+        if (reader == null) {
+            throw new SQLException("Embedded store schema " + schema + " not found");
+        }
+        try {
+            runSqlScript(connection, reader);
         } catch (IOException e) {
-            totalLines = -1;
+            throw new SQLException("Failed to read " + schema + ": " + e.getMessage());
         }
-        System.out.println("processed " + totalLines + " lines in " + script);
+        WatchListStore.LOG.info("Created the watchlist tables from " + schema);
     }
 
-    private static void initMySqlDatabase(Configuration conf, String initScriptPath)
-            throws Exception {
-        // Register the JDBC driver for MySQL.
+    private static void initDatabase(Configuration conf, String initScriptPath,
+            List<String[]> loads, int batchSize, boolean loadData) throws Exception {
         Connection connection = null;
 
         try {
-            String driver = conf.get(WatchListConfig.JDBC_DRIVER.getAttributeString(),
-                    "com.mysql.jdbc.Driver");
-            Class.forName(driver).newInstance();
-            // Define URL of database server for
-            // database.
-            String url = conf.get(WatchListConfig.JDBC_URL.getAttributeString(),
-                    "jdbc:mysql://localhost:3306/watchlist");
-
-            String user = conf.get(WatchListConfig.JDBC_USER.getAttributeString(), "watchlist");
-            String password = conf.get(WatchListConfig.JDBC_PASSWORD.getAttributeString(), "wrmfw");
-            connection = DriverManager.getConnection(url, user, password);
-            runSqlScript(connection, initScriptPath);
+            // Connects to the database server of watchlist.jdbc.url, or
+            // opens and initializes the embedded store
+            connection = WatchListStore.connect(conf);
+            if (initScriptPath != null) {
+                runSqlScript(connection, initScriptPath);
+            }
+            for (String[] load : loads) {
+                long start = System.currentTimeMillis();
+                long rows;
+                if (load[0] == null) {
+                    rows = loadSqlScript(connection, new FileReader(load[1]), batchSize);
+                } else {
+                    rows = loadCsv(connection, load[0], new File(load[1]), batchSize,
+                            loadData);
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                System.out.println("loaded " + rows + " rows from " + load[1] + " in "
+                        + elapsed + " ms (" + (rows * 1000 / elapsed) + " rows/s)");
+            }
 
         } catch (SQLException e) {
             System.err.println("SQLException: " + e.getMessage());
@@ -89,20 +508,59 @@ public class InitDatabase {
             if (connection != null) {
                 connection.close();
             }
+            WatchListStore.shutdown(conf);
         }
 
     }
 
+    private static void usage() {
+        System.err.println("Usage: InitDatabase [<script_path>] [-bulk <script_path>]..."
+                + " [-csv <table> <csv_path>]... [-batch <n>] [-noLoadData]");
+        System.err.println("\t<script_path>\tscript run one statement at a time,"
+                + " optional with watchlist.store embedded");
+        System.err.println("\t-bulk\tload a script of seed data, INSERTs in batches");
+        System.err.println("\t-csv\tload a CSV file with a header line into a table");
+        System.err.println("\t-batch\tstatements or rows per batch and transaction"
+                + " (default " + DEFAULT_BATCH_SIZE + ")");
+        System.err.println("\t-noLoadData\tinsert CSV rows in batches on MySQL too,"
+                + " instead of LOAD DATA LOCAL INFILE");
+    }
+
     public static void main(String[] args) {
         String sqlScriptPath = null;
-        if (args.length < 1) {
-            System.err.println("Usage: InitDatabase <script_path>");
+        List<String[]> loads = new ArrayList<String[]>();
+        int batchSize = DEFAULT_BATCH_SIZE;
+        boolean loadData = true;
+        Configuration conf = NutchConfiguration.create();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-bulk")) {
+                    loads.add(new String[] { null, args[++i] });
+                } else if (args[i].equals("-csv")) {
+                    loads.add(new String[] { args[i + 1], args[i + 2] });
+                    i += 2;
+                } else if (args[i].equals("-batch")) {
+                    batchSize = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-noLoadData")) {
+                    loadData = false;
+                } else if (sqlScriptPath == null && !args[i].startsWith("-")) {
+                    sqlScriptPath = args[i];
+                } else {
+                    usage();
+                    System.exit(-1);
+                }
+            }
+        } catch (RuntimeException e) {
+            // missing or malformed option value
+            usage();
+            System.exit(-1);
+        }
+        if (sqlScriptPath == null && loads.isEmpty() && !WatchListStore.isEmbedded(conf)) {
+            usage();
             System.exit(-1);
         }
-        sqlScriptPath = args[0];
-        Configuration conf = NutchConfiguration.create();
         try {
-            initMySqlDatabase(conf, sqlScriptPath);
+            initDatabase(conf, sqlScriptPath, loads, batchSize, loadData);
         } catch (Exception e) {
             System.err.println(e.getMessage());
         }
@@ -0,0 +1,164 @@
+package org.apache.nutch.watchlist;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * A GenericObjectPool that measures how long borrowing takes, so the pool
+ * can be sized against the number of threads using it.
+ *
+ * The statistics are exposed through JMX (see
+ * {@link InstrumentedObjectPoolMBean}) and can be pushed into Hadoop counters
+ * with {@link #reportCounters(Reporter)}.
+ */
+public class InstrumentedObjectPool extends GenericObjectPool
+        implements InstrumentedObjectPoolMBean {
+
+    /** Hadoop counter group of the pool statistics. */
+    public static final String COUNTER_GROUP = "WatchListConnectionPool";
+
+    private static final long[] BUCKETS = {
+        0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000
+    };
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+    // What was already pushed into Hadoop counters
+    private long reportedBorrows;
+    private long reportedTimeouts;
+    private long reportedMillis;
+    private final long[] reportedHistogram = new long[BUCKETS.length + 1];
+
+    public InstrumentedObjectPool(GenericObjectPool.Config config) {
+        super(null, config);
+    }
+
+    public Object borrowObject() throws Exception {
+        waiting.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            Object obj = super.borrowObject();
+            record(System.nanoTime() - start);
+            return obj;
+        } catch (NoSuchElementException e) {
+            timeouts.incrementAndGet();
+            throw e;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void record(long nanos) {
+        borrows.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Adds what happened since the last call to the Hadoop counters of the
+     * task.
+     */
+    public synchronized void reportCounters(Reporter reporter) {
+        long value = borrows.get();
+        reporter.incrCounter(COUNTER_GROUP, "borrowed", value - reportedBorrows);
+        reportedBorrows = value;
+        value = timeouts.get();
+        reporter.incrCounter(COUNTER_GROUP, "borrowTimeouts", value - reportedTimeouts);
+        reportedTimeouts = value;
+        value = getTotalBorrowMillis();
+        reporter.incrCounter(COUNTER_GROUP, "borrowMillis", value - reportedMillis);
+        reportedMillis = value;
+        for (int i = 0; i < reportedHistogram.length; i++) {
+            value = histogram.get(i);
+            if (value != reportedHistogram[i]) {
+                reporter.incrCounter(COUNTER_GROUP, bucketName(i), value - reportedHistogram[i]);
+                reportedHistogram[i] = value;
+            }
+        }
+    }
+
+    private static String bucketName(int bucket) {
+        if (bucket < BUCKETS.length) {
+            return "borrow<=" + BUCKETS[bucket] + "ms";
+        }
+        return "borrow>" + BUCKETS[BUCKETS.length - 1] + "ms";
+    }
+
+    public int getNumWaiting() {
+        return waiting.get();
+    }
+
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    public long getBorrowTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getTotalBorrowMillis() {
+        return totalNanos.get() / 1000000;
+    }
+
+    public long getMaxBorrowMillis() {
+        return maxNanos.get() / 1000000;
+    }
+
+    public double getMeanBorrowMillis() {
+        long count = borrows.get();
+        return count == 0 ? 0 : totalNanos.get() / 1000000.0 / count;
+    }
+
+    public long[] getBorrowLatencyBucketMillis() {
+        return BUCKETS.clone();
+    }
+
+    public long[] getBorrowLatencyHistogram() {
+        long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("active=").append(getNumActive());
+        sb.append(", idle=").append(getNumIdle());
+        sb.append(", waiting=").append(getNumWaiting());
+        sb.append(", borrowed=").append(getBorrowCount());
+        sb.append(", timeouts=").append(getBorrowTimeoutCount());
+        sb.append(", meanBorrowMs=").append(String.format("%.3f", getMeanBorrowMillis()));
+        sb.append(", maxBorrowMs=").append(getMaxBorrowMillis());
+        sb.append(", histogram={");
+        for (int i = 0; i < histogram.length(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(bucketName(i)).append('=').append(histogram.get(i));
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package org.apache.nutch.watchlist;
+
+/**
+ * JMX view of the watchlist connection pool. Gauges describe the pool right
+ * now, the borrow statistics accumulate since the pool was created.
+ */
+public interface InstrumentedObjectPoolMBean {
+    /** Connections currently borrowed. */
+    public int getNumActive();
+
+    /** Connections sitting idle in the pool. */
+    public int getNumIdle();
+
+    /** Threads currently waiting to borrow a connection. */
+    public int getNumWaiting();
+
+    /** Configured maximum number of borrowed connections. */
+    public int getMaxActive();
+
+    /** Number of successful borrows. */
+    public long getBorrowCount();
+
+    /** Number of borrows that gave up after maxWait. */
+    public long getBorrowTimeoutCount();
+
+    /** Total time spent in borrow, in milliseconds. */
+    public long getTotalBorrowMillis();
+
+    /** Longest single borrow, in milliseconds. */
+    public long getMaxBorrowMillis();
+
+    /** Mean time of a borrow, in milliseconds. */
+    public double getMeanBorrowMillis();
+
+    /** Upper bounds in milliseconds of the borrow latency buckets. */
+    public long[] getBorrowLatencyBucketMillis();
+
+    /**
+     * Borrow latency histogram. Bucket i counts the borrows that took at most
+     * getBorrowLatencyBucketMillis()[i], the extra last bucket counts the rest.
+     */
+    public long[] getBorrowLatencyHistogram();
+}
@@ -0,0 +1,172 @@
+package org.apache.nutch.watchlist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VersionMismatchException;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * What {@link ProductDiscovery} learned about a listing page, a category or
+ * search page linking to product pages: the brand of the products, the
+ * product links found at the last fetch and a running average of them
+ * over the fetches. The same class carries, during a discovery job, the
+ * observations read from segments, the product links found and the other
+ * links of the listing pages.
+ */
+public class ListingState implements Writable {
+
+    private static final byte CUR_VERSION = 1;
+
+    /** A listing page as stored in the discovery db. */
+    public static final byte STATUS_DB = 1;
+    /** A fetch of a listing page read from a segment, never stored. */
+    public static final byte STATUS_OBSERVED = 2;
+    /** A link to a product page, never stored. */
+    public static final byte STATUS_PRODUCT = 3;
+    /** A link from a listing page to a page that is not a product, never stored. */
+    public static final byte STATUS_CANDIDATE = 4;
+
+    private byte status;
+    private Text brand = new Text();
+    private Text url = new Text();
+    private int products;
+    private float yield;
+    private int fetches;
+    private long lastFetched;
+
+    public ListingState() {
+    }
+
+    /** Creates an observation of a listing page. */
+    public static ListingState observed(String brand, int products, long time) {
+        ListingState state = new ListingState();
+        state.status = STATUS_OBSERVED;
+        state.brand.set(brand);
+        state.products = products;
+        state.yield = products;
+        state.fetches = 1;
+        state.lastFetched = time;
+        return state;
+    }
+
+    /** Creates a link to a product page. */
+    public static ListingState product(String url) {
+        ListingState state = new ListingState();
+        state.status = STATUS_PRODUCT;
+        state.url.set(url);
+        return state;
+    }
+
+    /** Creates a link from a listing page of a brand. */
+    public static ListingState candidate(String brand) {
+        ListingState state = new ListingState();
+        state.status = STATUS_CANDIDATE;
+        state.brand.set(brand);
+        return state;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public void setStatus(byte status) {
+        this.status = status;
+    }
+
+    public String getBrand() {
+        return brand.toString();
+    }
+
+    /** The URL of a product link. */
+    public String getUrl() {
+        return url.toString();
+    }
+
+    /** Product links found at the last fetch. */
+    public int getProducts() {
+        return products;
+    }
+
+    /** Running average of the product links found per fetch. */
+    public float getYield() {
+        return yield;
+    }
+
+    public int getFetches() {
+        return fetches;
+    }
+
+    public long getLastFetched() {
+        return lastFetched;
+    }
+
+    /**
+     * Merges a newer fetch of the page into this state.
+     * @param weight the weight of the new fetch in the average
+     */
+    public void update(ListingState observed, float weight) {
+        status = STATUS_DB;
+        if (observed.brand.getLength() > 0) {
+            brand.set(observed.brand);
+        }
+        products = observed.products;
+        yield = (fetches == 0) ? observed.products
+            : weight * observed.products + (1.0f - weight) * yield;
+        fetches++;
+        lastFetched = observed.lastFetched;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version > CUR_VERSION) {
+            throw new VersionMismatchException(CUR_VERSION, version);
+        }
+        status = in.readByte();
+        brand.readFields(in);
+        url.readFields(in);
+        products = in.readInt();
+        yield = in.readFloat();
+        fetches = in.readInt();
+        lastFetched = in.readLong();
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(CUR_VERSION);
+        out.writeByte(status);
+        brand.write(out);
+        url.write(out);
+        out.writeInt(products);
+        out.writeFloat(yield);
+        out.writeInt(fetches);
+        out.writeLong(lastFetched);
+    }
+
+    /** Copies the contents of another state into this one. */
+    public void set(ListingState that) {
+        this.status = that.status;
+        this.brand.set(that.brand);
+        this.url.set(that.url);
+        this.products = that.products;
+        this.yield = that.yield;
+        this.fetches = that.fetches;
+        this.lastFetched = that.lastFetched;
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("Status: ").append(status).append('\n');
+        buf.append("Brand: ").append(brand).append('\n');
+        if (status == STATUS_PRODUCT) {
+            buf.append("URL: ").append(url).append('\n');
+        }
+        buf.append("Products: ").append(products).append('\n');
+        buf.append("Yield: ").append(yield).append('\n');
+        buf.append("Fetches: ").append(fetches).append('\n');
+        buf.append("Last fetched: ").append(new Date(lastFetched)).append('\n');
+        return buf.toString();
+    }
+}
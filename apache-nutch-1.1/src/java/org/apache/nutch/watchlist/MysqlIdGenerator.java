@@ -1,7 +1,6 @@
 package org.apache.nutch.watchlist;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -14,30 +13,27 @@ public class MysqlIdGenerator implements IdGenerator {
     private static String url;
     private static Connection connection;
     private static PreparedStatement insertStmt;
+    private static PreparedStatement identityStmt;
  
     public MysqlIdGenerator(Configuration conf) {
-        //Register the JDBC driver for MySQL.
         try {
-            String driver = conf.get(WatchListConfig.JDBC_DRIVER.getAttributeString(),
-                    "com.mysql.jdbc.Driver");
-            LOG.info("Registering the JDBC driver for MySQL.");
-            Class.forName(driver).newInstance();
-            // Define URL of database server for
-            // database.
-            url = conf.get(WatchListConfig.JDBC_URL.getAttributeString(),
-                    "jdbc:mysql://localhost:3306/junkdb");
+            url = WatchListStore.getUrl(conf);
             LOG.info("JDBC url: " + url);
-            String user = conf.get(WatchListConfig.JDBC_USER.getAttributeString(),
-                    "watchlist");
-            String password = conf.get(WatchListConfig.JDBC_PASSWORD.getAttributeString(),
-                    "wrmfw");
-            connection = DriverManager.getConnection(
-                    url, user, password);
+            connection = WatchListStore.connect(conf);
             String table = conf.get(WatchListConfig.JDBC_ID_GEN_TABLE.getAttributeString(),
                     "object");
-            insertStmt = connection.prepareStatement(
-                    "insert into " + table + "(orig_table) values(?)",
-                    Statement.RETURN_GENERATED_KEYS);
+            if (WatchListStore.isEmbedded(conf)) {
+                // HSQLDB 1.8 has no generated keys, the last identity of the
+                // connection is read instead
+                insertStmt = connection.prepareStatement(
+                        "insert into " + table + "(orig_table) values(?)");
+                identityStmt = connection.prepareStatement("call identity()");
+            } else {
+                insertStmt = connection.prepareStatement(
+                        "insert into " + table + "(orig_table) values(?)",
+                        Statement.RETURN_GENERATED_KEYS);
+                identityStmt = null;
+            }
             LOG.info("JDBC connected successfully.");
 
         } catch (SQLException e) {
@@ -48,6 +44,14 @@ public class MysqlIdGenerator implements IdGenerator {
             LOG.error(e.getMessage());
         }
     }
+
+    /** Returns the key generated by the last insert. */
+    private static ResultSet generatedKeys() throws SQLException {
+        if (identityStmt != null) {
+            return identityStmt.executeQuery();
+        }
+        return insertStmt.getGeneratedKeys();
+    }
    
     @Override
     public long generate() {
@@ -56,7 +60,7 @@ public class MysqlIdGenerator implements IdGenerator {
             insertStmt.setString(1, "unknown");
             insertStmt.executeUpdate();
             ResultSet rs = null;
-            rs = insertStmt.getGeneratedKeys();
+            rs = generatedKeys();
             if (rs.next()) {
                 i = rs.getLong(1);
                 LOG.info("Generated ID: " + i);
@@ -80,7 +84,7 @@ public class MysqlIdGenerator implements IdGenerator {
             insertStmt.setString(1, tableName.trim());
             insertStmt.executeUpdate();
             ResultSet rs = null;
-            rs = insertStmt.getGeneratedKeys();
+            rs = generatedKeys();
             if (rs.next()) {
                 i = rs.getLong(1);
                 LOG.info("Generated ID: " + i);
@@ -2,117 +2,242 @@ package org.apache.nutch.watchlist;
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Properties;
 
-//                                                                                                                                       
-// Here are the dbcp-specific classes.                                                                                                   
-// Note that they are only used in the setupDriver                                                                                       
-// method. In normal use, your classes interact                                                                                          
-// only with the standard JDBC API                                                                                                       
-//                                                                                                                                       
+import javax.management.ObjectName;
+
+//
+// Here are the dbcp-specific classes.
+// Note that they are only used in the setupDriver
+// method. In normal use, your classes interact
+// only with the standard JDBC API
+//
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.commons.dbcp.ConnectionFactory;
 import org.apache.commons.dbcp.PoolingDriver;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.dbcp.DriverManagerConnectionFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.metrics.util.MBeanUtil;
 
 /*
  * The PollingDataDriver is a wrapper over JDBC Driver, it implements Connection Pooling.
- * 
- * Connection pool is a cache of database connections maintained so that the connections 
+ *
+ * Connection pool is a cache of database connections maintained so that the connections
  * can be reused when future requests to the database are required. Connection pools are
  * used to enhance the performance of executing commands on a database.
- * 
+ *
+ * The pool is sized and validated through the watchlist.jdbc.pool.* properties, and
+ * its statistics are published through JMX (hadoop:service=WatchList,name=ConnectionPool)
+ * and, with reportCounters, through the Hadoop counters of the task.
  */
 
 public class PoolingDataDriver {
     public static final Log LOG = LogFactory.getLog(PoolingDataDriver.class);
-    private static final String jdbcDriver = "com.mysql.jdbc.Driver";
     private static final String POOL_NAME = "watchlist";
+    /** The connect string of the pool registered by setupDriver */
+    public static final String CONNECT_URI = "jdbc:apache:commons:dbcp:" + POOL_NAME;
     private static String url;
+    private static boolean initialized = false;
+    private static InstrumentedObjectPool connectionPool;
+    private static ObjectName mbeanName;
+
     public PoolingDataDriver(Configuration conf) {
-        url = conf.get(WatchListConfig.JDBC_URL.getAttributeString(),
-                "jdbc:mysql://localhost:3306/junkdb");
-        LOG.info("Loading underlying JDBC driver.");
+        url = WatchListStore.getUrl(conf);
+        String jdbcDriver = WatchListStore.getDriver(conf);
+        LOG.info("Loading underlying JDBC driver " + jdbcDriver);
         try {
             Class.forName(jdbcDriver);
         } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+            LOG.error("JDBC driver not found: " + jdbcDriver);
         }
-        //                                                                                                                               
-        // Then we set up and register the PoolingDriver.                                                                                
-        // Normally this would be handled auto-magically by                                                                              
-        // an external configuration, but in this example we'll                                                                          
-        // do it manually.                                                                                                               
-        //                                                                                                                               
+        //
+        // Then we set up and register the PoolingDriver.
+        //
         LOG.info("Setting up driver.");
         try {
-            setupDriver(url);
+            setupDriver(conf);
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("Failed to set up the connection pool: " + e.getMessage());
         }
         LOG.info("PoolingDataDriver Initialization Done.");
     }
-    
-    public static void setupDriver(String connectURI) throws Exception {
-        //                                                                                                                               
-        // First, we'll need a ObjectPool that serves as the                                                                             
-        // actual pool of connections.                                                                                                   
-        //                                                                                                                               
-        // We'll use a GenericObjectPool instance, although                                                                              
-        // any ObjectPool implementation will suffice.                                                                                   
-        //                                                                                                                               
-        ObjectPool connectionPool = new GenericObjectPool(null);
-
-        //                                                                                                                               
-        // Next, we'll create a ConnectionFactory that the                                                                               
-        // pool will use to create Connections.                                                                                          
-        // We'll use the DriverManagerConnectionFactory,                                                                                 
-        // using the connect string passed in the command line                                                                           
-        // arguments.                                                                                                                    
-        //                                                                                                                               
-        ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connectURI,null);
-        //                                                                                                                               
-        // Now we'll create the PoolableConnectionFactory, which wraps                                                                   
-        // the "real" Connections created by the ConnectionFactory with                                                                  
-        // the classes that implement the pooling functionality.                                                                         
-        //                                                                                                                               
-        PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory,connectionPool,null,null,false,true);
-
-        //                                                                                                                               
-        // Finally, we create the PoolingDriver itself...                                                                                
-        //                                                                                                                               
+
+    public static synchronized void setupDriver(Configuration conf) throws Exception {
+        //
+        // First, we'll need a ObjectPool that serves as the
+        // actual pool of connections, sized by the configuration.
+        //
+        GenericObjectPool.Config config = new GenericObjectPool.Config();
+        config.maxActive = conf.getInt(
+                WatchListConfig.JDBC_POOL_MAX_ACTIVE.getAttributeString(), 8);
+        config.maxIdle = conf.getInt(
+                WatchListConfig.JDBC_POOL_MAX_IDLE.getAttributeString(), 8);
+        config.minIdle = conf.getInt(
+                WatchListConfig.JDBC_POOL_MIN_IDLE.getAttributeString(), 0);
+        config.maxWait = conf.getLong(
+                WatchListConfig.JDBC_POOL_MAX_WAIT.getAttributeString(), 10000);
+        config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+        config.testOnBorrow = conf.getBoolean(
+                WatchListConfig.JDBC_POOL_TEST_ON_BORROW.getAttributeString(), true);
+        config.testWhileIdle = conf.getBoolean(
+                WatchListConfig.JDBC_POOL_TEST_WHILE_IDLE.getAttributeString(), false);
+        config.timeBetweenEvictionRunsMillis = conf.getLong(
+                WatchListConfig.JDBC_POOL_EVICTION_INTERVAL.getAttributeString(), 60000);
+        config.minEvictableIdleTimeMillis = conf.getLong(
+                WatchListConfig.JDBC_POOL_MIN_EVICTABLE_IDLE.getAttributeString(), 300000);
+        config.numTestsPerEvictionRun = 3;
+        InstrumentedObjectPool pool = new InstrumentedObjectPool(config);
+
+        //
+        // Next, we'll create a ConnectionFactory that the
+        // pool will use to create Connections, logging in
+        // with the configured user and password. The embedded
+        // store creates its tables on the first connection.
+        //
+        String connectURI = WatchListStore.getUrl(conf);
+        if (WatchListStore.isEmbedded(conf)) {
+            WatchListStore.connect(conf).close();
+        }
+        Properties props = new Properties();
+        props.setProperty("user", WatchListStore.getUser(conf));
+        props.setProperty("password", WatchListStore.getPassword(conf));
+        ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connectURI, props);
+
+        //
+        // Prepared statements are pooled per connection, so the
+        // statements the writers prepare for every batch are only
+        // parsed by the server once.
+        //
+        KeyedObjectPoolFactory statementPoolFactory = null;
+        if (conf.getBoolean(WatchListConfig.JDBC_POOL_STATEMENTS.getAttributeString(), true)) {
+            int maxOpen = conf.getInt(
+                    WatchListConfig.JDBC_POOL_MAX_OPEN_STATEMENTS.getAttributeString(), 0);
+            if (maxOpen > 0) {
+                statementPoolFactory = new GenericKeyedObjectPoolFactory(null, -1,
+                        GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL, 0, 1, maxOpen);
+            } else {
+                statementPoolFactory = new GenericKeyedObjectPoolFactory(null, -1,
+                        GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, 0, 1,
+                        GenericKeyedObjectPool.DEFAULT_MAX_TOTAL);
+            }
+        }
+
+        //
+        // Now we'll create the PoolableConnectionFactory, which wraps
+        // the "real" Connections created by the ConnectionFactory with
+        // the classes that implement the pooling functionality.
+        // It registers itself as the factory of the pool.
+        //
+        String validationQuery = conf.get(
+                WatchListConfig.JDBC_POOL_VALIDATION_QUERY.getAttributeString(), "");
+        if (validationQuery.trim().length() == 0) {
+            validationQuery = null;
+        }
+        new PoolableConnectionFactory(connectionFactory, pool, statementPoolFactory,
+                validationQuery, false, true);
+
+        //
+        // Finally, we create the PoolingDriver itself...
+        //
         Class.forName("org.apache.commons.dbcp.PoolingDriver");
         PoolingDriver driver = (PoolingDriver) DriverManager.getDriver("jdbc:apache:commons:dbcp:");
 
-        //                                                                                                                               
-        // ...and register our pool with it.                                                                                             
-        //                                                                                                                               
-        driver.registerPool(POOL_NAME, connectionPool);
+        //
+        // ...and register our pool with it.
+        //
+        driver.registerPool(POOL_NAME, pool);
+        connectionPool = pool;
 
-        //                                                                                                                               
-        // Now we can just use the connect string "jdbc:apache:commons:dbcp:watchlist"                                                     
-        // to access our pool of Connections.                                                                                            
-        //                                                   
+        if (mbeanName != null) {
+            MBeanUtil.unregisterMBean(mbeanName);
+        }
+        mbeanName = MBeanUtil.registerMBean("WatchList", "ConnectionPool", pool);
+        LOG.info("Connection pool: url=" + connectURI + ", maxActive=" + config.maxActive
+                + ", maxIdle=" + config.maxIdle + ", maxWait=" + config.maxWait + "ms"
+                + ", poolStatements=" + (statementPoolFactory != null));
+
+        //
+        // Now we can just use the connect string "jdbc:apache:commons:dbcp:watchlist"
+        // to access our pool of Connections.
+        //
+    }
+
+    /**
+     * Returns a connection from the pool, setting up the pool on first use.
+     * Closing the connection returns it to the pool. If the pool can't be
+     * set up, the next call tries again.
+     */
+    public static Connection getConnection(Configuration conf)
+            throws SQLException {
+        synchronized (PoolingDataDriver.class) {
+            if (!initialized) {
+                String jdbcDriver = WatchListStore.getDriver(conf);
+                try {
+                    Class.forName(jdbcDriver);
+                } catch (ClassNotFoundException e) {
+                    throw new SQLException("JDBC driver not found: " + jdbcDriver);
+                }
+                try {
+                    setupDriver(conf);
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Exception e) {
+                    SQLException failed = new SQLException(
+                            "Failed to set up the connection pool: " + e.getMessage());
+                    failed.initCause(e);
+                    throw failed;
+                }
+                url = WatchListStore.getUrl(conf);
+                initialized = true;
+            }
+        }
+        // outside the lock, a borrower waiting for a connection blocks no one
+        return DriverManager.getConnection(CONNECT_URI);
     }
-    
-    public static void printDriverStats() throws Exception {
-        PoolingDriver driver = (PoolingDriver) DriverManager.getDriver("jdbc:apache:commons:dbcp:");
-        ObjectPool connectionPool = driver.getConnectionPool(POOL_NAME);
 
-        System.out.println("NumActive: " + connectionPool.getNumActive());
-        System.out.println("NumIdle: " + connectionPool.getNumIdle());
+    /** Returns the pool statistics, or null if the pool is not set up. */
+    public static synchronized InstrumentedObjectPoolMBean getStats() {
+        return connectionPool;
     }
 
-    public static void shutdownDriver() throws Exception {
+    /**
+     * Adds the borrow statistics since the last call to the Hadoop counters of
+     * the task. Does nothing if this task never used the pool.
+     */
+    public static void reportCounters(Reporter reporter) {
+        InstrumentedObjectPool pool;
+        synchronized (PoolingDataDriver.class) {
+            pool = connectionPool;
+        }
+        if (pool != null && reporter != null) {
+            pool.reportCounters(reporter);
+        }
+    }
+
+    public static void printDriverStats() throws Exception {
+        InstrumentedObjectPoolMBean stats = getStats();
+        if (stats != null) {
+            LOG.info("Connection pool: " + stats);
+        }
+    }
+
+    public static synchronized void shutdownDriver() throws Exception {
         PoolingDriver driver = (PoolingDriver) DriverManager.getDriver("jdbc:apache:commons:dbcp:");
         driver.closePool(POOL_NAME);
+        if (mbeanName != null) {
+            MBeanUtil.unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+        connectionPool = null;
+        initialized = false;
     }
 
 }
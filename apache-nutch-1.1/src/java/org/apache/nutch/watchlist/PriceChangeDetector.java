@@ -0,0 +1,383 @@
+package org.apache.nutch.watchlist;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.util.HadoopFSUtil;
+import org.apache.nutch.util.LockUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+
+/**
+ * Finds the products whose price changed since the last crawl.
+ *
+ * The product state db holds one {@link ProductState} per product, keyed by
+ * <code>brand:itemNumber</code>, in a sorted MapFile like the CrawlDb. An
+ * update joins the brand, item number and price the watchlist parse filters
+ * put into the content metadata of the given segments against the db,
+ * writes the new db and, next to it, a delta with only the products that are
+ * new or whose price changed. Downstream alerting and indexing read the
+ * delta instead of the whole catalog.
+ */
+public class PriceChangeDetector extends Configured implements Tool {
+    public static final Log LOG = LogFactory.getLog(PriceChangeDetector.class);
+
+    public static final String CURRENT_NAME = "current";
+    public static final String LOCK_NAME = ".locked";
+
+    /** Job property naming the directory the delta is written to. */
+    public static final String DELTA_DIR = "watchlist.state.delta.dir";
+
+    // where the tasks write the delta, in the new db until it is moved
+    private static final String DELTA_NAME = "delta";
+
+    public PriceChangeDetector() {
+    }
+
+    public PriceChangeDetector(Configuration conf) {
+        setConf(conf);
+    }
+
+    /**
+     * Reads the product pages of the segments into the state db.
+     *
+     * @param stateDb the product state db, created if it does not exist
+     * @param delta the directory receiving the changed products, must not
+     *        exist
+     */
+    public void update(Path stateDb, Path delta, Path[] segments, boolean force)
+            throws IOException {
+        FileSystem fs = FileSystem.get(getConf());
+        Path lock = new Path(stateDb, LOCK_NAME);
+        LockUtil.createLockFile(fs, lock, force);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("PriceChangeDetector: starting");
+            LOG.info("PriceChangeDetector: db: " + stateDb);
+            LOG.info("PriceChangeDetector: delta: " + delta);
+            LOG.info("PriceChangeDetector: segments: " + Arrays.asList(segments));
+        }
+
+        Path newStateDb = new Path(stateDb,
+                Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+        JobConf job = new NutchJob(getConf());
+        job.setJobName("pricechanges " + stateDb);
+
+        Path current = new Path(stateDb, CURRENT_NAME);
+        if (fs.exists(current)) {
+            FileInputFormat.addInputPath(job, current);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            Path parseData = new Path(segments[i], ParseData.DIR_NAME);
+            if (fs.exists(parseData)) {
+                FileInputFormat.addInputPath(job, parseData);
+            } else {
+                LOG.info(" - skipping invalid segment " + segments[i]);
+            }
+        }
+        job.setInputFormat(SequenceFileInputFormat.class);
+        job.setMapperClass(StateMapper.class);
+        job.setReducerClass(StateReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(ProductState.class);
+
+        FileOutputFormat.setOutputPath(job, newStateDb);
+        job.set(DELTA_DIR, delta.toString());
+        job.setOutputFormat(StateOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(ProductState.class);
+
+        try {
+            JobClient.runJob(job);
+        } catch (IOException e) {
+            LockUtil.removeLockFile(fs, lock);
+            if (fs.exists(newStateDb)) {
+                fs.delete(newStateDb, true);
+            }
+            throw e;
+        }
+
+        Path newDelta = new Path(newStateDb, DELTA_NAME);
+        fs.mkdirs(delta.getParent());
+        if (!fs.rename(newDelta, delta)) {
+            LockUtil.removeLockFile(fs, lock);
+            fs.delete(newStateDb, true);
+            throw new IOException("Couldn't move " + newDelta + " to " + delta);
+        }
+
+        Path old = new Path(stateDb, "old");
+        if (fs.exists(current)) {
+            if (fs.exists(old)) {
+                fs.delete(old, true);
+            }
+            fs.rename(current, old);
+        }
+        fs.rename(newStateDb, current);
+        if (fs.exists(old)) {
+            fs.delete(old, true);
+        }
+        LockUtil.removeLockFile(fs, lock);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("PriceChangeDetector: done");
+        }
+    }
+
+    /**
+     * Passes db entries through and turns product pages into observations
+     * keyed like the db.
+     */
+    public static class StateMapper implements Mapper<Text, Writable, Text, ProductState> {
+        private String brandKey;
+        private String[] idKeys;
+        private String priceKey;
+        private final Text productKey = new Text();
+
+        public void configure(JobConf job) {
+            brandKey = job.get(WatchListConfig.STATE_BRAND_KEY.getAttributeString(), "brand");
+            idKeys = job.getStrings(WatchListConfig.STATE_ID_KEYS.getAttributeString(),
+                    new String[] { "itemNumber", "id" });
+            priceKey = job.get(WatchListConfig.STATE_PRICE_KEY.getAttributeString(), "price");
+        }
+
+        public void map(Text key, Writable value, OutputCollector<Text, ProductState> output,
+                Reporter reporter) throws IOException {
+            if (value instanceof ProductState) {
+                output.collect(key, (ProductState) value);
+                return;
+            }
+            if (!(value instanceof ParseData)) {
+                return;
+            }
+            ParseData parseData = (ParseData) value;
+            if (!parseData.getStatus().isSuccess()) {
+                return;
+            }
+            Metadata meta = parseData.getContentMeta();
+            String brand = meta.get(brandKey);
+            String price = meta.get(priceKey);
+            if (brand == null || price == null) {
+                return;
+            }
+            String id = null;
+            for (int i = 0; i < idKeys.length && id == null; i++) {
+                id = meta.get(idKeys[i]);
+            }
+            if (id == null) {
+                return;
+            }
+            float observed;
+            try {
+                observed = Float.parseFloat(price.replace(",", ""));
+            } catch (NumberFormatException e) {
+                reporter.incrCounter("PriceChangeDetector", "bad price", 1);
+                return;
+            }
+            // the key of a page is its url
+            productKey.set(brand + ":" + id);
+            output.collect(productKey, new ProductState(key.toString(), observed,
+                    fetchTime(meta)));
+            reporter.incrCounter("PriceChangeDetector", "observed", 1);
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * The time a page was fetched: the fetch time if the fetcher parsed it,
+     * the segment time otherwise.
+     */
+    static long fetchTime(Metadata meta) {
+        String time = meta.get(Nutch.FETCH_TIME_KEY);
+        if (time != null) {
+            try {
+                return Long.parseLong(time);
+            } catch (NumberFormatException e) {
+                // try the segment
+            }
+        }
+        String segment = meta.get(Nutch.SEGMENT_NAME_KEY);
+        if (segment != null) {
+            try {
+                return new SimpleDateFormat("yyyyMMddHHmmss").parse(segment).getTime();
+            } catch (ParseException e) {
+                // unknown
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merges the latest observation of a product into its state. Only a
+     * different price in cents is a change.
+     */
+    public static class StateReducer
+            implements Reducer<Text, ProductState, Text, ProductState> {
+        private final ProductState old = new ProductState();
+        private final ProductState latest = new ProductState();
+        private final ProductState result = new ProductState();
+
+        public void configure(JobConf job) {
+        }
+
+        public void reduce(Text key, Iterator<ProductState> values,
+                OutputCollector<Text, ProductState> output, Reporter reporter)
+                throws IOException {
+            boolean hasOld = false;
+            boolean hasLatest = false;
+            while (values.hasNext()) {
+                ProductState state = values.next();
+                if (state.getStatus() != ProductState.STATUS_OBSERVED) {
+                    old.set(state);
+                    hasOld = true;
+                } else if (!hasLatest || state.getLastSeen() > latest.getLastSeen()) {
+                    latest.set(state);
+                    hasLatest = true;
+                }
+            }
+
+            if (!hasOld) {
+                result.set(latest);
+                result.setStatus(ProductState.STATUS_NEW);
+                result.setPreviousPrice(Float.NaN);
+                reporter.incrCounter("PriceChangeDetector", "new", 1);
+            } else {
+                result.set(old);
+                result.setStatus(ProductState.STATUS_UNCHANGED);
+                if (hasLatest && latest.getLastSeen() >= old.getLastSeen()) {
+                    result.setLastSeen(latest.getLastSeen());
+                    result.setUrl(latest.getUrl());
+                    if (!ProductState.samePrice(old.getPrice(), latest.getPrice())) {
+                        result.setStatus(ProductState.STATUS_CHANGED);
+                        result.setPreviousPrice(old.getPrice());
+                        result.setPrice(latest.getPrice());
+                        result.setLastChanged(latest.getLastSeen());
+                        reporter.incrCounter("PriceChangeDetector", "changed", 1);
+                    }
+                }
+            }
+            output.collect(key, result);
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes every state into the new db, and the new and changed ones also
+     * into the delta.
+     */
+    public static class StateOutputFormat
+            extends FileOutputFormat<Text, ProductState> {
+
+        public void checkOutputSpecs(FileSystem fs, JobConf job) throws IOException {
+            super.checkOutputSpecs(fs, job);
+            Path delta = new Path(job.get(DELTA_DIR));
+            if (fs.exists(delta)) {
+                throw new IOException("Delta " + delta + " already exists");
+            }
+        }
+
+        public RecordWriter<Text, ProductState> getRecordWriter(FileSystem fs, JobConf job,
+                String name, Progressable progress) throws IOException {
+            // both under the task output path, so only committed tasks count
+            Path state = FileOutputFormat.getTaskOutputPath(job, name);
+            Path delta = FileOutputFormat.getTaskOutputPath(job, DELTA_NAME + "/" + name);
+            CompressionType compType = SequenceFileOutputFormat.getOutputCompressionType(job);
+
+            final MapFile.Writer stateOut = new MapFile.Writer(job, fs, state.toString(),
+                    Text.class, ProductState.class, compType, progress);
+            final SequenceFile.Writer deltaOut = SequenceFile.createWriter(fs, job, delta,
+                    Text.class, ProductState.class, compType, progress);
+
+            return new RecordWriter<Text, ProductState>() {
+                public void write(Text key, ProductState value) throws IOException {
+                    stateOut.append(key, value);
+                    if (value.isChanged()) {
+                        deltaOut.append(key, value);
+                    }
+                }
+
+                public void close(Reporter reporter) throws IOException {
+                    stateOut.close();
+                    deltaOut.close();
+                }
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(NutchConfiguration.create(), new PriceChangeDetector(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: PriceChangeDetector <statedb> <delta>"
+                    + " (-dir <segments> | <seg1> <seg2> ...) [-force]");
+            System.err.println("\tstatedb\tproduct state db to update");
+            System.err.println("\tdelta\toutput directory for the new and changed products");
+            System.err.println("\t-dir segments\tparent directory containing all segments"
+                    + " to update from");
+            System.err.println("\tseg1 seg2 ...\tlist of segment names to update from");
+            System.err.println("\t-force\tforce update even if the db appears to be locked");
+            return -1;
+        }
+        boolean force = false;
+        FileSystem fs = FileSystem.get(getConf());
+        HashSet<Path> dirs = new HashSet<Path>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-force")) {
+                force = true;
+            } else if (args[i].equals("-dir")) {
+                FileStatus[] paths = fs.listStatus(new Path(args[++i]),
+                        HadoopFSUtil.getPassDirectoriesFilter(fs));
+                dirs.addAll(Arrays.asList(HadoopFSUtil.getPaths(paths)));
+            } else {
+                dirs.add(new Path(args[i]));
+            }
+        }
+        try {
+            update(new Path(args[0]), new Path(args[1]), dirs.toArray(new Path[dirs.size()]),
+                    force);
+            return 0;
+        } catch (Exception e) {
+            LOG.fatal("PriceChangeDetector: " + StringUtils.stringifyException(e));
+            return -1;
+        }
+    }
+}
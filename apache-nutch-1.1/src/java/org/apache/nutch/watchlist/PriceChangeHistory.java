@@ -0,0 +1,126 @@
+package org.apache.nutch.watchlist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.hadoop.io.VersionMismatchException;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The recent price changes of a product page, kept in the metadata of its
+ * CrawlDatum by {@link PriceFetchSchedule}: the last price, when the page
+ * was first seen with a price and the times of the last few changes, in
+ * seconds. At most 1 + 4 + 4 + 1 + 4 * capacity bytes.
+ */
+public class PriceChangeHistory implements Writable {
+
+    private static final byte CUR_VERSION = 1;
+
+    private float price = Float.NaN;
+    private int firstSeen;
+    // oldest first
+    private int[] changes = new int[0];
+
+    public PriceChangeHistory() {
+    }
+
+    /** The last price, NaN before the first observation. */
+    public float getPrice() {
+        return price;
+    }
+
+    /** Seconds since the epoch of the first observation. */
+    public int getFirstSeen() {
+        return firstSeen;
+    }
+
+    /** Number of changes remembered. */
+    public int getChanges() {
+        return changes.length;
+    }
+
+    /** Seconds since the epoch of a remembered change, 0 is the oldest. */
+    public int getChange(int i) {
+        return changes[i];
+    }
+
+    /**
+     * Records the price seen at a fetch. Only a different price in cents is
+     * a change; of the changes, the last <code>capacity</code> are kept.
+     * @return true if the price changed
+     */
+    public boolean observe(float observed, long time, int capacity) {
+        int seconds = (int) (time / 1000L);
+        if (Float.isNaN(price)) {
+            price = observed;
+            firstSeen = seconds;
+            return false;
+        }
+        if (ProductState.samePrice(price, observed)) {
+            return false;
+        }
+        price = observed;
+        int keep = Math.min(changes.length, Math.max(0, capacity - 1));
+        int[] result = new int[keep + 1];
+        System.arraycopy(changes, changes.length - keep, result, 0, keep);
+        result[keep] = seconds;
+        changes = result;
+        return true;
+    }
+
+    /**
+     * The mean time between changes in seconds, measured from the oldest
+     * change remembered (or the first observation, if every change is
+     * remembered) to <code>time</code>, so it grows while the price holds.
+     * @return 0 if the price never changed
+     */
+    public float getMeanChangeInterval(long time, int capacity) {
+        if (changes.length == 0) {
+            return 0;
+        }
+        int now = (int) (time / 1000L);
+        if (changes.length < capacity) {
+            return (float) (now - firstSeen) / changes.length;
+        }
+        // the oldest change only starts the window
+        return changes.length == 1 ? now - changes[0]
+            : (float) (now - changes[0]) / (changes.length - 1);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version > CUR_VERSION) {
+            throw new VersionMismatchException(CUR_VERSION, version);
+        }
+        price = in.readFloat();
+        firstSeen = in.readInt();
+        changes = new int[in.readUnsignedByte()];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = in.readInt();
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(CUR_VERSION);
+        out.writeFloat(price);
+        out.writeInt(firstSeen);
+        int count = Math.min(changes.length, 255);
+        out.writeByte(count);
+        for (int i = changes.length - count; i < changes.length; i++) {
+            out.writeInt(changes[i]);
+        }
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("price ").append(price);
+        buf.append(", first seen ").append(new Date(firstSeen * 1000L));
+        buf.append(", ").append(changes.length).append(" changes");
+        if (changes.length > 0) {
+            buf.append(", last ").append(new Date(changes[changes.length - 1] * 1000L));
+        }
+        return buf.toString();
+    }
+}
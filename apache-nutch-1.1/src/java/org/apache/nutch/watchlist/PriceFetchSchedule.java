@@ -0,0 +1,93 @@
+package org.apache.nutch.watchlist;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.crawl.AdaptiveFetchSchedule;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * PriceFetchSchedule refetches product pages as often as their price
+ * changes, instead of as often as their markup changes.
+ *
+ * A page is a product page if its CrawlDatum carries a price under
+ * watchlist.schedule.price.key, which the parse metadata puts there when
+ * the key is listed in db.parsemeta.to.crawldb. On every fetch its price is
+ * recorded in a {@link PriceChangeHistory} in the metadata, and the next
+ * fetch is scheduled after
+ * <code>fraction * mean time between the last changes</code>, so a product
+ * on a flash sale is checked within hours while one that never changes
+ * backs off by watchlist.schedule.inc_rate per fetch. The interval stays
+ * within watchlist.schedule.min_interval and max_interval.
+ *
+ * Other pages, like category pages, are scheduled by
+ * {@link AdaptiveFetchSchedule}.
+ */
+public class PriceFetchSchedule extends AdaptiveFetchSchedule {
+
+    /** Metadata key of the {@link PriceChangeHistory}. */
+    public static final Text HISTORY_KEY = new Text("_pch_");
+
+    private Text priceKey;
+    private int capacity;
+    private float fraction;
+    private float incRate;
+    private int minPriceInterval;
+    private int maxPriceInterval;
+
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        if (conf == null) return;
+        priceKey = new Text(conf.get(WatchListConfig.SCHEDULE_PRICE_KEY.getAttributeString(),
+                "price"));
+        capacity = Math.min(255, Math.max(1, conf.getInt(
+                WatchListConfig.SCHEDULE_HISTORY.getAttributeString(), 8)));
+        fraction = conf.getFloat(WatchListConfig.SCHEDULE_FRACTION.getAttributeString(), 0.5f);
+        incRate = conf.getFloat(WatchListConfig.SCHEDULE_INC_RATE.getAttributeString(), 0.3f);
+        minPriceInterval = conf.getInt(WatchListConfig.SCHEDULE_MIN_INTERVAL.getAttributeString(),
+                3600);
+        maxPriceInterval = conf.getInt(WatchListConfig.SCHEDULE_MAX_INTERVAL.getAttributeString(),
+                SECONDS_PER_DAY * 30);
+    }
+
+    @Override
+    public CrawlDatum setFetchSchedule(Text url, CrawlDatum datum,
+            long prevFetchTime, long prevModifiedTime,
+            long fetchTime, long modifiedTime, int state) {
+        float prevInterval = datum.getFetchInterval();
+        super.setFetchSchedule(url, datum, prevFetchTime, prevModifiedTime,
+                fetchTime, modifiedTime, state);
+        Writable value = datum.getMetaData().get(priceKey);
+        if (value == null) {
+            return datum;
+        }
+        float price;
+        try {
+            price = Float.parseFloat(value.toString().replace(",", "").trim());
+        } catch (NumberFormatException e) {
+            return datum;
+        }
+        Writable stored = datum.getMetaData().get(HISTORY_KEY);
+        PriceChangeHistory history = (stored instanceof PriceChangeHistory)
+            ? (PriceChangeHistory) stored : new PriceChangeHistory();
+        history.observe(price, fetchTime, capacity);
+        datum.getMetaData().put(HISTORY_KEY, history);
+
+        float interval;
+        float mean = history.getMeanChangeInterval(fetchTime, capacity);
+        if (mean > 0) {
+            interval = mean * fraction;
+        } else {
+            // no change seen yet
+            interval = prevInterval * (1.0f + incRate);
+        }
+        if (interval < minPriceInterval) {
+            interval = minPriceInterval;
+        } else if (interval > maxPriceInterval) {
+            interval = maxPriceInterval;
+        }
+        datum.setFetchInterval(interval);
+        datum.setFetchTime(fetchTime + Math.round(interval * 1000.0));
+        return datum;
+    }
+}
@@ -0,0 +1,689 @@
+package org.apache.nutch.watchlist;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * PriceHistoryStore keeps the price history of every product in a local,
+ * append-only file instead of one <code>record</code> row per product per
+ * crawl.
+ *
+ * Observations are buffered in memory per product and written as chunks, one
+ * chunk holding a run of observations of one product:
+ * <ul>
+ * <li>timestamps as delta-of-deltas: the first time, the first delta and then
+ * only the change of the delta, so a product crawled at a steady interval
+ * costs about one byte per timestamp</li>
+ * <li>prices in cents, run-length encoded: one (price change, run length)
+ * pair per run of unchanged prices</li>
+ * </ul>
+ * Every chunk header carries the product id and its first, earliest and
+ * latest time, so opening the store scans the headers only and a range scan
+ * skips chunks outside the range without decoding them. Chunks of many
+ * crawls are merged into larger ones, ordered by product id, by
+ * {@link #compact()}.
+ *
+ * A file is used by one store at a time, which holds a lock on it; opening
+ * it in another store, in the same process or not, fails until the first
+ * is closed. The lock is not shared, so of the tasks running on a node at
+ * the same time only one can use a given file. All methods are
+ * synchronized.
+ */
+public class PriceHistoryStore {
+    public static final Log LOG = LogFactory.getLog(PriceHistoryStore.class);
+
+    private static final byte[] MAGIC = { 'W', 'L', 'P', 'H' };
+    private static final byte VERSION = 1;
+
+    /** One observed price of a product. */
+    public static class Point {
+        private final long time;
+        private final float price;
+
+        public Point(long time, float price) {
+            this.time = time;
+            this.price = price;
+        }
+
+        /** When the price was observed, in milliseconds since the epoch. */
+        public long getTime() {
+            return time;
+        }
+
+        public float getPrice() {
+            return price;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Point)) {
+                return false;
+            }
+            Point other = (Point) o;
+            return time == other.time && price == other.price;
+        }
+
+        public int hashCode() {
+            return (int) (time ^ (time >>> 32)) ^ Float.floatToIntBits(price);
+        }
+
+        public String toString() {
+            return time + ":" + price;
+        }
+    }
+
+    /** The chunks and buffered observations of one product. */
+    private static class Series {
+        // chunk index, in file order
+        long[] offsets = new long[1];
+        long[] firsts = new long[1];
+        long[] mins = new long[1];
+        long[] maxs = new long[1];
+        int[] counts = new int[1];
+        int[] lengths = new int[1];
+        int chunks;
+        // observations not written yet
+        long[] times;
+        long[] cents;
+        int pending;
+
+        void addChunk(long offset, long first, long min, long max, int count, int length) {
+            if (chunks == offsets.length) {
+                int size = chunks * 2;
+                offsets = Arrays.copyOf(offsets, size);
+                firsts = Arrays.copyOf(firsts, size);
+                mins = Arrays.copyOf(mins, size);
+                maxs = Arrays.copyOf(maxs, size);
+                counts = Arrays.copyOf(counts, size);
+                lengths = Arrays.copyOf(lengths, size);
+            }
+            offsets[chunks] = offset;
+            firsts[chunks] = first;
+            mins[chunks] = min;
+            maxs[chunks] = max;
+            counts[chunks] = count;
+            lengths[chunks] = length;
+            chunks++;
+        }
+
+        void addPending(long time, long price) {
+            if (times == null) {
+                times = new long[4];
+                cents = new long[4];
+            } else if (pending == times.length) {
+                times = Arrays.copyOf(times, pending * 2);
+                cents = Arrays.copyOf(cents, pending * 2);
+            }
+            times[pending] = time;
+            cents[pending] = price;
+            pending++;
+        }
+    }
+
+    private final File file;
+    private final int chunkPoints;
+    private final int flushPoints;
+    private RandomAccessFile raf;
+    private FileLock lock;
+    private long end;
+
+    private final Map<Long, Series> series = new HashMap<Long, Series>();
+    private final List<Series> dirty = new ArrayList<Series>();
+    private final List<Long> dirtyIds = new ArrayList<Long>();
+    private int pending;
+    private long points;
+
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+
+    /**
+     * Opens the store, creating the file if it does not exist.
+     *
+     * @param chunkPoints observations of one product after which they are
+     *        written as a chunk
+     * @param flushPoints buffered observations of all products after which
+     *        they are all written
+     * @throws IOException if the file is broken or used by another process
+     */
+    public PriceHistoryStore(File file, int chunkPoints, int flushPoints) throws IOException {
+        this.file = file;
+        this.chunkPoints = Math.max(1, chunkPoints);
+        this.flushPoints = Math.max(1, flushPoints);
+        open();
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            lock = raf.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            raf.close();
+            raf = null;
+            throw new IOException(file + " is used by another store");
+        }
+        try {
+            if (raf.length() == 0) {
+                raf.write(MAGIC);
+                raf.write(VERSION);
+            }
+            end = readIndex();
+        } catch (IOException e) {
+            lock.release();
+            raf.close();
+            raf = null;
+            throw e;
+        }
+        if (end < raf.length()) {
+            LOG.warn("Truncating incomplete chunk at the end of " + file + " ("
+                    + (raf.length() - end) + " bytes)");
+            raf.setLength(end);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Opened " + file + ": " + series.size() + " products, " + points
+                    + " observations, " + end + " bytes");
+        }
+    }
+
+    /** Reads the chunk headers, returns the end of the last complete chunk. */
+    private long readIndex() throws IOException {
+        long fileLength = raf.length();
+        DataInputStream data = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 65536));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || data.readByte() != VERSION) {
+                throw new IOException(file + " is not a price history file");
+            }
+            long position = MAGIC.length + 1;
+            while (true) {
+                try {
+                    long id = WritableUtils.readVLong(data);
+                    long first = WritableUtils.readVLong(data);
+                    long before = WritableUtils.readVLong(data);
+                    long after = WritableUtils.readVLong(data);
+                    int count = WritableUtils.readVInt(data);
+                    int length = WritableUtils.readVInt(data);
+                    long payload = position + headerSize(id, first, before, after, count, length);
+                    if (count <= 0 || length < 0 || payload + length > fileLength) {
+                        return position;
+                    }
+                    data.skipBytes(length);
+                    getSeries(id).addChunk(payload, first, first - before, first + after, count,
+                            length);
+                    points += count;
+                    position = payload + length;
+                } catch (EOFException e) {
+                    return position;
+                }
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    private Series getSeries(long productId) {
+        Long key = Long.valueOf(productId);
+        Series s = series.get(key);
+        if (s == null) {
+            s = new Series();
+            series.put(key, s);
+        }
+        return s;
+    }
+
+    /**
+     * Adds an observation. It is buffered and written with the next chunk of
+     * its product.
+     */
+    public synchronized void append(long productId, long time, float price)
+            throws IOException {
+        checkOpen();
+        Series s = getSeries(productId);
+        if (s.pending == 0) {
+            dirty.add(s);
+            dirtyIds.add(Long.valueOf(productId));
+        }
+        s.addPending(time, toCents(price));
+        pending++;
+        points++;
+        if (s.pending >= chunkPoints || pending >= flushPoints) {
+            flush();
+        }
+    }
+
+    /** Writes all buffered observations. */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (pending == 0) {
+            return;
+        }
+        // one sequential write for all chunks
+        out.reset();
+        long position = end;
+        int[] chunks = new int[dirty.size()];
+        try {
+            for (int i = 0; i < dirty.size(); i++) {
+                Series s = dirty.get(i);
+                chunks[i] = s.chunks;
+                if (s.pending == 0) {
+                    continue;
+                }
+                position = writeChunk(dirtyIds.get(i).longValue(), s, s.times, s.cents, 0,
+                        s.pending, position);
+            }
+            raf.seek(end);
+            raf.write(out.getData(), 0, out.getLength());
+        } catch (IOException e) {
+            // keep the observations buffered and drop the chunks not written
+            for (int i = 0; i < dirty.size(); i++) {
+                dirty.get(i).chunks = Math.min(dirty.get(i).chunks, chunks[i]);
+            }
+            throw e;
+        }
+        end = position;
+        for (int i = 0; i < dirty.size(); i++) {
+            Series s = dirty.get(i);
+            s.pending = 0;
+            s.times = null;
+            s.cents = null;
+        }
+        dirty.clear();
+        dirtyIds.clear();
+        pending = 0;
+    }
+
+    /**
+     * Encodes one chunk into the output buffer and adds it to the index.
+     * Returns the file position after the chunk.
+     */
+    private long writeChunk(long id, Series s, long[] times, long[] cents, int from, int to,
+            long position) throws IOException {
+        DataOutputBuffer payload = new DataOutputBuffer();
+        encode(payload, times, cents, from, to);
+        int count = to - from;
+        long first = times[from];
+        long min = first;
+        long max = first;
+        for (int i = from + 1; i < to; i++) {
+            min = Math.min(min, times[i]);
+            max = Math.max(max, times[i]);
+        }
+        int length = payload.getLength();
+        // earliest and latest time relative to the first, usually 0 and small
+        WritableUtils.writeVLong(out, id);
+        WritableUtils.writeVLong(out, first);
+        WritableUtils.writeVLong(out, first - min);
+        WritableUtils.writeVLong(out, max - first);
+        WritableUtils.writeVInt(out, count);
+        WritableUtils.writeVInt(out, length);
+        out.write(payload.getData(), 0, length);
+        long offset = position + headerSize(id, first, first - min, max - first, count, length);
+        s.addChunk(offset, first, min, max, count, length);
+        return offset + length;
+    }
+
+    private static int headerSize(long id, long first, long before, long after, int count,
+            int length) {
+        return WritableUtils.getVIntSize(id) + WritableUtils.getVIntSize(first)
+            + WritableUtils.getVIntSize(before) + WritableUtils.getVIntSize(after)
+            + WritableUtils.getVIntSize(count) + WritableUtils.getVIntSize(length);
+    }
+
+    private static void encode(DataOutputBuffer payload, long[] times, long[] cents, int from,
+            int to) throws IOException {
+        // the first time is in the chunk header
+        long delta = 0;
+        for (int i = from + 1; i < to; i++) {
+            long d = times[i] - times[i - 1];
+            WritableUtils.writeVLong(payload, d - delta);
+            delta = d;
+        }
+        int runs = 1;
+        for (int i = from + 1; i < to; i++) {
+            if (cents[i] != cents[i - 1]) {
+                runs++;
+            }
+        }
+        WritableUtils.writeVInt(payload, runs);
+        long previous = 0;
+        int start = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (i == to || cents[i] != cents[start]) {
+                WritableUtils.writeVLong(payload, cents[start] - previous);
+                WritableUtils.writeVInt(payload, i - start);
+                previous = cents[start];
+                start = i;
+            }
+        }
+    }
+
+    /** Decodes chunk i of a series into times and cents. */
+    private void decode(Series s, int chunk, long[] times, long[] cents) throws IOException {
+        byte[] buffer = new byte[s.lengths[chunk]];
+        raf.seek(s.offsets[chunk]);
+        raf.readFully(buffer);
+        in.reset(buffer, buffer.length);
+        int count = s.counts[chunk];
+        times[0] = s.firsts[chunk];
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            delta += WritableUtils.readVLong(in);
+            times[i] = times[i - 1] + delta;
+        }
+        int runs = WritableUtils.readVInt(in);
+        long price = 0;
+        int i = 0;
+        for (int r = 0; r < runs; r++) {
+            price += WritableUtils.readVLong(in);
+            int length = WritableUtils.readVInt(in);
+            Arrays.fill(cents, i, i + length, price);
+            i += length;
+        }
+    }
+
+    /**
+     * Returns the observations of a product with from &lt;= time &lt; to, in
+     * the order they were appended.
+     */
+    public synchronized List<Point> scan(long productId, long from, long to)
+            throws IOException {
+        checkOpen();
+        List<Point> result = new ArrayList<Point>();
+        Series s = series.get(Long.valueOf(productId));
+        if (s == null) {
+            return result;
+        }
+        long[] times = new long[0];
+        long[] cents = new long[0];
+        for (int c = 0; c < s.chunks; c++) {
+            if (s.maxs[c] < from || s.mins[c] >= to) {
+                continue;
+            }
+            int count = s.counts[c];
+            if (times.length < count) {
+                times = new long[count];
+                cents = new long[count];
+            }
+            decode(s, c, times, cents);
+            add(result, times, cents, 0, count, from, to);
+        }
+        add(result, s.times, s.cents, 0, s.pending, from, to);
+        return result;
+    }
+
+    private static void add(List<Point> result, long[] times, long[] cents, int start,
+            int end, long from, long to) {
+        for (int i = start; i < end; i++) {
+            if (times[i] >= from && times[i] < to) {
+                result.add(new Point(times[i], toPrice(cents[i])));
+            }
+        }
+    }
+
+    /**
+     * Returns the last n price changes of a product, newest first. A change
+     * is the first observation of a new price, the very first observation of
+     * the product included. Only the chunks needed are read, from the end.
+     */
+    public synchronized List<Point> latestChanges(long productId, int n) throws IOException {
+        checkOpen();
+        List<Point> result = new ArrayList<Point>();
+        Series s = series.get(Long.valueOf(productId));
+        if (s == null || n <= 0) {
+            return result;
+        }
+        // Walk backwards, keeping the start of the current run of the
+        // oldest price seen. It is a change once an older, different price
+        // shows up, or at the very first observation.
+        long runStart = 0;
+        long runPrice = 0;
+        boolean inRun = false;
+        long[] chunkTimes = new long[0];
+        long[] chunkCents = new long[0];
+        for (int c = s.chunks; c >= 0 && result.size() < n; c--) {
+            long[] times = s.times;
+            long[] cents = s.cents;
+            int count = s.pending;
+            if (c < s.chunks) {
+                count = s.counts[c];
+                if (chunkTimes.length < count) {
+                    chunkTimes = new long[count];
+                    chunkCents = new long[count];
+                }
+                decode(s, c, chunkTimes, chunkCents);
+                times = chunkTimes;
+                cents = chunkCents;
+            }
+            for (int i = count - 1; i >= 0 && result.size() < n; i--) {
+                if (inRun && cents[i] != runPrice) {
+                    result.add(new Point(runStart, toPrice(runPrice)));
+                }
+                if (!inRun || cents[i] != runPrice) {
+                    runPrice = cents[i];
+                    inRun = true;
+                }
+                runStart = times[i];
+            }
+        }
+        if (inRun && result.size() < n) {
+            result.add(new Point(runStart, toPrice(runPrice)));
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the file with the observations of every product merged into
+     * as few chunks as possible, products in id order. Chunks written by
+     * many crawls of one observation each become one.
+     */
+    public synchronized void compact() throws IOException {
+        flush();
+        File tmp = new File(file.getPath() + ".compact");
+        tmp.delete();
+        RandomAccessFile target = new RandomAccessFile(tmp, "rw");
+        long before = end;
+        Map<Long, Series> compacted = new HashMap<Long, Series>();
+        long position = MAGIC.length + 1;
+        FileLock targetLock = null;
+        boolean replaced = false;
+        try {
+            target.write(MAGIC);
+            target.write(VERSION);
+            Long[] ids = series.keySet().toArray(new Long[series.size()]);
+            Arrays.sort(ids);
+            for (Long id : ids) {
+                Series s = series.get(id);
+                int total = 0;
+                for (int c = 0; c < s.chunks; c++) {
+                    total += s.counts[c];
+                }
+                long[] times = new long[total];
+                long[] cents = new long[total];
+                long[] chunkTimes = new long[0];
+                long[] chunkCents = new long[0];
+                int i = 0;
+                for (int c = 0; c < s.chunks; c++) {
+                    int count = s.counts[c];
+                    if (chunkTimes.length < count) {
+                        chunkTimes = new long[count];
+                        chunkCents = new long[count];
+                    }
+                    decode(s, c, chunkTimes, chunkCents);
+                    System.arraycopy(chunkTimes, 0, times, i, count);
+                    System.arraycopy(chunkCents, 0, cents, i, count);
+                    i += count;
+                }
+                Series merged = new Series();
+                out.reset();
+                for (int from = 0; from < total; from += chunkPoints) {
+                    position = writeChunk(id.longValue(), merged, times, cents, from,
+                            Math.min(total, from + chunkPoints), position);
+                }
+                target.write(out.getData(), 0, out.getLength());
+                compacted.put(id, merged);
+            }
+            target.getFD().sync();
+            // locked before it takes the place of the old file, which stays
+            // locked until then, so no other store can open either in between
+            targetLock = target.getChannel().tryLock();
+            if (targetLock == null) {
+                throw new IOException(tmp + " is used by another store");
+            }
+            replace(tmp);
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                if (targetLock != null) {
+                    targetLock.release();
+                }
+                target.close();
+                tmp.delete();
+            }
+        }
+        lock.release();
+        raf.close();
+        raf = target;
+        lock = targetLock;
+        series.clear();
+        series.putAll(compacted);
+        end = position;
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Compacted " + file + " from " + before + " to " + end + " bytes");
+        }
+    }
+
+    /**
+     * Renames a file over the store's file. Where a rename does not replace
+     * an existing file, the old one is kept as a backup until the new one
+     * is in place.
+     */
+    private void replace(File tmp) throws IOException {
+        if (tmp.renameTo(file)) {
+            return;
+        }
+        File backup = new File(file.getPath() + ".bak");
+        backup.delete();
+        if (!file.renameTo(backup)) {
+            throw new IOException("Could not replace " + file + " by " + tmp);
+        }
+        if (!tmp.renameTo(file)) {
+            if (!backup.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " by " + tmp
+                        + ", the old file is in " + backup);
+            }
+            throw new IOException("Could not replace " + file + " by " + tmp);
+        }
+        backup.delete();
+    }
+
+    /** Writes all buffered observations, syncs and closes the file. */
+    public synchronized void close() throws IOException {
+        if (raf == null) {
+            return;
+        }
+        try {
+            flush();
+            raf.getFD().sync();
+        } finally {
+            lock.release();
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /** Number of products with a price history. */
+    public synchronized int getProductCount() {
+        return series.size();
+    }
+
+    /** Number of observations, written or buffered. */
+    public synchronized long getPointCount() {
+        return points;
+    }
+
+    /** Size of the file in bytes, not counting buffered observations. */
+    public synchronized long getFileSize() {
+        return end;
+    }
+
+    private void checkOpen() throws IOException {
+        if (raf == null) {
+            throw new IOException(file + " is closed");
+        }
+    }
+
+    private static long toCents(float price) {
+        return Math.round(price * 100.0);
+    }
+
+    private static float toPrice(long cents) {
+        return (float) (cents / 100.0);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: PriceHistoryStore <file> (-scan <productId> [<from> <to>]"
+                + " | -latest <productId> <n> | -compact)");
+        System.err.println("\tfrom and to are dates in yyyy-MM-dd format");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        File file = new File(args[0]);
+        if (!file.exists()) {
+            System.err.println(file + " does not exist");
+            return;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        PriceHistoryStore store = new PriceHistoryStore(file, 1024, 100000);
+        try {
+            List<Point> result;
+            if ("-scan".equals(args[1]) && args.length > 2) {
+                long from = (args.length > 3) ? format.parse(args[3]).getTime() : Long.MIN_VALUE;
+                long to = (args.length > 4) ? format.parse(args[4]).getTime() : Long.MAX_VALUE;
+                result = store.scan(Long.parseLong(args[2]), from, to);
+            } else if ("-latest".equals(args[1]) && args.length > 3) {
+                result = store.latestChanges(Long.parseLong(args[2]), Integer.parseInt(args[3]));
+            } else if ("-compact".equals(args[1])) {
+                store.compact();
+                result = Collections.emptyList();
+            } else {
+                usage();
+                return;
+            }
+            SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            for (Point point : result) {
+                System.out.println(time.format(new Date(point.getTime())) + "\t"
+                        + point.getPrice());
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package org.apache.nutch.watchlist;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.util.HadoopFSUtil;
+import org.apache.nutch.util.LockUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+
+/**
+ * Learns which listing pages of a store link to its products and collects
+ * the product URLs they link to, so a catalog refresh fetches those pages
+ * instead of crawling the whole site.
+ *
+ * The discovery db holds one {@link ListingState} per fetched page that is
+ * not a product page, keyed by its URL in a sorted MapFile like the
+ * CrawlDb. Listing pages are those that linked to a product page at least
+ * once; the others are kept with no yield so they are not listed again.
+ * Product pages are the pages matching the url expressions of the extraction rules (see
+ * {@link ProductUrlPatterns}). An update reads the outlinks of the given
+ * segments and writes, next to the new db:
+ * <ul>
+ * <li><code>products/</code>: one URL per product (brand and item number)
+ * linked from the segments, the shortest one seen, followed by
+ * <code>nutch.score</code> so the Injector gives it priority. The lines can
+ * be given to the Injector and to the FreeGenerator.</li>
+ * <li><code>listings/</code>: the pages to fetch in the next round, for the
+ * FreeGenerator: the links of the pages that had at least
+ * watchlist.discovery.min.yield product links at their latest fetch, to
+ * other pages of the same host that are neither products nor fetched
+ * yet, like the next page of a listing or a sub-category.</li>
+ * </ul>
+ */
+public class ProductDiscovery extends Configured implements Tool {
+    public static final Log LOG = LogFactory.getLog(ProductDiscovery.class);
+
+    public static final String CURRENT_NAME = "current";
+    public static final String LOCK_NAME = ".locked";
+    public static final String PRODUCTS_NAME = "products";
+    public static final String LISTINGS_NAME = "listings";
+
+    /** Job property naming the directory the URL lists are written to. */
+    public static final String OUTPUT_DIR = "watchlist.discovery.output.dir";
+
+    public ProductDiscovery() {
+    }
+
+    public ProductDiscovery(Configuration conf) {
+        setConf(conf);
+    }
+
+    /**
+     * Reads the outlinks of the segments into the discovery db.
+     *
+     * @param discoveryDb the discovery db, created if it does not exist
+     * @param output the directory receiving the product and listing URLs,
+     *        must not exist
+     */
+    public void update(Path discoveryDb, Path output, Path[] segments, boolean force)
+            throws IOException {
+        FileSystem fs = FileSystem.get(getConf());
+        Path lock = new Path(discoveryDb, LOCK_NAME);
+        LockUtil.createLockFile(fs, lock, force);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("ProductDiscovery: starting");
+            LOG.info("ProductDiscovery: db: " + discoveryDb);
+            LOG.info("ProductDiscovery: output: " + output);
+            LOG.info("ProductDiscovery: segments: " + Arrays.asList(segments));
+        }
+
+        Path newDb = new Path(discoveryDb,
+                Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+        JobConf job = new NutchJob(getConf());
+        job.setJobName("discover " + discoveryDb);
+
+        Path current = new Path(discoveryDb, CURRENT_NAME);
+        if (fs.exists(current)) {
+            FileInputFormat.addInputPath(job, current);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            Path parseData = new Path(segments[i], ParseData.DIR_NAME);
+            if (fs.exists(parseData)) {
+                FileInputFormat.addInputPath(job, parseData);
+            } else {
+                LOG.info(" - skipping invalid segment " + segments[i]);
+            }
+        }
+        job.setInputFormat(SequenceFileInputFormat.class);
+        job.setMapperClass(DiscoveryMapper.class);
+        job.setReducerClass(DiscoveryReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(ListingState.class);
+
+        FileOutputFormat.setOutputPath(job, newDb);
+        job.set(OUTPUT_DIR, output.toString());
+        job.setOutputFormat(DiscoveryOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(ListingState.class);
+
+        try {
+            JobClient.runJob(job);
+        } catch (IOException e) {
+            LockUtil.removeLockFile(fs, lock);
+            if (fs.exists(newDb)) {
+                fs.delete(newDb, true);
+            }
+            throw e;
+        }
+
+        // the tasks wrote the URL lists next to the db, committed with it
+        fs.mkdirs(output);
+        String[] lists = { PRODUCTS_NAME, LISTINGS_NAME };
+        for (String list : lists) {
+            Path from = new Path(newDb, list);
+            if (fs.exists(from) && !fs.rename(from, new Path(output, list))) {
+                LockUtil.removeLockFile(fs, lock);
+                fs.delete(newDb, true);
+                throw new IOException("Couldn't move " + from + " to " + output);
+            }
+        }
+
+        Path old = new Path(discoveryDb, "old");
+        if (fs.exists(current)) {
+            if (fs.exists(old)) {
+                fs.delete(old, true);
+            }
+            fs.rename(current, old);
+        }
+        fs.rename(newDb, current);
+        if (fs.exists(old)) {
+            fs.delete(old, true);
+        }
+        LockUtil.removeLockFile(fs, lock);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("ProductDiscovery: done");
+        }
+    }
+
+    /**
+     * Passes db entries through and turns every fetched page into an
+     * observation of a listing page, its links to product pages into
+     * product entries keyed by product and, if it had enough product links,
+     * its other links on the same host into candidates.
+     */
+    public static class DiscoveryMapper
+            implements Mapper<Text, Writable, Text, ListingState> {
+        private ProductUrlPatterns patterns;
+        private float minYield;
+        private final Text productKey = new Text();
+        private final Text linkKey = new Text();
+
+        public void configure(JobConf job) {
+            patterns = ProductUrlPatterns.get(job);
+            minYield = job.getFloat(WatchListConfig.DISCOVERY_MIN_YIELD.getAttributeString(),
+                    1.0f);
+        }
+
+        public void map(Text key, Writable value, OutputCollector<Text, ListingState> output,
+                Reporter reporter) throws IOException {
+            if (value instanceof ListingState) {
+                output.collect(key, (ListingState) value);
+                return;
+            }
+            if (!(value instanceof ParseData)) {
+                return;
+            }
+            ParseData parseData = (ParseData) value;
+            if (!parseData.getStatus().isSuccess()
+                    || patterns.getProductKey(key.toString()) != null) {
+                // product pages are not listings
+                return;
+            }
+            Set<String> products = new HashSet<String>();
+            Set<String> links = new HashSet<String>();
+            Map<String, Integer> brands = new HashMap<String, Integer>();
+            Outlink[] outlinks = parseData.getOutlinks();
+            for (int i = 0; i < outlinks.length; i++) {
+                String url = outlinks[i].getToUrl();
+                String product = patterns.getProductKey(url);
+                if (product == null) {
+                    links.add(url);
+                    continue;
+                }
+                if (!products.add(product)) {
+                    continue;
+                }
+                productKey.set(product);
+                output.collect(productKey, ListingState.product(url));
+                String brand = product.substring(0, product.lastIndexOf(':'));
+                Integer count = brands.get(brand);
+                brands.put(brand, count == null ? 1 : count + 1);
+            }
+            // the brand most of the products belong to
+            String brand = "";
+            int max = 0;
+            for (Map.Entry<String, Integer> e : brands.entrySet()) {
+                if (e.getValue() > max) {
+                    brand = e.getKey();
+                    max = e.getValue();
+                }
+            }
+            output.collect(key, ListingState.observed(brand, products.size(),
+                    PriceChangeDetector.fetchTime(parseData.getContentMeta())));
+            reporter.incrCounter("ProductDiscovery", "pages", 1);
+            if (products.isEmpty() || products.size() < minYield) {
+                return;
+            }
+            // the other pages of the store this listing leads to
+            String host = host(key.toString());
+            links.remove(key.toString());
+            for (String link : links) {
+                if (host != null && host.equals(host(link))) {
+                    linkKey.set(link);
+                    output.collect(linkKey, ListingState.candidate(brand));
+                }
+            }
+        }
+
+        private static String host(String url) {
+            try {
+                return new URL(url).getHost().toLowerCase();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Merges the latest fetch of a page into its state, picks the shortest
+     * URL of each product and keeps the links to pages not fetched yet.
+     */
+    public static class DiscoveryReducer
+            implements Reducer<Text, ListingState, Text, ListingState> {
+        private float weight;
+        private final ListingState old = new ListingState();
+        private final ListingState latest = new ListingState();
+        private final ListingState product = new ListingState();
+        private final ListingState candidate = new ListingState();
+
+        public void configure(JobConf job) {
+            weight = job.getFloat(WatchListConfig.DISCOVERY_WEIGHT.getAttributeString(), 0.5f);
+        }
+
+        public void reduce(Text key, Iterator<ListingState> values,
+                OutputCollector<Text, ListingState> output, Reporter reporter)
+                throws IOException {
+            boolean hasOld = false;
+            boolean hasLatest = false;
+            boolean hasProduct = false;
+            boolean hasCandidate = false;
+            while (values.hasNext()) {
+                ListingState state = values.next();
+                switch (state.getStatus()) {
+                case ListingState.STATUS_DB:
+                    old.set(state);
+                    hasOld = true;
+                    break;
+                case ListingState.STATUS_OBSERVED:
+                    if (!hasLatest || state.getLastFetched() > latest.getLastFetched()) {
+                        latest.set(state);
+                        hasLatest = true;
+                    }
+                    break;
+                case ListingState.STATUS_PRODUCT:
+                    if (!hasProduct || state.getUrl().length() < product.getUrl().length()) {
+                        product.set(state);
+                        hasProduct = true;
+                    }
+                    break;
+                case ListingState.STATUS_CANDIDATE:
+                    candidate.set(state);
+                    hasCandidate = true;
+                    break;
+                }
+            }
+            if (hasProduct) {
+                output.collect(key, product);
+                reporter.incrCounter("ProductDiscovery", "products", 1);
+                return;
+            }
+            if (hasCandidate && !hasOld && !hasLatest) {
+                output.collect(key, candidate);
+                reporter.incrCounter("ProductDiscovery", "candidates", 1);
+                return;
+            }
+            if (!hasOld) {
+                old.set(new ListingState());
+            }
+            if (hasLatest && latest.getLastFetched() >= old.getLastFetched()) {
+                old.update(latest, weight);
+            }
+            if (hasOld || hasLatest) {
+                output.collect(key, old);
+                reporter.incrCounter("ProductDiscovery", "listings", 1);
+            }
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes the listing pages into the new db and the URL lists, and the
+     * products into the product URL list.
+     */
+    public static class DiscoveryOutputFormat
+            extends FileOutputFormat<Text, ListingState> {
+
+        public void checkOutputSpecs(FileSystem fs, JobConf job) throws IOException {
+            super.checkOutputSpecs(fs, job);
+            Path output = new Path(job.get(OUTPUT_DIR));
+            if (fs.exists(output)) {
+                throw new IOException("Output " + output + " already exists");
+            }
+        }
+
+        public RecordWriter<Text, ListingState> getRecordWriter(FileSystem fs, JobConf job,
+                String name, Progressable progress) throws IOException {
+            // all under the task output path, so only committed tasks count
+            Path db = FileOutputFormat.getTaskOutputPath(job, name);
+            Path products = FileOutputFormat.getTaskOutputPath(job, PRODUCTS_NAME + "/" + name);
+            Path listings = FileOutputFormat.getTaskOutputPath(job, LISTINGS_NAME + "/" + name);
+            CompressionType compType = SequenceFileOutputFormat.getOutputCompressionType(job);
+            final String score = "\tnutch.score=" + job.getFloat(
+                    WatchListConfig.DISCOVERY_PRODUCT_SCORE.getAttributeString(), 10.0f);
+
+            final MapFile.Writer dbOut = new MapFile.Writer(job, fs, db.toString(),
+                    Text.class, ListingState.class, compType, progress);
+            final DataOutputStream productsOut = fs.create(products, progress);
+            final DataOutputStream listingsOut = fs.create(listings, progress);
+
+            return new RecordWriter<Text, ListingState>() {
+                public void write(Text key, ListingState value) throws IOException {
+                    if (value.getStatus() == ListingState.STATUS_PRODUCT) {
+                        productsOut.write((value.getUrl() + score + "\n").getBytes("UTF-8"));
+                    } else if (value.getStatus() == ListingState.STATUS_CANDIDATE) {
+                        listingsOut.write((key + "\n").getBytes("UTF-8"));
+                    } else {
+                        dbOut.append(key, value);
+                    }
+                }
+
+                public void close(Reporter reporter) throws IOException {
+                    dbOut.close();
+                    productsOut.close();
+                    listingsOut.close();
+                }
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(NutchConfiguration.create(), new ProductDiscovery(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ProductDiscovery <discoverydb> <output>"
+                    + " (-dir <segments> | <seg1> <seg2> ...) [-force]");
+            System.err.println("\tdiscoverydb\tlisting page db to update");
+            System.err.println("\toutput\toutput directory for the product URLs (products/)"
+                    + " and the listing pages to fetch next (listings/)");
+            System.err.println("\t-dir segments\tparent directory containing all segments"
+                    + " to update from");
+            System.err.println("\tseg1 seg2 ...\tlist of segment names to update from");
+            System.err.println("\t-force\tforce update even if the db appears to be locked");
+            return -1;
+        }
+        boolean force = false;
+        FileSystem fs = FileSystem.get(getConf());
+        HashSet<Path> dirs = new HashSet<Path>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-force")) {
+                force = true;
+            } else if (args[i].equals("-dir")) {
+                FileStatus[] paths = fs.listStatus(new Path(args[++i]),
+                        HadoopFSUtil.getPassDirectoriesFilter(fs));
+                dirs.addAll(Arrays.asList(HadoopFSUtil.getPaths(paths)));
+            } else {
+                dirs.add(new Path(args[i]));
+            }
+        }
+        try {
+            update(new Path(args[0]), new Path(args[1]), dirs.toArray(new Path[dirs.size()]),
+                    force);
+            return 0;
+        } catch (Exception e) {
+            LOG.fatal("ProductDiscovery: " + StringUtils.stringifyException(e));
+            return -1;
+        }
+    }
+}
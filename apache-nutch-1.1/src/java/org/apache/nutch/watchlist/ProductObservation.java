@@ -0,0 +1,56 @@
+package org.apache.nutch.watchlist;
+
+/**
+ * One observation of a product made while parsing a product page: which
+ * brand it belongs to, its item number on the brand site, and the title,
+ * price and image seen at that time.
+ */
+public class ProductObservation {
+    private final String source;
+    private final long externalId;
+    private final String title;
+    private final float price;
+    private final String imgURL;
+    private final long time;
+
+    public ProductObservation(String source, long externalId, String title, float price,
+            String imgURL, long time) {
+        this.source = source;
+        this.externalId = externalId;
+        this.title = title;
+        this.price = price;
+        this.imgURL = imgURL;
+        this.time = time;
+    }
+
+    /** The brand name, matching <code>source.name</code>. */
+    public String getSource() {
+        return source;
+    }
+
+    /** The item number of the product on the brand site. */
+    public long getExternalId() {
+        return externalId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public float getPrice() {
+        return price;
+    }
+
+    public String getImgURL() {
+        return imgURL;
+    }
+
+    /** When the product was observed, in milliseconds since the epoch. */
+    public long getTime() {
+        return time;
+    }
+
+    public String toString() {
+        return source + ":" + externalId + " " + title + " $" + price;
+    }
+}
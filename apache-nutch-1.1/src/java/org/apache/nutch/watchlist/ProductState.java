@@ -0,0 +1,188 @@
+package org.apache.nutch.watchlist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VersionMismatchException;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The last known state of a product, as kept in the product state db of
+ * {@link PriceChangeDetector}: its price, the price before the last change,
+ * when it was first seen, last seen and last changed, and the URL of its
+ * page. The same class carries the observations read from segments.
+ */
+public class ProductState implements Writable, Cloneable {
+
+    private static final byte CUR_VERSION = 1;
+
+    /** A product seen for the first time in the last update. */
+    public static final byte STATUS_NEW = 1;
+    /** A product whose price changed in the last update. */
+    public static final byte STATUS_CHANGED = 2;
+    /** A product not seen or seen at the same price in the last update. */
+    public static final byte STATUS_UNCHANGED = 3;
+    /** An observation read from a segment, never stored. */
+    public static final byte STATUS_OBSERVED = 4;
+
+    private byte status;
+    private float price;
+    private float previousPrice = Float.NaN;
+    private long firstSeen;
+    private long lastSeen;
+    private long lastChanged;
+    private Text url = new Text();
+
+    public ProductState() {
+    }
+
+    /** Creates an observation of a product page. */
+    public ProductState(String url, float price, long time) {
+        this.status = STATUS_OBSERVED;
+        this.price = price;
+        this.firstSeen = time;
+        this.lastSeen = time;
+        this.lastChanged = time;
+        this.url.set(url);
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public void setStatus(byte status) {
+        this.status = status;
+    }
+
+    /** True if the product is new or its price changed in the last update. */
+    public boolean isChanged() {
+        return status == STATUS_NEW || status == STATUS_CHANGED;
+    }
+
+    public float getPrice() {
+        return price;
+    }
+
+    public void setPrice(float price) {
+        this.price = price;
+    }
+
+    /** The price before the last change, NaN for a product never changed. */
+    public float getPreviousPrice() {
+        return previousPrice;
+    }
+
+    public void setPreviousPrice(float previousPrice) {
+        this.previousPrice = previousPrice;
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public void setFirstSeen(long firstSeen) {
+        this.firstSeen = firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    public long getLastChanged() {
+        return lastChanged;
+    }
+
+    public void setLastChanged(long lastChanged) {
+        this.lastChanged = lastChanged;
+    }
+
+    public String getUrl() {
+        return url.toString();
+    }
+
+    public void setUrl(String url) {
+        this.url.set(url);
+    }
+
+    /** True if both prices are the same in cents. */
+    public static boolean samePrice(float a, float b) {
+        return Math.round(a * 100.0) == Math.round(b * 100.0);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version > CUR_VERSION) {
+            throw new VersionMismatchException(CUR_VERSION, version);
+        }
+        status = in.readByte();
+        price = in.readFloat();
+        previousPrice = in.readFloat();
+        firstSeen = in.readLong();
+        lastSeen = in.readLong();
+        lastChanged = in.readLong();
+        url.readFields(in);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(CUR_VERSION);
+        out.writeByte(status);
+        out.writeFloat(price);
+        out.writeFloat(previousPrice);
+        out.writeLong(firstSeen);
+        out.writeLong(lastSeen);
+        out.writeLong(lastChanged);
+        url.write(out);
+    }
+
+    /** Copies the contents of another state into this one. */
+    public void set(ProductState that) {
+        this.status = that.status;
+        this.price = that.price;
+        this.previousPrice = that.previousPrice;
+        this.firstSeen = that.firstSeen;
+        this.lastSeen = that.lastSeen;
+        this.lastChanged = that.lastChanged;
+        this.url.set(that.url);
+    }
+
+    public Object clone() {
+        ProductState result = new ProductState();
+        result.set(this);
+        return result;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ProductState)) {
+            return false;
+        }
+        ProductState other = (ProductState) o;
+        return status == other.status
+            && Float.floatToIntBits(price) == Float.floatToIntBits(other.price)
+            && Float.floatToIntBits(previousPrice) == Float.floatToIntBits(other.previousPrice)
+            && firstSeen == other.firstSeen && lastSeen == other.lastSeen
+            && lastChanged == other.lastChanged && url.equals(other.url);
+    }
+
+    public int hashCode() {
+        return url.hashCode() ^ Float.floatToIntBits(price) ^ (int) lastSeen;
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("Status: ").append(status).append('\n');
+        buf.append("Price: ").append(price).append('\n');
+        buf.append("Previous price: ").append(previousPrice).append('\n');
+        buf.append("First seen: ").append(new Date(firstSeen)).append('\n');
+        buf.append("Last seen: ").append(new Date(lastSeen)).append('\n');
+        buf.append("Last changed: ").append(new Date(lastChanged)).append('\n');
+        buf.append("URL: ").append(url).append('\n');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package org.apache.nutch.watchlist;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The product page URL expressions of the stores, read from the
+ * <code>url</code> and <code>id-group</code> of every &lt;site&gt; in the
+ * extraction rules of the watchlist-extractor plugin
+ * (watchlist.extractor.rules), so that jobs outside the parser can tell
+ * product pages apart without loading the plugin.
+ */
+public class ProductUrlPatterns {
+    public static final Log LOG = LogFactory.getLog(ProductUrlPatterns.class);
+
+    private final String[] brands;
+    private final Pattern[] patterns;
+    private final int[] idGroups;
+
+    ProductUrlPatterns(String[] brands, Pattern[] patterns, int[] idGroups) {
+        this.brands = brands;
+        this.patterns = patterns;
+        this.idGroups = idGroups;
+    }
+
+    /** Returns the patterns of this configuration, reading them on first use. */
+    public static synchronized ProductUrlPatterns get(Configuration conf) {
+        ObjectCache objectCache = ObjectCache.get(conf);
+        String cacheKey = ProductUrlPatterns.class.getName();
+        ProductUrlPatterns patterns = (ProductUrlPatterns) objectCache.getObject(cacheKey);
+        if (patterns == null) {
+            String file = conf.get("watchlist.extractor.rules", "watchlist-extractor.xml");
+            InputStream in = conf.getConfResourceAsInputStream(file);
+            if (in == null) {
+                LOG.error("Extraction rules " + file + " not found");
+                patterns = new ProductUrlPatterns(new String[0], new Pattern[0], new int[0]);
+            } else {
+                try {
+                    patterns = read(in);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (Exception e) {
+                        // ignore
+                    }
+                }
+            }
+            objectCache.setObject(cacheKey, patterns);
+        }
+        return patterns;
+    }
+
+    static ProductUrlPatterns read(InputStream in) {
+        List<String> brands = new ArrayList<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        List<Integer> idGroups = new ArrayList<Integer>();
+        try {
+            NodeList sites = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(in).getDocumentElement().getElementsByTagName("site");
+            for (int i = 0; i < sites.getLength(); i++) {
+                Element site = (Element) sites.item(i);
+                String brand = site.hasAttribute("brand") ? site.getAttribute("brand")
+                    : site.getAttribute("name");
+                try {
+                    patterns.add(Pattern.compile(site.getAttribute("url")));
+                    idGroups.add(site.hasAttribute("id-group")
+                            ? Integer.valueOf(site.getAttribute("id-group")) : 1);
+                    brands.add(brand);
+                } catch (RuntimeException e) {
+                    LOG.error("Skipping product URLs of site " + brand + ": " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Error parsing extraction rules: " + e);
+        }
+        int[] groups = new int[idGroups.size()];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = idGroups.get(i);
+        }
+        return new ProductUrlPatterns(brands.toArray(new String[brands.size()]),
+                patterns.toArray(new Pattern[patterns.size()]), groups);
+    }
+
+    /**
+     * Returns the product key <code>brand:itemNumber</code> of a product
+     * page URL, as used by {@link PriceChangeDetector}.
+     * @return null if the URL is not a product page
+     */
+    public String getProductKey(String url) {
+        for (int i = 0; i < patterns.length; i++) {
+            Matcher matcher = patterns[i].matcher(url);
+            if (matcher.matches()) {
+                return brands[i] + ":" + matcher.group(idGroups[i]);
+            }
+        }
+        return null;
+    }
+
+    /** Number of sites. */
+    public int size() {
+        return patterns.length;
+    }
+}
@@ -1,11 +1,77 @@
 package org.apache.nutch.watchlist;
 
 public enum WatchListConfig {
+    STORE("watchlist.store", "Where the tables live: jdbc or embedded"),
+    STORE_EMBEDDED_PATH("watchlist.store.embedded.path",
+            "Path and file name prefix of the embedded database"),
+    STORE_EMBEDDED_SCHEMA("watchlist.store.embedded.schema",
+            "SQL script creating the tables of the embedded database"),
     JDBC_DRIVER("watchlist.jdbc.driver", "JDBC Driver to be used"),
     JDBC_URL("watchlist.jdbc.url", "The JDBC URL to access Database"),
     JDBC_USER("watchlist.jdbc.user", "JDBC user name"),
     JDBC_PASSWORD("watchlist.jdbc.password", "The JDBC password"),
     JDBC_ID_GEN_TABLE("watchlist.jdbc.idgenerator.table", "The Table for IdGenerator"),
+    JDBC_POOL_MAX_ACTIVE("watchlist.jdbc.pool.max.active", "Maximum borrowed connections"),
+    JDBC_POOL_MAX_IDLE("watchlist.jdbc.pool.max.idle", "Maximum idle connections"),
+    JDBC_POOL_MIN_IDLE("watchlist.jdbc.pool.min.idle", "Idle connections kept by the evictor"),
+    JDBC_POOL_MAX_WAIT("watchlist.jdbc.pool.max.wait",
+            "Milliseconds to wait for a connection, -1 to wait forever"),
+    JDBC_POOL_VALIDATION_QUERY("watchlist.jdbc.pool.validation.query",
+            "SQL query validating pooled connections"),
+    JDBC_POOL_TEST_ON_BORROW("watchlist.jdbc.pool.test.on.borrow",
+            "Validate connections before handing them out"),
+    JDBC_POOL_TEST_WHILE_IDLE("watchlist.jdbc.pool.test.while.idle",
+            "Validate idle connections in the evictor"),
+    JDBC_POOL_EVICTION_INTERVAL("watchlist.jdbc.pool.eviction.interval",
+            "Milliseconds between idle connection eviction runs"),
+    JDBC_POOL_MIN_EVICTABLE_IDLE("watchlist.jdbc.pool.min.evictable.idle",
+            "Milliseconds a connection may be idle before it is evicted"),
+    JDBC_POOL_STATEMENTS("watchlist.jdbc.pool.statements", "Pool prepared statements"),
+    JDBC_POOL_MAX_OPEN_STATEMENTS("watchlist.jdbc.pool.max.open.statements",
+            "Maximum pooled prepared statements per connection, 0 for no limit"),
+    ID_GEN_CLASS("watchlist.idgenerator.class", "The IdGenerator implementation"),
+    ID_GEN_SEQUENCE_TABLE("watchlist.jdbc.idgenerator.sequence.table",
+            "The Table holding ID sequences for BlockIdGenerator"),
+    ID_GEN_SEQUENCE_NAME("watchlist.idgenerator.sequence.name",
+            "The sequence row used by BlockIdGenerator"),
+    ID_GEN_BLOCK_SIZE("watchlist.idgenerator.block.size", "Number of IDs leased at once"),
+    ID_GEN_PREFETCH_THRESHOLD("watchlist.idgenerator.block.prefetch",
+            "Remaining IDs in a block when the next block is leased"),
+    SINK_ENABLED("watchlist.sink.enabled", "Write product observations into the database"),
+    SINK_WRITERS("watchlist.sink.writers", "Number of WatchListSink writer threads"),
+    SINK_QUEUE_SIZE("watchlist.sink.queue.size", "Observations queued before parsers block"),
+    SINK_BATCH_SIZE("watchlist.sink.batch.size", "Observations written per JDBC batch"),
+    SINK_FLUSH_INTERVAL("watchlist.sink.flush.interval",
+            "Milliseconds before a partial batch is written"),
+    SINK_RETRIES("watchlist.sink.retries",
+            "Times a failed batch is written again before it is dropped"),
+    HISTORY_FILE("watchlist.history.file",
+            "Local price history file replacing record rows, empty to write records"),
+    HISTORY_CHUNK_POINTS("watchlist.history.chunk.points",
+            "Observations of one product written as one price history chunk"),
+    HISTORY_FLUSH_POINTS("watchlist.history.flush.points",
+            "Buffered observations after which the price history is written"),
+    STATE_BRAND_KEY("watchlist.state.brand.key", "Content metadata key of the brand"),
+    STATE_ID_KEYS("watchlist.state.id.keys",
+            "Content metadata keys of the item number, first present wins"),
+    STATE_PRICE_KEY("watchlist.state.price.key", "Content metadata key of the price"),
+    SCHEDULE_PRICE_KEY("watchlist.schedule.price.key",
+            "CrawlDatum metadata key of the price of a product page"),
+    SCHEDULE_HISTORY("watchlist.schedule.history", "Price changes remembered per page"),
+    SCHEDULE_FRACTION("watchlist.schedule.fraction",
+            "Fetch interval as a fraction of the mean time between price changes"),
+    SCHEDULE_INC_RATE("watchlist.schedule.inc_rate",
+            "Interval increase per fetch of a product whose price never changed"),
+    SCHEDULE_MIN_INTERVAL("watchlist.schedule.min_interval",
+            "Minimum fetch interval of a product page in seconds"),
+    SCHEDULE_MAX_INTERVAL("watchlist.schedule.max_interval",
+            "Maximum fetch interval of a product page in seconds"),
+    DISCOVERY_MIN_YIELD("watchlist.discovery.min.yield",
+            "Product links a listing page needs for its other links to be fetched"),
+    DISCOVERY_WEIGHT("watchlist.discovery.weight",
+            "Weight of the latest fetch in the average product links of a listing page"),
+    DISCOVERY_PRODUCT_SCORE("watchlist.discovery.product.score",
+            "Injector score of the product URLs found by discovery"),
     NONE("none", "end of configuration");
 
     /** Attribute string in XML configuration */
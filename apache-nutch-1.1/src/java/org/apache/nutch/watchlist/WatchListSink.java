@@ -0,0 +1,513 @@
+package org.apache.nutch.watchlist;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * WatchListSink writes product observations into the <code>product</code>
+ * and <code>record</code> tables without blocking the parser on JDBC.
+ *
+ * Parsers hand observations to {@link #add(ProductObservation)}, which puts
+ * them on a bounded queue and only blocks when the writers fall behind.
+ * Background writers take them off the queue and flush them as JDBC batches
+ * in one transaction, either when a batch is full or when the flush interval
+ * has passed. Observations of the same product always go to the same writer.
+ * Writers of other tasks can still insert the same new brand or product at
+ * the same time: the unique keys on source.name and on product (source_id,
+ * external_id) reject the second insert, and its batch is rolled back and
+ * written again, finding the row.
+ * A batch that fails for another reason is retried watchlist.sink.retries
+ * times, a little later each time, then dropped and counted as failed.
+ *
+ * {@link #close()} waits for observations being added concurrently, and
+ * every observation added before it returns is written or counted.
+ *
+ * When watchlist.history.file is set, prices go into a local
+ * {@link PriceHistoryStore} instead of the <code>record</code> table, after
+ * the batch is committed. The store locks the file for the whole task, so
+ * the other tasks running on the node at the same time, which can't open
+ * it, write record rows as if it were not set.
+ *
+ * There is one sink per task configuration, see {@link #get(Configuration)}
+ * and {@link #close(Configuration)}.
+ */
+public class WatchListSink {
+    public static final Log LOG = LogFactory.getLog(WatchListSink.class);
+
+    private static final String CACHE_KEY = WatchListSink.class.getName();
+
+    /** Tells a writer to flush what it has and exit. */
+    private static final ProductObservation POISON =
+        new ProductObservation(null, 0, null, 0, null, 0);
+
+    /** Milliseconds before the first retry of a failed batch. */
+    private static final long RETRY_DELAY = 1000;
+
+    private final Configuration conf;
+    private final IdGenerator idGenerator;
+    private final int batchSize;
+    private final long flushInterval;
+    private final int retries;
+    private final Writer[] writers;
+    private final PriceHistoryStore history;
+    private volatile boolean closed = false;
+    // held to add, so that no observation is queued behind the POISON
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+    /** source.name -> source.id */
+    private final Map<String, Long> sourceIds = new ConcurrentHashMap<String, Long>();
+    /** source.id:external_id -> product.id */
+    private final Map<String, Long> productIds = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    public WatchListSink(Configuration conf) {
+        this.conf = conf;
+        idGenerator = IdGeneratorFactory.getIdGenerator(conf);
+        int numWriters = Math.max(1,
+                conf.getInt(WatchListConfig.SINK_WRITERS.getAttributeString(), 1));
+        int queueSize = Math.max(1,
+                conf.getInt(WatchListConfig.SINK_QUEUE_SIZE.getAttributeString(), 10000));
+        batchSize = Math.max(1,
+                conf.getInt(WatchListConfig.SINK_BATCH_SIZE.getAttributeString(), 500));
+        flushInterval = Math.max(1,
+                conf.getLong(WatchListConfig.SINK_FLUSH_INTERVAL.getAttributeString(), 5000));
+        retries = Math.max(0,
+                conf.getInt(WatchListConfig.SINK_RETRIES.getAttributeString(), 2));
+
+        String historyFile = conf.get(WatchListConfig.HISTORY_FILE.getAttributeString(), "");
+        PriceHistoryStore store = null;
+        if (historyFile.length() > 0) {
+            try {
+                store = new PriceHistoryStore(new File(historyFile),
+                        conf.getInt(WatchListConfig.HISTORY_CHUNK_POINTS.getAttributeString(),
+                                1024),
+                        conf.getInt(WatchListConfig.HISTORY_FLUSH_POINTS.getAttributeString(),
+                                100000));
+            } catch (IOException e) {
+                // e.g. locked by another task on this node
+                LOG.error("Cannot open price history " + historyFile
+                        + ", writing record rows: " + e.getMessage());
+            }
+        }
+        history = store;
+
+        writers = new Writer[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            writers[i] = new Writer(i, Math.max(1, queueSize / numWriters));
+            writers[i].start();
+        }
+        LOG.info("WatchListSink: writers=" + numWriters + ", queueSize=" + queueSize
+                + ", batchSize=" + batchSize + ", flushInterval=" + flushInterval + "ms"
+                + (history == null ? "" : ", history=" + historyFile));
+    }
+
+    /**
+     * Returns the sink of this configuration, creating it on first use.
+     * @return null unless the sink is enabled by configuration
+     */
+    public static synchronized WatchListSink get(Configuration conf) {
+        if (!conf.getBoolean(WatchListConfig.SINK_ENABLED.getAttributeString(), false)) {
+            return null;
+        }
+        ObjectCache objectCache = ObjectCache.get(conf);
+        WatchListSink sink = (WatchListSink) objectCache.getObject(CACHE_KEY);
+        if (sink == null) {
+            sink = new WatchListSink(conf);
+            objectCache.setObject(CACHE_KEY, sink);
+        }
+        return sink;
+    }
+
+    /**
+     * Drains and closes the sink of this configuration, if one was created.
+     * Called when the task that owns the configuration is done.
+     */
+    public static synchronized void close(Configuration conf) {
+        ObjectCache objectCache = ObjectCache.get(conf);
+        WatchListSink sink = (WatchListSink) objectCache.getObject(CACHE_KEY);
+        if (sink != null) {
+            objectCache.setObject(CACHE_KEY, null);
+            sink.close();
+        }
+    }
+
+    /**
+     * Queues an observation for writing. Blocks while the queue of its writer
+     * is full.
+     */
+    public void add(ProductObservation observation) throws InterruptedException {
+        String key = observation.getSource() + ":" + observation.getExternalId();
+        int writer = (key.hashCode() & Integer.MAX_VALUE) % writers.length;
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("WatchListSink is closed");
+            }
+            // the writers run until the POISON, so this put returns
+            writers[writer].queue.put(observation);
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    /** Flushes everything queued so far and stops the writers. */
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        for (int i = 0; i < writers.length; i++) {
+            try {
+                writers[i].queue.put(POISON);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 0; i < writers.length; i++) {
+            try {
+                writers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (history != null) {
+            try {
+                history.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close price history: " + e.getMessage());
+            }
+        }
+        LOG.info("WatchListSink closed: written=" + written + ", failed=" + failed
+                + ", flushes=" + flushes);
+    }
+
+    /** Number of observations written to the database. */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Number of observations lost because their batch failed every attempt. */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** The price history written instead of record rows, or null. */
+    public PriceHistoryStore getHistory() {
+        return history;
+    }
+
+    /** Number of batches flushed. */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    private class Writer extends Thread {
+        final BlockingQueue<ProductObservation> queue;
+
+        Writer(int id, int capacity) {
+            super("WatchListSink-writer-" + id);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<ProductObservation>(capacity);
+        }
+
+        public void run() {
+            List<ProductObservation> batch = new ArrayList<ProductObservation>(batchSize);
+            long deadline = System.currentTimeMillis() + flushInterval;
+            boolean done = false;
+            while (!done) {
+                try {
+                    long wait = deadline - System.currentTimeMillis();
+                    ProductObservation obs = queue.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                    // take whatever else is ready, up to a full batch
+                    while (obs != null) {
+                        if (obs == POISON) {
+                            done = true;
+                            break;
+                        }
+                        batch.add(obs);
+                        if (batch.size() >= batchSize) {
+                            break;
+                        }
+                        obs = queue.poll();
+                    }
+                } catch (InterruptedException e) {
+                    done = true;
+                }
+                if (done || batch.size() >= batchSize
+                        || System.currentTimeMillis() >= deadline) {
+                    if (!batch.isEmpty()) {
+                        flush(batch);
+                        batch.clear();
+                    }
+                    deadline = System.currentTimeMillis() + flushInterval;
+                }
+            }
+        }
+    }
+
+    /** Writes one batch, retrying it if its transaction fails. */
+    private void flush(List<ProductObservation> batch) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt >= retries) {
+                    LOG.error("Failed to write " + batch.size() + " observations: "
+                            + e.getMessage());
+                    failed.addAndGet(batch.size());
+                    return;
+                }
+                boolean duplicate = isDuplicate(e);
+                LOG.warn("Failed to write " + batch.size() + " observations, retrying: "
+                        + e.getMessage());
+                if (!duplicate) {
+                    try {
+                        Thread.sleep(RETRY_DELAY * (attempt + 1));
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /** True if a brand or product was inserted by another writer first. */
+    private static boolean isDuplicate(Exception e) {
+        for (SQLException s = (e instanceof SQLException) ? (SQLException) e : null;
+                s != null; s = s.getNextException()) {
+            // the SQLSTATE class of integrity constraint violations
+            if (s.getSQLState() != null && s.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes one batch in a single transaction. */
+    private void write(List<ProductObservation> batch) throws Exception {
+        Connection connection = null;
+        List<String> newProducts = new ArrayList<String>();
+        long[] productOf = new long[batch.size()];
+        try {
+            connection = PoolingDataDriver.getConnection(conf);
+            connection.setAutoCommit(false);
+
+            // The latest observation of each product updates the product row
+            Map<String, ProductObservation> latest =
+                new LinkedHashMap<String, ProductObservation>();
+            long[] sourceOf = new long[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                ProductObservation obs = batch.get(i);
+                sourceOf[i] = getSourceId(connection, obs.getSource(), obs.getTime());
+                String key = sourceOf[i] + ":" + obs.getExternalId();
+                latest.put(key, obs);
+            }
+
+            PreparedStatement insertProduct = connection.prepareStatement(
+                    "insert into product(id, source_id, external_id, product_title, imgURL,"
+                    + " latest_price, update_date) values(?, ?, ?, ?, ?, ?, ?)");
+            PreparedStatement updateProduct = connection.prepareStatement(
+                    "update product set product_title = ?, imgURL = ?, latest_price = ?,"
+                    + " update_date = ? where id = ?");
+            PreparedStatement insertRecord = connection.prepareStatement(
+                    "insert into record(id, source_id, product_id, product_title, price,"
+                    + " update_date) values(?, ?, ?, ?, ?, ?)");
+            try {
+                Map<String, Long> ids = new LinkedHashMap<String, Long>();
+                for (Map.Entry<String, ProductObservation> entry : latest.entrySet()) {
+                    String key = entry.getKey();
+                    ProductObservation obs = entry.getValue();
+                    long sourceId = sourceIds.get(obs.getSource());
+                    Long id = productIds.get(key);
+                    if (id == null) {
+                        id = findProduct(connection, sourceId, obs.getExternalId());
+                    }
+                    Timestamp time = new Timestamp(obs.getTime());
+                    if (id == null) {
+                        id = nextId("product");
+                        newProducts.add(key);
+                        insertProduct.setLong(1, id);
+                        insertProduct.setLong(2, sourceId);
+                        insertProduct.setLong(3, obs.getExternalId());
+                        insertProduct.setString(4, obs.getTitle());
+                        insertProduct.setString(5, obs.getImgURL());
+                        insertProduct.setFloat(6, obs.getPrice());
+                        insertProduct.setTimestamp(7, time);
+                        insertProduct.addBatch();
+                    } else {
+                        updateProduct.setString(1, obs.getTitle());
+                        updateProduct.setString(2, obs.getImgURL());
+                        updateProduct.setFloat(3, obs.getPrice());
+                        updateProduct.setTimestamp(4, time);
+                        updateProduct.setLong(5, id);
+                        updateProduct.addBatch();
+                    }
+                    productIds.put(key, id);
+                    ids.put(key, id);
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    ProductObservation obs = batch.get(i);
+                    long productId = ids.get(sourceOf[i] + ":" + obs.getExternalId());
+                    productOf[i] = productId;
+                    if (history != null) {
+                        continue;
+                    }
+                    insertRecord.setLong(1, nextId("record"));
+                    insertRecord.setLong(2, sourceOf[i]);
+                    insertRecord.setLong(3, productId);
+                    insertRecord.setString(4, obs.getTitle());
+                    insertRecord.setFloat(5, obs.getPrice());
+                    insertRecord.setTimestamp(6, new Timestamp(obs.getTime()));
+                    insertRecord.addBatch();
+                }
+                insertProduct.executeBatch();
+                updateProduct.executeBatch();
+                insertRecord.executeBatch();
+                connection.commit();
+            } finally {
+                insertProduct.close();
+                updateProduct.close();
+                insertRecord.close();
+            }
+            if (history != null) {
+                // the rows are committed, a failure here loses only the history
+                try {
+                    for (int i = 0; i < batch.size(); i++) {
+                        ProductObservation obs = batch.get(i);
+                        history.append(productOf[i], obs.getTime(), obs.getPrice());
+                    }
+                } catch (IOException e) {
+                    LOG.error("Failed to append " + batch.size()
+                            + " observations to the price history: " + e.getMessage());
+                }
+            }
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Flushed " + batch.size() + " observations of " + latest.size()
+                        + " products");
+            }
+        } catch (Exception e) {
+            // The inserts were rolled back, look these products up again next time
+            for (String key : newProducts) {
+                productIds.remove(key);
+            }
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    LOG.warn(e1.getMessage());
+                }
+            }
+            throw e;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    LOG.warn(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private long nextId(String table) throws SQLException {
+        long id = idGenerator.generate(table);
+        if (id < 0) {
+            throw new SQLException("No ID available for " + table);
+        }
+        return id;
+    }
+
+    /** Looks the brand up in the source table, adding it if it is new. */
+    private long getSourceId(Connection connection, String name, long time)
+            throws SQLException {
+        Long id = sourceIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (sourceIds) {
+            id = sourceIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            PreparedStatement select = connection.prepareStatement(
+                    "select id from source where name = ?");
+            try {
+                select.setString(1, name);
+                ResultSet rs = select.executeQuery();
+                if (rs.next()) {
+                    id = rs.getLong(1);
+                }
+                rs.close();
+            } finally {
+                select.close();
+            }
+            if (id == null) {
+                id = nextId("source");
+                PreparedStatement insert = connection.prepareStatement(
+                        "insert into source(id, name, updatetime) values(?, ?, ?)");
+                try {
+                    insert.setLong(1, id);
+                    insert.setString(2, name);
+                    insert.setTimestamp(3, new Timestamp(time));
+                    insert.executeUpdate();
+                    // Other writers may reference it right away
+                    connection.commit();
+                } finally {
+                    insert.close();
+                }
+                LOG.info("Added source " + name + " with id " + id);
+            }
+            sourceIds.put(name, id);
+            return id;
+        }
+    }
+
+    private Long findProduct(Connection connection, long sourceId, long externalId)
+            throws SQLException {
+        PreparedStatement select = connection.prepareStatement(
+                "select id from product where source_id = ? and external_id = ?");
+        try {
+            select.setLong(1, sourceId);
+            select.setLong(2, externalId);
+            ResultSet rs = select.executeQuery();
+            Long id = rs.next() ? Long.valueOf(rs.getLong(1)) : null;
+            rs.close();
+            return id;
+        } finally {
+            select.close();
+        }
+    }
+}
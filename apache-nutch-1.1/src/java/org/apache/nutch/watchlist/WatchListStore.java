@@ -0,0 +1,154 @@
+package org.apache.nutch.watchlist;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Where the watchlist tables live, as chosen by watchlist.store:
+ * <ul>
+ * <li><code>jdbc</code>: the database server of watchlist.jdbc.url,
+ * normally MySQL</li>
+ * <li><code>embedded</code>: an HSQLDB database inside the process, kept in
+ * files starting with watchlist.store.embedded.path. Its tables are created
+ * by {@link InitDatabase} when it is opened for the first time.</li>
+ * </ul>
+ * The ID generators and the connection pool get their JDBC settings here.
+ *
+ * The embedded database is locked by the process that opens it, so it
+ * suits local and single-node runs where all tasks share one JVM.
+ */
+public class WatchListStore {
+
+    public static final Log LOG = LogFactory.getLog(WatchListStore.class);
+
+    /** The database server of watchlist.jdbc.url. */
+    public static final String JDBC = "jdbc";
+    /** An HSQLDB database in the process. */
+    public static final String EMBEDDED = "embedded";
+
+    public static final String EMBEDDED_DRIVER = "org.hsqldb.jdbcDriver";
+
+    // embedded databases opened by this process
+    private static final Set<String> opened = new HashSet<String>();
+
+    private WatchListStore() {} // no public ctor
+
+    public static boolean isEmbedded(Configuration conf) {
+        return EMBEDDED.equalsIgnoreCase(
+                conf.get(WatchListConfig.STORE.getAttributeString(), JDBC).trim());
+    }
+
+    public static String getDriver(Configuration conf) {
+        if (isEmbedded(conf)) {
+            return EMBEDDED_DRIVER;
+        }
+        return conf.get(WatchListConfig.JDBC_DRIVER.getAttributeString(),
+                "com.mysql.jdbc.Driver");
+    }
+
+    public static String getUrl(Configuration conf) {
+        if (isEmbedded(conf)) {
+            return "jdbc:hsqldb:file:" + conf.get(
+                    WatchListConfig.STORE_EMBEDDED_PATH.getAttributeString(),
+                    "watchlist-db/watchlist");
+        }
+        return conf.get(WatchListConfig.JDBC_URL.getAttributeString(),
+                "jdbc:mysql://localhost:3306/watchlist");
+    }
+
+    public static String getUser(Configuration conf) {
+        if (isEmbedded(conf)) {
+            return "sa";
+        }
+        return conf.get(WatchListConfig.JDBC_USER.getAttributeString(), "watchlist");
+    }
+
+    public static String getPassword(Configuration conf) {
+        if (isEmbedded(conf)) {
+            return "";
+        }
+        return conf.get(WatchListConfig.JDBC_PASSWORD.getAttributeString(), "wrmfw");
+    }
+
+    /**
+     * Opens a new connection, not a pooled one. The first connection to an
+     * embedded database creates its tables if they don't exist yet.
+     */
+    public static Connection connect(Configuration conf) throws SQLException {
+        String driver = getDriver(conf);
+        try {
+            Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("JDBC driver not found: " + driver);
+        }
+        String url = getUrl(conf);
+        Connection connection = DriverManager.getConnection(url, getUser(conf),
+                getPassword(conf));
+        if (isEmbedded(conf)) {
+            try {
+                open(conf, url, connection);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private static void open(Configuration conf, String url, Connection connection)
+            throws SQLException {
+        synchronized (opened) {
+            if (opened.contains(url)) {
+                return;
+            }
+            InitDatabase.initEmbeddedDatabase(conf, connection);
+            opened.add(url);
+        }
+        LOG.info("Opened embedded watchlist store " + url);
+        // write out the delayed log and close the files on exit
+        final Configuration shutdownConf = conf;
+        Runtime.getRuntime().addShutdownHook(new Thread("WatchListStore-shutdown") {
+            public void run() {
+                try {
+                    shutdown(shutdownConf);
+                } catch (SQLException e) {
+                    // already shut down
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes an embedded database, writing everything to its files. Does
+     * nothing for a database server. Pooled connections must not be used
+     * afterwards, see {@link PoolingDataDriver#shutdownDriver()}.
+     */
+    public static void shutdown(Configuration conf) throws SQLException {
+        if (!isEmbedded(conf)) {
+            return;
+        }
+        String url = getUrl(conf);
+        synchronized (opened) {
+            if (!opened.remove(url)) {
+                return;
+            }
+            Connection connection = DriverManager.getConnection(url, getUser(conf),
+                    getPassword(conf));
+            try {
+                Statement statement = connection.createStatement();
+                statement.execute("SHUTDOWN");
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.apache.nutch.watchlist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WatchRuleIndex holds the price watches of the users in memory and finds
+ * the watches a price change triggers.
+ *
+ * A watch is on one product (brand and item number) or on every product of
+ * a brand, and is one of:
+ * <ul>
+ * <li>{@link #BELOW}: the price falls below a threshold</li>
+ * <li>{@link #DROP}: the price drops by at least a percentage</li>
+ * <li>{@link #CHANGE}: the price changes</li>
+ * </ul>
+ * BELOW fires when the price crosses the threshold, not on every crawl it
+ * stays under it. Watches are grouped by brand and, within a brand, by item
+ * number in a map keyed by the primitive item number. The thresholds of a
+ * product or brand are kept sorted, so a change finds its watches with two
+ * binary searches and costs O(log n + matches) instead of a scan over all
+ * watches.
+ *
+ * Add the watches, then match. Matching may run in several threads once
+ * the first match has returned; adding must not run concurrently with
+ * anything else.
+ *
+ * Nothing builds an index yet: the store has no table of watches, and the
+ * alerting that reads the delta of {@link PriceChangeDetector} is still to
+ * come. It is meant to add the watches once per task and match every delta
+ * entry with {@link #match(String, ProductState, Collector)}.
+ */
+public class WatchRuleIndex {
+
+    /** The price falls below the threshold. */
+    public static final byte BELOW = 1;
+    /** The price drops by at least threshold percent. */
+    public static final byte DROP = 2;
+    /** The price changes, the threshold is ignored. */
+    public static final byte CHANGE = 3;
+
+    /** Receives the watches a change triggers. */
+    public interface Collector {
+        void collect(long ruleId, byte type);
+    }
+
+    /** The watches of one product or brand. */
+    private static class Rules {
+        float[] below;
+        long[] belowIds;
+        int belowCount;
+        float[] drop;
+        long[] dropIds;
+        int dropCount;
+        long[] changeIds;
+        int changeCount;
+        // waiting for prepare() to sort it
+        boolean queued;
+
+        void add(long ruleId, byte type, float threshold) {
+            switch (type) {
+            case BELOW:
+                if (below == null || belowCount == below.length) {
+                    int size = (below == null) ? 1 : belowCount * 2;
+                    below = copyOf(below, belowCount, size);
+                    belowIds = copyOf(belowIds, belowCount, size);
+                }
+                below[belowCount] = threshold;
+                belowIds[belowCount++] = ruleId;
+                break;
+            case DROP:
+                if (drop == null || dropCount == drop.length) {
+                    int size = (drop == null) ? 1 : dropCount * 2;
+                    drop = copyOf(drop, dropCount, size);
+                    dropIds = copyOf(dropIds, dropCount, size);
+                }
+                drop[dropCount] = threshold;
+                dropIds[dropCount++] = ruleId;
+                break;
+            case CHANGE:
+                if (changeIds == null || changeCount == changeIds.length) {
+                    int size = (changeIds == null) ? 1 : changeCount * 2;
+                    changeIds = copyOf(changeIds, changeCount, size);
+                }
+                changeIds[changeCount++] = ruleId;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown watch type " + type);
+            }
+        }
+
+        void sort() {
+            sort(below, belowIds, 0, belowCount - 1);
+            sort(drop, dropIds, 0, dropCount - 1);
+        }
+
+        int match(float previousPrice, float price, Collector collector) {
+            int matches = 0;
+            boolean isNew = Float.isNaN(previousPrice);
+            if (belowCount > 0 && (isNew || price < previousPrice)) {
+                // previousPrice >= threshold > price
+                int from = upperBound(below, belowCount, price);
+                int to = isNew ? belowCount : upperBound(below, belowCount, previousPrice);
+                for (int i = from; i < to; i++) {
+                    collector.collect(belowIds[i], BELOW);
+                }
+                matches += Math.max(0, to - from);
+            }
+            if (isNew || ProductState.samePrice(previousPrice, price)) {
+                return matches;
+            }
+            if (dropCount > 0 && price < previousPrice) {
+                // in cents, so that 100.00 to 80.00 is exactly 20%
+                long before = Math.round(previousPrice * 100.0);
+                long after = Math.round(price * 100.0);
+                float percent = (float) ((before - after) * 100.0 / before);
+                int to = upperBound(drop, dropCount, percent);
+                for (int i = 0; i < to; i++) {
+                    collector.collect(dropIds[i], DROP);
+                }
+                matches += to;
+            }
+            for (int i = 0; i < changeCount; i++) {
+                collector.collect(changeIds[i], CHANGE);
+            }
+            return matches + changeCount;
+        }
+
+        /** Index of the first threshold greater than value. */
+        private static int upperBound(float[] thresholds, int count, float value) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (thresholds[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static void sort(float[] keys, long[] ids, int lo, int hi) {
+            while (hi - lo > 16) {
+                float pivot = keys[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (keys[i] < pivot) {
+                        i++;
+                    }
+                    while (keys[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(keys, ids, i++, j--);
+                    }
+                }
+                // recurse into the smaller half
+                if (j - lo < hi - i) {
+                    sort(keys, ids, lo, j);
+                    lo = i;
+                } else {
+                    sort(keys, ids, i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && keys[j - 1] > keys[j]; j--) {
+                    swap(keys, ids, j, j - 1);
+                }
+            }
+        }
+
+        private static void swap(float[] keys, long[] ids, int a, int b) {
+            float key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+    }
+
+    /** The watches of one brand. */
+    private static class Brand {
+        final Rules rules = new Rules();
+        final LongMap<Rules> products = new LongMap<Rules>();
+    }
+
+    private final Map<String, Brand> brands = new HashMap<String, Brand>();
+    private final List<Rules> unsorted = new ArrayList<Rules>();
+    private volatile boolean dirty;
+    private int size;
+
+    /** Adds a watch on one product. */
+    public void addProductRule(String brand, long itemNumber, long ruleId, byte type,
+            float threshold) {
+        Brand b = getBrand(brand);
+        Rules rules = b.products.get(itemNumber);
+        if (rules == null) {
+            rules = new Rules();
+            b.products.put(itemNumber, rules);
+        }
+        add(rules, ruleId, type, threshold);
+    }
+
+    /** Adds a watch on every product of a brand. */
+    public void addBrandRule(String brand, long ruleId, byte type, float threshold) {
+        add(getBrand(brand).rules, ruleId, type, threshold);
+    }
+
+    private Brand getBrand(String name) {
+        Brand brand = brands.get(name);
+        if (brand == null) {
+            brand = new Brand();
+            brands.put(name, brand);
+        }
+        return brand;
+    }
+
+    private void add(Rules rules, long ruleId, byte type, float threshold) {
+        rules.add(ruleId, type, threshold);
+        if (type != CHANGE && !rules.queued) {
+            rules.queued = true;
+            unsorted.add(rules);
+            dirty = true;
+        }
+        size++;
+    }
+
+    /** Number of watches. */
+    public int size() {
+        return size;
+    }
+
+    /** Sorts the thresholds of the watches added since the last match. */
+    private synchronized void prepare() {
+        if (!dirty) {
+            return;
+        }
+        for (Rules rules : unsorted) {
+            rules.sort();
+            rules.queued = false;
+        }
+        unsorted.clear();
+        dirty = false;
+    }
+
+    /**
+     * Finds the watches triggered by a price change of a product.
+     *
+     * @param previousPrice the price before, NaN for a new product
+     * @return the number of watches passed to the collector
+     */
+    public int match(String brand, long itemNumber, float previousPrice, float price,
+            Collector collector) {
+        if (dirty) {
+            prepare();
+        }
+        Brand b = brands.get(brand);
+        if (b == null) {
+            return 0;
+        }
+        int matches = b.rules.match(previousPrice, price, collector);
+        Rules rules = b.products.get(itemNumber);
+        if (rules != null) {
+            matches += rules.match(previousPrice, price, collector);
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the watches triggered by an entry of the delta written by
+     * {@link PriceChangeDetector}, keyed by <code>brand:itemNumber</code>.
+     * Keys whose item number is not a number match nothing.
+     */
+    public int match(String key, ProductState state, Collector collector) {
+        int colon = key.lastIndexOf(':');
+        if (colon < 0) {
+            return 0;
+        }
+        long itemNumber;
+        try {
+            itemNumber = Long.parseLong(key.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return match(key.substring(0, colon), itemNumber, state.getPreviousPrice(),
+                state.getPrice(), collector);
+    }
+
+    private static float[] copyOf(float[] array, int count, int size) {
+        float[] result = new float[size];
+        if (array != null) {
+            System.arraycopy(array, 0, result, 0, count);
+        }
+        return result;
+    }
+
+    private static long[] copyOf(long[] array, int count, int size) {
+        long[] result = new long[size];
+        if (array != null) {
+            System.arraycopy(array, 0, result, 0, count);
+        }
+        return result;
+    }
+
+    /**
+     * An open addressing hash map from primitive long keys to values, so
+     * millions of products cost no Long or Entry objects.
+     */
+    static class LongMap<V> {
+        private static final int MIN_CAPACITY = 8;
+
+        private long[] keys = new long[MIN_CAPACITY];
+        private Object[] values = new Object[MIN_CAPACITY];
+        private int size;
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, V value) {
+            if (value == null) {
+                throw new IllegalArgumentException("null value");
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = slot(oldKeys[j], mask);
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
@@ -21,8 +21,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.LinkedList;
 
 // Commons Logging imports
 import org.apache.commons.logging.Log;
@@ -30,6 +28,8 @@ import org.apache.commons.logging.LogFactory;
 
 // Nutch imports
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.BandwidthThrottle;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.Protocol;
@@ -96,24 +96,8 @@ public abstract class HttpBase implements Protocol {
   /** The "Accept-Language" request header value. */
   protected String acceptLanguage = "en-us,en-gb,en;q=0.7,*;q=0.3";
     
-  /**
-   * Maps from host to a Long naming the time it should be unblocked.
-   * The Long is zero while the host is in use, then set to now+wait when
-   * a request finishes.  This way only one thread at a time accesses a
-   * host.
-   */
-  private static HashMap BLOCKED_ADDR_TO_TIME = new HashMap();
-  
-  /**
-   * Maps a host to the number of threads accessing that host.
-   */
-  private static HashMap THREADS_PER_HOST_COUNT = new HashMap();
-  
-  /**
-   * Queue of blocked hosts.  This contains all of the non-zero entries
-   * from BLOCKED_ADDR_TO_TIME, ordered by increasing time.
-   */
-  private static LinkedList BLOCKED_ADDR_QUEUE = new LinkedList();
+  /** The hosts being fetched, shared by all instances. */
+  private static final PolitenessSlots SLOTS = new PolitenessSlots();
   
   /** The default logger */
   private final static Log LOGGER = LogFactory.getLog(HttpBase.class);
@@ -126,6 +110,12 @@ public abstract class HttpBase implements Protocol {
   
   /** Do we block by IP addresses or by hostnames? */
   private boolean byIP = true;
+
+  /** The host resolutions shared with the fetcher. */
+  private DnsCache dnsCache;
+
+  /** The bandwidth caps shared by all fetches of the process. */
+  private BandwidthThrottle throttle;
  
   /** Do we use HTTP/1.1? */
   protected boolean useHttp11 = false;
@@ -169,6 +159,8 @@ public abstract class HttpBase implements Protocol {
         this.maxCrawlDelay = (long)(conf.getInt("fetcher.max.crawl.delay", -1) * 1000);
         // backward-compatible default setting
         this.byIP = conf.getBoolean("fetcher.threads.per.host.by.ip", true);
+        this.dnsCache = DnsCache.get(conf);
+        this.throttle = BandwidthThrottle.get(conf);
         this.useHttp11 = conf.getBoolean("http.useHttp11", false);
         this.robots.setConf(conf);
         this.checkBlocking = conf.getBoolean(Protocol.CHECK_BLOCKING, true);
@@ -339,13 +331,23 @@ public abstract class HttpBase implements Protocol {
   public boolean getUseHttp11() {
     return useHttp11;
   }
+
+  /** The cache to resolve hosts with, shared with the fetcher. */
+  public DnsCache getDnsCache() {
+    return dnsCache;
+  }
+
+  /** The governor the protocols report their reads to. */
+  public BandwidthThrottle getBandwidthThrottle() {
+    return throttle;
+  }
   
   private String blockAddr(URL url, long crawlDelay) throws ProtocolException {
     
     String host;
     if (byIP) {
       try {
-        InetAddress addr = InetAddress.getByName(url.getHost());
+        InetAddress addr = dnsCache.resolve(url.getHost());
         host = addr.getHostAddress();
       } catch (UnknownHostException e) {
         // unable to resolve it, so don't fall back to host name
@@ -358,74 +360,12 @@ public abstract class HttpBase implements Protocol {
       host = host.toLowerCase();
     }
     
-    int delays = 0;
-    while (true) {
-      cleanExpiredServerBlocks();                 // free held addresses
-      
-      Long time;
-      synchronized (BLOCKED_ADDR_TO_TIME) {
-        time = (Long) BLOCKED_ADDR_TO_TIME.get(host);
-        if (time == null) {                       // address is free
-          
-          // get # of threads already accessing this addr
-          Integer counter = (Integer)THREADS_PER_HOST_COUNT.get(host);
-          int count = (counter == null) ? 0 : counter.intValue();
-          
-          count++;                              // increment & store
-          THREADS_PER_HOST_COUNT.put(host, new Integer(count));
-          
-          if (count >= maxThreadsPerHost) {
-            BLOCKED_ADDR_TO_TIME.put(host, new Long(0)); // block it
-          }
-          return host;
-        }
-      }
-      
-      if (delays == maxDelays)
-        throw new BlockedException("Exceeded http.max.delays: retry later.");
-      
-      long done = time.longValue();
-      long now = System.currentTimeMillis();
-      long sleep = 0;
-      if (done == 0) {                            // address is still in use
-        sleep = crawlDelay;                      // wait at least delay
-        
-      } else if (now < done) {                    // address is on hold
-        sleep = done - now;                       // wait until its free
-      }
-      
-      try {
-        Thread.sleep(sleep);
-      } catch (InterruptedException e) {}
-      delays++;
-    }
+    SLOTS.acquire(host, maxThreadsPerHost, crawlDelay, maxDelays);
+    return host;
   }
   
   private void unblockAddr(String host, long crawlDelay) {
-    synchronized (BLOCKED_ADDR_TO_TIME) {
-      int addrCount = ((Integer)THREADS_PER_HOST_COUNT.get(host)).intValue();
-      if (addrCount == 1) {
-        THREADS_PER_HOST_COUNT.remove(host);
-        BLOCKED_ADDR_QUEUE.addFirst(host);
-        BLOCKED_ADDR_TO_TIME.put
-                (host, new Long(System.currentTimeMillis() + crawlDelay));
-      } else {
-        THREADS_PER_HOST_COUNT.put(host, new Integer(addrCount - 1));
-      }
-    }
-  }
-  
-  private static void cleanExpiredServerBlocks() {
-    synchronized (BLOCKED_ADDR_TO_TIME) {
-      for (int i = BLOCKED_ADDR_QUEUE.size() - 1; i >= 0; i--) {
-        String host = (String) BLOCKED_ADDR_QUEUE.get(i);
-        long time = ((Long) BLOCKED_ADDR_TO_TIME.get(host)).longValue();
-        if (time <= System.currentTimeMillis()) {
-          BLOCKED_ADDR_TO_TIME.remove(host);
-          BLOCKED_ADDR_QUEUE.remove(i);
-        }
-      }
-    }
+    SLOTS.release(host, crawlDelay);
   }
   
   private static String getAgentString(String agentName,
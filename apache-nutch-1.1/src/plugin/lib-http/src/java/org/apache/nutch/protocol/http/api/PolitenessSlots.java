@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol.http.api;
+
+// JDK imports
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The politeness state of the hosts being fetched: at most
+ * <code>maxThreads</code> requests to a host at a time, and a pause of the
+ * crawl delay once the last one finishes.
+ *
+ * <p>Each host has its own slot object in a concurrent map, so taking a
+ * slot is O(1) and waits only on requests to the same host. A thread that
+ * finds its host busy or on hold waits on the slot, and is woken when a
+ * request finishes or, for a hold, by a timer when the hold ends. Idle
+ * slots are removed by the same timer.
+ */
+public class PolitenessSlots {
+
+  /** The state of one host. */
+  private static class Slot {
+    // all guarded by this
+    int inUse;
+    // the host is held until then after its last request
+    long heldUntil;
+    int waiting;
+    // removed from the map, get a new one
+    boolean removed;
+  }
+
+  private final ConcurrentMap<String, Slot> slots =
+    new ConcurrentHashMap<String, Slot>();
+
+  private final ScheduledThreadPoolExecutor timer =
+    new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "politeness-timer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+  /**
+   * Takes a slot of a host, waiting up to <code>maxDelays</code> crawl
+   * delays for one.
+   * @throws BlockedException if no slot was free in time
+   */
+  public void acquire(String host, int maxThreads, long crawlDelay,
+                      int maxDelays) throws BlockedException {
+    long deadline = System.currentTimeMillis() + maxDelays * crawlDelay;
+    while (true) {
+      Slot slot = slots.get(host);
+      if (slot == null) {
+        Slot created = new Slot();
+        slot = slots.putIfAbsent(host, created);
+        if (slot == null) {
+          slot = created;
+        }
+      }
+      synchronized (slot) {
+        if (slot.removed) {
+          continue;
+        }
+        while (true) {
+          long now = System.currentTimeMillis();
+          if (slot.inUse < maxThreads && slot.heldUntil <= now) {
+            slot.inUse++;
+            slot.heldUntil = 0;
+            return;
+          }
+          long wait = deadline - now;
+          if (wait <= 0 || maxDelays == 0) {
+            if (slot.inUse == 0 && slot.heldUntil == 0 && slot.waiting == 0) {
+              // freed after the last waiter gave up
+              expire(host, slot);
+            }
+            throw new BlockedException("Exceeded http.max.delays: retry later.");
+          }
+          slot.waiting++;
+          try {
+            slot.wait(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockedException("Interrupted waiting for " + host);
+          } finally {
+            slot.waiting--;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives back a slot of a host. After its last request, the host is held
+   * for the crawl delay.
+   */
+  public void release(final String host, long crawlDelay) {
+    final Slot slot = slots.get(host);
+    if (slot == null) {
+      return;
+    }
+    synchronized (slot) {
+      slot.inUse--;
+      if (slot.inUse > 0) {
+        // one more slot free
+        slot.notify();
+        return;
+      }
+      if (crawlDelay <= 0) {
+        expire(host, slot);
+        return;
+      }
+      slot.heldUntil = System.currentTimeMillis() + crawlDelay;
+    }
+    scheduleExpiry(host, slot, crawlDelay);
+  }
+
+  private void scheduleExpiry(final String host, final Slot slot, long delay) {
+    timer.schedule(new Runnable() {
+      public void run() {
+        long left;
+        synchronized (slot) {
+          if (slot.inUse > 0 || slot.heldUntil == 0) {
+            // taken again, its release schedules the next expiry
+            return;
+          }
+          left = slot.heldUntil - System.currentTimeMillis();
+          if (left <= 0) {
+            expire(host, slot);
+            return;
+          }
+        }
+        // the clocks differ a little
+        scheduleExpiry(host, slot, left);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /** Ends the hold of an idle host. The caller holds the slot's lock. */
+  private void expire(String host, Slot slot) {
+    slot.heldUntil = 0;
+    if (slot.waiting == 0) {
+      slot.removed = true;
+      slots.remove(host, slot);
+    } else {
+      slot.notifyAll();
+    }
+  }
+
+  /** Number of hosts in use or on hold. */
+  public int size() {
+    return slots.size();
+  }
+}
@@ -17,6 +17,8 @@
 package org.apache.nutch.protocol.http.api;
 
 // JDK imports
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.LineNumberReader;
@@ -25,7 +27,6 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
 
 // Commons Logging imports
@@ -35,10 +36,12 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.RobotRules;
+import org.apache.nutch.protocol.RobotRulesCache;
 
 
 /**
@@ -56,14 +59,20 @@ public class RobotRulesParser implements Configurable {
 
   private boolean allowForbidden = false;
 
-  private static final Hashtable CACHE = new Hashtable();
+  private RobotRulesCache cache;
+
+  /** How long the rules of a host are kept, in milliseconds. */
+  private long ttl;
   
   private static final String CHARACTER_ENCODING= "UTF-8";
   private static final int NO_PRECEDENCE= Integer.MAX_VALUE;
     
   private static final RobotRuleSet EMPTY_RULES= new RobotRuleSet();
 
-  private static RobotRuleSet FORBID_ALL_RULES = getForbidAllRules();
+  static {
+    // shared by threads
+    EMPTY_RULES.compile();
+  }
 
   private Configuration conf;
   private HashMap robotNames;
@@ -72,7 +81,7 @@ public class RobotRulesParser implements Configurable {
    * This class holds the rules which were parsed from a robots.txt
    * file, and can test paths against those rules.
    */
-  public static class RobotRuleSet implements RobotRules {
+  public static class RobotRuleSet implements RobotRules, Writable {
     ArrayList tmpEntries = new ArrayList();
     RobotsEntry[] entries = null;
     long expireTime;
@@ -116,6 +125,19 @@ public class RobotRulesParser implements Configurable {
       }
     }
 
+    /**
+     * Builds the array of entries tested by {@link #isAllowed(String)}. The
+     * rule set is not changed after that, so it can be shared by threads.
+     */
+    private void compile() {
+      if (entries == null) {
+        entries= new RobotsEntry[tmpEntries.size()];
+        entries= (RobotsEntry[]) 
+          tmpEntries.toArray(entries);
+        tmpEntries= null;
+      }
+    }
+
     /**
      * Change when the ruleset goes stale.
      */
@@ -170,12 +192,7 @@ public class RobotRulesParser implements Configurable {
         // path prefixes
       }
       
-      if (entries == null) {
-        entries= new RobotsEntry[tmpEntries.size()];
-        entries= (RobotsEntry[]) 
-          tmpEntries.toArray(entries);
-        tmpEntries= null;
-      }
+      compile();
 
       int pos= 0;
       int end= entries.length;
@@ -188,10 +205,32 @@ public class RobotRulesParser implements Configurable {
       return true;
     }
 
+    public void write(DataOutput out) throws IOException {
+      compile();
+      out.writeLong(expireTime);
+      out.writeLong(crawlDelay);
+      out.writeInt(entries.length);
+      for (int i= 0; i < entries.length; i++) {
+        Text.writeString(out, entries[i].prefix);
+        out.writeBoolean(entries[i].allowed);
+      }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      expireTime= in.readLong();
+      crawlDelay= in.readLong();
+      entries= new RobotsEntry[in.readInt()];
+      for (int i= 0; i < entries.length; i++) {
+        String prefix= Text.readString(in);
+        entries[i]= new RobotsEntry(prefix, in.readBoolean());
+      }
+      tmpEntries= null;
+    }
+
     /**
      */
     public String toString() {
-      isAllowed("x");  // force String[] representation
+      compile();  // force String[] representation
       StringBuffer buf= new StringBuffer();
       for (int i= 0; i < entries.length; i++) 
         if (entries[i].allowed)
@@ -219,6 +258,9 @@ public class RobotRulesParser implements Configurable {
   public void setConf(Configuration conf) {
     this.conf = conf;
     allowForbidden = conf.getBoolean("http.robots.403.allow", false);
+    ttl = conf.getLong("robots.cache.ttl", 24L * 60 * 60 * 1000);
+    cache = RobotRulesCache.get(conf);
+    cache.setRulesClass(RobotRuleSet.class);
     //
     // Grab the agent names we advertise to robots files.
     //
@@ -412,10 +454,11 @@ public class RobotRulesParser implements Configurable {
   static RobotRuleSet getForbidAllRules() {
     RobotRuleSet rules= new RobotRuleSet();
     rules.addPrefix("", false);
+    rules.compile();
     return rules;
   }
   
-  public RobotRuleSet getRobotRulesSet(HttpBase http, Text url) {
+  public RobotRules getRobotRulesSet(HttpBase http, Text url) {
     URL u = null;
     try {
       u = new URL(url.toString());
@@ -425,62 +468,73 @@ public class RobotRulesParser implements Configurable {
     return getRobotRulesSet(http, u);
   }
   
-  private RobotRuleSet getRobotRulesSet(HttpBase http, URL url) {
+  private RobotRules getRobotRulesSet(final HttpBase http, final URL url) {
 
     String host = url.getHost().toLowerCase(); // normalize to lower case
 
-    RobotRuleSet robotRules = (RobotRuleSet)CACHE.get(host);
+    // the rules may come from the parser of another plugin class loader,
+    // use them through the RobotRules interface only
+    return cache.get(host, new RobotRulesCache.Loader() {
+      public RobotRules load(String host) {
+        return fetchRules(http, url, host);
+      }
+    });
+  }
+
+  /** Fetches and parses the robots.txt of a host, on a cache miss. */
+  private RobotRuleSet fetchRules(HttpBase http, URL url, String host) {
+    RobotRuleSet robotRules = null;
 
     boolean cacheRule = true;
     
-    if (robotRules == null) {                     // cache miss
-      URL redir = null;
-      if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
-      try {
-        Response response = http.getResponse(new URL(url, "/robots.txt"),
-                                             new CrawlDatum(), true);
-        // try one level of redirection ?
-        if (response.getCode() == 301 || response.getCode() == 302) {
-          String redirection = response.getHeader("Location");
-          if (redirection == null) {
-            // some versions of MS IIS are known to mangle this header
-            redirection = response.getHeader("location");
-          }
-          if (redirection != null) {
-            if (!redirection.startsWith("http")) {
-              // RFC says it should be absolute, but apparently it isn't
-              redir = new URL(url, redirection);
-            } else {
-              redir = new URL(redirection);
-            }
-            
-            response = http.getResponse(redir, new CrawlDatum(), true);
+    URL redir = null;
+    if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
+    try {
+      Response response = http.getResponse(new URL(url, "/robots.txt"),
+                                           new CrawlDatum(), true);
+      // try one level of redirection ?
+      if (response.getCode() == 301 || response.getCode() == 302) {
+        String redirection = response.getHeader("Location");
+        if (redirection == null) {
+          // some versions of MS IIS are known to mangle this header
+          redirection = response.getHeader("location");
+        }
+        if (redirection != null) {
+          if (!redirection.startsWith("http")) {
+            // RFC says it should be absolute, but apparently it isn't
+            redir = new URL(url, redirection);
+          } else {
+            redir = new URL(redirection);
           }
+          
+          response = http.getResponse(redir, new CrawlDatum(), true);
         }
+      }
 
-        if (response.getCode() == 200)               // found rules: parse them
-          robotRules = parseRules(response.getContent());
-        else if ( (response.getCode() == 403) && (!allowForbidden) )
-          robotRules = FORBID_ALL_RULES;            // use forbid all
-        else if (response.getCode() >= 500) {
-          cacheRule = false;
-          robotRules = EMPTY_RULES;
-        }else                                        
-          robotRules = EMPTY_RULES;                 // use default rules
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
-        }
+      if (response.getCode() == 200)               // found rules: parse them
+        robotRules = parseRules(response.getContent());
+      else if ( (response.getCode() == 403) && (!allowForbidden) )
+        robotRules = getForbidAllRules();         // use forbid all
+      else if (response.getCode() >= 500) {
         cacheRule = false;
         robotRules = EMPTY_RULES;
+      }else                                        
+        robotRules = new RobotRuleSet();          // use default rules
+    } catch (Throwable t) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
       }
+      cacheRule = false;
+      robotRules = EMPTY_RULES;
+    }
 
-      if (cacheRule) {
-        CACHE.put(host, robotRules);  // cache rules for host
-        if (redir != null && !redir.getHost().equals(host)) {
-          // cache also for the redirected host
-          CACHE.put(redir.getHost(), robotRules);
-        }
+    if (cacheRule) {
+      robotRules.compile();
+      robotRules.setExpireTime(System.currentTimeMillis() + ttl);
+      cache.put(host, robotRules);  // cache rules for host
+      if (redir != null && !redir.getHost().equals(host)) {
+        // cache also for the redirected host
+        cache.put(redir.getHost(), robotRules);
       }
     }
     return robotRules;
@@ -488,12 +542,7 @@ public class RobotRulesParser implements Configurable {
 
   public boolean isAllowed(HttpBase http, URL url)
       throws ProtocolException, IOException {
-    String path = url.getPath();                  // check rules
-    if ((path == null) || "".equals(path)) {
-      path= "/";
-    }
-
-    return getRobotRulesSet(http, url).isAllowed(path);
+    return getRobotRulesSet(http, url).isAllowed(url);
   }
   
   public long getCrawlDelay(HttpBase http, URL url)
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol.http.api;
+
+import junit.framework.TestCase;
+
+public class TestPolitenessSlots extends TestCase {
+
+  public void testThreadsPerHost() throws Exception {
+    PolitenessSlots slots = new PolitenessSlots();
+    slots.acquire("a", 2, 100, 0);
+    slots.acquire("a", 2, 100, 0);
+    try {
+      slots.acquire("a", 2, 100, 0);
+      fail("third thread on a host with two slots");
+    } catch (BlockedException e) {
+      // expected
+    }
+    // other hosts are not affected
+    slots.acquire("b", 2, 100, 0);
+    assertEquals(2, slots.size());
+  }
+
+  public void testCrawlDelay() throws Exception {
+    PolitenessSlots slots = new PolitenessSlots();
+    slots.acquire("a", 1, 200, 0);
+    slots.release("a", 200);
+    try {
+      slots.acquire("a", 1, 200, 0);
+      fail("host not held for the crawl delay");
+    } catch (BlockedException e) {
+      // expected
+    }
+    long start = System.currentTimeMillis();
+    slots.acquire("a", 1, 200, 3);
+    long waited = System.currentTimeMillis() - start;
+    assertTrue("waited " + waited + " ms", waited >= 150);
+    slots.release("a", 0);
+    assertEquals(0, slots.size());
+  }
+
+  public void testWaitForRelease() throws Exception {
+    final PolitenessSlots slots = new PolitenessSlots();
+    slots.acquire("a", 1, 50, 0);
+    Thread releaser = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        slots.release("a", 50);
+      }
+    };
+    releaser.start();
+    long start = System.currentTimeMillis();
+    slots.acquire("a", 1, 50, 20);
+    long waited = System.currentTimeMillis() - start;
+    releaser.join();
+    // the request and then the crawl delay
+    assertTrue("waited " + waited + " ms", waited >= 140);
+  }
+
+  public void testMaxDelays() throws Exception {
+    PolitenessSlots slots = new PolitenessSlots();
+    slots.acquire("a", 1, 50, 0);
+    long start = System.currentTimeMillis();
+    try {
+      slots.acquire("a", 1, 50, 2);
+      fail("no slot, but not blocked");
+    } catch (BlockedException e) {
+      // expected
+    }
+    long waited = System.currentTimeMillis() - start;
+    assertTrue("waited " + waited + " ms", waited >= 90 && waited < 1000);
+  }
+
+  public void testIdleHostsRemoved() throws Exception {
+    PolitenessSlots slots = new PolitenessSlots();
+    for (int i = 0; i < 100; i++) {
+      slots.acquire("host" + i, 1, 20, 0);
+      slots.release("host" + i, 20);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (slots.size() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, slots.size());
+  }
+}
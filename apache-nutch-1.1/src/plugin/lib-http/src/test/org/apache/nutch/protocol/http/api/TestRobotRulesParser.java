@@ -17,6 +17,8 @@
 
 package org.apache.nutch.protocol.http.api;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.nutch.protocol.http.api.RobotRulesParser.RobotRuleSet;
 
 import junit.framework.TestCase;
@@ -283,6 +285,27 @@ public class TestRobotRulesParser extends TestCase {
     assertTrue("testing crawl delay for agent nutchbot - rule 2", (crawlDelay == -1));
   }
 
+  public void testWritable() throws Exception {
+    RobotRulesParser p = new RobotRulesParser(new String[] { "nutchbot" });
+    RobotRuleSet rules = p.parseRules(("User-agent: *" + CR
+                                       + "Crawl-delay: 5" + CR
+                                       + "Allow: /baz/ok" + CR
+                                       + "Disallow: /baz" + CR).getBytes());
+    rules.setExpireTime(1234);
+    DataOutputBuffer out = new DataOutputBuffer();
+    rules.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    RobotRuleSet read = new RobotRuleSet();
+    read.readFields(in);
+    assertEquals(1234, read.getExpireTime());
+    assertEquals(5000, read.getCrawlDelay());
+    assertTrue(read.isAllowed("/baz/ok"));
+    assertFalse(read.isAllowed("/baz/no"));
+    assertTrue(read.isAllowed("/foo"));
+    assertEquals(rules.toString(), read.toString());
+  }
+
   // helper
 
   public void testRobots(int robotsString, String[] agents, String[] paths, 
@@ -344,6 +344,22 @@ public class DOMContentUtils {
     return new URL(base, target);
   }
 
+  /**
+   * Resolves a link target against the base URL.
+   */
+  URL resolve(URL base, String target) throws MalformedURLException {
+    return (base.toString().indexOf(';') > 0) ? 
+      fixEmbeddedParams(base, target) :  new URL(base, target);
+  }
+
+  /**
+   * Returns the link parameters of an element, <code>null</code> if the
+   * element is not a link or links of its kind are ignored.
+   */
+  LinkParams getLinkParams(String nodeName) {
+    return (LinkParams) linkParams.get(nodeName);
+  }
+
   /**
    * This method finds all anchors below the supplied DOM
    * <code>node</code>, and creates appropriate {@link Outlink}
@@ -400,8 +416,7 @@ public class DOMContentUtils {
             if (target != null && !noFollow && !post)
               try {
                 
-                URL url = (base.toString().indexOf(';') > 0) ? 
-                  fixEmbeddedParams(base, target) :  new URL(base, target);
+                URL url = resolve(base, target);
                 outlinks.add(new Outlink(url.toString(),
                                          linkText.toString().trim()));
               } catch (MalformedURLException e) {
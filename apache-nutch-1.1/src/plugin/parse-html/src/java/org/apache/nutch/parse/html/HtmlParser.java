@@ -28,6 +28,7 @@ import java.util.regex.*;
 import org.cyberneko.html.parsers.*;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.w3c.dom.*;
 import org.apache.html.dom.*;
 
@@ -108,10 +109,18 @@ public class HtmlParser implements Parser {
   private DOMContentUtils utils;
 
   private HtmlParseFilters htmlParseFilters;
+
+  private HtmlStreamFilters htmlStreamFilters;
   
   private String cachingPolicy;
   
   public ParseResult getParse(Content content) {
+    // pages claimed by a stream filter are parsed without a DOM tree
+    return getParse(content, htmlStreamFilters.open(content));
+  }
+
+  /** Parses a page into a DOM tree, or streams it to the handlers if any. */
+  ParseResult getParse(Content content, HtmlStreamHandler[] handlers) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
     URL base;
     try {
@@ -124,8 +133,10 @@ public class HtmlParser implements Parser {
     Outlink[] outlinks = new Outlink[0];
     Metadata metadata = new Metadata();
 
+    StreamContentHandler stream = null;
+
     // parse the content
-    DocumentFragment root;
+    DocumentFragment root = null;
     try {
       byte[] contentInOctets = content.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
@@ -140,7 +151,12 @@ public class HtmlParser implements Parser {
 
       input.setEncoding(encoding);
       if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (handlers.length > 0) {
+        stream = new StreamContentHandler(base, utils, handlers);
+        parseStream(input, stream);
+      } else {
+        root = parse(input);
+      }
     } catch (IOException e) {
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     } catch (DOMException e) {
@@ -152,6 +168,10 @@ public class HtmlParser implements Parser {
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     }
 
+    if (stream != null) {
+      return getStreamParse(content, base, metadata, stream, handlers);
+    }
+
     // get meta directives
     HTMLMetaProcessor.getMetaTags(metaTags, root, base);
     if (LOG.isTraceEnabled()) {
@@ -194,12 +214,64 @@ public class HtmlParser implements Parser {
     // run filters on parse
     ParseResult filteredParse = this.htmlParseFilters.filter(content, parseResult, 
                                                              metaTags, root);
+    setCachingPolicy(filteredParse, metaTags);
+    return filteredParse;
+  }
+
+  /**
+   * Builds the parse of a page streamed through
+   * {@link HtmlStreamHandler}s.  Same as the DOM parse, except that the
+   * {@link HtmlParseFilter}s do not run, only the stream handlers.
+   */
+  private ParseResult getStreamParse(Content content, URL base,
+                                     Metadata metadata,
+                                     StreamContentHandler stream,
+                                     HtmlStreamHandler[] handlers) {
+    HTMLMetaTags metaTags = stream.getMetaTags();
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
+    }
+    String text = "";
+    String title = "";
+    Outlink[] outlinks = new Outlink[0];
+    if (!metaTags.getNoIndex()) {               // okay to index
+      text = stream.getText();
+      title = stream.getTitle();
+    }
+
+    if (!metaTags.getNoFollow()) {              // okay to follow links
+      ArrayList<Outlink> l = new ArrayList<Outlink>();
+      URL baseTag = stream.getBase();
+      stream.getOutlinks(baseTag!=null?baseTag:base, l);
+      outlinks = l.toArray(new Outlink[l.size()]);
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("found "+outlinks.length+" outlinks in "+content.getUrl());
+      }
+    }
+
+    ParseStatus status = new ParseStatus(ParseStatus.SUCCESS);
+    if (metaTags.getRefresh()) {
+      status.setMinorCode(ParseStatus.SUCCESS_REDIRECT);
+      status.setArgs(new String[] {metaTags.getRefreshHref().toString(),
+        Integer.toString(metaTags.getRefreshTime())});      
+    }
+    ParseData parseData = new ParseData(status, title, outlinks,
+                                        content.getMetadata(), metadata);
+    ParseResult parseResult = ParseResult.createParseResult(content.getUrl(), 
+                                                 new ParseImpl(text, parseData));
+
+    ParseResult filteredParse = HtmlStreamFilters.filter(handlers, content,
+                                                         parseResult, metaTags);
+    setCachingPolicy(filteredParse, metaTags);
+    return filteredParse;
+  }
+
+  private void setCachingPolicy(ParseResult parseResult, HTMLMetaTags metaTags) {
     if (metaTags.getNoCache()) {             // not okay to cache
-      for (Map.Entry<org.apache.hadoop.io.Text, Parse> entry : filteredParse) 
+      for (Map.Entry<org.apache.hadoop.io.Text, Parse> entry : parseResult) 
         entry.getValue().getData().getParseMeta().set(Nutch.CACHING_FORBIDDEN_KEY, 
                                                       cachingPolicy);
     }
-    return filteredParse;
   }
 
   private DocumentFragment parse(InputSource input) throws Exception {
@@ -208,6 +280,33 @@ public class HtmlParser implements Parser {
     else return parseNeko(input);
   }
   
+  /** Parses the page into SAX events only, with the configured parser. */
+  private void parseStream(InputSource input, StreamContentHandler handler)
+    throws Exception {
+    XMLReader reader;
+    if (parserImpl.equalsIgnoreCase("tagsoup")) {
+      reader = new org.ccil.cowan.tagsoup.Parser();
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+    } else {
+      reader = new SAXParser();
+      try {
+        reader.setProperty("http://cyberneko.org/html/properties/default-encoding",
+                defaultCharEncoding);
+        reader.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+                true);
+        reader.setProperty("http://cyberneko.org/html/properties/names/elems",
+                "lower");
+        reader.setProperty("http://cyberneko.org/html/properties/names/attrs",
+                "lower");
+        reader.setFeature("http://cyberneko.org/html/features/report-errors",
+                LOG.isTraceEnabled());
+      } catch (SAXException e) {}
+    }
+    reader.setContentHandler(handler);
+    reader.parse(input);
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
@@ -281,6 +380,7 @@ public class HtmlParser implements Parser {
   public void setConf(Configuration conf) {
     this.conf = conf;
     this.htmlParseFilters = new HtmlParseFilters(getConf());
+    this.htmlStreamFilters = new HtmlStreamFilters(getConf());
     this.parserImpl = getConf().get("parser.html.impl", "neko");
     this.defaultCharEncoding = getConf().get(
         "parser.character.encoding.default", "windows-1252");
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.HtmlStreamHandler;
+import org.apache.nutch.parse.Outlink;
+
+/**
+ * Collects the text, title, outlinks and meta directives of a page from its
+ * SAX events, as {@link DOMContentUtils} and {@link HTMLMetaProcessor} do
+ * from its DOM tree, and passes the events on to the
+ * {@link HtmlStreamHandler}s that claimed the page.
+ *
+ * Text is collected the same way, one whitespace collapsed text node at a
+ * time, skipping script and style.  Links follow the same link parameters,
+ * but a link is only dropped for having no content at all; the DOM cleanup
+ * cases of {@link DOMContentUtils} do not arise without a DOM.
+ */
+class StreamContentHandler extends DefaultHandler {
+
+  /** A link, waiting for its anchor text while open. */
+  private static class Link {
+    final String target;
+    final int depth;
+    final StringBuilder text = new StringBuilder();
+    boolean hasContent;
+
+    Link(String target, int depth) {
+      this.target = target;
+      this.depth = depth;
+    }
+  }
+
+  private final HtmlStreamHandler[] handlers;
+  private final DOMContentUtils utils;
+  private final URL currURL;
+  private final HTMLMetaTags metaTags = new HTMLMetaTags();
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder title = new StringBuilder();
+  // the characters of the current text node
+  private final StringBuilder chars = new StringBuilder();
+  private final List<Link> links = new ArrayList<Link>();
+  // the links waiting for their end
+  private final List<Link> open = new ArrayList<Link>();
+  private URL base;
+
+  private int depth;
+  // depth of the script or style element whose text is skipped, or -1
+  private int skipDepth = -1;
+  private boolean inBody;
+  private boolean inTitle;
+  private boolean titleFound;
+
+  StreamContentHandler(URL currURL, DOMContentUtils utils,
+                       HtmlStreamHandler[] handlers) {
+    this.currURL = currURL;
+    this.utils = utils;
+    this.handlers = handlers;
+  }
+
+  public void startDocument() throws SAXException {
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].startDocument();
+    }
+  }
+
+  public void endDocument() throws SAXException {
+    flushText();
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].endDocument();
+    }
+  }
+
+  public void startElement(String uri, String localName, String qName,
+                           Attributes atts) throws SAXException {
+    String name = (qName != null && qName.length() > 0 ? qName : localName)
+      .toLowerCase();
+    flushText();
+    for (int i = 0; i < open.size(); i++) {
+      open.get(i).hasContent = true;
+    }
+
+    if (skipDepth < 0 && ("script".equals(name) || "style".equals(name))) {
+      skipDepth = depth;
+    }
+    if ("body".equals(name)) {
+      inBody = true;
+    } else if (!inBody) {
+      if ("title".equals(name) && !titleFound) {
+        inTitle = true;
+      } else if ("meta".equals(name)) {
+        HTMLMetaProcessor.processMeta(metaTags, attribute(atts, "name"),
+                                      attribute(atts, "http-equiv"),
+                                      attribute(atts, "content"), currURL);
+      } else if ("base".equals(name)) {
+        String href = attribute(atts, "href");
+        if (href != null) {
+          HTMLMetaProcessor.processBase(metaTags, href, currURL);
+          if (base == null) {
+            try {
+              base = new URL(href);
+            } catch (MalformedURLException e) {}
+          }
+        }
+      }
+    }
+
+    DOMContentUtils.LinkParams params = utils.getLinkParams(name);
+    if (params != null) {
+      String target = null;
+      boolean noFollow = false;
+      boolean post = false;
+      for (int i = 0; i < atts.getLength(); i++) {
+        String attrName = atts.getQName(i);
+        if (params.attrName.equalsIgnoreCase(attrName)) {
+          target = atts.getValue(i);
+        } else if ("rel".equalsIgnoreCase(attrName) &&
+                   "nofollow".equalsIgnoreCase(atts.getValue(i))) {
+          noFollow = true;
+        } else if ("method".equalsIgnoreCase(attrName) &&
+                   "post".equalsIgnoreCase(atts.getValue(i))) {
+          post = true;
+        }
+      }
+      if (target != null && !noFollow && !post) {
+        Link link = new Link(target, depth);
+        if (params.childLen > 0) {
+          // needs content, wait for its end
+          open.add(link);
+        } else {
+          link.hasContent = true;
+        }
+        links.add(link);
+      }
+    }
+
+    depth++;
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].startElement(uri, name, name, atts);
+    }
+  }
+
+  public void endElement(String uri, String localName, String qName)
+    throws SAXException {
+    String name = (qName != null && qName.length() > 0 ? qName : localName)
+      .toLowerCase();
+    flushText();
+    depth--;
+    if (depth == skipDepth) {
+      skipDepth = -1;
+    }
+    if (inTitle && "title".equals(name)) {
+      inTitle = false;
+      titleFound = true;
+    }
+    for (int i = open.size() - 1; i >= 0 && open.get(i).depth >= depth; i--) {
+      open.remove(i);
+    }
+
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].endElement(uri, name, name);
+    }
+  }
+
+  public void characters(char[] ch, int start, int length)
+    throws SAXException {
+    if (skipDepth < 0) {
+      chars.append(ch, start, length);
+    }
+    for (int i = 0; i < open.size(); i++) {
+      open.get(i).hasContent = true;
+    }
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].characters(ch, start, length);
+    }
+  }
+
+  /** Adds the current text node to the text, title and anchor texts. */
+  private void flushText() {
+    if (chars.length() == 0) {
+      return;
+    }
+    appendText(text, chars);
+    if (inTitle) {
+      appendText(title, chars);
+    }
+    for (int i = 0; i < open.size(); i++) {
+      appendText(open.get(i).text, chars);
+    }
+    chars.setLength(0);
+  }
+
+  /** Appends the words of a text node, separated by single spaces. */
+  private static void appendText(StringBuilder sb, CharSequence value) {
+    int length = value.length();
+    int i = 0;
+    while (i < length) {
+      while (i < length && isWhitespace(value.charAt(i))) {
+        i++;
+      }
+      int start = i;
+      while (i < length && !isWhitespace(value.charAt(i))) {
+        i++;
+      }
+      if (i > start) {
+        if (sb.length() > 0) sb.append(' ');
+        sb.append(value, start, i);
+      }
+    }
+  }
+
+  // the characters of \s
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+      || c == '\f' || c == '\r';
+  }
+
+  private static String attribute(Attributes atts, String name) {
+    for (int i = 0; i < atts.getLength(); i++) {
+      if (name.equalsIgnoreCase(atts.getQName(i))) {
+        return atts.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  HTMLMetaTags getMetaTags() {
+    return metaTags;
+  }
+
+  String getText() {
+    return text.toString();
+  }
+
+  String getTitle() {
+    return title.toString().trim();
+  }
+
+  /** The BASE HREF of the page, <code>null</code> if none. */
+  URL getBase() {
+    return base;
+  }
+
+  /** Adds the outlinks of the page, resolved against <code>base</code>. */
+  void getOutlinks(URL base, ArrayList<Outlink> outlinks) {
+    for (Link link : links) {
+      if (!link.hasContent) {
+        continue;
+      }
+      try {
+        URL url = utils.resolve(base, link.target);
+        outlinks.add(new Outlink(url.toString(), link.text.toString().trim()));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+  }
+}
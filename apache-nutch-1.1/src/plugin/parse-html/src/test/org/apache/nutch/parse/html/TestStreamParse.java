@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.HtmlStreamHandler;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseResult;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Checks that streamed pages parse the same as pages parsed into a DOM. */
+public class TestStreamParse extends TestCase {
+
+  private static final String URL = "http://www.example.com/dir/page.html";
+
+  private static final String[] PAGES = {
+    // text, title and outlinks
+    "<html><head><title> The  title </title></head><body>"
+    + "<h1>Heading</h1><p>Some <b>bold</b> text<br>and more.</p>"
+    + "<a href=\"a.html\">relative</a> <a href=\"/b.html\">absolute</a>"
+    + " <a href=\"http://other.com/c.html\">external</a>"
+    + "<img src=\"img.png\" alt=\"picture\">"
+    + "<script>var x = '<a href=\"js.html\">';</script>"
+    + "<style>p { color: red }</style>"
+    + "<form action=\"search\" method=\"get\"><input name=\"q\"></form>"
+    + "</body></html>",
+
+    // a base tag
+    "<html><head><title>base</title><base href=\"http://cdn.example.com/x/\">"
+    + "</head><body><a href=\"a.html\">a</a><a href=\"../b.html\">b</a>"
+    + "</body></html>",
+
+    // meta robots noindex
+    "<html><head><title>hidden</title>"
+    + "<meta name=\"robots\" content=\"noindex\"></head><body>"
+    + "text <a href=\"a.html\">a</a></body></html>",
+
+    // meta robots nofollow
+    "<html><head><title>nofollow</title>"
+    + "<META NAME=\"ROBOTS\" CONTENT=\"NOFOLLOW\"></head><body>"
+    + "text <a href=\"a.html\">a</a></body></html>",
+
+    // meta refresh
+    "<html><head><title>moved</title>"
+    + "<meta http-equiv=\"refresh\" content=\"0; url=new.html\"></head>"
+    + "<body>moved</body></html>",
+
+    // no cache
+    "<html><head><title>nocache</title>"
+    + "<meta http-equiv=\"pragma\" content=\"no-cache\"></head>"
+    + "<body>text</body></html>",
+
+    // frames and broken markup
+    "<html><head><title>frames</title></head>"
+    + "<frameset><frame src=\"left.html\"><frame src=\"right.html\"></frameset>"
+    + "<p>unclosed <a href=\"u.html\">link<p>next</html>",
+  };
+
+  /** Receives the events and leaves the parse as it is. */
+  private static class NoopHandler extends HtmlStreamHandler {
+    public ParseResult filter(Content content, ParseResult parseResult,
+                              HTMLMetaTags metaTags) {
+      return parseResult;
+    }
+  }
+
+  private HtmlParser parser;
+  private Configuration conf;
+
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+    // no parse filters, which would only run on the DOM
+    conf.set("plugin.includes", "parse-html|nutch-extensionpoints");
+    parser = new HtmlParser();
+    parser.setConf(conf);
+  }
+
+  public void testSameParse() throws Exception {
+    for (int i = 0; i < PAGES.length; i++) {
+      Content content = new Content(URL, URL, PAGES[i].getBytes("UTF-8"),
+          "text/html", new Metadata(), conf);
+      Parse dom = parser.getParse(content, new HtmlStreamHandler[0]).get(URL);
+      Parse stream = parser.getParse(content,
+          new HtmlStreamHandler[] { new NoopHandler() }).get(URL);
+      String page = "page " + i;
+      assertNotNull(page, dom);
+      assertNotNull(page, stream);
+      assertEquals(page, dom.getText(), stream.getText());
+      ParseData d = dom.getData();
+      ParseData s = stream.getData();
+      assertEquals(page, d.getTitle(), s.getTitle());
+      assertEquals(page, d.getStatus(), s.getStatus());
+      assertEquals(page, Arrays.asList(d.getOutlinks()), Arrays.asList(s.getOutlinks()));
+      assertEquals(page, d.getParseMeta().get(Nutch.CACHING_FORBIDDEN_KEY),
+          s.getParseMeta().get(Nutch.CACHING_FORBIDDEN_KEY));
+    }
+  }
+
+  public void testDirectives() throws Exception {
+    // the stream parse of the pages above, checked on its own
+    Parse base = parse(PAGES[1]);
+    assertEquals("http://cdn.example.com/x/a.html", base.getData().getOutlinks()[0].getToUrl());
+    assertEquals("http://cdn.example.com/b.html", base.getData().getOutlinks()[1].getToUrl());
+    Parse noindex = parse(PAGES[2]);
+    assertEquals("", noindex.getText());
+    assertEquals("", noindex.getData().getTitle());
+    assertEquals(1, noindex.getData().getOutlinks().length);
+    Parse nofollow = parse(PAGES[3]);
+    assertEquals("nofollow", nofollow.getData().getTitle());
+    assertEquals(0, nofollow.getData().getOutlinks().length);
+    Parse refresh = parse(PAGES[4]);
+    assertEquals("http://www.example.com/dir/new.html",
+        refresh.getData().getStatus().getArgs()[0]);
+    assertEquals("0", refresh.getData().getStatus().getArgs()[1]);
+  }
+
+  private Parse parse(String page) throws Exception {
+    Content content = new Content(URL, URL, page.getBytes("UTF-8"),
+        "text/html", new Metadata(), conf);
+    return parser.getParse(content, new HtmlStreamHandler[] { new NoopHandler() })
+      .get(URL);
+  }
+}
@@ -39,6 +39,8 @@ public class Http extends HttpBase {
 
   public static final Log LOG = LogFactory.getLog(Http.class);
 
+  /** Idle connections kept for HTTP/1.1, null without http.useHttp11. */
+  private HttpConnectionPool pool;
 
   public Http() {
     super(LOG);
@@ -46,6 +48,14 @@ public class Http extends HttpBase {
 
   public void setConf(Configuration conf) {
     super.setConf(conf);
+    if (pool != null) {
+      pool.close();
+      pool = null;
+    }
+    if (getUseHttp11()) {
+      pool = new HttpConnectionPool(getMaxThreadsPerHost(),
+                                    conf.getInt("http.keepalive.timeout", 4000));
+    }
 //    Level logLevel = Level.WARNING;
 //    if (conf.getBoolean("http.verbose", false)) {
 //      logLevel = Level.FINE;
@@ -61,7 +71,7 @@ public class Http extends HttpBase {
 
   protected Response getResponse(URL url, CrawlDatum datum, boolean redirect)
     throws ProtocolException, IOException {
-    return new HttpResponse(this, url, datum);
+    return new HttpResponse(this, pool, url, datum);
   }
 
 }
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol.http;
+
+// JDK imports
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+
+/**
+ * Keeps the connections of persistent HTTP/1.1 responses open for the next
+ * request to the same host and port. At most <code>maxPerHost</code> idle
+ * connections are kept per host, the same number as the fetcher threads
+ * allowed on a host, and connections idle for longer than the keep-alive
+ * timeout are closed, before servers drop them.
+ */
+public class HttpConnectionPool {
+
+  /** A connection and its buffered input. */
+  static class Connection {
+    final Socket socket;
+    final PushbackInputStream in;
+    final OutputStream out;
+    long idleSince;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new PushbackInputStream(
+          new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE),
+          Http.BUFFER_SIZE);
+      this.out = socket.getOutputStream();
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /** Opens a new connection. */
+  static Connection open(InetAddress address, int port, int timeout)
+    throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setSoTimeout(timeout);
+      socket.connect(new InetSocketAddress(address, port), timeout);
+      return new Connection(socket);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private final int maxPerHost;
+  private final long idleTimeout;
+  // most recently used first
+  private final Map<String, LinkedList<Connection>> idle =
+    new HashMap<String, LinkedList<Connection>>();
+  private long lastSweep = System.currentTimeMillis();
+
+  public HttpConnectionPool(int maxPerHost, long idleTimeout) {
+    this.maxPerHost = Math.max(1, maxPerHost);
+    this.idleTimeout = idleTimeout;
+  }
+
+  /** An idle connection to host:port, or null. */
+  synchronized Connection get(String key) {
+    LinkedList<Connection> connections = idle.get(key);
+    if (connections == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Connection result = null;
+    while (result == null && !connections.isEmpty()) {
+      Connection c = connections.removeFirst();
+      if (now - c.idleSince < idleTimeout && !c.socket.isClosed()) {
+        result = c;
+      } else {
+        c.close();
+      }
+    }
+    if (connections.isEmpty()) {
+      idle.remove(key);
+    }
+    return result;
+  }
+
+  /** Keeps a connection for the next request to host:port. */
+  synchronized void release(String key, Connection c) {
+    long now = System.currentTimeMillis();
+    c.idleSince = now;
+    LinkedList<Connection> connections = idle.get(key);
+    if (connections == null) {
+      connections = new LinkedList<Connection>();
+      idle.put(key, connections);
+    }
+    connections.addFirst(c);
+    while (connections.size() > maxPerHost) {
+      connections.removeLast().close();
+    }
+    if (now - lastSweep > idleTimeout) {
+      sweep(now);
+    }
+  }
+
+  /** Closes the connections idle for too long. */
+  private void sweep(long now) {
+    Iterator<LinkedList<Connection>> it = idle.values().iterator();
+    while (it.hasNext()) {
+      LinkedList<Connection> connections = it.next();
+      while (!connections.isEmpty()
+          && now - connections.getLast().idleSince >= idleTimeout) {
+        connections.removeLast().close();
+      }
+      if (connections.isEmpty()) {
+        it.remove();
+      }
+    }
+    lastSweep = now;
+  }
+
+  /** Number of idle connections. */
+  public synchronized int size() {
+    int size = 0;
+    for (LinkedList<Connection> connections : idle.values()) {
+      size += connections.size();
+    }
+    return size;
+  }
+
+  /** Closes all idle connections. */
+  public synchronized void close() {
+    for (LinkedList<Connection> connections : idle.values()) {
+      for (Connection c : connections) {
+        c.close();
+      }
+    }
+    idle.clear();
+  }
+}
@@ -17,15 +17,11 @@
 package org.apache.nutch.protocol.http;
 
 // JDK imports
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PushbackInputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URL;
 
 // Nutch imports
@@ -50,11 +46,74 @@ public class HttpResponse implements Response {
   private byte[] content;
   private int code;
   private Metadata headers = new SpellCheckedMetadata();
+  // the response is HTTP/1.1
+  private boolean http11;
+  // the whole body was read, so the connection is at the next response
+  private boolean complete;
 
 
   public HttpResponse(HttpBase http, URL url, CrawlDatum datum)
     throws ProtocolException, IOException {
+    this(http, null, url, datum);
+  }
+
+  /**
+   * Fetches a URL. With a connection pool, the request is sent with
+   * HTTP/1.1 on an idle connection to the host if there is one, and the
+   * connection is kept if the response allows it.
+   */
+  public HttpResponse(HttpBase http, HttpConnectionPool pool, URL url,
+                      CrawlDatum datum)
+    throws ProtocolException, IOException {
+
+    this(http, url);
+
+    if (Http.LOG.isTraceEnabled()) {
+      Http.LOG.trace("fetching " + url);
+    }
+
+    String key = connectionKey(http, url);
+    byte[] reqBytes = request(http, url, datum, pool != null);
+    HttpConnectionPool.Connection conn = null;
+    boolean keep = false;
+    try {
+      boolean reused = false;
+      if (pool != null) {
+        conn = pool.get(key);
+        reused = conn != null;
+      }
+      if (conn == null) {
+        conn = open(http, url);
+      }
+      try {
+        conn.out.write(reqBytes);
+        conn.out.flush();
+        readResponse(conn.in);
+      } catch (IOException e) {
+        if (!reused || code != 0) {
+          throw e;
+        }
+        // the server closed the idle connection, retry on a new one
+        conn.close();
+        conn = open(http, url);
+        conn.out.write(reqBytes);
+        conn.out.flush();
+        readResponse(conn.in);
+      }
+      keep = pool != null && isPersistent();
+    } finally {
+      if (conn != null) {
+        if (keep) {
+          pool.release(key, conn);
+        } else {
+          conn.close();
+        }
+      }
+    }
+    decodeContent();
+  }
 
+  private HttpResponse(HttpBase http, URL url) throws HttpException {
     this.http = http;
     this.url = url;
     this.orig = url.toString();
@@ -62,11 +121,26 @@ public class HttpResponse implements Response {
 
     if (!"http".equals(url.getProtocol()))
       throw new HttpException("Not an HTTP url:" + url);
+  }
 
-    if (Http.LOG.isTraceEnabled()) {
-      Http.LOG.trace("fetching " + url);
+  private static String connectionKey(HttpBase http, URL url) {
+    if (http.useProxy()) {
+      return http.getProxyHost() + ":" + http.getProxyPort();
     }
+    return url.getHost() + ":" + (url.getPort() == -1 ? 80 : url.getPort());
+  }
+
+  private static HttpConnectionPool.Connection open(HttpBase http, URL url)
+    throws IOException {
+    String sockHost = http.useProxy() ? http.getProxyHost() : url.getHost();
+    int sockPort = http.useProxy() ? http.getProxyPort()
+        : (url.getPort() == -1 ? 80 : url.getPort());
+    return HttpConnectionPool.open(http.getDnsCache().resolve(sockHost),
+                                   sockPort, http.getTimeout());
+  }
 
+  private static byte[] request(HttpBase http, URL url, CrawlDatum datum,
+                                boolean keepAlive) {
     String path = "".equals(url.getFile()) ? "/" : url.getFile();
 
     // some servers will redirect a request with a host line like
@@ -74,105 +148,98 @@ public class HttpResponse implements Response {
     // don't want the :80...
 
     String host = url.getHost();
-    int port;
-    String portString;
-    if (url.getPort() == -1) {
-      port= 80;
-      portString= "";
+    String portString = (url.getPort() == -1) ? "" : ":" + url.getPort();
+
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy()) {
+      reqStr.append(url.getProtocol()+"://"+host+portString+path);
     } else {
-      port= url.getPort();
-      portString= ":" + port;
+      reqStr.append(path);
     }
-    Socket socket = null;
-
-    try {
-      socket = new Socket();                    // create the socket
-      socket.setSoTimeout(http.getTimeout());
 
+    reqStr.append(keepAlive ? " HTTP/1.1\r\n" : " HTTP/1.0\r\n");
 
-      // connect
-      String sockHost = http.useProxy() ? http.getProxyHost() : host;
-      int sockPort = http.useProxy() ? http.getProxyPort() : port;
-      InetSocketAddress sockAddr= new InetSocketAddress(sockHost, sockPort);
-      socket.connect(sockAddr, http.getTimeout());
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      // make request
-      OutputStream req = socket.getOutputStream();
-
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy()) {
-      	reqStr.append(url.getProtocol()+"://"+host+portString+path);
-      } else {
-      	reqStr.append(path);
-      }
+    if (keepAlive) {
+      reqStr.append("Connection: keep-alive\r\n");
+    }
 
-      reqStr.append(" HTTP/1.0\r\n");
+    reqStr.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isFatalEnabled()) { Http.LOG.fatal("User-agent is not set!"); }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
       reqStr.append("\r\n");
+    }
+    
+    reqStr.append("Accept-Language: ");
+    reqStr.append(http.getAcceptLanguage());
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
-
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isFatalEnabled()) { Http.LOG.fatal("User-agent is not set!"); }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
-      
-      reqStr.append("Accept-Language: ");
-      reqStr.append(this.http.getAcceptLanguage());
+    if (datum.getModifiedTime() > 0) {
+      reqStr.append("If-Modified-Since: " + HttpDateFormat.toString(datum.getModifiedTime()));
       reqStr.append("\r\n");
+    }
+    reqStr.append("\r\n");
+    
+    return reqStr.toString().getBytes();
+  }
 
-      if (datum.getModifiedTime() > 0) {
-        reqStr.append("If-Modified-Since: " + HttpDateFormat.toString(datum.getModifiedTime()));
-        reqStr.append("\r\n");
-      }
-      reqStr.append("\r\n");
-      
-      byte[] reqBytes= reqStr.toString().getBytes();
-
-      req.write(reqBytes);
-      req.flush();
-        
-      PushbackInputStream in =                  // process response
-        new PushbackInputStream(
-          new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE), 
-          Http.BUFFER_SIZE) ;
-
-      StringBuffer line = new StringBuffer();
-
-      boolean haveSeenNonContinueStatus= false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line); 
-        // parse headers
-        parseHeaders(in, line);
-        haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
-      }
+  /** Reads the status line, the headers and the body of the response. */
+  private void readResponse(PushbackInputStream in)
+    throws HttpException, IOException {
+    StringBuffer line = new StringBuffer();
+
+    boolean haveSeenNonContinueStatus= false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line); 
+      // parse headers
+      parseHeaders(in, line);
+      haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
+    }
 
+    if (code == 204 || code == 304) {
+      // no body
+      content = new byte[0];
+      complete = true;
+    } else if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+      readChunkedContent(in, line);
+    } else {
       readPlainContent(in);
+    }
+  }
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else if ("deflate".equals(contentEncoding)) {
-       content = http.processDeflateEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
-        }
-      }
-
-    } finally {
-      if (socket != null)
-        socket.close();
+  /**
+   * True if the connection can carry another request: the whole body was
+   * read and the server did not ask to close it.
+   */
+  private boolean isPersistent() {
+    String connection = headers.get("Connection");
+    if (http11) {
+      return complete && !"close".equalsIgnoreCase(connection);
     }
+    return complete && "keep-alive".equalsIgnoreCase(connection);
+  }
 
+  private void decodeContent() throws IOException {
+    String contentEncoding = getHeader(Response.CONTENT_ENCODING);
+    if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+      content = http.processGzipEncoded(content, url);
+    } else if ("deflate".equals(contentEncoding)) {
+     content = http.processDeflateEncoded(content, url);
+    } else {
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+      }
+    }
   }
 
   
@@ -218,32 +285,35 @@ public class HttpResponse implements Response {
         throw new HttpException("bad content length: "+contentLengthString);
       }
     }
+    int limit = contentLength;
     if (http.getMaxContent() >= 0
       && contentLength > http.getMaxContent())   // limit download size
-      contentLength  = http.getMaxContent();
+      limit  = http.getMaxContent();
 
     ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
     byte[] bytes = new byte[Http.BUFFER_SIZE];
     int length = 0;                           // read content
-    for (int i = in.read(bytes); i != -1; i = in.read(bytes)) {
-
+    while (length < limit) {
+      // not past the body, the next response may follow on the connection
+      int i = in.read(bytes, 0, Math.min(bytes.length, limit - length));
+      if (i == -1)
+        break;
       out.write(bytes, 0, i);
       length += i;
-      if (length >= contentLength)
-        break;
+      http.getBandwidthThrottle().throttle(url.getHost(), i);
     }
     content = out.toByteArray();
+    complete = contentLengthString != null && length == contentLength;
   }
 
   private void readChunkedContent(PushbackInputStream in,  
                                   StringBuffer line) 
     throws HttpException, IOException {
-    boolean doneChunks= false;
-    int contentBytesRead= 0;
+    int maxContent = http.getMaxContent();
     byte[] bytes = new byte[Http.BUFFER_SIZE];
     ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
 
-    while (!doneChunks) {
+    while (true) {
       if (Http.LOG.isTraceEnabled()) {
         Http.LOG.trace("Http: starting chunk");
       }
@@ -251,14 +321,12 @@ public class HttpResponse implements Response {
       readLine(in, line, false);
 
       String chunkLenStr;
-      // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'"); }
-
       int pos= line.indexOf(";");
       if (pos < 0) {
         chunkLenStr= line.toString();
       } else {
+        // ignore chunk extensions
         chunkLenStr= line.substring(0, pos);
-        // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " + line.substring(pos+1)); }
       }
       chunkLenStr= chunkLenStr.trim();
       int chunkLen;
@@ -269,12 +337,14 @@ public class HttpResponse implements Response {
       }
 
       if (chunkLen == 0) {
-        doneChunks= true;
         break;
       }
 
-      if ( (contentBytesRead + chunkLen) > http.getMaxContent() )
-        chunkLen= http.getMaxContent() - contentBytesRead;
+      boolean truncated = false;
+      if (maxContent >= 0 && out.size() + chunkLen > maxContent) {
+        chunkLen = maxContent - out.size();
+        truncated = true;
+      }
 
       // read one chunk
       int chunkBytesRead= 0;
@@ -285,37 +355,36 @@ public class HttpResponse implements Response {
         int len= in.read(bytes, 0, toRead);
 
         if (len == -1) 
-          throw new HttpException("chunk eof after " + contentBytesRead
+          throw new HttpException("chunk eof after " + out.size()
                                       + " bytes in successful chunks"
                                       + " and " + chunkBytesRead 
                                       + " in current chunk");
 
-        // DANGER!!! Will printed GZIPed stuff right to your
-        // terminal!
-        // if (LOG.isTraceEnabled()) { LOG.trace("read: " +  new String(bytes, 0, len)); }
-
         out.write(bytes, 0, len);
         chunkBytesRead+= len;  
+        http.getBandwidthThrottle().throttle(url.getHost(), len);
       }
 
-      readLine(in, line, false);
-
-    }
+      if (truncated) {
+        // the rest of the body is left unread, the connection is dropped
+        content = out.toByteArray();
+        return;
+      }
 
-    if (!doneChunks) {
-      if (contentBytesRead != http.getMaxContent()) 
-        throw new HttpException("chunk eof: !doneChunk && didn't max out");
-      return;
+      // the line break ending the chunk
+      readLine(in, line, false);
     }
 
     content = out.toByteArray();
+    // trailers
     parseHeaders(in, line);
-
+    complete = true;
   }
 
   private int parseStatusLine(PushbackInputStream in, StringBuffer line)
     throws IOException, HttpException {
     readLine(in, line, false);
+    http11 = line.toString().startsWith("HTTP/1.1");
 
     int codeStart = line.indexOf(" ");
     int codeEnd = line.indexOf(" ", codeStart+1);
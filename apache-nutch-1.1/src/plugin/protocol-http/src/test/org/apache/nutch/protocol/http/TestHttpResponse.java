@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Fetches pages from a small HTTP/1.1 server and checks that connections
+ * are reused and responses are framed right.
+ */
+public class TestHttpResponse extends TestCase {
+
+  private ServerSocket server;
+  private volatile int connections;
+
+  protected void setUp() throws Exception {
+    server = new ServerSocket(0);
+    Thread acceptor = new Thread() {
+      public void run() {
+        try {
+          while (true) {
+            final Socket socket = server.accept();
+            connections++;
+            new Thread() {
+              public void run() {
+                serve(socket);
+              }
+            }.start();
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  protected void tearDown() throws Exception {
+    server.close();
+  }
+
+  /**
+   * Answers the requests of a connection: /chunked with a chunked body,
+   * /close with a body and "Connection: close", anything else with its
+   * path as the body.
+   */
+  private void serve(Socket socket) {
+    try {
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+      OutputStream out = socket.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String path = line.split(" ")[1];
+        while ((line = in.readLine()) != null && line.length() > 0) {
+          // skip the headers
+        }
+        StringBuffer reply = new StringBuffer("HTTP/1.1 200 OK\r\n");
+        reply.append("Content-Type: text/plain\r\n");
+        if (path.equals("/chunked")) {
+          reply.append("Transfer-Encoding: chunked\r\n\r\n");
+          reply.append("3\r\nchu\r\n5;ext=1\r\nnked!\r\n0\r\nX-Trailer: t\r\n\r\n");
+        } else if (path.equals("/close")) {
+          reply.append("Content-Length: 5\r\nConnection: close\r\n\r\nclose");
+        } else {
+          reply.append("Content-Length: " + path.length() + "\r\n\r\n");
+          reply.append(path);
+        }
+        out.write(reply.toString().getBytes("ISO-8859-1"));
+        out.flush();
+        if (path.equals("/close")) {
+          break;
+        }
+      }
+      socket.close();
+    } catch (IOException e) {
+      // client gone
+    }
+  }
+
+  private Http http(boolean http11) {
+    Configuration conf = NutchConfiguration.create();
+    conf.set("http.agent.name", "test");
+    conf.setBoolean("http.useHttp11", http11);
+    Http http = new Http();
+    http.setConf(conf);
+    return http;
+  }
+
+  private URL url(String path) throws Exception {
+    return new URL("http://127.0.0.1:" + server.getLocalPort() + path);
+  }
+
+  private String fetch(Http http, String path) throws Exception {
+    Response response = http.getResponse(url(path), new CrawlDatum(), false);
+    assertEquals(200, response.getCode());
+    return new String(response.getContent(), "ISO-8859-1");
+  }
+
+  public void testKeepAlive() throws Exception {
+    Http http = http(true);
+    assertEquals("/a", fetch(http, "/a"));
+    assertEquals("chunked!", fetch(http, "/chunked"));
+    assertEquals("/bb", fetch(http, "/bb"));
+    assertEquals(1, connections);
+  }
+
+  public void testChunked() throws Exception {
+    Http http = http(true);
+    assertEquals("chunked!", fetch(http, "/chunked"));
+    assertEquals("/a", fetch(http, "/a"));
+    assertEquals(1, connections);
+  }
+
+  public void testConnectionClose() throws Exception {
+    Http http = http(true);
+    assertEquals("close", fetch(http, "/close"));
+    assertEquals("/a", fetch(http, "/a"));
+    assertEquals(2, connections);
+  }
+
+  public void testHttp10() throws Exception {
+    Http http = http(false);
+    assertEquals("/a", fetch(http, "/a"));
+    assertEquals("/b", fetch(http, "/b"));
+    assertEquals(2, connections);
+  }
+}
@@ -127,6 +127,7 @@ public class HttpResponse implements Response {
             && totalRead < contentLength) {
           totalRead += bufferFilled;
           out.write(buffer, 0, bufferFilled);
+          http.getBandwidthThrottle().throttle(url.getHost(), bufferFilled);
         }
 
         content = out.toByteArray();
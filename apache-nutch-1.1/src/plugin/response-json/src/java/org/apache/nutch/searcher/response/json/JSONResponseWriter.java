@@ -29,6 +29,7 @@ import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.FacetCounts;
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
 import org.apache.nutch.searcher.Summary;
@@ -129,6 +130,25 @@ public class JSONResponseWriter
     }
 
     jsonObj.accumulate("documents", docsAr);
+
+    // add the facet counts, values in order with their number of hits
+    FacetCounts facets = results.getFacets();
+    if (facets != null) {
+      JSONObject facetsObj = new JSONObject();
+      String[] facetFields = facets.getFields();
+      for (int i = 0; i < facetFields.length; i++) {
+        JSONArray countsAr = new JSONArray();
+        String[] values = facets.getValues(facetFields[i]);
+        for (int j = 0; j < values.length; j++) {
+          JSONObject count = new JSONObject();
+          count.accumulate("value", values[j]);
+          count.accumulate("count", facets.getCount(facetFields[i], values[j]));
+          countsAr.add(count);
+        }
+        facetsObj.accumulate(facetFields[i], countsAr);
+      }
+      jsonObj.accumulate("facets", facetsObj);
+    }
     
     // pretty printing can be set through configuration, write out the wrapper
     // function if there is one
@@ -34,6 +34,7 @@ import javax.xml.transform.stream.StreamResult;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.html.Entities;
+import org.apache.nutch.searcher.FacetCounts;
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
 import org.apache.nutch.searcher.Summary;
@@ -242,6 +243,24 @@ public class XMLResponseWriter
         }
       }
 
+      // add facet counts
+      FacetCounts facets = results.getFacets();
+      if (facets != null) {
+        Element facetsEl = addNode(xmldoc, resEl, "facets");
+        String[] facetFields = facets.getFields();
+        for (int i = 0; i < facetFields.length; i++) {
+          Element facet = addNode(xmldoc, facetsEl, "facet");
+          addAttribute(xmldoc, facet, "name", facetFields[i]);
+          String[] values = facets.getValues(facetFields[i]);
+          for (int j = 0; j < values.length; j++) {
+            Element count = addNode(xmldoc, facet, "count");
+            addAttribute(xmldoc, count, "value", values[j]);
+            count.appendChild(xmldoc.createTextNode(
+              String.valueOf(facets.getCount(facetFields[i], values[j]))));
+          }
+        }
+      }
+
       // get the xml source and a transformer to print it out
       DOMSource source = new DOMSource(xmldoc);
       TransformerFactory transFactory = TransformerFactory.newInstance();
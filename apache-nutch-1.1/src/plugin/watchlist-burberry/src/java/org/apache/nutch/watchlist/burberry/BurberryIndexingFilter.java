@@ -36,6 +36,20 @@ import org.apache.hadoop.conf.Configuration;
  */
 public class BurberryIndexingFilter implements IndexingFilter {
 
+    // The meta tags the product extractor adds for Burberry product pages,
+    // see the burberry site in conf/watchlist-extractor.xml
+    public static final String META_BRAND = "brand";
+    public static final String META_ID    = "id";
+    public static final String META_NAME  = "name";
+    public static final String META_PRICE = "price";
+    public static final String META_IMG_URL = "imgURL";
+
+    // If it is a true product page, the html title has very valuable
+    // information like Category, Brand, Product Title, or anything the
+    // seller wants to tell. We add it as a meta field, so we can boost
+    // its search score.
+    public static final String META_PAGE_TITLE = "title";
+
     private Configuration conf;
 
     public NutchDocument filter(NutchDocument doc,
@@ -45,10 +59,15 @@ public class BurberryIndexingFilter implements IndexingFilter {
 				Inlinks inlinks) throws IndexingException {
 	String[] keys = getMetaKeys();
 	for (int i = 0; i < keys.length; i++) {
-	    String[] values = parse.getData().getParseMeta().getValues(keys[i]);
+	    String[] values = getValues(parse, keys[i]);
 	    if (values != null) {
 		for (int j = 0; j < values.length; j++) {
-		    doc.add(keys[i], values[j]);
+		    if (META_PRICE.equals(keys[i])) {
+			// plain number for the numeric field
+			doc.add(keys[i], values[j].replace(",", ""));
+		    } else {
+			doc.add(keys[i], values[j]);
+		    }
 		}
 	    }
         }
@@ -60,23 +79,35 @@ public class BurberryIndexingFilter implements IndexingFilter {
 	for (int i = 0; i < keys.length; i++) {
 	    LuceneWriter.addFieldOptions(keys[i],
 					 LuceneWriter.STORE.YES,
-					 LuceneWriter.INDEX.UNTOKENIZED,
+					 META_PRICE.equals(keys[i])
+					 ? LuceneWriter.INDEX.NUMERIC
+					 : LuceneWriter.INDEX.UNTOKENIZED,
 					 conf);
 	}
     }
 
     private static String[] getMetaKeys() {
 	String[] keys = {
-	    BurberryParser.META_BRAND,
-	    BurberryParser.META_ID,
-	    BurberryParser.META_NAME,
-	    BurberryParser.META_PRICE,
-	    BurberryParser.META_IMG_URL,
-	    BurberryParser.META_PAGE_TITLE
+	    META_BRAND,
+	    META_ID,
+	    META_NAME,
+	    META_PRICE,
+	    META_IMG_URL,
+	    META_PAGE_TITLE
 	};
 	return keys;
     }
 
+    // The extractor adds its tags to the content meta, older parses have
+    // them in the parse meta
+    private static String[] getValues(Parse parse, String key) {
+	String[] values = parse.getData().getContentMeta().getValues(key);
+	if (values.length == 0) {
+	    values = parse.getData().getParseMeta().getValues(key);
+	}
+	return values;
+    }
+
     /*
      * ----------------------------- * <implementation:Configurable> *
      * -----------------------------
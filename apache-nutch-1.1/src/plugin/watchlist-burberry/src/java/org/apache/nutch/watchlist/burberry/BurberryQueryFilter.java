@@ -29,7 +29,7 @@ public class BurberryQueryFilter extends FieldQueryFilter {
     public BurberryQueryFilter() {
         // Bump up the boost for the following field 
         // in order to increase their influence on the search result
-        super(BurberryParser.META_PAGE_TITLE, 3.0f);
+        super(BurberryIndexingFilter.META_PAGE_TITLE, 3.0f);
     }
 
 }
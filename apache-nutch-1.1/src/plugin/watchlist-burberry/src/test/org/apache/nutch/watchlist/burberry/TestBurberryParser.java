@@ -49,37 +49,37 @@ public class TestBurberryParser extends TestCase {
 		 "http://us.burberry.com/store/womenswear/sport/view-all/reflective-graphic-t-shirt/sku-37400701001-reflective-graphic-t-shirt/",
 		 "reflective graphic t shirt",
 		 "37400701001",
-		 10.0f);
+		 150.0f);
 		 
 	pageTest(new File(testDir, "37566651.html"),
 		 "http://us.burberry.com/store/womens-accessories/bags/the-show/bridle-patent-clutch-bag-with-strap/sku-37566651-bridle-patent-clutch-bag-with-strap/",
 		 "bridle patent clutch bag with strap",
 		 "37566651",
-		 10.0f);
+		 1095.0f);
 
 	pageTest(new File(testDir, "37304821001.html"),
 		 "http://us.burberry.com/store/childrens/girls/2-6-years-clothing/exploded-check-dress/sku-37304821001-exploded-check-dress/",
 		 "exploded check dress",
 		 "37304821001",
-		 10.0f);
+		 170.0f);
 
 	pageTest(new File(testDir, "37437071.html"),
 		 "http://us.burberry.com/store/home-gifts/home/hand-knit-cashmere-hot-water-bottle-cover/sku-37437071-hand-knit-cashmere-hot-water-bottle-cover/",
 		 "hand knit cashmere hot water bottle cover",
 		 "37437071",
-		 10.0f);
+		 225.0f);
 
 	pageTest(new File(testDir, "36624901.html"),
 		 "http://us.burberry.com/store/home-gifts/men/burberry-sport-chronograph-watch/sku-36624901-burberry-sport-chronograph-watch/",
 		 "burberry sport chronograph watch",
 		 "36624901",
-		 10.0f);
+		 495.0f);
 
 	pageTest(new File(testDir, "37480461.html"),
 		 "http://us.burberry.com/store/beauty-fragrance/eyes/eye-definer/midnight-ash-no03/sku-37480461-midnight-ash-no03/",
 		 "midnight ash no03",
 		 "37480461",
-		 10.0f);
+		 27.0f);
 		
     }
 
@@ -104,12 +104,12 @@ public class TestBurberryParser extends TestCase {
         Metadata metadata = parse.getData().getContentMeta();
 
 	// Check the product name, ID, and price
-	assertTrue(productName.equalsIgnoreCase(metadata.get(BurberryParser.META_NAME)));
+	assertTrue(productName.equalsIgnoreCase(metadata.get(BurberryIndexingFilter.META_NAME)));
 	assertEquals(productPrice,
-		     Float.parseFloat(metadata.get(BurberryParser.META_PRICE)),
+		     Float.parseFloat(metadata.get(BurberryIndexingFilter.META_PRICE)),
 		     0.0001);
-	assertEquals(productID, metadata.get(BurberryParser.META_ID));
-        assertTrue(metadata.get(BurberryParser.META_IMG_URL).length() > 10);
+	assertEquals(productID, metadata.get(BurberryIndexingFilter.META_ID));
+        assertTrue(metadata.get(BurberryIndexingFilter.META_IMG_URL).length() > 10);
        
         // Indicate progress
         System.out.print('.');
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.HostTrie;
+import org.apache.nutch.util.ObjectCache;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The site rules read from the file named by watchlist.extractor.rules,
+ * compiled once per configuration. The file looks like:
+ * <pre>
+ * &lt;extractor&gt;
+ *   &lt;site name="jcrew" host="www.jcrew.com"
+ *         url="http://www\.jcrew\.com/.*PRDOVR~(\d+).*&#47;\1\.jsp"
+ *         id-group="1" id-key="itemNumber" title-key="jcrew"&gt;
+ *     &lt;field name="productTitle" role="title" select="td.prodtitle, td.producttitle"/&gt;
+ *     &lt;field name="price" role="price" select="td.standard_nopad"
+ *            pattern="(?i).*\$([\d,]+\.\d+).*?item\s*{id}$" number="true"/&gt;
+ *     &lt;field name="imgURL" role="image" select="img#mainImg" attribute="src"/&gt;
+ *   &lt;/site&gt;
+ * &lt;/extractor&gt;
+ * </pre>
+ * A field either has a select attribute (see {@link Selector}) or a
+ * url-group attribute taking the value from the product URL.
+ *
+ * The host attribute lists the host[/path] prefixes of the site's product
+ * pages. The prefixes of all sites go into one {@link HostTrie}, so a page
+ * is matched against the url expression of one site at most. Sites without
+ * hosts are tried on every page.
+ */
+public class ExtractionRules {
+
+    public static final Log LOG = LogFactory.getLog(ExtractionRules.class);
+
+    /** Configuration property naming the rules file. */
+    public static final String RULES_FILE = "watchlist.extractor.rules";
+
+    private final SiteRule[] sites;
+    private final HostTrie<SiteRule> hosts = new HostTrie<SiteRule>();
+    private final SiteRule[] unrouted;
+
+    ExtractionRules(SiteRule[] sites) {
+        this.sites = sites;
+        List<SiteRule> others = new ArrayList<SiteRule>();
+        for (SiteRule site : sites) {
+            if (site.hosts.length == 0) {
+                others.add(site);
+            }
+            for (String prefix : site.hosts) {
+                hosts.put(prefix, site);
+            }
+        }
+        this.unrouted = others.toArray(new SiteRule[others.size()]);
+    }
+
+    /** Returns the rules of this configuration, reading them on first use. */
+    public static synchronized ExtractionRules get(Configuration conf) {
+        ObjectCache objectCache = ObjectCache.get(conf);
+        String cacheKey = ExtractionRules.class.getName();
+        ExtractionRules rules = (ExtractionRules) objectCache.getObject(cacheKey);
+        if (rules == null) {
+            String file = conf.get(RULES_FILE, "watchlist-extractor.xml");
+            InputStream in = conf.getConfResourceAsInputStream(file);
+            if (in == null) {
+                LOG.error("Extraction rules " + file + " not found");
+                rules = new ExtractionRules(new SiteRule[0]);
+            } else {
+                try {
+                    rules = read(in);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (Exception e) {
+                        // ignore
+                    }
+                }
+            }
+            objectCache.setObject(cacheKey, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Reads and compiles the rules. Sites with broken rules are logged and
+     * left out.
+     */
+    static ExtractionRules read(InputStream in) {
+        List<SiteRule> sites = new ArrayList<SiteRule>();
+        Element root;
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+            root = doc.getDocumentElement();
+        } catch (Exception e) {
+            LOG.error("Error parsing extraction rules: " + e);
+            return new ExtractionRules(new SiteRule[0]);
+        }
+        if (!"extractor".equals(root.getTagName())) {
+            LOG.error("Bad extraction rules: top-level element not <extractor>");
+            return new ExtractionRules(new SiteRule[0]);
+        }
+        for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (!(n instanceof Element)) {
+                continue;
+            }
+            Element site = (Element) n;
+            if (!"site".equals(site.getTagName())) {
+                LOG.warn("Bad extraction rules: element not <site>");
+                continue;
+            }
+            try {
+                sites.add(readSite(site));
+            } catch (RuntimeException e) {
+                LOG.error("Skipping rules of site " + site.getAttribute("name") + ": "
+                        + e.getMessage());
+            }
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Loaded extraction rules for " + sites);
+        }
+        return new ExtractionRules(sites.toArray(new SiteRule[sites.size()]));
+    }
+
+    private static SiteRule readSite(Element site) {
+        String name = required(site, "name");
+        List<FieldRule> fields = new ArrayList<FieldRule>();
+        for (Node n = site.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element && "field".equals(((Element) n).getTagName())) {
+                fields.add(readField((Element) n));
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("no fields");
+        }
+        String hosts = optional(site, "host", "").trim();
+        return new SiteRule(name,
+                optional(site, "brand", name),
+                hosts.length() == 0 ? new String[0] : hosts.split("\\s+"),
+                required(site, "url"),
+                Integer.parseInt(optional(site, "id-group", "1")),
+                optional(site, "id-key", "id"),
+                optional(site, "title-key", "title"),
+                fields.toArray(new FieldRule[fields.size()]));
+    }
+
+    private static FieldRule readField(Element field) {
+        String name = required(field, "name");
+        int urlGroup = Integer.parseInt(optional(field, "url-group", "0"));
+        Selector[] selectors = null;
+        if (urlGroup == 0) {
+            selectors = Selector.parseList(required(field, "select"));
+        }
+        return new FieldRule(name,
+                optional(field, "role", null),
+                Boolean.valueOf(optional(field, "required", "true")).booleanValue(),
+                urlGroup,
+                selectors,
+                optional(field, "attribute", null),
+                optional(field, "pattern", null),
+                optional(field, "replace", null),
+                optional(field, "by", null),
+                Boolean.valueOf(optional(field, "number", "false")).booleanValue());
+    }
+
+    private static String required(Element element, String attribute) {
+        String value = element.getAttribute(attribute);
+        if (value.length() == 0) {
+            throw new IllegalArgumentException("<" + element.getTagName() + "> without "
+                    + attribute);
+        }
+        return value;
+    }
+
+    private static String optional(Element element, String attribute, String defaultValue) {
+        return element.hasAttribute(attribute) ? element.getAttribute(attribute) : defaultValue;
+    }
+
+    SiteRule[] getSites() {
+        return sites;
+    }
+
+    /** Returns the site whose host prefixes match the URL, or null. */
+    SiteRule route(String url) {
+        return hosts.get(url);
+    }
+
+    /** Returns the sites that did not declare hosts. */
+    SiteRule[] getUnrouted() {
+        return unrouted;
+    }
+}
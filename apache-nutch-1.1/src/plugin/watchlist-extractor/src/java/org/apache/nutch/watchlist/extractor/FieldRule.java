@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * One product field of a site: where to find it and how to clean it up.
+ *
+ * The value is taken either from a group of the product URL, or from the
+ * first element matching one of the selectors, as its text or one of its
+ * attributes. An optional pattern then picks the value out of that string.
+ * If the pattern contains {id}, the text there must be the item number of
+ * the page, e.g. JCrew prints "$88.00 item 33774" next to every product on
+ * the page and only the one ending with the page's item number is wanted.
+ */
+class FieldRule {
+
+    /** Roles tell the parse filter which fields make up a ProductObservation. */
+    static final String ROLE_TITLE = "title";
+    static final String ROLE_PRICE = "price";
+    static final String ROLE_IMAGE = "image";
+
+    /** A plain decimal number, what a number field must come down to. */
+    private static final Pattern DECIMAL = Pattern.compile("-?(\\d+(\\.\\d*)?|\\.\\d+)");
+
+    final String name;
+    final String role;
+    final boolean required;
+
+    // taken from the URL if urlGroup > 0
+    final int urlGroup;
+    final Selector[] selectors;
+    // null for the text of the element
+    final String attribute;
+
+    final Pattern pattern;
+    final int valueGroup;
+    final int idGroup;
+    final String replace;
+    final String replaceBy;
+    final boolean number;
+
+    FieldRule(String name, String role, boolean required, int urlGroup, Selector[] selectors,
+            String attribute, String pattern, String replace, String replaceBy, boolean number) {
+        this.name = name;
+        this.role = role;
+        this.required = required;
+        this.urlGroup = urlGroup;
+        this.selectors = selectors;
+        this.attribute = attribute;
+        this.replace = replace;
+        this.replaceBy = replaceBy == null ? "" : replaceBy;
+        this.number = number;
+        if (pattern == null) {
+            this.pattern = null;
+            this.valueGroup = 0;
+            this.idGroup = 0;
+        } else {
+            int placeholder = pattern.indexOf(Selector.ID_PLACEHOLDER);
+            if (placeholder >= 0) {
+                // the id becomes a group of its own, compared after matching
+                this.idGroup = countGroups(pattern, placeholder) + 1;
+                pattern = pattern.substring(0, placeholder) + "(\\S+)"
+                        + pattern.substring(placeholder + Selector.ID_PLACEHOLDER.length());
+            } else {
+                this.idGroup = 0;
+            }
+            this.pattern = Pattern.compile(pattern);
+            int groups = this.pattern.matcher("").groupCount();
+            if (groups == 0 || (groups == 1 && idGroup == 1)) {
+                this.valueGroup = 0;
+            } else {
+                this.valueGroup = (idGroup == 1) ? 2 : 1;
+            }
+        }
+    }
+
+    boolean fromUrl() {
+        return urlGroup > 0;
+    }
+
+    /** Extracts the value from the product URL. */
+    String value(Matcher url, String pageId) {
+        return clean(url.group(urlGroup), pageId);
+    }
+
+    /** Extracts the value from a matching element, null if it doesn't qualify. */
+    String value(Element element, String pageId) {
+        String raw;
+        if (attribute != null) {
+            Node attr = element.getAttributes().getNamedItem(attribute);
+            raw = (attr == null) ? null : attr.getNodeValue();
+        } else {
+            raw = text(element);
+        }
+        return clean(raw, pageId);
+    }
+
+    /** Extracts the value from an element of a streamed page, for an attribute field. */
+    String value(OpenElement element, String pageId) {
+        return clean(element.get(attribute), pageId);
+    }
+
+    /** Extracts the value from the collected text of a streamed element. */
+    String value(StringBuilder text, String pageId) {
+        return clean(text.toString(), pageId);
+    }
+
+    private String clean(String raw, String pageId) {
+        if (raw == null) {
+            return null;
+        }
+        String value = raw.trim();
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(value);
+            if (!matcher.find()) {
+                return null;
+            }
+            if (idGroup > 0 && !matcher.group(idGroup).equals(pageId)) {
+                return null;
+            }
+            value = matcher.group(valueGroup).trim();
+        }
+        if (replace != null) {
+            value = value.replace(replace, replaceBy);
+        }
+        if (number) {
+            value = value.replace(",", "");
+            if (!DECIMAL.matcher(value).matches()) {
+                return null;
+            }
+        }
+        return value.length() == 0 ? null : value;
+    }
+
+    /**
+     * The text below the element, with runs of white space (including
+     * non-breaking spaces) collapsed into one space.
+     */
+    static String text(Node element) {
+        StringBuilder sb = new StringBuilder();
+        appendText(element, sb);
+        return sb.toString().trim();
+    }
+
+    private static void appendText(Node node, StringBuilder sb) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            short type = child.getNodeType();
+            if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+                String value = child.getNodeValue();
+                for (int i = 0; i < value.length(); i++) {
+                    appendChar(value.charAt(i), sb);
+                }
+            } else if (type == Node.ELEMENT_NODE) {
+                appendText(child, sb);
+            }
+        }
+    }
+
+    /** Appends a piece of text, collapsing runs of white space like {@link #text(Node)}. */
+    static void appendText(char[] ch, int start, int length, StringBuilder sb) {
+        for (int i = start; i < start + length; i++) {
+            appendChar(ch[i], sb);
+        }
+    }
+
+    private static void appendChar(char c, StringBuilder sb) {
+        if (Character.isWhitespace(c) || c == '\u00a0') {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(' ');
+            }
+        } else {
+            sb.append(c);
+        }
+    }
+
+    /** Number of capturing groups opened before the given position. */
+    private static int countGroups(String regex, int end) {
+        int count = 0;
+        boolean inClass = false;
+        for (int i = 0; i < end; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                }
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(' && (i + 1 >= regex.length() || regex.charAt(i + 1) != '?')) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
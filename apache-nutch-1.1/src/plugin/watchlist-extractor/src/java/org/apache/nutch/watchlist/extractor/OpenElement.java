@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import org.xml.sax.Attributes;
+
+/**
+ * An element on the stack of open elements of a streamed page: its name and
+ * a copy of its attributes, since SAX attributes are only valid during the
+ * start tag event. Instances are reused from page to page position.
+ */
+class OpenElement {
+
+    String name;
+    private String[] attributes = new String[8];
+    private int count;
+
+    void set(String name, Attributes atts) {
+        this.name = name;
+        int n = atts.getLength();
+        if (n * 2 > attributes.length) {
+            attributes = new String[n * 2];
+        }
+        for (int i = 0; i < n; i++) {
+            attributes[2 * i] = atts.getQName(i);
+            attributes[2 * i + 1] = atts.getValue(i);
+        }
+        count = n;
+    }
+
+    /** The value of an attribute, ignoring case of the name, or null. */
+    String get(String attribute) {
+        for (int i = 0; i < count; i++) {
+            if (attribute.equalsIgnoreCase(attributes[2 * i])) {
+                return attributes[2 * i + 1];
+            }
+        }
+        return null;
+    }
+}
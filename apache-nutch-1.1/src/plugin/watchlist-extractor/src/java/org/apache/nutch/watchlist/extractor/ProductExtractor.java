@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+// JDK imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.Attributes;
+
+// Commons Logging imports
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Nutch imports
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.HtmlStreamFilter;
+import org.apache.nutch.parse.HtmlStreamHandler;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseResult;
+import org.apache.nutch.parse.RoutedHtmlParseFilter;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.watchlist.ProductObservation;
+import org.apache.nutch.watchlist.WatchListSink;
+
+// Hadoop imports
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Extracts product information from the product pages of every site
+ * described in the extraction rules (see {@link ExtractionRules}), so
+ * supporting a new brand is a matter of adding a &lt;site&gt; to
+ * watchlist-extractor.xml.
+ *
+ * For a product page the brand, the item number, every field and the html
+ * title are added to the content metadata, and the product is written to
+ * the WatchListSink.
+ *
+ * Unless watchlist.extractor.stream is false, product pages are claimed as
+ * an HtmlStreamFilter and extracted from the SAX events of the page, so no
+ * DOM tree is built for them. Pages parsed into a DOM tree are only handed
+ * to it on the hosts of the sites, see {@link #getHosts()}.
+ */
+public class ProductExtractor implements RoutedHtmlParseFilter, HtmlStreamFilter {
+
+    public final static Log LOG = LogFactory.getLog(ProductExtractor.class);
+
+    /** The metadata key of the brand. */
+    public static final String META_BRAND = "brand";
+
+    /** The property enabling the extraction of streamed pages. */
+    public static final String STREAM = "watchlist.extractor.stream";
+
+    private Configuration conf = null;
+    private ExtractionRules rules;
+    private boolean stream;
+
+    public ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags,
+            DocumentFragment doc) {
+
+        // Step 1: find the site this is a product page of, if any
+        String url = content.getBaseUrl();
+        SiteRule site = findSite(url);
+        if (site == null) {
+            return parseResult;
+        }
+        Matcher matcher = site.matchUrl(url);
+        String itemNumber = matcher.group(site.idGroup);
+
+        // Step 2: extract the fields in one walk over the page
+        String[] values;
+        try {
+            values = site.extract(matcher, doc);
+        } catch (Exception e) {
+            LOG.warn("Failed to parse " + url + ": " + e);
+            return parseResult;
+        }
+        return addProduct(content, parseResult, site, itemNumber, values);
+    }
+
+    /**
+     * Claims the product pages of the sites, unless streaming is disabled.
+     */
+    public HtmlStreamHandler open(Content content) {
+        if (!stream) {
+            return null;
+        }
+        SiteRule site = findSite(content.getBaseUrl());
+        if (site == null) {
+            return null;
+        }
+        return new ProductStream(site, site.matchUrl(content.getBaseUrl()));
+    }
+
+    /**
+     * Returns the hosts of the sites, or null if a site has none and every
+     * page has to be tried.
+     */
+    public String[] getHosts() {
+        List<String> hosts = new ArrayList<String>();
+        for (SiteRule site : rules.getSites()) {
+            if (site.hosts.length == 0) {
+                return null;
+            }
+            hosts.addAll(Arrays.asList(site.hosts));
+        }
+        return hosts.toArray(new String[hosts.size()]);
+    }
+
+    /**
+     * Returns the site the URL is a product page of, or null. The host
+     * decides which site's url expression is tried.
+     */
+    private SiteRule findSite(String url) {
+        SiteRule site = rules.route(url);
+        if (site != null) {
+            return site.matchUrl(url) != null ? site : null;
+        }
+        for (SiteRule candidate : rules.getUnrouted()) {
+            if (candidate.matchUrl(url) != null) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the extracted product to the parse and the WatchListSink, if
+     * all required fields were found.
+     */
+    private ParseResult addProduct(Content content, ParseResult parseResult, SiteRule site,
+            String itemNumber, String[] values) {
+        String url = content.getBaseUrl();
+        List<String> missing = site.missing(values);
+        if (!missing.isEmpty()) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Partially parsed " + site + " product " + itemNumber + " at " + url
+                        + ", missing " + missing);
+            }
+            return parseResult;
+        }
+
+        // Step 3: fill out the metadata
+        Parse parse = parseResult.get(content.getUrl());
+        if (parse == null) {
+            return parseResult;
+        }
+        Metadata meta = parse.getData().getContentMeta();
+        meta.add(META_BRAND, site.brand);
+        meta.add(site.idKey, itemNumber);
+        String title = null;
+        String price = null;
+        String imgURL = null;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            meta.add(site.fields[i].name, values[i]);
+            String role = site.fields[i].role;
+            if (FieldRule.ROLE_TITLE.equals(role)) {
+                title = values[i];
+            } else if (FieldRule.ROLE_PRICE.equals(role)) {
+                price = values[i];
+            } else if (FieldRule.ROLE_IMAGE.equals(role)) {
+                imgURL = values[i];
+            }
+        }
+        String htmlTitle = parse.getData().getTitle();
+        if (htmlTitle != null) {
+            meta.add(site.titleKey, htmlTitle);
+        }
+
+        // Step 4: write the product into the database
+        WatchListSink sink = WatchListSink.get(getConf());
+        if (sink != null && price != null) {
+            try {
+                sink.add(new ProductObservation(site.brand, Long.parseLong(itemNumber), title,
+                        Float.parseFloat(price), imgURL, System.currentTimeMillis()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Not writing " + site + " product " + itemNumber + ": " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Parsed " + site + " product " + itemNumber + ": " + title + ", " + price);
+        }
+        return parseResult;
+    }
+
+    /** Extracts a product from the SAX events of its page. */
+    private class ProductStream extends HtmlStreamHandler {
+        private final SiteRule site;
+        private final String itemNumber;
+        private final SiteRule.Stream extraction;
+        private RuntimeException failure;
+
+        ProductStream(SiteRule site, Matcher url) {
+            this.site = site;
+            this.itemNumber = url.group(site.idGroup);
+            this.extraction = site.stream(url);
+        }
+
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            if (failure == null) {
+                try {
+                    extraction.startElement(qName, attributes);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            if (failure == null) {
+                try {
+                    extraction.endElement();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            if (failure == null && !extraction.isDone()) {
+                extraction.characters(ch, start, length);
+            }
+        }
+
+        public ParseResult filter(Content content, ParseResult parseResult,
+                HTMLMetaTags metaTags) {
+            if (failure != null) {
+                LOG.warn("Failed to parse " + content.getBaseUrl() + ": " + failure);
+                return parseResult;
+            }
+            return addProduct(content, parseResult, site, itemNumber, extraction.values());
+        }
+    }
+
+    /*
+     * ----------------------------- * <implementation:Configurable> *
+     * -----------------------------
+     */
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.rules = ExtractionRules.get(conf);
+        this.stream = conf.getBoolean(STREAM, true);
+    }
+
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    /*
+     * ------------------------------ * </implementation:Configurable> *
+     * ------------------------------
+     */
+}
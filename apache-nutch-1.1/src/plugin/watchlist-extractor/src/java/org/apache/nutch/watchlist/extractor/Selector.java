@@ -0,0 +1,370 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A compiled subset of CSS selectors, enough to point at product fields:
+ * <pre>
+ *   td.prodtitle
+ *   img#mainImg
+ *   img[id^=productOnFigureImage]
+ *   div.product-image img
+ *   div.product-price &gt; span
+ * </pre>
+ * A step is an optional tag name followed by any number of #id, .class
+ * and [attr], [attr=v], [attr^=v], [attr$=v], [attr*=v] tests. Steps are
+ * joined by the descendant (space) or child (&gt;) combinator. Names and
+ * values are compared ignoring case, like the hand written parsers did.
+ *
+ * Attribute values may contain {id}, which is replaced by the item number
+ * of the page being extracted.
+ *
+ * The selector is matched right to left: the last step is checked against
+ * the visited element, and only when it matches are the ancestors looked at.
+ */
+class Selector {
+
+    /** The page item number placeholder in values. */
+    static final String ID_PLACEHOLDER = "{id}";
+
+    private static final int EXISTS = 0;
+    private static final int EQUALS = 1;
+    private static final int WORD = 2;
+    private static final int PREFIX = 3;
+    private static final int SUFFIX = 4;
+    private static final int CONTAINS = 5;
+
+    private final String text;
+    // steps[steps.length - 1] is the element being matched
+    private final Step[] steps;
+    // child[i] is true if steps[i] must be the parent of steps[i + 1]
+    private final boolean[] child;
+
+    private Selector(String text, Step[] steps, boolean[] child) {
+        this.text = text;
+        this.steps = steps;
+        this.child = child;
+    }
+
+    /** Lower case tag name of the matched element, or null for any element. */
+    String getTag() {
+        return steps[steps.length - 1].tag;
+    }
+
+    /** Checks the element and, if needed, its ancestors. */
+    boolean matches(Element element, String pageId) {
+        int i = steps.length - 1;
+        if (!steps[i].matches(element, pageId)) {
+            return false;
+        }
+        return matchAncestors(element, i - 1, pageId);
+    }
+
+    /**
+     * Checks the element on top of the stack of open elements of a streamed
+     * page and, if needed, the elements below it.
+     */
+    boolean matches(OpenElement[] stack, int top, String pageId) {
+        int i = steps.length - 1;
+        if (!steps[i].matches(stack[top], pageId)) {
+            return false;
+        }
+        return matchAncestors(stack, top, i - 1, pageId);
+    }
+
+    private boolean matchAncestors(OpenElement[] stack, int index, int i, String pageId) {
+        if (i < 0) {
+            return true;
+        }
+        for (int parent = index - 1; parent >= 0; parent--) {
+            if (steps[i].matches(stack[parent], pageId)
+                    && matchAncestors(stack, parent, i - 1, pageId)) {
+                return true;
+            }
+            if (child[i]) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchAncestors(Node node, int i, String pageId) {
+        if (i < 0) {
+            return true;
+        }
+        Node parent = node.getParentNode();
+        while (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
+            if (steps[i].matches((Element) parent, pageId)
+                    && matchAncestors(parent, i - 1, pageId)) {
+                return true;
+            }
+            if (child[i]) {
+                return false;
+            }
+            parent = parent.getParentNode();
+        }
+        return false;
+    }
+
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Compiles a comma separated list of selectors.
+     *
+     * @throws IllegalArgumentException if the syntax is not understood
+     */
+    static Selector[] parseList(String text) {
+        List<Selector> result = new ArrayList<Selector>();
+        for (String part : text.split(",")) {
+            if (part.trim().length() > 0) {
+                result.add(parse(part.trim()));
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Empty selector: '" + text + "'");
+        }
+        return result.toArray(new Selector[result.size()]);
+    }
+
+    /**
+     * Compiles one selector.
+     *
+     * @throws IllegalArgumentException if the syntax is not understood
+     */
+    static Selector parse(String text) {
+        List<Step> steps = new ArrayList<Step>();
+        List<Boolean> child = new ArrayList<Boolean>();
+        int pos = 0;
+        int length = text.length();
+        boolean pendingChild = false;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '>') {
+                if (steps.isEmpty() || pendingChild) {
+                    throw new IllegalArgumentException("Misplaced '>' in selector '" + text + "'");
+                }
+                pendingChild = true;
+                pos++;
+            } else {
+                if (!steps.isEmpty()) {
+                    child.add(Boolean.valueOf(pendingChild));
+                }
+                pendingChild = false;
+                Step step = new Step();
+                pos = step.parse(text, pos);
+                steps.add(step);
+            }
+        }
+        if (steps.isEmpty() || pendingChild) {
+            throw new IllegalArgumentException("Incomplete selector '" + text + "'");
+        }
+        boolean[] childArray = new boolean[child.size()];
+        for (int i = 0; i < childArray.length; i++) {
+            childArray[i] = child.get(i).booleanValue();
+        }
+        return new Selector(text, steps.toArray(new Step[steps.size()]), childArray);
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '{' || c == '}'
+                || c == ':';
+    }
+
+    /** One compound selector: a tag name and attribute tests. */
+    private static class Step {
+        String tag;
+        String[] names = new String[0];
+        int[] ops = new int[0];
+        String[] values = new String[0];
+
+        int parse(String text, int pos) {
+            int length = text.length();
+            int start = pos;
+            while (pos < length && isNameChar(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos > start) {
+                String name = text.substring(start, pos).toLowerCase();
+                if (!"*".equals(name)) {
+                    tag = name;
+                }
+            } else if (pos < length && text.charAt(pos) == '*') {
+                pos++;
+            }
+            while (pos < length) {
+                char c = text.charAt(pos);
+                if (c == '#' || c == '.') {
+                    start = ++pos;
+                    while (pos < length && isNameChar(text.charAt(pos))) {
+                        pos++;
+                    }
+                    if (pos == start) {
+                        throw new IllegalArgumentException("Missing name after '" + c
+                                + "' in selector '" + text + "'");
+                    }
+                    add(c == '#' ? "id" : "class", c == '#' ? EQUALS : WORD,
+                            text.substring(start, pos));
+                } else if (c == '[') {
+                    int end = text.indexOf(']', pos);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Missing ']' in selector '" + text + "'");
+                    }
+                    parseAttribute(text, text.substring(pos + 1, end).trim());
+                    pos = end + 1;
+                } else if (Character.isWhitespace(c) || c == '>') {
+                    break;
+                } else {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in selector '"
+                            + text + "'");
+                }
+            }
+            return pos;
+        }
+
+        private void parseAttribute(String text, String test) {
+            int eq = test.indexOf('=');
+            if (eq < 0) {
+                add(test, EXISTS, null);
+                return;
+            }
+            int op = EQUALS;
+            int nameEnd = eq;
+            if (eq > 0) {
+                switch (test.charAt(eq - 1)) {
+                case '^': op = PREFIX; nameEnd--; break;
+                case '$': op = SUFFIX; nameEnd--; break;
+                case '*': op = CONTAINS; nameEnd--; break;
+                case '~': op = WORD; nameEnd--; break;
+                default: break;
+                }
+            }
+            String name = test.substring(0, nameEnd).trim();
+            String value = test.substring(eq + 1).trim();
+            if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                    && value.charAt(value.length() - 1) == value.charAt(0)) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (name.length() == 0) {
+                throw new IllegalArgumentException("Missing attribute name in selector '"
+                        + text + "'");
+            }
+            add(name, op, value);
+        }
+
+        private void add(String name, int op, String value) {
+            int n = names.length;
+            String[] newNames = new String[n + 1];
+            int[] newOps = new int[n + 1];
+            String[] newValues = new String[n + 1];
+            System.arraycopy(names, 0, newNames, 0, n);
+            System.arraycopy(ops, 0, newOps, 0, n);
+            System.arraycopy(values, 0, newValues, 0, n);
+            newNames[n] = name.toLowerCase();
+            newOps[n] = op;
+            newValues[n] = value;
+            names = newNames;
+            ops = newOps;
+            values = newValues;
+        }
+
+        boolean matches(Element element, String pageId) {
+            if (tag != null && !tag.equalsIgnoreCase(element.getNodeName())) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                Node attr = element.getAttributes().getNamedItem(names[i]);
+                if (attr == null) {
+                    return false;
+                }
+                if (ops[i] != EXISTS && !test(ops[i], attr.getNodeValue(), values[i], pageId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(OpenElement element, String pageId) {
+            if (tag != null && !tag.equalsIgnoreCase(element.name)) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                String value = element.get(names[i]);
+                if (value == null) {
+                    return false;
+                }
+                if (ops[i] != EXISTS && !test(ops[i], value, values[i], pageId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean test(int op, String actual, String expected, String pageId) {
+            if (actual == null) {
+                return false;
+            }
+            if (pageId != null && expected.indexOf(ID_PLACEHOLDER) >= 0) {
+                expected = expected.replace(ID_PLACEHOLDER, pageId);
+            }
+            int al = actual.length();
+            int el = expected.length();
+            switch (op) {
+            case EQUALS:
+                return actual.trim().equalsIgnoreCase(expected);
+            case PREFIX:
+                return actual.regionMatches(true, 0, expected, 0, el);
+            case SUFFIX:
+                return al >= el && actual.regionMatches(true, al - el, expected, 0, el);
+            case CONTAINS:
+                for (int i = 0; i + el <= al; i++) {
+                    if (actual.regionMatches(true, i, expected, 0, el)) {
+                        return true;
+                    }
+                }
+                return false;
+            case WORD:
+                // class="a b": one of the whitespace separated words
+                int i = 0;
+                while (i < al) {
+                    while (i < al && Character.isWhitespace(actual.charAt(i))) {
+                        i++;
+                    }
+                    int start = i;
+                    while (i < al && !Character.isWhitespace(actual.charAt(i))) {
+                        i++;
+                    }
+                    if (i - start == el && actual.regionMatches(true, start, expected, 0, el)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+
+/**
+ * The compiled extraction rules of one site.
+ *
+ * All selectors of all fields are indexed by the tag name they end with, so
+ * visiting an element costs one hash lookup and only the selectors that can
+ * match it are tried. The DOM is walked once, in document order, and the
+ * walk stops as soon as every field has a value. The first matching element
+ * wins, later ones (related products, recommendations) are never looked at.
+ *
+ * A page can also be extracted from its SAX events with a {@link Stream},
+ * which gives the same values without a DOM.
+ */
+class SiteRule {
+
+    final String name;
+    final String brand;
+    final String[] hosts;
+    final Pattern urlPattern;
+    final int idGroup;
+    final String idKey;
+    final String titleKey;
+    final FieldRule[] fields;
+
+    // field selectors by lower and upper case tag name
+    private final Map<String, Entry[]> byTag = new HashMap<String, Entry[]>();
+    // field selectors without a tag name
+    private final Entry[] anyTag;
+    private final int domFields;
+
+    SiteRule(String name, String brand, String[] hosts, String urlPattern, int idGroup,
+            String idKey, String titleKey, FieldRule[] fields) {
+        this.name = name;
+        this.brand = brand;
+        this.hosts = hosts;
+        this.urlPattern = Pattern.compile(urlPattern);
+        this.idGroup = idGroup;
+        this.idKey = idKey;
+        this.titleKey = titleKey;
+        this.fields = fields;
+
+        Map<String, List<Entry>> tags = new HashMap<String, List<Entry>>();
+        List<Entry> any = new ArrayList<Entry>();
+        int count = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].fromUrl()) {
+                continue;
+            }
+            count++;
+            for (Selector selector : fields[i].selectors) {
+                Entry entry = new Entry(i, selector);
+                String tag = selector.getTag();
+                if (tag == null) {
+                    any.add(entry);
+                } else {
+                    List<Entry> list = tags.get(tag);
+                    if (list == null) {
+                        list = new ArrayList<Entry>();
+                        tags.put(tag, list);
+                    }
+                    list.add(entry);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Entry>> e : tags.entrySet()) {
+            Entry[] entries = e.getValue().toArray(new Entry[e.getValue().size()]);
+            byTag.put(e.getKey(), entries);
+            byTag.put(e.getKey().toUpperCase(), entries);
+        }
+        this.anyTag = any.toArray(new Entry[any.size()]);
+        this.domFields = count;
+    }
+
+    /**
+     * Returns the URL matcher if the URL is a product page of this site,
+     * null otherwise.
+     */
+    Matcher matchUrl(String url) {
+        Matcher matcher = urlPattern.matcher(url);
+        return matcher.find() ? matcher : null;
+    }
+
+    /**
+     * Extracts the fields of a product page.
+     *
+     * @param url the matcher returned by {@link #matchUrl(String)}
+     * @param root the parsed page
+     * @return the values indexed like {@link #fields}, null where not found
+     */
+    String[] extract(Matcher url, Node root) {
+        String pageId = url.group(idGroup);
+        String[] values = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].fromUrl()) {
+                values[i] = fields[i].value(url, pageId);
+            }
+        }
+
+        int missing = domFields;
+        Node node = root.getFirstChild();
+        while (node != null && missing > 0) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element element = (Element) node;
+                Entry[] entries = byTag.get(element.getNodeName());
+                if (entries != null) {
+                    missing -= visit(entries, element, pageId, values);
+                }
+                if (anyTag.length > 0) {
+                    missing -= visit(anyTag, element, pageId, values);
+                }
+            }
+            // next node in document order, without building NodeLists
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+        return values;
+    }
+
+    private int visit(Entry[] entries, Element element, String pageId, String[] values) {
+        int found = 0;
+        for (Entry entry : entries) {
+            if (values[entry.field] == null && entry.selector.matches(element, pageId)) {
+                values[entry.field] = fields[entry.field].value(element, pageId);
+                if (values[entry.field] != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Starts the extraction of a product page from its SAX events. */
+    Stream stream(Matcher url) {
+        return new Stream(url);
+    }
+
+    /**
+     * The extraction of one streamed page. The open elements are kept on a
+     * stack for the selectors to match against. A match on an attribute has
+     * its value at the start tag, a match on the text once its element ends.
+     * Matches are resolved in start tag order, so a field gets the value of
+     * the first matching element in document order, as with the DOM.
+     */
+    class Stream {
+        private final String pageId;
+        private final String[] values;
+        private int missing = domFields;
+        private OpenElement[] stack = new OpenElement[32];
+        private int depth;
+        // the matches not resolved yet, in start tag order
+        private final List<Capture> captures = new ArrayList<Capture>();
+
+        private Stream(Matcher url) {
+            pageId = url.group(idGroup);
+            values = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].fromUrl()) {
+                    values[i] = fields[i].value(url, pageId);
+                }
+            }
+        }
+
+        void startElement(String name, Attributes attributes) {
+            if (missing == 0) {
+                depth++;
+                return;
+            }
+            if (depth == stack.length) {
+                OpenElement[] larger = new OpenElement[depth * 2];
+                System.arraycopy(stack, 0, larger, 0, depth);
+                stack = larger;
+            }
+            OpenElement element = stack[depth];
+            if (element == null) {
+                element = new OpenElement();
+                stack[depth] = element;
+            }
+            element.set(name, attributes);
+            depth++;
+
+            int before = captures.size();
+            Entry[] entries = byTag.get(name);
+            if (entries != null) {
+                visit(entries, before);
+            }
+            if (anyTag.length > 0) {
+                visit(anyTag, before);
+            }
+            if (captures.size() > before) {
+                resolve();
+            }
+        }
+
+        private void visit(Entry[] entries, int first) {
+            int top = depth - 1;
+            for (Entry entry : entries) {
+                int field = entry.field;
+                if (values[field] != null || captured(field, first, captures.size())
+                        || !entry.selector.matches(stack, top, pageId)) {
+                    continue;
+                }
+                Capture capture = new Capture(field, top);
+                if (fields[field].attribute != null) {
+                    capture.value = fields[field].value(stack[top], pageId);
+                    capture.done = true;
+                } else {
+                    capture.text = new StringBuilder();
+                }
+                captures.add(capture);
+            }
+        }
+
+        void endElement() {
+            depth--;
+            if (captures.isEmpty()) {
+                return;
+            }
+            boolean ended = false;
+            for (Capture capture : captures) {
+                if (!capture.done && capture.depth == depth) {
+                    capture.value = fields[capture.field].value(capture.text, pageId);
+                    capture.done = true;
+                    ended = true;
+                }
+            }
+            if (ended) {
+                resolve();
+            }
+        }
+
+        void characters(char[] ch, int start, int length) {
+            for (int i = 0; i < captures.size(); i++) {
+                Capture capture = captures.get(i);
+                if (!capture.done) {
+                    FieldRule.appendText(ch, start, length, capture.text);
+                }
+            }
+        }
+
+        /**
+         * Takes the value of each field's first match once that match is
+         * complete, or drops it if it has no value.
+         */
+        private void resolve() {
+            int i = 0;
+            while (i < captures.size()) {
+                Capture capture = captures.get(i);
+                if (!capture.done || captured(capture.field, 0, i)) {
+                    // waiting for its text or for an earlier match
+                    i++;
+                } else if (capture.value == null) {
+                    captures.remove(i);
+                } else {
+                    values[capture.field] = capture.value;
+                    missing--;
+                    for (int j = captures.size() - 1; j >= 0; j--) {
+                        if (captures.get(j).field == capture.field) {
+                            captures.remove(j);
+                        }
+                    }
+                    i = 0;
+                }
+            }
+        }
+
+        // true if one of the matches in [from, to) is for the field
+        private boolean captured(int field, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (captures.get(i).field == field) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** True once every field has a value, later events are ignored. */
+        boolean isDone() {
+            return missing == 0;
+        }
+
+        /** The values indexed like {@link #fields}, null where not found. */
+        String[] values() {
+            return values;
+        }
+    }
+
+    /** An element matching the selector of a field. */
+    private static class Capture {
+        final int field;
+        final int depth;
+        // collects the text of the element, null for an attribute
+        StringBuilder text;
+        boolean done;
+        String value;
+
+        Capture(int field, int depth) {
+            this.field = field;
+            this.depth = depth;
+        }
+    }
+
+    /** Returns the names of the required fields that have no value. */
+    List<String> missing(String[] values) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].required && values[i] == null) {
+                result.add(fields[i].name);
+            }
+        }
+        return result;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    private static class Entry {
+        final int field;
+        final Selector selector;
+
+        Entry(int field, Selector selector) {
+            this.field = field;
+            this.selector = selector;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.watchlist.WatchListConfig;
+
+/**
+ * Replays saved product pages through parse-html and the product extractor,
+ * the way ParseSegment parses them, and reports for every site:
+ * <ul>
+ * <li>warm: one configuration, so plugins and the ObjectCache are set up
+ * once; pages/s, median and p99 latency and bytes allocated per page, after
+ * the same number of unmeasured rounds to warm up the JIT</li>
+ * <li>cold: a new configuration for every page, so every page pays for
+ * loading the plugin repository, the filters and the extraction rules</li>
+ * </ul>
+ * Both with the DOM walk (watchlist.extractor.stream false) and with the
+ * streaming extraction. The pages are named after their item number, and a
+ * product URL is made for each from a template where {id} is the number.
+ * Run it with "ant bench".
+ *
+ * Usage: ParseBenchmark [-rounds n] [-cold n] (dir urlTemplate)+
+ */
+public class ParseBenchmark {
+
+    private static final String[] MODES = { "dom", "stream" };
+
+    /** The saved pages of one site. */
+    private static class Site {
+        final String name;
+        final List<String> urls = new ArrayList<String>();
+        final List<byte[]> pages = new ArrayList<byte[]>();
+
+        Site(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = 20;
+        int coldPages = 10;
+        List<Site> sites = new ArrayList<Site>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-rounds".equals(args[i])) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if ("-cold".equals(args[i])) {
+                coldPages = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length) {
+                sites.add(read(new File(args[i]), args[++i]));
+            } else {
+                System.err.println("Usage: ParseBenchmark [-rounds n] [-cold n] (dir urlTemplate)+");
+                System.exit(-1);
+            }
+        }
+        // logging a line per product would be most of what is measured
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        for (Site site : sites) {
+            for (String mode : MODES) {
+                warm(site, mode, rounds);
+                cold(site, mode, coldPages);
+            }
+        }
+    }
+
+    private static Site read(File dir, String template) throws Exception {
+        Site site = new Site(new URL(template.replace("{id}", "0")).getHost());
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            int dot = name.indexOf('.');
+            if (!file.isFile() || dot <= 0) {
+                continue;
+            }
+            site.urls.add(template.replace("{id}", name.substring(0, dot)));
+            site.pages.add(readFile(file));
+        }
+        return site;
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static Configuration configure(String mode) {
+        Configuration conf = NutchConfiguration.create();
+        conf.setBoolean(ProductExtractor.STREAM, "stream".equals(mode));
+        // measure the parse, not the database
+        conf.setBoolean(WatchListConfig.SINK_ENABLED.getAttributeString(), false);
+        return conf;
+    }
+
+    /** Parses one page, returns true if a product was extracted. */
+    private static boolean parse(ParseUtil parser, Configuration conf, String url, byte[] page)
+            throws Exception {
+        Content content = new Content(url, url, page, "text/html", new Metadata(), conf);
+        Parse parse = parser.parseByExtensionId("parse-html", content).get(url);
+        return parse != null
+            && parse.getData().getContentMeta().get(ProductExtractor.META_BRAND) != null;
+    }
+
+    private static void warm(Site site, String mode, int rounds) throws Exception {
+        Configuration conf = configure(mode);
+        ParseUtil parser = new ParseUtil(conf);
+        int pages = site.pages.size();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < pages; i++) {
+                parse(parser, conf, site.urls.get(i), site.pages.get(i));
+            }
+        }
+
+        long[] nanos = new long[rounds * pages];
+        int products = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < pages; i++) {
+                long begin = System.nanoTime();
+                if (parse(parser, conf, site.urls.get(i), site.pages.get(i))) {
+                    products++;
+                }
+                nanos[round * pages + i] = System.nanoTime() - begin;
+            }
+        }
+        long total = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+
+        Arrays.sort(nanos);
+        System.out.println(site.name + " " + mode + " warm: " + nanos.length + " pages, "
+            + (nanos.length * 1000000000L / total) + " pages/s, p50 " + millis(percentile(nanos, 50))
+            + " ms, p99 " + millis(percentile(nanos, 99)) + " ms, "
+            + (allocated < 0 ? "?" : String.valueOf(allocated / nanos.length / 1024))
+            + " KB/page, " + (products / rounds) + "/" + pages + " products");
+    }
+
+    private static void cold(Site site, String mode, int count) throws Exception {
+        if (count <= 0) {
+            return;
+        }
+        long[] nanos = new long[count];
+        long allocated = allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            int page = i % site.pages.size();
+            long begin = System.nanoTime();
+            Configuration conf = configure(mode);
+            parse(new ParseUtil(conf), conf, site.urls.get(page), site.pages.get(page));
+            nanos[i] = System.nanoTime() - begin;
+        }
+        allocated = allocatedBytes() - allocated;
+
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        Arrays.sort(nanos);
+        System.out.println(site.name + " " + mode + " cold: " + count + " pages, mean "
+            + millis(total / count) + " ms, p99 " + millis(percentile(nanos, 99)) + " ms, "
+            + (allocated < 0 ? "?" : String.valueOf(allocated / count / 1024)) + " KB/page");
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(Math.round(nanos / 10000.0) / 100.0);
+    }
+
+    /** Bytes allocated by this thread so far, -1 if the JVM doesn't tell. */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the cost of deciding which site a page belongs to, on a mix of
+ * URLs like a segment of a crawl over several stores:
+ * <ul>
+ * <li>chain: what every brand filter did for every page, new URL() and a
+ * full regex match, throwing MalformedURLException for foreign pages</li>
+ * <li>routed: one host trie lookup, then the url expression of that site
+ * only</li>
+ * </ul>
+ * Usage: RoutingBenchmark [pages] [rounds]
+ */
+public class RoutingBenchmark {
+
+    private static final String[] PRODUCT_URLS = {
+        "http://www.jcrew.com/mens_category/sweaters/cottoncashmere/PRDOVR~29234/29234.jsp",
+        "http://www.jcrew.com/AST/Navigation/Sale/AllProducts/PRDOVR~18212/99102181471/ENE~1+2+3/18212.jsp",
+        "http://us.burberry.com/store/womenswear/sport/view-all/reflective-graphic-t-shirt/sku-37400701001-reflective-graphic-t-shirt/",
+        "http://us.burberry.com/store/home-gifts/home/hand-knit-cashmere-hot-water-bottle-cover/sku-37437071-hand-knit-cashmere-hot-water-bottle-cover/",
+    };
+
+    private static final String[] OTHER_URLS = {
+        "http://www.jcrew.com/index.jsp",
+        "http://www.jcrew.com/mens_category/sweaters.jsp?iNextCategory=-1",
+        "http://us.burberry.com/store/womenswear/",
+        "http://us.burberry.com/about-burberry/",
+        "http://www.anntaylor.com/catalog/category.jsp?pageSize=100",
+        "http://www.example.com/some/long/path/to/a/page.html",
+        "http://shop.nordstrom.com/c/womens-dresses?origin=leftnav",
+        "http://www.macys.com/shop/mens-clothing/mens-sweaters?id=4286",
+    };
+
+    // the per brand checks of the removed JCrewParser and BurberryParser
+    private static final Pattern[] CHAIN = {
+        Pattern.compile("http\\:\\/\\/www\\.jcrew\\.com\\/.*\\/PRDOVR~(\\d+).*\\/(\\d+)\\.jsp"),
+        Pattern.compile("http\\:\\/\\/us\\.burberry\\.com\\/.*\\/(.+)\\/sku-(\\d+)-(.+)\\/"),
+    };
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // one product page for every ten pages fetched
+        Random random = new Random(42);
+        String[] urls = new String[pages];
+        for (int i = 0; i < pages; i++) {
+            urls[i] = (random.nextInt(10) == 0)
+                ? PRODUCT_URLS[random.nextInt(PRODUCT_URLS.length)]
+                : OTHER_URLS[random.nextInt(OTHER_URLS.length)];
+        }
+
+        Configuration conf = NutchConfiguration.create();
+        String file = conf.get(ExtractionRules.RULES_FILE, "watchlist-extractor.xml");
+        InputStream in = conf.getConfResourceAsInputStream(file);
+        ExtractionRules rules = ExtractionRules.read(in);
+        in.close();
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            int chainHits = chain(urls);
+            long chainNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int routedHits = routed(rules, urls);
+            long routedNanos = System.nanoTime() - start;
+
+            System.out.println("round " + round + ": chain " + (chainNanos / pages) + " ns/page ("
+                + chainHits + " products), routed " + (routedNanos / pages) + " ns/page ("
+                + routedHits + " products)");
+        }
+    }
+
+    private static int chain(String[] urls) {
+        int hits = 0;
+        for (String url : urls) {
+            for (Pattern pattern : CHAIN) {
+                try {
+                    URL base = new URL(url);
+                    Matcher matcher = pattern.matcher(base.toString());
+                    if (!matcher.find()) {
+                        throw new MalformedURLException("URL is not a product page.");
+                    }
+                    hits++;
+                } catch (Exception e) {
+                    // next filter
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static int routed(ExtractionRules rules, String[] urls) {
+        int hits = 0;
+        for (String url : urls) {
+            SiteRule site = rules.route(url);
+            if (site != null && site.matchUrl(url) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.watchlist.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.ObjectCache;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the selectors and the compiled site rules on small hand written
+ * pages. The real product pages are tested by the brand plugins.
+ */
+public class TestProductExtractor extends TestCase {
+
+    private static final String RULES =
+        "<extractor>"
+        + "<site name='shop' url='http://shop\\.com/item/(\\d+)/([a-z-]+)'>"
+        + "<field name='name' role='title' url-group='2' replace='-' by=' '/>"
+        + "<field name='price' role='price' select='div.offer &gt; span'"
+        + " pattern='\\$([\\d,]+\\.\\d+) item {id}' number='true'/>"
+        + "<field name='imgURL' role='image' select='#main img[id^=pic], img#alt{id}'"
+        + " attribute='src'/>"
+        + "</site>"
+        + "<site name='broken' url='(unclosed'>"
+        + "<field name='price' select='span'/>"
+        + "</site>"
+        + "</extractor>";
+
+    private static final String PAGE =
+        "<html><body>"
+        + "<div class='offer'><span>$10.00 item 99</span></div>"
+        + "<div class='offer big'><p><span>$1,234.50 item 42</span></p><span>$1,299.00 item 42</span></div>"
+        + "<div id='main'><p><img id='pic1' src='first.jpg'/><img id='pic2' src='second.jpg'/></p></div>"
+        + "</body></html>";
+
+    private Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(xml)));
+    }
+
+    private SiteRule readRules() {
+        ExtractionRules rules = ExtractionRules.read(new ByteArrayInputStream(RULES.getBytes()));
+        // the site with the broken url expression is left out
+        assertEquals(1, rules.getSites().length);
+        return rules.getSites()[0];
+    }
+
+    public void testSelectors() throws Exception {
+        Document doc = parse("<div class='A b'><p id='x'><img id='pic42' src='s'/></p></div>");
+        Element img = (Element) doc.getElementsByTagName("img").item(0);
+
+        assertTrue(Selector.parse("img").matches(img, "42"));
+        assertTrue(Selector.parse("IMG#PIC42").matches(img, "42"));
+        assertTrue(Selector.parse("img#pic{id}").matches(img, "42"));
+        assertFalse(Selector.parse("img#pic{id}").matches(img, "43"));
+        assertTrue(Selector.parse("div.a img").matches(img, "42"));
+        assertTrue(Selector.parse("div.b > p > img").matches(img, "42"));
+        assertFalse(Selector.parse("div > img").matches(img, "42"));
+        assertTrue(Selector.parse("[id^=pic]").matches(img, "42"));
+        assertTrue(Selector.parse("img[id$=42][src]").matches(img, "42"));
+        assertTrue(Selector.parse("img[id*=c4]").matches(img, "42"));
+        assertFalse(Selector.parse("img[alt]").matches(img, "42"));
+        assertEquals(2, Selector.parseList("td.a, td.b").length);
+
+        try {
+            Selector.parse("div >");
+            fail("accepted an incomplete selector");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testExtract() throws Exception {
+        SiteRule site = readRules();
+        assertNull(site.matchUrl("http://other.com/item/42/blue-shirt"));
+        Matcher url = site.matchUrl("http://shop.com/item/42/blue-shirt");
+        assertNotNull(url);
+
+        String[] values = site.extract(url, parse(PAGE).getDocumentElement());
+        assertEquals("blue shirt", values[0]);
+        // the price of another item is skipped, the direct child span wins
+        assertEquals("1299.00", values[1]);
+        // the first matching image wins
+        assertEquals("first.jpg", values[2]);
+        assertTrue(site.missing(values).isEmpty());
+
+        // the price is required
+        url = site.matchUrl("http://shop.com/item/7/red-shirt");
+        values = site.extract(url, parse(PAGE).getDocumentElement());
+        assertNull(values[1]);
+        assertEquals(1, site.missing(values).size());
+    }
+
+    public void testNumber() throws Exception {
+        FieldRule price = new FieldRule("price", FieldRule.ROLE_PRICE, true, 0,
+                new Selector[0], null, null, null, null, true);
+        assertEquals("1299.00", price.value(new StringBuilder(" 1,299.00 "), "42"));
+        assertEquals("12", price.value(new StringBuilder("12"), "42"));
+        assertEquals(".5", price.value(new StringBuilder(".5"), "42"));
+        // Float.parseFloat takes some of these, but none is a price
+        String[] invalid = { "NaN", "Infinity", "-Infinity", "12d", "12f", "1e3",
+                "0x1p3", "12.0.0", "$12", "" };
+        for (int i = 0; i < invalid.length; i++) {
+            assertNull(invalid[i], price.value(new StringBuilder(invalid[i]), "42"));
+        }
+    }
+
+    private String[] stream(SiteRule site, Matcher url, String xml) throws Exception {
+        final SiteRule.Stream stream = site.stream(url);
+        SAXParserFactory.newInstance().newSAXParser().parse(
+            new InputSource(new StringReader(xml)), new DefaultHandler() {
+                public void startElement(String uri, String localName, String qName,
+                        Attributes attributes) {
+                    stream.startElement(qName, attributes);
+                }
+
+                public void endElement(String uri, String localName, String qName) {
+                    stream.endElement();
+                }
+
+                public void characters(char[] ch, int start, int length) {
+                    stream.characters(ch, start, length);
+                }
+            });
+        return stream.values();
+    }
+
+    public void testStream() throws Exception {
+        SiteRule site = readRules();
+        Matcher url = site.matchUrl("http://shop.com/item/42/blue-shirt");
+        String[] values = stream(site, url, PAGE);
+        assertEquals("blue shirt", values[0]);
+        assertEquals("1299.00", values[1]);
+        assertEquals("first.jpg", values[2]);
+
+        // a match inside an earlier match waits for it to end
+        String nested = "<html><body><div class='offer'><span>$5.00 item 42 "
+            + "<div class='offer'><span>$6.00 item 42</span></div></span></div>"
+            + "<img id='alt42' src='alt.jpg'/></body></html>";
+        values = stream(site, url, nested);
+        assertEquals("5.00", values[1]);
+        assertEquals("alt.jpg", values[2]);
+        values = stream(site, url, nested.replace("item 42 ", "item 99 "));
+        assertEquals("6.00", values[1]);
+
+        // the same values as the DOM walk
+        url = site.matchUrl("http://shop.com/item/7/red-shirt");
+        String[] dom = site.extract(url, parse(PAGE).getDocumentElement());
+        values = stream(site, url, PAGE);
+        assertEquals(Arrays.asList(dom), Arrays.asList(values));
+    }
+
+    public void testHosts() throws Exception {
+        // the hosts of the sites in watchlist-extractor.xml
+        Configuration conf = NutchConfiguration.create();
+        ProductExtractor extractor = new ProductExtractor();
+        extractor.setConf(conf);
+        Set<String> hosts = new TreeSet<String>();
+        for (SiteRule site : ExtractionRules.get(conf).getSites()) {
+            hosts.addAll(Arrays.asList(site.hosts));
+        }
+        assertFalse(hosts.isEmpty());
+        assertEquals(hosts, new TreeSet<String>(Arrays.asList(extractor.getHosts())));
+
+        // a site without hosts needs every page
+        conf = NutchConfiguration.create();
+        ObjectCache.get(conf).setObject(ExtractionRules.class.getName(),
+            ExtractionRules.read(new ByteArrayInputStream(RULES.getBytes())));
+        extractor.setConf(conf);
+        assertNull(extractor.getHosts());
+    }
+}
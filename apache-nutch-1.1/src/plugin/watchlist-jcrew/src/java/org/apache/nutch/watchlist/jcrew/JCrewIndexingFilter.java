@@ -36,45 +36,60 @@ import org.apache.hadoop.conf.Configuration;
  */
 public class JCrewIndexingFilter implements IndexingFilter {
 
+    // The meta tags the product extractor adds for JCrew product pages,
+    // see the jcrew site in conf/watchlist-extractor.xml
+    public static final String META_BRAND = "brand";
+    public static final String META_ITEMNUM = "itemNumber";
+    public static final String META_PRODUCT_TITLE = "productTitle";
+    public static final String META_PRICE = "price";
+    public static final String META_IMG_URL = "imgURL";
+    // If it is a true product page, the html title has very valuable
+    // information
+    // like Category, Brand, Product Title, or anything the seller wants to
+    // tell.
+    // We add it as a meta field, so we can boost its search score.
+    public static final String META_JCREW_TITLE = "jcrew";
+
     private Configuration conf;
 
     public NutchDocument filter(NutchDocument doc, Parse parse, Text url, CrawlDatum datum,
             Inlinks inlinks) throws IndexingException {
 
         // Fill brand into document, for Lucene to index
-        String[] tags = parse.getData().getParseMeta().getValues(JCrewParser.META_BRAND);
+        String[] tags = getValues(parse, META_BRAND);
         if (tags != null) {
             for (int i = 0; i < tags.length; i++) {
-                doc.add(JCrewParser.META_BRAND, tags[i]);
+                doc.add(META_BRAND, tags[i]);
             }
         }
         // Fill item number into document
-        tags = parse.getData().getParseMeta().getValues(JCrewParser.META_ITEMNUM);
+        tags = getValues(parse, META_ITEMNUM);
         if (tags != null) {
             for (int i = 0; i < tags.length; i++) {
-                doc.add(JCrewParser.META_ITEMNUM, tags[i]);
+                doc.add(META_ITEMNUM, tags[i]);
             }
         }
         // Fill product title into document
-        tags = parse.getData().getParseMeta().getValues(JCrewParser.META_PRODUCT_TITLE);
+        tags = getValues(parse, META_PRODUCT_TITLE);
         if (tags != null) {
             for (int i = 0; i < tags.length; i++) {
-                doc.add(JCrewParser.META_PRODUCT_TITLE, tags[i]);
+                doc.add(META_PRODUCT_TITLE, tags[i]);
             }
         }
         // Fill price into document
-        tags = parse.getData().getParseMeta().getValues(JCrewParser.META_PRICE);
+        tags = getValues(parse, META_PRICE);
         if (tags != null) {
             for (int i = 0; i < tags.length; i++) {
-                doc.add(JCrewParser.META_PRICE, tags[i]);
+                // plain number for the numeric field, "1,095.00" -> "1095.00"
+                doc.add(META_PRICE, tags[i].replace(",", ""));
             }
         }
         // Fill html title into document, may be it is duplicated work because html parser
         // should also do the same thing, but we still do it to boost search score
-        tags = parse.getData().getParseMeta().getValues(JCrewParser.META_JCREW_TITLE);
+        tags = getValues(parse, META_JCREW_TITLE);
         if (tags != null) {
             for (int i = 0; i < tags.length; i++) {
-                doc.add(JCrewParser.META_JCREW_TITLE, tags[i]);
+                doc.add(META_JCREW_TITLE, tags[i]);
             }
         }
 
@@ -82,18 +97,28 @@ public class JCrewIndexingFilter implements IndexingFilter {
     }
 
     public void addIndexBackendOptions(Configuration conf) {
-        LuceneWriter.addFieldOptions(JCrewParser.META_BRAND, LuceneWriter.STORE.YES,
+        LuceneWriter.addFieldOptions(META_BRAND, LuceneWriter.STORE.YES,
                 LuceneWriter.INDEX.UNTOKENIZED, conf);
-        LuceneWriter.addFieldOptions(JCrewParser.META_ITEMNUM, LuceneWriter.STORE.YES,
+        LuceneWriter.addFieldOptions(META_ITEMNUM, LuceneWriter.STORE.YES,
                 LuceneWriter.INDEX.UNTOKENIZED, conf);
-        LuceneWriter.addFieldOptions(JCrewParser.META_PRODUCT_TITLE, LuceneWriter.STORE.YES,
+        LuceneWriter.addFieldOptions(META_PRODUCT_TITLE, LuceneWriter.STORE.YES,
                 LuceneWriter.INDEX.TOKENIZED, conf);
-        LuceneWriter.addFieldOptions(JCrewParser.META_PRICE, LuceneWriter.STORE.YES,
-                LuceneWriter.INDEX.UNTOKENIZED, conf);
-        LuceneWriter.addFieldOptions(JCrewParser.META_JCREW_TITLE, LuceneWriter.STORE.YES,
+        LuceneWriter.addFieldOptions(META_PRICE, LuceneWriter.STORE.YES,
+                LuceneWriter.INDEX.NUMERIC, conf);
+        LuceneWriter.addFieldOptions(META_JCREW_TITLE, LuceneWriter.STORE.YES,
                 LuceneWriter.INDEX.TOKENIZED, conf);
     }
 
+    // The extractor adds its tags to the content meta, older parses have
+    // them in the parse meta
+    private static String[] getValues(Parse parse, String key) {
+        String[] values = parse.getData().getContentMeta().getValues(key);
+        if (values.length == 0) {
+            values = parse.getData().getParseMeta().getValues(key);
+        }
+        return values;
+    }
+
     /*
      * ----------------------------- * <implementation:Configurable> *
      * -----------------------------
@@ -29,7 +29,7 @@ public class JCrewQueryFilter extends FieldQueryFilter {
     public JCrewQueryFilter() {
         // Bump up the boost for the following field 
         // in order to increase their influence on the search result
-        super(JCrewParser.META_JCREW_TITLE, 3.0f);
+        super(JCrewIndexingFilter.META_JCREW_TITLE, 3.0f);
     }
 
 }
@@ -916,10 +916,10 @@ public class TestJCrewParser extends TestCase {
         Parse parse = new ParseUtil(conf).parseByExtensionId("parse-html", content).get(url);
 
         Metadata metadata = parse.getData().getContentMeta();
-        assertEquals(productName, metadata.get(JCrewParser.META_PRODUCT_TITLE));
-        float price = Float.parseFloat(metadata.get(JCrewParser.META_PRICE));
+        assertEquals(productName, metadata.get(JCrewIndexingFilter.META_PRODUCT_TITLE));
+        float price = Float.parseFloat(metadata.get(JCrewIndexingFilter.META_PRICE));
         assertTrue(price > 0);
-        assertTrue(metadata.get(JCrewParser.META_IMG_URL).length() > 10);
+        assertTrue(metadata.get(JCrewIndexingFilter.META_IMG_URL).length() > 10);
 
         // Indicate progress
         System.out.print('.');
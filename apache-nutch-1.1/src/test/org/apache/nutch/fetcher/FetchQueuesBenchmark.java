@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures the fetch queues alone, without any network: a feeder thread
+ * keeps the queues filled with items spread over many hosts, like the
+ * QueueFeeder, and the consumer threads take items, hold them for a while
+ * as if fetching them and finish them. A consumer that finds no eligible
+ * item yields and tries again. Reports items/s and the failed attempts.
+ *
+ * Usage: FetchQueuesBenchmark [items] [hosts] [threads] [fetchMicros]
+ * [delayMs] (defaults 500000 5000 500 0 0)
+ */
+public class FetchQueuesBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    final int items = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+    int hosts = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    final long fetchNanos =
+      (args.length > 3 ? Long.parseLong(args[3]) : 0) * 1000;
+    long delay = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    Logger.getLogger(Fetcher.class).setLevel(Level.WARN);
+
+    Configuration conf = NutchConfiguration.create();
+    conf.setFloat("fetcher.server.delay", delay / 1000f);
+    conf.setInt("fetcher.threads.per.host", 1);
+    final Fetcher.FetchItemQueues queues = new Fetcher.FetchItemQueues(conf);
+
+    final Fetcher.FetchItem[] input = new Fetcher.FetchItem[items];
+    for (int i = 0; i < items; i++) {
+      input[i] = Fetcher.FetchItem.create(
+          new Text("http://h" + (i % hosts) + ".example.com/" + i),
+          new CrawlDatum(), null);
+    }
+    final int size = threads * 50;
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicLong misses = new AtomicLong();
+
+    Thread feeder = new Thread() {
+      public void run() {
+        int next = 0;
+        while (next < items) {
+          if (queues.getTotalSize() >= size) {
+            Thread.yield();
+            continue;
+          }
+          queues.addFetchItem(input[next++]);
+        }
+      }
+    };
+    Thread[] consumers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      consumers[t] = new Thread() {
+        public void run() {
+          while (done.get() < items) {
+            Fetcher.FetchItem it = queues.getFetchItem();
+            if (it == null) {
+              misses.incrementAndGet();
+              Thread.yield();
+              continue;
+            }
+            if (fetchNanos > 0) {
+              LockSupport.parkNanos(fetchNanos);
+            }
+            queues.finishFetchItem(it);
+            done.incrementAndGet();
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    feeder.start();
+    for (int t = 0; t < threads; t++) {
+      consumers[t].start();
+    }
+    feeder.join();
+    for (int t = 0; t < threads; t++) {
+      consumers[t].join();
+    }
+    long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    System.out.println(items + " items, " + hosts + " hosts, " + threads
+        + " threads: " + millis + " ms, " + (items * 1000L / millis)
+        + " items/s, " + misses.get() + " misses");
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.metadata.Nutch;
+
+/**
+ * Compares the fetcher engines against a local stub server that answers
+ * every request after a fixed delay, like a slow remote site. The pages are
+ * spread over many host names, all on the loopback network (127.1.x.y), so
+ * politeness lets the fetcher hit them in parallel. Reports pages/s, the
+ * peak number of threads and the peak heap of each engine.
+ *
+ * Usage: FetcherBenchmark [pages] [hosts] [delayMs] [threads] [connections]
+ * (defaults 20000 2000 200 500 2000: 500 FetcherThreads for the threaded
+ * engine, 10 FetcherThreads and 2000 connections for the nio engine)
+ */
+public class FetcherBenchmark {
+
+  private static final byte[] PAGE_404 = ("HTTP/1.0 404 Not Found\r\n"
+      + "Content-Length: 0\r\n\r\n").getBytes();
+
+  /** Answers each request after a delay, from one selector thread. */
+  static class StubServer extends Thread {
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final long delay;
+    private final byte[] page;
+    private final PriorityQueue<Reply> replies = new PriorityQueue<Reply>();
+    private volatile boolean closed;
+    final AtomicInteger requests = new AtomicInteger();
+
+    private static class Reply implements Comparable<Reply> {
+      long due;
+      SelectionKey key;
+      ByteBuffer data;
+
+      public int compareTo(Reply o) {
+        return due < o.due ? -1 : (due == o.due ? 0 : 1);
+      }
+    }
+
+    StubServer(long delay, int pageSize) throws IOException {
+      super("StubServer");
+      setDaemon(true);
+      this.delay = delay;
+      StringBuilder html = new StringBuilder("<html><body>");
+      while (html.length() < pageSize) {
+        html.append("<p>Nutch fetcher benchmark page</p>\n");
+      }
+      html.append("</body></html>");
+      this.page = ("HTTP/1.0 200 OK\r\nContent-Type: text/html\r\nContent-Length: "
+          + html.length() + "\r\n\r\n" + html).getBytes();
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.socket().setReuseAddress(true);
+      server.socket().bind(new InetSocketAddress("0.0.0.0", 0), 4096);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int getPort() {
+      return server.socket().getLocalPort();
+    }
+
+    void shutdown() throws IOException {
+      closed = true;
+      selector.wakeup();
+      server.close();
+    }
+
+    public void run() {
+      ByteBuffer in = ByteBuffer.allocate(8192);
+      try {
+        while (!closed) {
+          long now = System.currentTimeMillis();
+          while (!replies.isEmpty() && replies.peek().due <= now) {
+            replies.poll().key.interestOps(SelectionKey.OP_WRITE);
+          }
+          long wait = replies.isEmpty() ? 100 : Math.max(1, replies.peek().due - now);
+          selector.select(wait);
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try {
+              if (key.isAcceptable()) {
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                  channel.configureBlocking(false);
+                  channel.register(selector, SelectionKey.OP_READ, new StringBuilder());
+                }
+              } else if (key.isReadable()) {
+                read(key, in);
+              } else if (key.isWritable()) {
+                Reply reply = (Reply) key.attachment();
+                SocketChannel channel = (SocketChannel) key.channel();
+                channel.write(reply.data);
+                if (!reply.data.hasRemaining()) {
+                  channel.close();
+                }
+              }
+            } catch (IOException e) {
+              key.channel().close();
+            }
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    private void read(SelectionKey key, ByteBuffer in) throws IOException {
+      SocketChannel channel = (SocketChannel) key.channel();
+      StringBuilder request = (StringBuilder) key.attachment();
+      in.clear();
+      if (channel.read(in) < 0) {
+        channel.close();
+        return;
+      }
+      in.flip();
+      while (in.hasRemaining()) {
+        request.append((char) in.get());
+      }
+      if (request.indexOf("\r\n\r\n") < 0) {
+        return;
+      }
+      Reply reply = new Reply();
+      reply.key = key;
+      if (request.indexOf("/robots.txt") >= 0) {
+        reply.due = 0;
+        reply.data = ByteBuffer.wrap(PAGE_404);
+      } else {
+        requests.incrementAndGet();
+        reply.due = System.currentTimeMillis() + delay;
+        reply.data = ByteBuffer.wrap(page);
+      }
+      // written once due
+      key.interestOps(0);
+      key.attach(reply);
+      replies.add(reply);
+    }
+  }
+
+  /** A fetch list in memory. */
+  private static class UrlReader implements RecordReader<Text, CrawlDatum> {
+    private final int pages;
+    private final int hosts;
+    private final int port;
+    private int next;
+
+    UrlReader(int pages, int hosts, int port) {
+      this.pages = pages;
+      this.hosts = hosts;
+      this.port = port;
+    }
+
+    public boolean next(Text key, CrawlDatum value) {
+      if (next == pages) {
+        return false;
+      }
+      int host = next % hosts;
+      key.set("http://127.1." + (host / 250) + "." + (1 + host % 250) + ":" + port
+          + "/page" + next + ".html");
+      value.set(new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED, 86400));
+      next++;
+      return true;
+    }
+
+    public Text createKey() {
+      return new Text();
+    }
+
+    public CrawlDatum createValue() {
+      return new CrawlDatum();
+    }
+
+    public long getPos() {
+      return next;
+    }
+
+    public float getProgress() {
+      return (float) next / pages;
+    }
+
+    public void close() {
+    }
+  }
+
+  /** Counts the pages fetched. */
+  private static class Counter implements OutputCollector<Text, NutchWritable> {
+    final AtomicInteger fetched = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+
+    public void collect(Text key, NutchWritable value) {
+      if (value.get() instanceof CrawlDatum) {
+        if (((CrawlDatum) value.get()).getStatus() == CrawlDatum.STATUS_FETCH_SUCCESS) {
+          fetched.incrementAndGet();
+        } else {
+          failed.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static void run(String engine, int threads, int connections, int pages,
+      int hosts, int port) throws IOException {
+    Configuration conf = CrawlDBTestUtil.createConfiguration();
+    conf.set("fetcher.engine", engine);
+    conf.setInt("fetcher.threads.fetch", threads);
+    conf.setInt("fetcher.nio.connections", connections);
+    conf.setFloat("fetcher.server.delay", 0f);
+    conf.setBoolean("fetcher.parse", false);
+    conf.setInt("http.timeout", 60000);
+    JobConf job = new JobConf(conf);
+    job.set(Nutch.SEGMENT_NAME_KEY, "20110301000000");
+    Fetcher fetcher = new Fetcher();
+    fetcher.configure(job);
+
+    final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    final Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    threadBean.resetPeakThreadCount();
+    final long[] peakHeap = new long[1];
+    Thread sampler = new Thread() {
+      public void run() {
+        while (!isInterrupted()) {
+          peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    sampler.setDaemon(true);
+    sampler.start();
+
+    Counter counter = new Counter();
+    long start = System.nanoTime();
+    fetcher.run(new UrlReader(pages, hosts, port), counter, Reporter.NULL);
+    long millis = (System.nanoTime() - start) / 1000000;
+    sampler.interrupt();
+
+    System.out.println(engine + ": " + counter.fetched + " pages (" + counter.failed
+        + " failed) in " + millis + " ms, "
+        + (counter.fetched.get() * 1000L / Math.max(1, millis)) + " pages/s, peak "
+        + threadBean.getPeakThreadCount() + " threads, peak heap ~"
+        + (peakHeap[0] / (1024 * 1024)) + " MB");
+  }
+
+  public static void main(String[] args) throws Exception {
+    int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int hosts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int delay = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+    int connections = args.length > 4 ? Integer.parseInt(args[4]) : 2000;
+    Logger.getRootLogger().setLevel(Level.WARN);
+
+    StubServer server = new StubServer(delay, 16 * 1024);
+    server.start();
+    System.out.println(pages + " pages on " + hosts + " hosts, " + delay
+        + " ms per response");
+    // warm up both engines
+    run("threads", threads, connections, Math.min(pages, 1000), hosts, server.getPort());
+    run("nio", 10, connections, Math.min(pages, 1000), hosts, server.getPort());
+
+    run("threads", threads, connections, pages, hosts, server.getPort());
+    run("nio", 10, connections, pages, hosts, server.getPort());
+    server.shutdown();
+  }
+}
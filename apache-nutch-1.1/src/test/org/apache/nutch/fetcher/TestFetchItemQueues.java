@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.fetcher.Fetcher.FetchItem;
+import org.apache.nutch.fetcher.Fetcher.FetchItemQueues;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Takes, finishes and adds fetch items from many threads at once, and
+ * checks the per host limit, that every item is handed out once, and that
+ * no item is lost to a queue retired while it is added.
+ */
+public class TestFetchItemQueues extends TestCase {
+
+  private Configuration conf;
+
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setFloat("fetcher.server.delay", 0);
+    conf.setFloat("fetcher.server.min.delay", 0);
+  }
+
+  private static FetchItem item(int host, int i) {
+    return FetchItem.create(new Text("http://h" + host + ".example.com/" + i),
+        new CrawlDatum(), null);
+  }
+
+  /** Takes items until all are taken, checking the threads per host. */
+  private static class Consumer extends Thread {
+    private final FetchItemQueues queues;
+    private final int items;
+    private final int maxPerHost;
+    private final AtomicInteger taken;
+    private final ConcurrentMap<String, AtomicInteger> inProgress;
+    private final ConcurrentMap<String, Boolean> seen;
+    private final AtomicReference<String> failure;
+
+    Consumer(FetchItemQueues queues, int items, int maxPerHost,
+        AtomicInteger taken, ConcurrentMap<String, AtomicInteger> inProgress,
+        ConcurrentMap<String, Boolean> seen, AtomicReference<String> failure) {
+      this.queues = queues;
+      this.items = items;
+      this.maxPerHost = maxPerHost;
+      this.taken = taken;
+      this.inProgress = inProgress;
+      this.seen = seen;
+      this.failure = failure;
+    }
+
+    public void run() {
+      long deadline = System.currentTimeMillis() + 60000;
+      while (taken.get() < items && System.currentTimeMillis() < deadline) {
+        FetchItem it = queues.getFetchItem();
+        if (it == null) {
+          Thread.yield();
+          continue;
+        }
+        taken.incrementAndGet();
+        if (seen.put(it.url.toString(), Boolean.TRUE) != null) {
+          failure.compareAndSet(null, "handed out twice: " + it.url);
+        }
+        AtomicInteger count = inProgress.get(it.queueID);
+        if (count == null) {
+          inProgress.putIfAbsent(it.queueID, new AtomicInteger());
+          count = inProgress.get(it.queueID);
+        }
+        if (count.incrementAndGet() > maxPerHost) {
+          failure.compareAndSet(null, "over " + maxPerHost + " threads on " + it.queueID);
+        }
+        Thread.yield();
+        count.decrementAndGet();
+        queues.finishFetchItem(it);
+      }
+    }
+  }
+
+  private void run(int hosts, int items, int threads, int maxPerHost)
+      throws Exception {
+    conf.setInt("fetcher.threads.per.host", maxPerHost);
+    final FetchItemQueues queues = new FetchItemQueues(conf);
+    AtomicInteger taken = new AtomicInteger();
+    ConcurrentMap<String, AtomicInteger> inProgress =
+      new ConcurrentHashMap<String, AtomicInteger>();
+    ConcurrentMap<String, Boolean> seen = new ConcurrentHashMap<String, Boolean>();
+    AtomicReference<String> failure = new AtomicReference<String>();
+
+    Consumer[] consumers = new Consumer[threads];
+    for (int i = 0; i < threads; i++) {
+      consumers[i] = new Consumer(queues, items, maxPerHost, taken, inProgress,
+          seen, failure);
+      consumers[i].start();
+    }
+    // added while the consumers drain and retire the queues
+    for (int i = 0; i < items; i++) {
+      queues.addFetchItem(item(i % hosts, i));
+    }
+    for (int i = 0; i < threads; i++) {
+      consumers[i].join();
+    }
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(items, taken.get());
+    assertEquals(items, seen.size());
+    assertEquals(0, queues.getTotalSize());
+    assertEquals(0, queues.getQueueCount());
+  }
+
+  public void testOneThreadPerHost() throws Exception {
+    run(20, 20000, 8, 1);
+  }
+
+  public void testThreadsPerHost() throws Exception {
+    run(5, 20000, 12, 3);
+  }
+
+  public void testRetireWhileAdding() throws Exception {
+    // a single host whose queue is emptied and retired all the time
+    run(1, 20000, 4, 1);
+  }
+
+  public void testInProgressLimit() {
+    conf.setInt("fetcher.threads.per.host", 2);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    for (int i = 0; i < 5; i++) {
+      queues.addFetchItem(item(0, i));
+    }
+    FetchItem first = queues.getFetchItem();
+    assertNotNull(first);
+    assertNotNull(queues.getFetchItem());
+    // both slots of the host are taken
+    assertNull(queues.getFetchItem());
+    queues.finishFetchItem(first);
+    assertNotNull(queues.getFetchItem());
+    assertNull(queues.getFetchItem());
+    assertEquals(2, queues.getTotalSize());
+  }
+}
@@ -26,6 +26,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Generator;
 import org.apache.nutch.crawl.Injector;
 import org.apache.nutch.metadata.Metadata;
@@ -55,6 +56,7 @@ public class TestFetcher extends TestCase {
   Path segmentsPath;
   Path urlPath;
   Server server;
+  Path segment;
 
   protected void setUp() throws Exception{
     conf=CrawlDBTestUtil.createConfiguration();
@@ -73,6 +75,29 @@ public class TestFetcher extends TestCase {
   }
   
   public void testFetch() throws IOException {
+    checkFetch(true);
+  }
+
+  public void testFetchNio() throws IOException {
+    conf.set("fetcher.engine", "nio");
+    ArrayList<String> urls = checkFetch(false);
+
+    //verify that every url came back with a fetch status
+    Path fetch = new Path(new Path(segment, CrawlDatum.FETCH_DIR_NAME), "part-00000/data");
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, fetch, conf);
+    ArrayList<String> fetched = new ArrayList<String>();
+    Text key = new Text();
+    CrawlDatum value = new CrawlDatum();
+    while (reader.next(key, value)) {
+      assertTrue(key + ": " + value, CrawlDatum.hasFetchStatus(value));
+      fetched.add(key.toString());
+    }
+    reader.close();
+    Collections.sort(fetched);
+    assertEquals(urls, fetched);
+  }
+
+  private ArrayList<String> checkFetch(boolean checkPoliteness) throws IOException {
     
     //generate seedlist
     ArrayList<String> urls=new ArrayList<String>();
@@ -102,9 +127,13 @@ public class TestFetcher extends TestCase {
 
     time=System.currentTimeMillis()-time;
     
-    //verify politeness, time taken should be more than (num_of_pages +1)*delay
-    int minimumTime=(int) ((urls.size()+1)*1000*conf.getFloat("fetcher.server.delay",5));
-    assertTrue(time > minimumTime);
+    segment = generatedSegment[0];
+
+    if (checkPoliteness) {
+      //verify politeness, time taken should be more than (num_of_pages +1)*delay
+      int minimumTime=(int) ((urls.size()+1)*1000*conf.getFloat("fetcher.server.delay",5));
+      assertTrue(time > minimumTime);
+    }
     
     //verify content
     Path content=new Path(new Path(generatedSegment[0], Content.DIR_NAME),"part-00000/data");
@@ -161,6 +190,7 @@ public class TestFetcher extends TestCase {
 
     assertTrue(handledurls.containsAll(urls));
     assertTrue(urls.containsAll(handledurls));
+    return urls;
   }
 
   private void addUrl(ArrayList<String> urls, String page) {
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.fetcher.Fetcher.FetchItem;
+import org.apache.nutch.fetcher.Fetcher.FetchItemQueue;
+import org.apache.nutch.fetcher.Fetcher.FetchItemQueues;
+import org.apache.nutch.protocol.ProtocolStatus;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/** Tests how the adaptive politeness moves the delays and threads of queues. */
+public class TestPolitenessController extends TestCase {
+
+  private static final ProtocolStatus ERROR =
+    new ProtocolStatus(ProtocolStatus.EXCEPTION, "Http code=503");
+
+  private Configuration conf;
+
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("fetcher.adaptive.delay", true);
+    conf.setFloat("fetcher.server.delay", 1.0f);
+    conf.setFloat("fetcher.adaptive.delay.min", 0.1f);
+    conf.setFloat("fetcher.adaptive.delay.max", 10.0f);
+    conf.setInt("fetcher.adaptive.threads.max", 3);
+  }
+
+  /** The queue of a host, kept from being retired by an item. */
+  private static FetchItemQueue queue(FetchItemQueues queues, String host) {
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://" + host);
+    fiq.addFetchItem(FetchItem.create(new Text("http://" + host + "/queued"),
+        new CrawlDatum(), null));
+    return fiq;
+  }
+
+  /** Fetches n items from a host, each taking the given time. */
+  private static void fetch(FetchItemQueues queues, String host, int n,
+      long elapsed, ProtocolStatus status) {
+    for (int i = 0; i < n; i++) {
+      FetchItem it = FetchItem.create(new Text("http://" + host + "/" + i),
+          new CrawlDatum(), null);
+      queues.addInProgressFetchItem(it);
+      it.started = System.currentTimeMillis() - elapsed;
+      queues.finishFetchItem(it, status);
+    }
+  }
+
+  public void testFastHost() {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItemQueue fiq = queue(queues, "fast");
+    assertEquals(1000, fiq.crawlDelay);
+    assertEquals(1, fiq.maxThreads);
+    fetch(queues, "fast", 20, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(100, fiq.crawlDelay);
+    assertEquals(2, fiq.maxThreads);
+    fetch(queues, "fast", 100, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(3, fiq.maxThreads);
+  }
+
+  public void testSlowHost() {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItemQueue fiq = queue(queues, "slow");
+    fetch(queues, "slow", 20, 5000, ProtocolStatus.STATUS_SUCCESS);
+    assertTrue("delay " + fiq.crawlDelay, fiq.crawlDelay > 4000);
+    fetch(queues, "slow", 20, 60000, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(10000, fiq.crawlDelay);
+  }
+
+  public void testBackOff() {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItemQueue fiq = queue(queues, "failing");
+    fetch(queues, "failing", 100, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(3, fiq.maxThreads);
+    // a single error is not enough
+    fetch(queues, "failing", 1, 20, ERROR);
+    assertEquals(3, fiq.maxThreads);
+    assertEquals(100, fiq.crawlDelay);
+    fetch(queues, "failing", 1, 20, ERROR);
+    assertEquals(1, fiq.maxThreads);
+    assertEquals(1000, fiq.crawlDelay);
+    // a fetch that threw is an error too
+    fetch(queues, "failing", 5, 20, ProtocolStatus.STATUS_FAILED);
+    assertEquals(10000, fiq.crawlDelay);
+    // successes while the error rate is high hold the delay
+    fetch(queues, "failing", 3, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(10000, fiq.crawlDelay);
+    assertEquals(1, fiq.maxThreads);
+    // and recovers
+    fetch(queues, "failing", 50, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(100, fiq.crawlDelay);
+  }
+
+  public void testRobotsCrawlDelay() {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItemQueue fiq = queue(queues, "robots");
+    fetch(queues, "robots", 100, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(3, fiq.maxThreads);
+    fiq.setRobotsCrawlDelay(2000);
+    assertEquals(1, fiq.maxThreads);
+    fetch(queues, "robots", 100, 20, ProtocolStatus.STATUS_SUCCESS);
+    assertEquals(2000, fiq.crawlDelay);
+    assertEquals(1, fiq.maxThreads);
+  }
+
+  public void testDisabled() {
+    conf.setBoolean("fetcher.adaptive.delay", false);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItemQueue fiq = queue(queues, "host");
+    fetch(queues, "host", 20, 20, ProtocolStatus.STATUS_SUCCESS);
+    fetch(queues, "host", 20, 20, ERROR);
+    assertEquals(1000, fiq.crawlDelay);
+    assertEquals(1, fiq.maxThreads);
+    fiq.setRobotsCrawlDelay(2000);
+    assertEquals(2000, fiq.crawlDelay);
+  }
+}
@@ -195,6 +195,59 @@ public class TestDeleteDuplicates extends TestCase {
     reader.close();
   }
   
+  private Path createProductIndex(String name) throws Exception {
+    Path idx = new Path(root, name);
+    Path sub = new Path(idx, "part-0000");
+    Directory dir = FSDirectory.open(new File(sub.toString()));
+    IndexWriter writer = new IndexWriter(dir, new NutchDocumentAnalyzer(conf), true, 
+      MaxFieldLength.UNLIMITED);
+    String[] urls = {
+        "http://www.jcrew.com/mens_category/PRDOVR~100/100.jsp",
+        "http://www.jcrew.com/mens_sale/PRDOVR~100/100.jsp",
+        "http://www.jcrew.com/ENE~1+2/PRDOVR~100/100.jsp",
+        "http://www.jcrew.com/mens_category/PRDOVR~101/101.jsp",
+        "http://www.jcrew.com/index.jsp" };
+    String[] items = { "100", "100", "100", "101", null };
+    float[] boosts = { 1.0f, 3.0f, 2.0f, 1.0f, 1.0f };
+    for (int i = 0; i < urls.length; i++) {
+      Document doc = makeDoc(name, MD5Hash.digest(urls[i]).toString(), urls[i],
+          boosts[i], 10L + i);
+      if (items[i] != null) {
+        doc.add(new Field("brand", "jcrew", Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field("itemNumber", items[i], Field.Store.YES,
+            Field.Index.NOT_ANALYZED));
+      }
+      writer.addDocument(doc);
+    }
+    writer.close();
+    return idx;
+  }
+
+  public void testProductDuplicates() throws Exception {
+    Path index = createProductIndex("index6");
+    DeleteDuplicates dedup = new DeleteDuplicates(conf);
+    dedup.dedup(new Path[]{index});
+    FsDirectory dir = new FsDirectory(fs, new Path(index, "part-0000"), false, conf);
+    IndexReader reader = IndexReader.open(dir);
+    assertEquals("one doc per product", 3, reader.numDocs());
+    assertTrue(reader.isDeleted(0));
+    assertFalse("highest score kept", reader.isDeleted(1));
+    assertTrue(reader.isDeleted(2));
+    assertFalse(reader.isDeleted(3));
+    assertFalse("not a product", reader.isDeleted(4));
+    reader.close();
+
+    // off
+    index = createProductIndex("index7");
+    conf.setBoolean("dedup.product", false);
+    dedup = new DeleteDuplicates(conf);
+    dedup.dedup(new Path[]{index});
+    dir = new FsDirectory(fs, new Path(index, "part-0000"), false, conf);
+    reader = IndexReader.open(dir);
+    assertEquals(5, reader.numDocs());
+    reader.close();
+  }
+  
   public void testRededuplicate() throws Exception {
     DeleteDuplicates dedup = new DeleteDuplicates(conf);
     dedup.dedup(new Path[]{index4, index5});
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import junit.framework.TestCase;
+
+/** Tests the global and per host caps of BandwidthThrottle. */
+public class TestBandwidthThrottle extends TestCase {
+
+  /** Reads bytes in 4k blocks, returns the milliseconds it took. */
+  private static long read(BandwidthThrottle throttle, String host, int bytes) {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < bytes; i += 4096) {
+      throttle.throttle(host, 4096);
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  public void testUnlimited() {
+    BandwidthThrottle throttle = new BandwidthThrottle(0, 0);
+    assertFalse(throttle.isLimited());
+    assertTrue(read(throttle, "a", 10 * 1024 * 1024) < 500);
+    assertEquals(10 * 1024 * 1024, throttle.getBytesRead());
+    assertEquals(0, throttle.getThrottledMillis());
+    assertEquals(0, throttle.getHostCount());
+  }
+
+  public void testGlobalCap() {
+    BandwidthThrottle throttle = new BandwidthThrottle(200 * 1024, 0);
+    // a second of burst, then 200k more at 200k/s
+    long millis = read(throttle, "a", 400 * 1024);
+    assertTrue("took " + millis + " ms", millis >= 900 && millis < 3000);
+    assertTrue(throttle.getThrottledMillis() >= 900);
+  }
+
+  public void testGlobalCapAcrossThreads() throws Exception {
+    final BandwidthThrottle throttle = new BandwidthThrottle(200 * 1024, 0);
+    Thread[] threads = new Thread[4];
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < threads.length; i++) {
+      final String host = "host" + i;
+      threads[i] = new Thread() {
+        public void run() {
+          read(throttle, host, 100 * 1024);
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+    }
+    long millis = System.currentTimeMillis() - start;
+    assertTrue("took " + millis + " ms", millis >= 900);
+    assertEquals(400 * 1024, throttle.getBytesRead());
+  }
+
+  public void testHostCap() {
+    BandwidthThrottle throttle = new BandwidthThrottle(0, 100 * 1024);
+    assertTrue(throttle.isLimited());
+    long millis = read(throttle, "a", 200 * 1024);
+    assertTrue("took " + millis + " ms", millis >= 900 && millis < 3000);
+    // another host has its own bucket
+    millis = read(throttle, "B", 100 * 1024);
+    assertTrue("took " + millis + " ms", millis < 500);
+    assertEquals(2, throttle.getHostCount());
+    throttle.throttle("b", 1);
+    assertEquals(2, throttle.getHostCount());
+  }
+}
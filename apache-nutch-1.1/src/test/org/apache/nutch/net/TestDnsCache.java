@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/** Tests the TTLs, the size bound and the prefetching of DnsCache. */
+public class TestDnsCache extends TestCase {
+
+  /** Resolves "*.good" hosts to 10.0.0.1 and counts the lookups. */
+  private static class StubCache extends DnsCache {
+    final AtomicInteger lookups = new AtomicInteger();
+    volatile CountDownLatch gate;
+    // only the hosts with this prefix wait for the gate
+    volatile String gated = "";
+
+    StubCache(long ttl, long negativeTtl, int size) {
+      super(ttl, negativeTtl, size, 2);
+    }
+
+    protected InetAddress getByName(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      if (gate != null && host.startsWith(gated)) {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new UnknownHostException(host);
+        }
+      }
+      if (!host.endsWith(".good")) {
+        throw new UnknownHostException(host);
+      }
+      return InetAddress.getByAddress(host, new byte[] { 10, 0, 0, 1 });
+    }
+  }
+
+  public void testResolve() throws Exception {
+    StubCache cache = new StubCache(60000, 60000, 10);
+    assertEquals("10.0.0.1", cache.resolve("a.good").getHostAddress());
+    assertEquals("10.0.0.1", cache.resolve("A.Good").getHostAddress());
+    assertEquals(1, cache.lookups.get());
+    assertEquals(1, cache.getHits());
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.resolve("b.bad");
+        fail();
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    // the failure is cached too
+    assertEquals(2, cache.lookups.get());
+  }
+
+  public void testExpiry() throws Exception {
+    StubCache cache = new StubCache(0, 0, 10);
+    cache.resolve("a.good");
+    Thread.sleep(5);
+    cache.resolve("a.good");
+    assertEquals(2, cache.lookups.get());
+  }
+
+  public void testLeastRecentlyUsed() throws Exception {
+    StubCache cache = new StubCache(60000, 60000, 2);
+    cache.resolve("a.good");
+    cache.resolve("b.good");
+    cache.resolve("a.good");
+    cache.resolve("c.good");
+    assertEquals(2, cache.size());
+    cache.resolve("a.good");
+    assertEquals(3, cache.lookups.get());
+    cache.resolve("b.good");
+    assertEquals(4, cache.lookups.get());
+  }
+
+  public void testPrefetch() throws Exception {
+    StubCache cache = new StubCache(60000, 60000, 10);
+    cache.gate = new CountDownLatch(1);
+    cache.prefetch("a.good");
+    cache.prefetch("a.good");
+    // waits for the prefetch instead of resolving again
+    cache.gate.countDown();
+    assertEquals("10.0.0.1", cache.resolve("a.good").getHostAddress());
+    assertEquals(1, cache.lookups.get());
+    assertEquals(1, cache.getPrefetches());
+  }
+
+  public void testQueuedPrefetch() throws Exception {
+    StubCache cache = new StubCache(60000, 60000, 10);
+    cache.gate = new CountDownLatch(1);
+    cache.gated = "slow";
+    // both prefetch threads are busy
+    cache.prefetch("slow1.good");
+    cache.prefetch("slow2.good");
+    cache.prefetch("a.good");
+    long start = System.currentTimeMillis();
+    assertEquals("10.0.0.1", cache.resolve("a.good").getHostAddress());
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    cache.gate.countDown();
+    assertEquals("10.0.0.1", cache.resolve("slow1.good").getHostAddress());
+    assertEquals(3, cache.lookups.get());
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.w3c.dom.DocumentFragment;
+
+import junit.framework.TestCase;
+
+/** Checks that filters declaring hosts only run on the pages of their hosts. */
+public class TestHtmlParseFilters extends TestCase {
+
+  private Configuration conf = NutchConfiguration.create();
+
+  private List<String> ran = new ArrayList<String>();
+
+  /** Records that it ran. */
+  private class Recorder implements HtmlParseFilter {
+    private String name;
+
+    Recorder(String name) { this.name = name; }
+
+    public ParseResult filter(Content content, ParseResult parseResult,
+                              HTMLMetaTags metaTags, DocumentFragment doc) {
+      ran.add(name);
+      return parseResult;
+    }
+
+    public void setConf(Configuration conf) {}
+
+    public Configuration getConf() { return conf; }
+  }
+
+  /** Records that it ran, on the hosts it was given. */
+  private class RoutedRecorder extends Recorder implements RoutedHtmlParseFilter {
+    private String[] hosts;
+
+    RoutedRecorder(String name, String[] hosts) {
+      super(name);
+      this.hosts = hosts;
+    }
+
+    public String[] getHosts() { return hosts; }
+  }
+
+  private List<String> filter(HtmlParseFilters filters, String url) {
+    ran.clear();
+    Content content = new Content(url, url, new byte[0], "text/html",
+        new Metadata(), conf);
+    ParseData data = new ParseData(ParseStatus.STATUS_SUCCESS, "",
+        new Outlink[0], new Metadata());
+    filters.filter(content,
+        ParseResult.createParseResult(url, new ParseImpl("", data)),
+        new HTMLMetaTags(), null);
+    return new ArrayList<String>(ran);
+  }
+
+  public void testHosts() {
+    HtmlParseFilters filters = new HtmlParseFilters(
+        new HtmlParseFilter[] { new Recorder("all"), new Recorder("jcrew"),
+            new Recorder("burberry"), new Recorder("store") },
+        new String[] { null, "www.jcrew.com", "us.burberry.com",
+            "jcrew.com us.burberry.com/store/" });
+
+    assertEquals("[all]", filter(filters, "http://www.example.com/").toString());
+    assertEquals("[all, jcrew]",
+        filter(filters, "http://www.jcrew.com/PRDOVR~1/1.jsp").toString());
+    // only the most specific prefix counts
+    assertEquals("[all, burberry]",
+        filter(filters, "http://us.burberry.com/about/").toString());
+    assertEquals("[all, store]",
+        filter(filters, "http://us.burberry.com/store/sku-1/").toString());
+    assertEquals("[all, store]",
+        filter(filters, "http://shop.jcrew.com/").toString());
+  }
+
+  public void testNoHosts() {
+    HtmlParseFilters filters = new HtmlParseFilters(
+        new HtmlParseFilter[] { new Recorder("a"), new Recorder("b") },
+        new String[] { null, " " });
+    assertEquals("[a, b]", filter(filters, "http://www.example.com/").toString());
+  }
+
+  public void testRoutedFilters() {
+    // the hosts of a routed filter replace the declared ones
+    HtmlParseFilters filters = new HtmlParseFilters(
+        new HtmlParseFilter[] {
+            new RoutedRecorder("jcrew", new String[] { "www.jcrew.com" }),
+            new RoutedRecorder("all", null) },
+        new String[] { "us.burberry.com", "us.burberry.com" });
+    assertEquals("[jcrew, all]",
+        filter(filters, "http://www.jcrew.com/PRDOVR~1/1.jsp").toString());
+    assertEquals("[all]", filter(filters, "http://us.burberry.com/").toString());
+  }
+}
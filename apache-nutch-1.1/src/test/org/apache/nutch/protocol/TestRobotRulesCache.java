@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Tests the expiry, eviction, loading and persistence of RobotRulesCache. */
+public class TestRobotRulesCache extends TestCase {
+
+  /** Rules that allow everything but a crawl delay. */
+  public static class Rules implements RobotRules, Writable {
+    long expireTime;
+    long crawlDelay;
+
+    public Rules() {
+    }
+
+    Rules(long expireTime, long crawlDelay) {
+      this.expireTime = expireTime;
+      this.crawlDelay = crawlDelay;
+    }
+
+    public long getExpireTime() {
+      return expireTime;
+    }
+
+    public long getCrawlDelay() {
+      return crawlDelay;
+    }
+
+    public boolean isAllowed(URL url) {
+      return true;
+    }
+
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(expireTime);
+      out.writeLong(crawlDelay);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      expireTime = in.readLong();
+      crawlDelay = in.readLong();
+    }
+  }
+
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+  }
+
+  private static long later() {
+    return System.currentTimeMillis() + 60000;
+  }
+
+  public void testExpiry() {
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    cache.put("a", new Rules(later(), 1));
+    cache.put("b", new Rules(System.currentTimeMillis() - 1, 1));
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals(1, cache.size());
+  }
+
+  public void testSizeBound() {
+    conf.setInt("robots.cache.size", 2);
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    cache.put("a", new Rules(later(), 1));
+    cache.put("b", new Rules(later(), 1));
+    cache.put("c", new Rules(later(), 1));
+    assertEquals(2, cache.size());
+    assertNull(cache.get("a"));
+    assertNotNull(cache.get("c"));
+  }
+
+  public void testEvictAfterExpiry() {
+    conf.setInt("robots.cache.size", 2);
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    cache.put("a", new Rules(System.currentTimeMillis() - 1, 1));
+    cache.put("b", new Rules(later(), 1));
+    assertNull(cache.get("a"));
+    // cached again after b, so b is the oldest
+    cache.put("a", new Rules(later(), 1));
+    cache.put("c", new Rules(later(), 1));
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("a"));
+    assertNotNull(cache.get("c"));
+  }
+
+  public void testSingleLoad() throws Exception {
+    final RobotRulesCache cache = new RobotRulesCache(conf);
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RobotRulesCache.Loader loader = new RobotRulesCache.Loader() {
+      public RobotRules load(String host) {
+        loads.incrementAndGet();
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+        }
+        Rules r = new Rules(later(), 5);
+        cache.put(host, r);
+        return r;
+      }
+    };
+    Thread[] threads = new Thread[4];
+    final RobotRules[] results = new RobotRules[threads.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        public void run() {
+          results[n] = cache.get("a", loader);
+        }
+      };
+      threads[i].start();
+      if (i == 0) {
+        started.await();
+      }
+    }
+    // let the other threads reach the cache
+    Thread.sleep(100);
+    release.countDown();
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+      assertEquals(5, results[i].getCrawlDelay());
+    }
+    assertEquals(1, loads.get());
+  }
+
+  public void testSaveAndLoad() throws Exception {
+    FileSystem fs = FileSystem.get(conf);
+    Path test = new Path("build/test/robots-" + new Random().nextInt(Integer.MAX_VALUE));
+    Path db = new Path(test, "db");
+    Path saved = new Path(test, "segment/" + RobotRulesCache.DIR_NAME);
+    conf.set("robots.cache.db", db.toString());
+    try {
+      RobotRulesCache cache = new RobotRulesCache(conf);
+      cache.setRulesClass(Rules.class);
+      cache.put("b.com", new Rules(later(), 2));
+      cache.put("a.com", new Rules(later(), 1));
+      cache.put("old.com", new Rules(System.currentTimeMillis() - 1, 3));
+      cache.save(new Path(saved, "part-00000"));
+      // nothing fetched since
+      cache.save(new Path(saved, "part-00001"));
+      assertFalse(fs.exists(new Path(saved, "part-00001")));
+      RobotRulesCache.commit(conf, saved);
+      assertFalse(fs.exists(saved));
+
+      RobotRulesCache next = new RobotRulesCache(conf);
+      next.setRulesClass(Rules.class);
+      assertEquals(2, next.size());
+      assertEquals(1, next.get("a.com").getCrawlDelay());
+      assertEquals(2, next.get("b.com").getCrawlDelay());
+      assertNull(next.get("old.com"));
+
+      // the next cycle saves only the host it fetched
+      next.put("c.com", new Rules(later(), 4));
+      next.save(new Path(saved, "part-00000"));
+      MapFile.Reader reader = new MapFile.Reader(fs,
+          new Path(saved, "part-00000").toString(), conf);
+      Text host = new Text();
+      Rules r = new Rules();
+      assertTrue(reader.next(host, r));
+      assertEquals("c.com", host.toString());
+      assertFalse(reader.next(host, r));
+      reader.close();
+      RobotRulesCache.commit(conf, saved);
+      assertEquals(2, fs.listStatus(db).length);
+      RobotRulesCache last = new RobotRulesCache(conf);
+      last.setRulesClass(Rules.class);
+      assertEquals(3, last.size());
+
+      // the cycles older than the ttl are dropped
+      conf.setLong("robots.cache.ttl", 0);
+      RobotRulesCache.commit(conf, saved);
+      assertEquals(0, fs.listStatus(db).length);
+    } finally {
+      fs.delete(test, true);
+    }
+  }
+}
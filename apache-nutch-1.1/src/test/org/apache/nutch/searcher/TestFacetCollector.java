@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Counts brand and price facets of searches over an index of products. */
+public class TestFacetCollector extends TestCase {
+
+  private static final String[] BRANDS =
+    { "jcrew", "burberry", "jcrew", "jcrew", "burberry", null, "anntaylor" };
+  private static final float[] PRICES =
+    { 5.5f, 1095f, 49.99f, 50f, 250f, -1f, 75f };
+
+  private Configuration conf;
+  private org.apache.lucene.search.IndexSearcher searcher;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set("searcher.facet.fields", "brand");
+    conf.set("searcher.facet.range.fields", "price");
+    conf.set("searcher.facet.range.price", "50,100,500");
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+        IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.setMaxBufferedDocs(3);                 // several segments
+    for (int i = 0; i < BRANDS.length; i++) {
+      Document doc = new Document();
+      doc.add(new Field("type", "product", Field.Store.NO,
+          Field.Index.NOT_ANALYZED));
+      if (BRANDS[i] != null) {
+        doc.add(new Field("brand", BRANDS[i], Field.Store.YES,
+            Field.Index.NOT_ANALYZED));
+      }
+      if (PRICES[i] >= 0) {
+        doc.add(new NumericField("price", Field.Store.YES, true)
+            .setFloatValue(PRICES[i]));
+      }
+      writer.addDocument(doc);
+    }
+    writer.close();
+    searcher = new org.apache.lucene.search.IndexSearcher(dir, true);
+    assertTrue(searcher.getIndexReader().getSequentialSubReaders().length > 1);
+  }
+
+  protected void tearDown() throws Exception {
+    searcher.close();
+  }
+
+  private FacetCounts search(BooleanQuery query, String sortField)
+    throws Exception {
+    FacetCounts facets = new FacetCounts();
+    TopDocs docs = new LuceneQueryOptimizer(conf).optimize(query, searcher, 2,
+        sortField, false, facets);
+    assertEquals(2, docs.scoreDocs.length);
+    return facets;
+  }
+
+  private static BooleanQuery all() {
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("type", "product")),
+        BooleanClause.Occur.MUST);
+    return query;
+  }
+
+  public void testCounts() throws Exception {
+    FacetCounts facets = search(all(), null);
+    assertEquals(3, facets.getCount("brand", "jcrew"));
+    assertEquals(2, facets.getCount("brand", "burberry"));
+    assertEquals(1, facets.getCount("brand", "anntaylor"));
+    // most frequent first
+    assertEquals("jcrew", facets.getValues("brand")[0]);
+
+    String[] buckets = facets.getValues("price");
+    assertEquals(4, buckets.length);
+    assertEquals("[* TO 50}", buckets[0]);
+    assertEquals("[500 TO *]", buckets[3]);
+    assertEquals(2, facets.getCount("price", "[* TO 50}"));
+    assertEquals(2, facets.getCount("price", "[50 TO 100}"));
+    assertEquals(1, facets.getCount("price", "[100 TO 500}"));
+    assertEquals(1, facets.getCount("price", "[500 TO *]"));
+
+    // the same counts while sorting
+    assertEquals(facets.toString(), search(all(), "price").toString());
+  }
+
+  public void testFiltered() throws Exception {
+    BooleanQuery query = all();
+    NumericRangeQuery<Float> range =
+      NumericRangeQuery.newFloatRange("price", 50f, 500f, true, false);
+    range.setBoost(0.0f);
+    query.add(range, BooleanClause.Occur.MUST);
+    FacetCounts facets = search(query, null);
+    assertEquals(1, facets.getCount("brand", "jcrew"));
+    assertEquals(1, facets.getCount("brand", "burberry"));
+    assertEquals(0, facets.getCount("price", "[* TO 50}"));
+    assertEquals(2, facets.getCount("price", "[50 TO 100}"));
+  }
+
+  public void testWritable() throws Exception {
+    FacetCounts facets = search(all(), null);
+    DataOutputBuffer out = new DataOutputBuffer();
+    facets.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    FacetCounts read = new FacetCounts();
+    read.readFields(in);
+    assertEquals(facets.toString(), read.toString());
+
+    read.merge(facets);
+    assertEquals(6, read.getCount("brand", "jcrew"));
+    assertEquals(2, read.getCount("price", "[500 TO *]"));
+  }
+
+  public void testEstimatedCounts() throws Exception {
+    // gives up after the first segment: 3 of 7 docs, scaled by 7/3
+    conf.setInt("searcher.max.hits", 3);
+    FacetCounts facets = new FacetCounts();
+    TopDocs docs = new LuceneQueryOptimizer(conf).optimize(all(), searcher, 2,
+        null, false, facets);
+    assertEquals(7, docs.totalHits);
+    assertEquals(4, facets.getCount("brand", "jcrew"));
+    assertEquals(2, facets.getCount("brand", "burberry"));
+    assertEquals(0, facets.getCount("brand", "anntaylor"));
+    assertEquals(4, facets.getCount("price", "[* TO 50}"));
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Filters and sorts an index of prices with a NumericRangeQueryFilter and
+ * the LuceneQueryOptimizer. */
+public class TestNumericRangeQueryFilter extends TestCase {
+
+  private static final float[] PRICES = { 5.5f, 49.99f, 100f, 1095f, 250f, 75f };
+
+  private static class PriceFilter extends NumericRangeQueryFilter {
+    PriceFilter() { super("price"); }
+  }
+
+  private Configuration conf;
+  private org.apache.lucene.search.IndexSearcher searcher;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+        IndexWriter.MaxFieldLength.UNLIMITED);
+    for (int i = 0; i < PRICES.length; i++) {
+      Document doc = new Document();
+      doc.add(new Field("brand", "jcrew", Field.Store.YES,
+          Field.Index.NOT_ANALYZED));
+      doc.add(new NumericField("price", Field.Store.YES, true)
+          .setFloatValue(PRICES[i]));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    searcher = new org.apache.lucene.search.IndexSearcher(dir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    searcher.close();
+  }
+
+  private TopDocs search(String range, String sortField, boolean reverse)
+    throws Exception {
+    Query query = new Query(conf);
+    query.addRequiredTerm(range, "price");
+    BooleanQuery output = new BooleanQuery();
+    output.add(new TermQuery(new org.apache.lucene.index.Term("brand", "jcrew")),
+        org.apache.lucene.search.BooleanClause.Occur.MUST);
+    new PriceFilter().filter(query, output);
+    return new LuceneQueryOptimizer(conf).optimize(output, searcher, 10,
+        sortField, reverse);
+  }
+
+  private float[] prices(TopDocs docs) {
+    float[] result = new float[docs.scoreDocs.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ((Float)((FieldDoc)docs.scoreDocs[i]).fields[0]).floatValue();
+    }
+    return result;
+  }
+
+  public void testRange() throws Exception {
+    assertEquals(2, search("[50 TO 100]", null, false).totalHits);
+    assertEquals(0, search("{75 TO 100}", null, false).totalHits);
+    assertEquals(3, search("[* TO 75]", null, false).totalHits);
+    assertEquals(2, search("[250 TO *]", null, false).totalHits);
+    assertEquals(1, search("1,095", null, false).totalHits);
+    try {
+      search("[cheap TO 10]", null, false);
+      fail();
+    } catch (QueryException e) {
+      // expected
+    }
+  }
+
+  public void testSort() throws Exception {
+    float[] prices = prices(search("[* TO 300]", "price", false));
+    assertEquals(5, prices.length);
+    // numeric, not string order
+    assertEquals(5.5f, prices[0]);
+    assertEquals(49.99f, prices[1]);
+    assertEquals(75f, prices[2]);
+    assertEquals(100f, prices[3]);
+    assertEquals(250f, prices[4]);
+
+    prices = prices(search("[50 TO *]", "price", true));
+    assertEquals(1095f, prices[0]);
+    assertEquals(75f, prices[prices.length - 1]);
+  }
+
+  public void testParse() throws Exception {
+    Query query = Query.parse("shoes +price:[10 TO 100] -price:{* TO 5}", conf);
+    Query.Clause[] clauses = query.getClauses();
+    assertEquals(3, clauses.length);
+    assertEquals("price", clauses[1].getField());
+    assertEquals("[10 TO 100]", clauses[1].getTerm().toString());
+    assertTrue(clauses[2].isProhibited());
+    assertEquals("{* TO 5}", clauses[2].getTerm().toString());
+    assertEquals("shoes price:\"[10 TO 100]\" -price:\"{* TO 5}\"",
+        query.toString());
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import junit.framework.TestCase;
+
+/** Unit tests for HostTrie. */
+public class TestHostTrie extends TestCase {
+  public TestHostTrie(String name) {
+    super(name);
+  }
+
+  public void testHosts() {
+    HostTrie<String> trie = new HostTrie<String>();
+    trie.put("jcrew.com", "jcrew");
+    trie.put("factory.jcrew.com", "factory");
+    trie.put("us.burberry.com/store/", "burberry");
+    trie.put("us.burberry.com/store/beauty/", "beauty");
+    assertEquals(4, trie.size());
+
+    assertEquals("jcrew", trie.get("http://jcrew.com/"));
+    assertEquals("jcrew", trie.get("http://www.JCrew.com/mens/PRDOVR~1/1.jsp"));
+    assertEquals("factory", trie.get("http://factory.jcrew.com/a.jsp"));
+    assertEquals("factory", trie.get("https://user@www.factory.jcrew.com:8080/"));
+    // only whole domain names match
+    assertNull(trie.get("http://notjcrew.com/"));
+    assertNull(trie.get("http://jcrew.com.example.org/"));
+
+    assertEquals("burberry", trie.get("http://us.burberry.com/store/womens/"));
+    assertEquals("beauty", trie.get("http://us.burberry.com/store/beauty/eyes"));
+    assertNull(trie.get("http://us.burberry.com/about"));
+    assertNull(trie.get("http://us.burberry.com"));
+    assertNull(trie.get("http://example.org/us.burberry.com/store/"));
+
+    assertEquals("beauty", trie.get("us.burberry.com", "/store/beauty/"));
+    assertNull(trie.get("burberry.com", "/store/"));
+  }
+
+  public void testReplace() {
+    HostTrie<String> trie = new HostTrie<String>();
+    trie.put("example.org", "a");
+    trie.put("EXAMPLE.org", "b");
+    trie.put("example.org/", "c");
+    assertEquals(2, trie.size());
+    assertEquals("c", trie.get("http://example.org/x"));
+    assertEquals("c", trie.get("http://example.org"));
+    assertEquals("c", trie.get("example.org", null));
+    assertEquals("b", trie.get("www.example.org", ""));
+  }
+}
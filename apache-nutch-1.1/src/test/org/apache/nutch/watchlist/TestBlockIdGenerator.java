@@ -0,0 +1,120 @@
+package org.apache.nutch.watchlist;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BlockIdGenerator against an in-memory HSQLDB database, with several
+ * generators (standing in for parallel map tasks) and several threads each.
+ */
+public class TestBlockIdGenerator extends TestCase {
+    private static final String URL = "jdbc:hsqldb:mem:testidgen";
+    private static final int GENERATORS = 2;
+    private static final int THREADS = 4;
+    private static final int IDS_PER_THREAD = 50000;
+
+    private Configuration conf;
+    private Connection connection;
+
+    protected void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection(URL, "sa", "");
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table object(id BIGINT GENERATED BY DEFAULT AS IDENTITY"
+                + " (START WITH 1) PRIMARY KEY, orig_table VARCHAR(50))");
+        statement.executeUpdate("create table id_sequence(name VARCHAR(50) PRIMARY KEY,"
+                + " next_id BIGINT NOT NULL)");
+        // IDs already handed out by MysqlIdGenerator
+        for (int i = 0; i < 5; i++) {
+            statement.executeUpdate("insert into object(orig_table) values('old')");
+        }
+        statement.close();
+
+        conf = NutchConfiguration.create();
+        conf.set(WatchListConfig.JDBC_DRIVER.getAttributeString(), "org.hsqldb.jdbcDriver");
+        conf.set(WatchListConfig.JDBC_URL.getAttributeString(), URL);
+        conf.set(WatchListConfig.JDBC_USER.getAttributeString(), "sa");
+        conf.set(WatchListConfig.JDBC_PASSWORD.getAttributeString(), "");
+        conf.setLong(WatchListConfig.ID_GEN_BLOCK_SIZE.getAttributeString(), 1000);
+        conf.setLong(WatchListConfig.ID_GEN_PREFETCH_THRESHOLD.getAttributeString(), 100);
+    }
+
+    protected void tearDown() throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        statement.close();
+        connection.close();
+    }
+
+    public void testSequential() {
+        BlockIdGenerator gen = new BlockIdGenerator(conf);
+        try {
+            // The sequence starts after the largest ID of the object table
+            assertEquals(6, gen.generate());
+            assertEquals(7, gen.generate("product"));
+            for (long expected = 8; expected < 3000; expected++) {
+                assertEquals(expected, gen.generate());
+            }
+        } finally {
+            gen.close();
+        }
+    }
+
+    public void testUnreachableDatabase() {
+        conf.set(WatchListConfig.JDBC_URL.getAttributeString(), "jdbc:hsqldb:mem:nosuchtable");
+        BlockIdGenerator gen = new BlockIdGenerator(conf);
+        try {
+            assertEquals(-1, gen.generate());
+        } finally {
+            gen.close();
+        }
+    }
+
+    public void testConcurrentIdsAreUnique() throws Exception {
+        final BlockIdGenerator[] gens = new BlockIdGenerator[GENERATORS];
+        for (int i = 0; i < GENERATORS; i++) {
+            gens[i] = new BlockIdGenerator(conf);
+        }
+        final long[][] ids = new long[GENERATORS * THREADS][IDS_PER_THREAD];
+        Thread[] threads = new Thread[GENERATORS * THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final BlockIdGenerator gen = gens[i % GENERATORS];
+            final long[] out = ids[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < out.length; j++) {
+                        out[j] = gen.generate();
+                    }
+                }
+            };
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        for (int i = 0; i < GENERATORS; i++) {
+            gens[i].close();
+        }
+
+        long[] all = new long[threads.length * IDS_PER_THREAD];
+        for (int i = 0; i < ids.length; i++) {
+            System.arraycopy(ids[i], 0, all, i * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(all);
+        assertTrue(all[0] > 5);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue("Duplicate ID " + all[i], all[i] != all[i - 1]);
+        }
+    }
+}
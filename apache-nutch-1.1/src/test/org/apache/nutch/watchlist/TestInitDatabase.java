@@ -0,0 +1,142 @@
+package org.apache.nutch.watchlist;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Loads seed data in bulk into an in-memory HSQLDB database.
+ */
+public class TestInitDatabase extends TestCase {
+    private Connection connection;
+
+    protected void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:testinitdb", "sa", "");
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table source(id BIGINT PRIMARY KEY, name VARCHAR(45),"
+                + " baseurl VARCHAR(100), description LONGVARCHAR, updatetime TIMESTAMP)");
+        statement.close();
+    }
+
+    protected void tearDown() throws Exception {
+        Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        statement.close();
+        connection.close();
+    }
+
+    private long count(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql);
+        rs.next();
+        long result = rs.getLong(1);
+        rs.close();
+        statement.close();
+        return result;
+    }
+
+    public void testLoadSqlScript() throws Exception {
+        StringBuilder script = new StringBuilder();
+        script.append("-- seed data\n");
+        for (int i = 1; i <= 25; i++) {
+            script.append("INSERT INTO source (id, name)\n  VALUES (" + i + ", 'brand" + i + "');\n");
+        }
+        script.append("update source set baseurl = 'http://www.jcrew.com/' where id = 1;\n");
+        script.append("insert into source (id, name) values (26, 'jcrew');\n");
+        long rows = InitDatabase.loadSqlScript(connection,
+                new StringReader(script.toString()), 10);
+        assertEquals(27, rows);
+        assertEquals(26, count("select count(*) from source"));
+        assertTrue(connection.getAutoCommit());
+
+        // a failure rolls back its batch and keeps what was committed
+        script.setLength(0);
+        for (int i = 100; i < 110; i++) {
+            script.append("insert into source (id, name) values (" + i + ", 'x');\n");
+        }
+        script.append("insert into source (id, name) values (110, 'x');\n");
+        script.append("insert into source (id, name) values (1, 'duplicate');\n");
+        script.append("insert into source (id, name) values (111, 'x');\n");
+        try {
+            InitDatabase.loadSqlScript(connection, new StringReader(script.toString()), 10);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("line 11") > 0);
+        }
+        assertEquals(36, count("select count(*) from source"));
+    }
+
+    public void testLoadCsv() throws Exception {
+        File csv = File.createTempFile("testinitdb", ".csv");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+            out.write("id,name,baseurl,description,updatetime\n");
+            out.write("1,jcrew,http://www.jcrew.com/,\"J.Crew, \"\"men\"\"\",2011-03-01 00:00:00\n");
+            out.write("2,burberry,http://us.burberry.com/,\"two\r\nlines\",NULL\r\n");
+            out.write("\n");
+            for (int i = 3; i <= 100; i++) {
+                out.write(i + ",brand" + i + ",NULL,\"NULL\",NULL\n");
+            }
+            out.close();
+
+            long rows = InitDatabase.loadCsv(connection, "source", csv, 7, true);
+            assertEquals(100, rows);
+            assertEquals(100, count("select count(*) from source"));
+            assertEquals(1, count("select count(*) from source"
+                    + " where description = 'J.Crew, \"men\"'"));
+            assertEquals(1, count("select count(*) from source"
+                    + " where description = 'two\r\nlines' and updatetime is null"));
+            assertEquals(98, count("select count(*) from source"
+                    + " where baseurl is null and description = 'NULL'"));
+        } finally {
+            csv.delete();
+        }
+    }
+
+    public void testCsvReader() throws Exception {
+        InitDatabase.CsvReader in = new InitDatabase.CsvReader(
+                new StringReader("a,b\n\"x\ny\",\n\nNULL,\"\"\n"));
+        assertEquals(2, in.next().size());
+        List<String> fields = in.next();
+        assertEquals("x\ny", fields.get(0));
+        assertEquals("", fields.get(1));
+        assertEquals(2, in.getLine());
+        fields = in.next();
+        assertNull(fields.get(0));
+        assertEquals("", fields.get(1));
+        assertEquals(5, in.getLine());
+        assertNull(in.next());
+    }
+
+    public void testWriteLoadData() throws Exception {
+        // CRLF endings, blank lines and a quoted CRLF, read as CsvReader does
+        InitDatabase.CsvReader in = new InitDatabase.CsvReader(new StringReader(
+                "\r\nid,name\r\n1,\"a \"\"b\"\"\"\r\n\r\n\n2,\"x\r\ny\"\r3,NULL\n4,\"NULL\""));
+        in.next();
+        StringWriter out = new StringWriter();
+        assertEquals(4, InitDatabase.writeLoadData(in, 2, out));
+        assertEquals("\"1\",\"a \"\"b\"\"\"\n\"2\",\"x\r\ny\"\n\"3\",NULL\n\"4\",\"NULL\"\n",
+                out.toString());
+
+        in = new InitDatabase.CsvReader(new StringReader("id,name\r\n1,a\r\n2\r\n"));
+        in.next();
+        try {
+            InitDatabase.writeLoadData(in, 2, new StringWriter());
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3 "));
+        }
+    }
+}
@@ -1,16 +1,83 @@
 package org.apache.nutch.watchlist;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
 
 import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.util.NutchConfiguration;
 
+/**
+ * Borrows connections to an in-memory HSQLDB database through the pool and
+ * checks the borrow statistics.
+ */
 public class TestPoolingDataDriver extends TestCase {
-    private static Configuration conf = NutchConfiguration.create();
-    Connection connection = null;
-    
-    public void testGeneration() {
+    private Configuration conf;
+
+    protected void setUp() {
+        conf = NutchConfiguration.create();
+        conf.set(WatchListConfig.JDBC_DRIVER.getAttributeString(), "org.hsqldb.jdbcDriver");
+        conf.set(WatchListConfig.JDBC_URL.getAttributeString(), "jdbc:hsqldb:mem:testpool");
+        conf.set(WatchListConfig.JDBC_USER.getAttributeString(), "sa");
+        conf.set(WatchListConfig.JDBC_PASSWORD.getAttributeString(), "");
+        conf.setInt(WatchListConfig.JDBC_POOL_MAX_ACTIVE.getAttributeString(), 2);
+        conf.setLong(WatchListConfig.JDBC_POOL_MAX_WAIT.getAttributeString(), 100);
+    }
+
+    protected void tearDown() throws Exception {
+        PoolingDataDriver.shutdownDriver();
+    }
+
+    public void testBorrowStatistics() throws Exception {
+        Connection first = PoolingDataDriver.getConnection(conf);
+        Connection second = PoolingDataDriver.getConnection(conf);
+        InstrumentedObjectPoolMBean stats = PoolingDataDriver.getStats();
+        assertEquals(2, stats.getMaxActive());
+        assertEquals(2, stats.getNumActive());
+        assertEquals(2, stats.getBorrowCount());
+
+        // the pool is exhausted, the third borrow times out after maxWait
+        try {
+            PoolingDataDriver.getConnection(conf);
+            fail("borrowed more than maxActive connections");
+        } catch (SQLException e) {
+            // expected
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(1, stats.getBorrowTimeoutCount());
+        assertEquals(0, stats.getNumWaiting());
+
+        first.close();
+        second.close();
+        assertEquals(0, stats.getNumActive());
+        assertEquals(2, stats.getNumIdle());
+
+        long[] histogram = stats.getBorrowLatencyHistogram();
+        assertEquals(stats.getBorrowLatencyBucketMillis().length + 1, histogram.length);
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+        }
+        assertEquals(stats.getBorrowCount(), total);
+    }
+
+    public void testSetupFailure() throws Exception {
+        Configuration bad = new Configuration(conf);
+        bad.set(WatchListConfig.JDBC_DRIVER.getAttributeString(), "org.example.NoDriver");
+        try {
+            PoolingDataDriver.getConnection(bad);
+            fail("got a connection without a JDBC driver");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertNull(PoolingDataDriver.getStats());
+
+        // the pool is set up by the next call that can
+        Connection connection = PoolingDataDriver.getConnection(conf);
+        assertNotNull(PoolingDataDriver.getStats());
+        connection.close();
     }
 }
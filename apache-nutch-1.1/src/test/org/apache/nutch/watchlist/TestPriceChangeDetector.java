@@ -0,0 +1,141 @@
+package org.apache.nutch.watchlist;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the PriceChangeDetector over two segments and checks the deltas.
+ */
+public class TestPriceChangeDetector extends TestCase {
+    private Configuration conf;
+    private FileSystem fs;
+    private Path testDir;
+
+    protected void setUp() throws Exception {
+        conf = NutchConfiguration.create();
+        fs = FileSystem.get(conf);
+        testDir = new Path("build/test/test-pricechanges-"
+                + new Random().nextInt(Integer.MAX_VALUE));
+        fs.mkdirs(testDir);
+    }
+
+    protected void tearDown() throws Exception {
+        fs.delete(testDir, true);
+    }
+
+    private static ParseData page(String brand, String idKey, String id, String price,
+            String segment) {
+        Metadata meta = new Metadata();
+        if (brand != null) {
+            meta.add("brand", brand);
+            meta.add(idKey, id);
+            meta.add("price", price);
+        }
+        meta.add(Nutch.SEGMENT_NAME_KEY, segment);
+        return new ParseData(ParseStatus.STATUS_SUCCESS, "title", new Outlink[0], meta);
+    }
+
+    private Path segment(String name, String[] urls, ParseData[] pages) throws Exception {
+        Path segment = new Path(testDir, name);
+        Path file = new Path(new Path(segment, ParseData.DIR_NAME), "part-00000");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, file, Text.class,
+                ParseData.class);
+        for (int i = 0; i < urls.length; i++) {
+            writer.append(new Text(urls[i]), pages[i]);
+        }
+        writer.close();
+        return segment;
+    }
+
+    private Map<String, ProductState> read(Path dir) throws Exception {
+        Map<String, ProductState> result = new HashMap<String, ProductState>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            Path file = status.getPath();
+            if (file.getName().startsWith(".") || file.getName().startsWith("_")) {
+                continue;
+            }
+            if (status.isDir()) {
+                // a MapFile
+                file = new Path(file, "data");
+            }
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+            Text key = new Text();
+            ProductState value = new ProductState();
+            while (reader.next(key, value)) {
+                result.put(key.toString(), (ProductState) value.clone());
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    public void testUpdate() throws Exception {
+        Path stateDb = new Path(testDir, "statedb");
+        PriceChangeDetector detector = new PriceChangeDetector(conf);
+
+        Path first = segment("20110301000000",
+                new String[] { "http://www.jcrew.com/a/PRDOVR~100/100.jsp",
+                        "http://us.burberry.com/store/a/x/sku-200-x/",
+                        "http://www.jcrew.com/index.jsp" },
+                new ParseData[] { page("jcrew", "itemNumber", "100", "10.00", "20110301000000"),
+                        page("burberry", "id", "200", "1,095.00", "20110301000000"),
+                        page(null, null, null, null, "20110301000000") });
+        Path delta1 = new Path(testDir, "delta1");
+        detector.update(stateDb, delta1, new Path[] { first }, false);
+
+        Map<String, ProductState> delta = read(delta1);
+        assertEquals(2, delta.size());
+        assertEquals(ProductState.STATUS_NEW, delta.get("jcrew:100").getStatus());
+        assertEquals(1095f, delta.get("burberry:200").getPrice());
+
+        Path second = segment("20110302000000",
+                new String[] { "http://www.jcrew.com/a/PRDOVR~100/100.jsp",
+                        "http://us.burberry.com/store/a/x/sku-200-x/",
+                        "http://www.jcrew.com/b/PRDOVR~101/101.jsp" },
+                new ParseData[] { page("jcrew", "itemNumber", "100", "10.00", "20110302000000"),
+                        page("burberry", "id", "200", "995.00", "20110302000000"),
+                        page("jcrew", "itemNumber", "101", "5.50", "20110302000000") });
+        Path delta2 = new Path(testDir, "delta2");
+        detector.update(stateDb, delta2, new Path[] { second }, false);
+
+        delta = read(delta2);
+        assertEquals(2, delta.size());
+        ProductState changed = delta.get("burberry:200");
+        assertEquals(ProductState.STATUS_CHANGED, changed.getStatus());
+        assertEquals(995f, changed.getPrice());
+        assertEquals(1095f, changed.getPreviousPrice());
+        assertTrue(changed.getLastChanged() > changed.getFirstSeen());
+        assertEquals(ProductState.STATUS_NEW, delta.get("jcrew:101").getStatus());
+
+        Path current = new Path(stateDb, PriceChangeDetector.CURRENT_NAME);
+        Map<String, ProductState> state = read(current);
+        assertEquals(3, state.size());
+        ProductState unchanged = state.get("jcrew:100");
+        assertEquals(ProductState.STATUS_UNCHANGED, unchanged.getStatus());
+        assertEquals(unchanged.getFirstSeen(), unchanged.getLastChanged());
+        assertTrue(unchanged.getLastSeen() > unchanged.getFirstSeen());
+
+        // an older segment does not undo a newer price
+        Path delta3 = new Path(testDir, "delta3");
+        detector.update(stateDb, delta3, new Path[] { first }, false);
+        assertEquals(0, read(delta3).size());
+        state = read(current);
+        assertEquals(995f, state.get("burberry:200").getPrice());
+    }
+}
@@ -0,0 +1,107 @@
+package org.apache.nutch.watchlist;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.FetchSchedule;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Fetches simulated product pages through PriceFetchSchedule and checks
+ * that volatile prices are fetched more often than stable ones.
+ */
+public class TestPriceFetchSchedule extends TestCase {
+    private static final long HOUR = 3600L * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private Configuration conf;
+    private PriceFetchSchedule schedule;
+
+    protected void setUp() {
+        conf = NutchConfiguration.create();
+        schedule = new PriceFetchSchedule();
+        schedule.setConf(conf);
+    }
+
+    /**
+     * Fetches a page whenever it is due over some days, its price changing
+     * every changeDays.
+     * @return the number of fetches
+     */
+    private int crawl(CrawlDatum datum, int days, int changeDays) {
+        Text url = new Text("http://www.jcrew.com/a/PRDOVR~100/100.jsp");
+        int fetches = 0;
+        for (long now = 0; now < days * DAY; now += HOUR) {
+            if (datum.getFetchTime() > now) {
+                continue;
+            }
+            float price = 50f + (changeDays > 0 ? (now / (changeDays * DAY)) % 2 : 0);
+            datum.getMetaData().put(new Text("price"), new Text(String.valueOf(price)));
+            schedule.setFetchSchedule(url, datum, 0, 0, now, now,
+                    FetchSchedule.STATUS_MODIFIED);
+            fetches++;
+        }
+        return fetches;
+    }
+
+    private CrawlDatum datum() {
+        CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
+                FetchSchedule.SECONDS_PER_DAY, 1.0f);
+        datum.setFetchTime(0);
+        return datum;
+    }
+
+    public void testVolatility() throws Exception {
+        CrawlDatum onSale = datum();
+        crawl(onSale, 60, 2);
+        PriceChangeHistory history =
+            (PriceChangeHistory) onSale.getMetaData().get(PriceFetchSchedule.HISTORY_KEY);
+        assertEquals(8, history.getChanges());
+        // about twice per change
+        assertTrue(onSale.getFetchInterval() > 0.5 * FetchSchedule.SECONDS_PER_DAY);
+        assertTrue(onSale.getFetchInterval() < 1.5 * FetchSchedule.SECONDS_PER_DAY);
+
+        CrawlDatum stable = datum();
+        int fetches = crawl(stable, 120, 0);
+        assertEquals(30 * FetchSchedule.SECONDS_PER_DAY, stable.getFetchInterval(), 1f);
+        assertTrue(fetches < 20);
+
+        // a page without a price is left to the adaptive schedule
+        CrawlDatum category = datum();
+        schedule.setFetchSchedule(new Text("http://www.jcrew.com/index.jsp"), category,
+                0, 0, 0, 0, FetchSchedule.STATUS_MODIFIED);
+        assertNull(category.getMetaData().get(PriceFetchSchedule.HISTORY_KEY));
+
+        // the history survives the crawldb
+        DataOutputBuffer out = new DataOutputBuffer();
+        onSale.write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        CrawlDatum read = new CrawlDatum();
+        read.readFields(in);
+        PriceChangeHistory readHistory =
+            (PriceChangeHistory) read.getMetaData().get(PriceFetchSchedule.HISTORY_KEY);
+        assertEquals(history.getPrice(), readHistory.getPrice());
+        assertEquals(history.getChange(7), readHistory.getChange(7));
+    }
+
+    public void testHistory() {
+        PriceChangeHistory history = new PriceChangeHistory();
+        assertFalse(history.observe(10f, 0, 3));
+        assertFalse(history.observe(10.001f, DAY, 3));
+        assertEquals(0f, history.getMeanChangeInterval(DAY, 3));
+        assertTrue(history.observe(9f, 2 * DAY, 3));
+        assertEquals(4 * 86400f, history.getMeanChangeInterval(4 * DAY, 3));
+        assertTrue(history.observe(10f, 3 * DAY, 3));
+        assertTrue(history.observe(9f, 4 * DAY, 3));
+        assertTrue(history.observe(10f, 8 * DAY, 3));
+        assertEquals(3, history.getChanges());
+        assertEquals(3 * 86400, history.getChange(0));
+        // from the oldest change remembered
+        assertEquals(3 * 86400f, history.getMeanChangeInterval(9 * DAY, 3));
+    }
+}
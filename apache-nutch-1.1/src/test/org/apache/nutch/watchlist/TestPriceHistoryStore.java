@@ -0,0 +1,141 @@
+package org.apache.nutch.watchlist;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes, reopens, scans and compacts a price history file.
+ */
+public class TestPriceHistoryStore extends TestCase {
+    private static final long DAY = 24L * 3600 * 1000;
+    private static final long START = 1300000000000L;
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("pricehistory", ".dat");
+        file.delete();
+    }
+
+    protected void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".compact").delete();
+    }
+
+    /** Product p is crawled daily, with a few minutes of jitter, for days. */
+    private static long time(int day, long p) {
+        return START + day * DAY + ((day * 7919 + p * 104729) % 600) * 1000;
+    }
+
+    /** The price changes every 30 days. */
+    private static float price(int day, long p) {
+        return 10 + p + (day / 30) * 0.5f;
+    }
+
+    private void fill(PriceHistoryStore store, int fromDay, int toDay, int products)
+            throws Exception {
+        for (int day = fromDay; day < toDay; day++) {
+            for (long p = 0; p < products; p++) {
+                store.append(p, time(day, p), price(day, p));
+            }
+            // one crawl a day
+            store.flush();
+        }
+    }
+
+    public void testScanAndLatest() throws Exception {
+        PriceHistoryStore store = new PriceHistoryStore(file, 16, 1000);
+        fill(store, 0, 100, 20);
+        // still buffered
+        store.append(3, time(100, 3), 99.99f);
+
+        List<PriceHistoryStore.Point> points = store.scan(3, time(10, 3), time(20, 3));
+        assertEquals(10, points.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(time(10 + i, 3), points.get(i).getTime());
+            assertEquals(price(10 + i, 3), points.get(i).getPrice(), 0.001f);
+        }
+        assertEquals(101, store.scan(3, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertTrue(store.scan(42, Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+
+        List<PriceHistoryStore.Point> changes = store.latestChanges(3, 3);
+        assertEquals(3, changes.size());
+        assertEquals(new PriceHistoryStore.Point(time(100, 3), 99.99f), changes.get(0));
+        assertEquals(new PriceHistoryStore.Point(time(90, 3), price(90, 3)), changes.get(1));
+        assertEquals(new PriceHistoryStore.Point(time(60, 3), price(60, 3)), changes.get(2));
+        // days 0, 30, 60, 90 and 100
+        assertEquals(5, store.latestChanges(3, 10).size());
+        assertEquals(time(0, 3), store.latestChanges(3, 10).get(4).getTime());
+        store.close();
+
+        // everything survives reopening
+        store = new PriceHistoryStore(file, 16, 1000);
+        assertEquals(20, store.getProductCount());
+        assertEquals(20 * 100 + 1, store.getPointCount());
+        assertEquals(points, store.scan(3, time(10, 3), time(20, 3)));
+        assertEquals(changes, store.latestChanges(3, 3));
+        store.close();
+    }
+
+    public void testCompact() throws Exception {
+        PriceHistoryStore store = new PriceHistoryStore(file, 1024, 100000);
+        fill(store, 0, 365, 50);
+        List<PriceHistoryStore.Point> before = store.scan(7, Long.MIN_VALUE, Long.MAX_VALUE);
+        long size = store.getFileSize();
+        store.compact();
+        assertTrue(store.getFileSize() < size / 3);
+        // with daily crawls and few price changes an observation costs a few bytes
+        assertTrue(store.getFileSize() < 365 * 50 * 4);
+        assertEquals(before, store.scan(7, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertFalse(new File(file.getPath() + ".compact").exists());
+        // the compacted file is locked too
+        try {
+            new PriceHistoryStore(file, 16, 1000);
+            fail("opened a locked store");
+        } catch (Exception e) {
+            // expected
+        }
+        fill(store, 365, 370, 50);
+        store.close();
+
+        store = new PriceHistoryStore(file, 1024, 100000);
+        assertEquals(370, store.scan(7, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(time(360, 7), store.latestChanges(7, 1).get(0).getTime());
+        store.close();
+    }
+
+    public void testTruncatedFile() throws Exception {
+        PriceHistoryStore store = new PriceHistoryStore(file, 16, 1000);
+        fill(store, 0, 10, 5);
+        store.close();
+
+        // a crash while writing leaves half a chunk
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        store = new PriceHistoryStore(file, 16, 1000);
+        assertEquals(49, store.getPointCount());
+        assertEquals(9, store.scan(4, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        store.append(4, time(9, 4), price(9, 4));
+        store.close();
+
+        store = new PriceHistoryStore(file, 16, 1000);
+        assertEquals(10, store.scan(4, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        store.close();
+    }
+
+    public void testLocked() throws Exception {
+        PriceHistoryStore store = new PriceHistoryStore(file, 16, 1000);
+        try {
+            new PriceHistoryStore(file, 16, 1000);
+            fail("opened a locked store");
+        } catch (Exception e) {
+            // expected
+        }
+        store.close();
+    }
+}
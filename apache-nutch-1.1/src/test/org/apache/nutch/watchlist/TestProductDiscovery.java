@@ -0,0 +1,162 @@
+package org.apache.nutch.watchlist;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs ProductDiscovery over two segments and checks the listing pages it
+ * learns, the pages it lists for the next round and the product URLs it
+ * finds.
+ */
+public class TestProductDiscovery extends TestCase {
+    private static final String CATEGORY = "http://www.jcrew.com/mens_category/shirts.jsp";
+    private static final String HOME = "http://www.jcrew.com/index.jsp";
+    private static final String NEXT = CATEGORY + "?page=2";
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path testDir;
+
+    protected void setUp() throws Exception {
+        conf = NutchConfiguration.create();
+        fs = FileSystem.get(conf);
+        testDir = new Path("build/test/test-discovery-"
+                + new Random().nextInt(Integer.MAX_VALUE));
+        fs.mkdirs(testDir);
+    }
+
+    protected void tearDown() throws Exception {
+        fs.delete(testDir, true);
+    }
+
+    private static ParseData page(String segment, String... links) throws Exception {
+        Metadata meta = new Metadata();
+        meta.add(Nutch.SEGMENT_NAME_KEY, segment);
+        Outlink[] outlinks = new Outlink[links.length];
+        for (int i = 0; i < links.length; i++) {
+            outlinks[i] = new Outlink(links[i], "");
+        }
+        return new ParseData(ParseStatus.STATUS_SUCCESS, "title", outlinks, meta);
+    }
+
+    private Path segment(String name, String[] urls, ParseData[] pages) throws Exception {
+        Path segment = new Path(testDir, name);
+        Path file = new Path(new Path(segment, ParseData.DIR_NAME), "part-00000");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, file, Text.class,
+                ParseData.class);
+        for (int i = 0; i < urls.length; i++) {
+            writer.append(new Text(urls[i]), pages[i]);
+        }
+        writer.close();
+        return segment;
+    }
+
+    private List<String> lines(Path dir) throws Exception {
+        List<String> result = new ArrayList<String>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(fs.open(status.getPath()), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    private Map<String, ListingState> read(Path dir) throws Exception {
+        Map<String, ListingState> result = new HashMap<String, ListingState>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            Path file = status.getPath();
+            if (file.getName().startsWith(".") || file.getName().startsWith("_")) {
+                continue;
+            }
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(file, "data"),
+                    conf);
+            Text key = new Text();
+            ListingState value = new ListingState();
+            while (reader.next(key, value)) {
+                ListingState copy = new ListingState();
+                copy.set(value);
+                result.put(key.toString(), copy);
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    public void testUpdate() throws Exception {
+        Path discoveryDb = new Path(testDir, "discoverydb");
+        ProductDiscovery discovery = new ProductDiscovery(conf);
+
+        Path first = segment("20110301000000",
+                new String[] { CATEGORY, HOME,
+                        "http://www.jcrew.com/a/PRDOVR~100/100.jsp" },
+                new ParseData[] {
+                        page("20110301000000",
+                                "http://www.jcrew.com/a/PRDOVR~100/100.jsp",
+                                "http://www.jcrew.com/mens_category/PRDOVR~100/100.jsp",
+                                "http://www.jcrew.com/a/PRDOVR~101/101.jsp",
+                                "http://www.jcrew.com/a/PRDOVR~102/102.jsp", HOME, NEXT,
+                                CATEGORY, "http://www.facebook.com/jcrew"),
+                        page("20110301000000", CATEGORY),
+                        page("20110301000000",
+                                "http://www.jcrew.com/a/PRDOVR~103/103.jsp") });
+        Path out1 = new Path(testDir, "out1");
+        discovery.update(discoveryDb, out1, new Path[] { first }, false);
+
+        List<String> products = lines(new Path(out1, ProductDiscovery.PRODUCTS_NAME));
+        assertEquals(3, products.size());
+        // the shortest URL of a product
+        assertTrue(products.contains("http://www.jcrew.com/a/PRDOVR~100/100.jsp"
+                + "\tnutch.score=10.0"));
+        List<String> listings = lines(new Path(out1, ProductDiscovery.LISTINGS_NAME));
+        // the home page is fetched already, the other site is not the store
+        assertEquals(1, listings.size());
+        assertEquals(NEXT, listings.get(0));
+
+        Path current = new Path(discoveryDb, ProductDiscovery.CURRENT_NAME);
+        Map<String, ListingState> db = read(current);
+        // the product page is not a listing, the home page has no products
+        assertEquals(2, db.size());
+        assertEquals(0f, db.get(HOME).getYield());
+        ListingState category = db.get(CATEGORY);
+        assertEquals("jcrew", category.getBrand());
+        assertEquals(3, category.getProducts());
+        assertEquals(3f, category.getYield());
+
+        // the category page lost its products
+        Path second = segment("20110302000000", new String[] { CATEGORY },
+                new ParseData[] { page("20110302000000", HOME, NEXT) });
+        Path out2 = new Path(testDir, "out2");
+        discovery.update(discoveryDb, out2, new Path[] { second }, false);
+        assertEquals(0, lines(new Path(out2, ProductDiscovery.PRODUCTS_NAME)).size());
+        db = read(current);
+        assertEquals(1.5f, db.get(CATEGORY).getYield());
+        assertEquals(2, db.get(CATEGORY).getFetches());
+        // no product links at the latest fetch
+        assertEquals(0, lines(new Path(out2, ProductDiscovery.LISTINGS_NAME)).size());
+        assertFalse(db.containsKey(NEXT));
+    }
+}
@@ -0,0 +1,234 @@
+package org.apache.nutch.watchlist;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes product observations through WatchListSink into an in-memory
+ * HSQLDB database with the watchlist schema.
+ */
+public class TestWatchListSink extends TestCase {
+    private static final String URL = "jdbc:hsqldb:mem:testsink";
+
+    private Configuration conf;
+    private Connection connection;
+
+    protected void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection(URL, "sa", "");
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("create table source(id BIGINT PRIMARY KEY, name VARCHAR(45),"
+                + " baseurl VARCHAR(100), description LONGVARCHAR, updatetime TIMESTAMP,"
+                + " CONSTRAINT source_name UNIQUE (name))");
+        statement.executeUpdate("create table product(id BIGINT PRIMARY KEY,"
+                + " source_id BIGINT NOT NULL, external_id BIGINT NOT NULL,"
+                + " primary_catogory BIGINT, secondary_catogory BIGINT,"
+                + " product_title VARCHAR(150), imgURL VARCHAR(250), latest_price FLOAT,"
+                + " description LONGVARCHAR, update_date TIMESTAMP, meta_info LONGVARCHAR,"
+                + " color VARCHAR(50), size VARCHAR(50),"
+                + " CONSTRAINT product_source_external UNIQUE (source_id, external_id))");
+        statement.executeUpdate("create table record(id BIGINT PRIMARY KEY,"
+                + " source_id BIGINT NOT NULL, product_id BIGINT NOT NULL,"
+                + " product_title VARCHAR(150), price FLOAT, update_date TIMESTAMP)");
+        statement.executeUpdate("create table object(id BIGINT GENERATED BY DEFAULT AS IDENTITY"
+                + " (START WITH 1) PRIMARY KEY, orig_table VARCHAR(50))");
+        statement.executeUpdate("create table id_sequence(name VARCHAR(50) PRIMARY KEY,"
+                + " next_id BIGINT NOT NULL)");
+        statement.close();
+
+        conf = NutchConfiguration.create();
+        conf.set(WatchListConfig.JDBC_DRIVER.getAttributeString(), "org.hsqldb.jdbcDriver");
+        conf.set(WatchListConfig.JDBC_URL.getAttributeString(), URL);
+        conf.set(WatchListConfig.JDBC_USER.getAttributeString(), "sa");
+        conf.set(WatchListConfig.JDBC_PASSWORD.getAttributeString(), "");
+        conf.setBoolean(WatchListConfig.SINK_ENABLED.getAttributeString(), true);
+        conf.setInt(WatchListConfig.SINK_WRITERS.getAttributeString(), 2);
+        conf.setInt(WatchListConfig.SINK_QUEUE_SIZE.getAttributeString(), 100);
+        conf.setInt(WatchListConfig.SINK_BATCH_SIZE.getAttributeString(), 30);
+    }
+
+    protected void tearDown() throws Exception {
+        // pooled connections do not survive the SHUTDOWN
+        if (PoolingDataDriver.getStats() != null) {
+            PoolingDataDriver.shutdownDriver();
+        }
+        Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        statement.close();
+        connection.close();
+    }
+
+    private long count(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql);
+        rs.next();
+        long result = rs.getLong(1);
+        rs.close();
+        statement.close();
+        return result;
+    }
+
+    public void testWrite() throws Exception {
+        WatchListSink sink = WatchListSink.get(conf);
+        assertSame(sink, WatchListSink.get(conf));
+        for (int i = 0; i < 1000; i++) {
+            String brand = (i % 2 == 0) ? "jcrew" : "burberry";
+            sink.add(new ProductObservation(brand, i % 10, "product " + (i % 10),
+                    100 + i, "http://images/" + i, System.currentTimeMillis()));
+        }
+        WatchListSink.close(conf);
+
+        assertEquals(1000, sink.getWritten());
+        assertEquals(0, sink.getFailed());
+        assertEquals(2, count("select count(*) from source"));
+        assertEquals(10, count("select count(*) from product"));
+        assertEquals(1000, count("select count(*) from record"));
+        // the product row holds the latest price
+        assertEquals(1099, count("select latest_price from product p, source s"
+                + " where p.source_id = s.id and s.name = 'burberry' and p.external_id = 9"));
+        assertEquals(100, count("select count(*) from record r, product p"
+                + " where r.product_id = p.id and p.external_id = 3"));
+
+        // a closed sink is not reused
+        WatchListSink next = WatchListSink.get(conf);
+        assertNotSame(sink, next);
+        next.close();
+    }
+
+    public void testHistory() throws Exception {
+        File file = File.createTempFile("testsink", ".history");
+        file.delete();
+        conf.set(WatchListConfig.HISTORY_FILE.getAttributeString(), file.getPath());
+        try {
+            WatchListSink sink = WatchListSink.get(conf);
+            assertNotNull(sink.getHistory());
+            for (int i = 0; i < 100; i++) {
+                sink.add(new ProductObservation("jcrew", i % 10, "product " + (i % 10),
+                        100 + (i / 50), "http://images/" + i, 1000L * i));
+            }
+            WatchListSink.close(conf);
+
+            assertEquals(100, sink.getWritten());
+            assertEquals(10, count("select count(*) from product"));
+            // prices went to the history instead of the record table
+            assertEquals(0, count("select count(*) from record"));
+            long productId = count("select id from product where external_id = 3");
+            PriceHistoryStore history = new PriceHistoryStore(file, 16, 1000);
+            assertEquals(100, history.getPointCount());
+            assertEquals(10, history.scan(productId, 0, Long.MAX_VALUE).size());
+            assertEquals(2, history.latestChanges(productId, 5).size());
+            history.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testConcurrentSinks() throws Exception {
+        // two tasks with their own caches add the same new products
+        final WatchListSink[] sinks = { new WatchListSink(conf), new WatchListSink(conf) };
+        Thread[] threads = new Thread[sinks.length];
+        for (int t = 0; t < threads.length; t++) {
+            final WatchListSink sink = sinks[t];
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 300; i++) {
+                            sink.add(new ProductObservation("jcrew", i / 3, "product",
+                                    10 + i, "http://images/" + i, 1000L * i));
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    sink.close();
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        for (int t = 0; t < sinks.length; t++) {
+            assertEquals(0, sinks[t].getFailed());
+            assertEquals(300, sinks[t].getWritten());
+        }
+        assertEquals(100, count("select count(*) from product"));
+        assertEquals(600, count("select count(*) from record"));
+    }
+
+    public void testRetry() throws Exception {
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("drop table record");
+        final WatchListSink sink = new WatchListSink(conf);
+        for (int i = 0; i < 10; i++) {
+            sink.add(new ProductObservation("jcrew", i, "product " + i,
+                    10 + i, "http://images/" + i, 1000L * i));
+        }
+        // the first attempt fails, the retry a second later finds the table
+        Thread closer = new Thread() {
+            public void run() {
+                sink.close();
+            }
+        };
+        closer.start();
+        Thread.sleep(300);
+        statement.executeUpdate("create table record(id BIGINT PRIMARY KEY,"
+                + " source_id BIGINT NOT NULL, product_id BIGINT NOT NULL,"
+                + " product_title VARCHAR(150), price FLOAT, update_date TIMESTAMP)");
+        statement.close();
+        closer.join();
+        assertEquals(0, sink.getFailed());
+        assertEquals(10, sink.getWritten());
+        assertEquals(10, count("select count(*) from record"));
+    }
+
+    public void testAddWhileClosing() throws Exception {
+        conf.setInt(WatchListConfig.SINK_QUEUE_SIZE.getAttributeString(), 4);
+        final WatchListSink sink = new WatchListSink(conf);
+        final int[] added = new int[4];
+        Thread[] threads = new Thread[added.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int n = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; ; i++) {
+                            sink.add(new ProductObservation("jcrew", n * 100000 + i,
+                                    "product", 10, "http://images/", 1000L * i));
+                            added[n]++;
+                        }
+                    } catch (IllegalStateException e) {
+                        // closed
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        Thread.sleep(200);
+        sink.close();
+        int total = 0;
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            total += added[t];
+        }
+        assertTrue(total > 0);
+        // every observation added before close returned was written
+        assertEquals(total, sink.getWritten() + sink.getFailed());
+        assertEquals(0, sink.getFailed());
+    }
+
+    public void testDisabled() {
+        conf.setBoolean(WatchListConfig.SINK_ENABLED.getAttributeString(), false);
+        assertNull(WatchListSink.get(conf));
+    }
+}
@@ -0,0 +1,96 @@
+package org.apache.nutch.watchlist;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Opens the embedded store in a fresh directory, writes through it and
+ * checks that the data survives a shutdown.
+ */
+public class TestWatchListStore extends TestCase {
+    private Configuration conf;
+    private File testDir;
+
+    protected void setUp() throws Exception {
+        testDir = new File("build/test/test-watchliststore-"
+                + new Random().nextInt(Integer.MAX_VALUE));
+        conf = NutchConfiguration.create();
+        conf.set(WatchListConfig.STORE.getAttributeString(), WatchListStore.EMBEDDED);
+        conf.set(WatchListConfig.STORE_EMBEDDED_PATH.getAttributeString(),
+                new File(testDir, "watchlist").getPath());
+        conf.setBoolean(WatchListConfig.SINK_ENABLED.getAttributeString(), true);
+        conf.setInt(WatchListConfig.SINK_WRITERS.getAttributeString(), 2);
+        conf.setInt(WatchListConfig.SINK_BATCH_SIZE.getAttributeString(), 30);
+        conf.setInt(WatchListConfig.ID_GEN_BLOCK_SIZE.getAttributeString(), 100);
+    }
+
+    protected void tearDown() throws Exception {
+        if (PoolingDataDriver.getStats() != null) {
+            PoolingDataDriver.shutdownDriver();
+        }
+        WatchListStore.shutdown(conf);
+        FileUtil.fullyDelete(testDir);
+    }
+
+    private long count(String sql) throws SQLException {
+        Connection connection = WatchListStore.connect(conf);
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery(sql);
+            rs.next();
+            long result = rs.getLong(1);
+            rs.close();
+            statement.close();
+            return result;
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testConfig() {
+        assertFalse(WatchListStore.isEmbedded(NutchConfiguration.create()));
+        assertTrue(WatchListStore.isEmbedded(conf));
+        assertEquals(WatchListStore.EMBEDDED_DRIVER, WatchListStore.getDriver(conf));
+        assertTrue(WatchListStore.getUrl(conf).startsWith("jdbc:hsqldb:file:"));
+    }
+
+    public void testEmbedded() throws Exception {
+        // the tables are created on the first connection
+        assertEquals(0, count("select count(*) from product"));
+        assertEquals(0, count("select count(*) from id_sequence"));
+
+        MysqlIdGenerator identity = new MysqlIdGenerator(conf);
+        assertEquals(1, identity.generate());
+        assertEquals(2, identity.generate("product"));
+
+        WatchListSink sink = WatchListSink.get(conf);
+        for (int i = 0; i < 200; i++) {
+            sink.add(new ProductObservation("jcrew", i % 50, "product " + (i % 50),
+                    10 + i, "http://images/" + i, 1000L * i));
+        }
+        WatchListSink.close(conf);
+        assertEquals(200, sink.getWritten());
+        assertEquals(50, count("select count(*) from product"));
+        assertEquals(200, count("select count(*) from record"));
+        // after the IDs handed out by the identity generator
+        assertTrue(count("select min(id) from source") > 2);
+
+        // everything is in the files after a shutdown
+        PoolingDataDriver.shutdownDriver();
+        WatchListStore.shutdown(conf);
+        assertTrue(new File(testDir, "watchlist.script").exists());
+        assertEquals(50, count("select count(*) from product"));
+        assertEquals(200, count("select count(*) from record"));
+        assertEquals(1, count("select count(*) from source"));
+    }
+}
@@ -0,0 +1,135 @@
+package org.apache.nutch.watchlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Matches price changes against watches on products and brands.
+ */
+public class TestWatchRuleIndex extends TestCase {
+
+    private static class Matches implements WatchRuleIndex.Collector {
+        List<Long> ids = new ArrayList<Long>();
+
+        public void collect(long ruleId, byte type) {
+            ids.add(ruleId);
+        }
+
+        List<Long> sorted() {
+            List<Long> result = new ArrayList<Long>(ids);
+            Collections.sort(result);
+            ids.clear();
+            return result;
+        }
+    }
+
+    private static List<Long> list(long... ids) {
+        List<Long> result = new ArrayList<Long>();
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    public void testMatch() {
+        WatchRuleIndex index = new WatchRuleIndex();
+        index.addProductRule("jcrew", 100, 1, WatchRuleIndex.BELOW, 50);
+        index.addProductRule("jcrew", 100, 2, WatchRuleIndex.BELOW, 80);
+        index.addProductRule("jcrew", 100, 3, WatchRuleIndex.DROP, 20);
+        index.addProductRule("jcrew", 100, 4, WatchRuleIndex.DROP, 50);
+        index.addProductRule("jcrew", 100, 5, WatchRuleIndex.CHANGE, 0);
+        index.addProductRule("jcrew", 101, 6, WatchRuleIndex.CHANGE, 0);
+        index.addBrandRule("jcrew", 7, WatchRuleIndex.DROP, 10);
+        index.addBrandRule("burberry", 8, WatchRuleIndex.CHANGE, 0);
+        assertEquals(8, index.size());
+
+        Matches matches = new Matches();
+        // 100 to 80 is exactly 20%, and 80 is not below 80
+        assertEquals(3, index.match("jcrew", 100, 100f, 80f, matches));
+        assertEquals(list(3, 5, 7), matches.sorted());
+        // crossing 80 but not 50
+        index.match("jcrew", 100, 80f, 79.99f, matches);
+        assertEquals(list(2, 5), matches.sorted());
+        // already below both: no BELOW, a 50% drop
+        index.match("jcrew", 100, 79.99f, 39.99f, matches);
+        assertEquals(list(1, 3, 4, 5, 7), matches.sorted());
+        // a rise only triggers CHANGE
+        index.match("jcrew", 100, 39.99f, 45f, matches);
+        assertEquals(list(5), matches.sorted());
+        // same price in cents is no change
+        assertEquals(0, index.match("jcrew", 100, 45f, 45.001f, matches));
+        // a new product only triggers BELOW
+        index.match("jcrew", 100, Float.NaN, 60f, matches);
+        assertEquals(list(2), matches.sorted());
+        // other products and brands
+        assertEquals(0, index.match("anntaylor", 100, 10f, 5f, matches));
+        index.match("burberry", 1, 10f, 11f, matches);
+        assertEquals(list(8), matches.sorted());
+
+        // entries of the PriceChangeDetector delta
+        ProductState state = new ProductState("http://www.jcrew.com/", 80f, 0);
+        state.setPreviousPrice(100f);
+        index.match("jcrew:100", state, matches);
+        assertEquals(list(3, 5, 7), matches.sorted());
+        assertEquals(0, index.match("jcrew:abc", state, matches));
+    }
+
+    /** Compares against a scan over all watches. */
+    public void testRandom() {
+        Random random = new Random(1);
+        WatchRuleIndex index = new WatchRuleIndex();
+        int n = 5000;
+        long[] items = new long[n];
+        byte[] types = new byte[n];
+        float[] thresholds = new float[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = random.nextInt(50);
+            types[i] = (byte) (1 + random.nextInt(3));
+            thresholds[i] = (types[i] == WatchRuleIndex.DROP)
+                ? random.nextInt(60) : random.nextInt(200);
+            index.addProductRule("b", items[i], i, types[i], thresholds[i]);
+        }
+        Matches matches = new Matches();
+        for (int k = 0; k < 1000; k++) {
+            long item = random.nextInt(50);
+            float before = 10 + random.nextInt(190);
+            float after = 10 + random.nextInt(190);
+            List<Long> expected = new ArrayList<Long>();
+            for (int i = 0; i < n; i++) {
+                if (items[i] != item || before == after) {
+                    continue;
+                }
+                boolean hit = false;
+                if (types[i] == WatchRuleIndex.BELOW) {
+                    hit = before >= thresholds[i] && after < thresholds[i];
+                } else if (types[i] == WatchRuleIndex.DROP) {
+                    hit = after < before && (before - after) * 100 / before >= thresholds[i];
+                } else {
+                    hit = true;
+                }
+                if (hit) {
+                    expected.add((long) i);
+                }
+            }
+            index.match("b", item, before, after, matches);
+            assertEquals(expected, matches.sorted());
+        }
+    }
+
+    public void testLongMap() {
+        WatchRuleIndex.LongMap<String> map = new WatchRuleIndex.LongMap<String>();
+        for (long i = -1000; i < 1000; i++) {
+            map.put(i * 7919, Long.toString(i));
+        }
+        map.put(0, "zero");
+        assertEquals(2000, map.size());
+        assertEquals("zero", map.get(0));
+        assertEquals("-1000", map.get(-1000 * 7919));
+        assertEquals("999", map.get(999 * 7919));
+        assertNull(map.get(1));
+    }
+}
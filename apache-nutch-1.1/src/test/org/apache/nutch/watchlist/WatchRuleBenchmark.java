@@ -0,0 +1,113 @@
+package org.apache.nutch.watchlist;
+
+import java.util.Random;
+
+/**
+ * Measures WatchRuleIndex at catalog scale: builds an index of product and
+ * brand watches, then matches a crawl's worth of price changes against it,
+ * several times so the later rounds run on a warm JIT. A scan over all
+ * watches is timed on a few changes for comparison.
+ *
+ * Usage: WatchRuleBenchmark [rules] [deltas] [products] [rounds]
+ * (defaults 10000000 1000000 2000000 5; run with -Xmx2g or more)
+ */
+public class WatchRuleBenchmark {
+
+    private static final String[] BRANDS = { "jcrew", "burberry", "anntaylor", "gap", "zara" };
+
+    private static class Counter implements WatchRuleIndex.Collector {
+        long matches;
+        long checksum;
+
+        public void collect(long ruleId, byte type) {
+            matches++;
+            checksum += ruleId;
+        }
+    }
+
+    public static void main(String[] args) {
+        int rules = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int deltas = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int products = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        Random random = new Random(42);
+
+        // kept for the scan
+        int[] ruleBrand = new int[rules];
+        long[] ruleItem = new long[rules];
+        byte[] ruleType = new byte[rules];
+        float[] ruleThreshold = new float[rules];
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long memory = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        WatchRuleIndex index = new WatchRuleIndex();
+        for (int i = 0; i < rules; i++) {
+            int brand = random.nextInt(BRANDS.length);
+            byte type = (byte) (1 + random.nextInt(3));
+            float threshold = (type == WatchRuleIndex.DROP)
+                ? 5 + random.nextInt(50) : 10 + random.nextInt(490);
+            ruleBrand[i] = brand;
+            ruleType[i] = type;
+            ruleThreshold[i] = threshold;
+            if (i % 10000 == 0) {
+                // a few watches on whole brands
+                ruleItem[i] = -1;
+                index.addBrandRule(BRANDS[brand], i, type, threshold);
+            } else {
+                ruleItem[i] = random.nextInt(products);
+                index.addProductRule(BRANDS[brand], ruleItem[i], i, type, threshold);
+            }
+        }
+        // the first match sorts the thresholds
+        index.match(BRANDS[0], 0, 1f, 2f, new Counter());
+        long buildNanos = System.nanoTime() - start;
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory() - memory;
+        System.out.println(rules + " rules: built in " + (buildNanos / 1000000) + " ms, ~"
+                + (used / (1024 * 1024)) + " MB");
+
+        // mostly small moves, some sales
+        int[] deltaBrand = new int[deltas];
+        long[] deltaItem = new long[deltas];
+        float[] before = new float[deltas];
+        float[] after = new float[deltas];
+        for (int i = 0; i < deltas; i++) {
+            deltaBrand[i] = random.nextInt(BRANDS.length);
+            deltaItem[i] = random.nextInt(products);
+            before[i] = 10 + random.nextInt(490);
+            float factor = (random.nextInt(10) == 0)
+                ? 0.5f + random.nextFloat() * 0.3f : 0.9f + random.nextFloat() * 0.2f;
+            after[i] = Math.round(before[i] * factor * 100) / 100f;
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            Counter counter = new Counter();
+            start = System.nanoTime();
+            for (int i = 0; i < deltas; i++) {
+                index.match(BRANDS[deltaBrand[i]], deltaItem[i], before[i], after[i], counter);
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.println("round " + round + ": " + deltas + " deltas in "
+                    + (nanos / 1000000) + " ms, " + (nanos / deltas) + " ns/delta, "
+                    + counter.matches + " matches");
+        }
+
+        // the same deltas by scanning every rule
+        int sample = Math.min(20, deltas);
+        start = System.nanoTime();
+        long scanned = 0;
+        for (int d = 0; d < sample; d++) {
+            for (int i = 0; i < rules; i++) {
+                if (ruleBrand[i] == deltaBrand[d]
+                        && (ruleItem[i] == -1 || ruleItem[i] == deltaItem[d])
+                        && ruleThreshold[i] > after[d] && ruleType[i] > 0) {
+                    scanned++;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("scan: " + (nanos / sample / 1000) + " us/delta (" + scanned + ")");
+    }
+}